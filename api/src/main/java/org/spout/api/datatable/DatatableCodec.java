@@ -0,0 +1,428 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.datatable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import org.spout.api.util.StringToUniqueIntegerMap;
+import org.spout.math.imaginary.Quaternionf;
+import org.spout.math.vector.Vector2f;
+import org.spout.math.vector.Vector3f;
+import org.spout.math.vector.Vector3i;
+
+/**
+ * The binary format used to serialize datatables.<br> <br> Values of common immutable types are written with a one byte tag followed by their contents.  Values of types with a
+ * registered {@link DatatableSerializer} are written with the id of the type, and the names of the types used are written once at the start of the data so the ids do not need to
+ * be stable across restarts.  Any other value is written with Java serialization.<br> <br> Data written by Java serialization of the whole map, the format used before this one, is
+ * still read by {@link SerializableHashMap}.
+ */
+public final class DatatableCodec {
+	private static final byte MAGIC = (byte) 0xD7;
+	private static final byte VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte TAG_STRING = 0;
+	private static final byte TAG_BOOLEAN = 1;
+	private static final byte TAG_BYTE = 2;
+	private static final byte TAG_SHORT = 3;
+	private static final byte TAG_CHAR = 4;
+	private static final byte TAG_INT = 5;
+	private static final byte TAG_LONG = 6;
+	private static final byte TAG_FLOAT = 7;
+	private static final byte TAG_DOUBLE = 8;
+	private static final byte TAG_BYTE_ARRAY = 9;
+	private static final byte TAG_UUID = 10;
+	private static final byte TAG_VECTOR2F = 11;
+	private static final byte TAG_VECTOR3F = 12;
+	private static final byte TAG_VECTOR3I = 13;
+	private static final byte TAG_QUATERNIONF = 14;
+	private static final byte TAG_MAP = 15;
+	private static final byte TAG_REGISTERED = 16;
+	private static final byte TAG_SERIALIZED = 17;
+	private static final Map<Class<?>, Byte> tags = new HashMap<>();
+	private static final StringToUniqueIntegerMap typeIds = new StringToUniqueIntegerMap("DatatableTypes");
+	private static final ConcurrentHashMap<Class<?>, DatatableSerializer<?>> serializersByType = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, DatatableSerializer<?>> serializersByName = new ConcurrentHashMap<>();
+
+	static {
+		tags.put(String.class, TAG_STRING);
+		tags.put(Boolean.class, TAG_BOOLEAN);
+		tags.put(Byte.class, TAG_BYTE);
+		tags.put(Short.class, TAG_SHORT);
+		tags.put(Character.class, TAG_CHAR);
+		tags.put(Integer.class, TAG_INT);
+		tags.put(Long.class, TAG_LONG);
+		tags.put(Float.class, TAG_FLOAT);
+		tags.put(Double.class, TAG_DOUBLE);
+		tags.put(byte[].class, TAG_BYTE_ARRAY);
+		tags.put(UUID.class, TAG_UUID);
+		tags.put(Vector2f.class, TAG_VECTOR2F);
+		tags.put(Vector3f.class, TAG_VECTOR3F);
+		tags.put(Vector3i.class, TAG_VECTOR3I);
+		tags.put(Quaternionf.class, TAG_QUATERNIONF);
+		tags.put(SerializableHashMap.class, TAG_MAP);
+	}
+
+	private DatatableCodec() {
+	}
+
+	/**
+	 * Registers a serializer.  A type can only have one serializer.
+	 *
+	 * @param serializer the serializer
+	 * @throws IllegalArgumentException if the type has a built in format, or another serializer is registered for the type
+	 */
+	public static void register(DatatableSerializer<?> serializer) {
+		Class<?> type = serializer.getType();
+		if (tags.containsKey(type)) {
+			throw new IllegalArgumentException(type.getName() + " has a built in datatable format");
+		}
+		if (serializersByName.putIfAbsent(type.getName(), serializer) != null) {
+			throw new IllegalArgumentException("A datatable serializer is already registered for " + type.getName());
+		}
+		typeIds.register(type.getName());
+		serializersByType.put(type, serializer);
+	}
+
+	/**
+	 * Checks if data is in this format, rather than Java serialization
+	 *
+	 * @param data the data
+	 * @return true if the data was written by this codec
+	 */
+	public static boolean isTyped(byte[] data) {
+		return data.length >= 2 && data[0] == MAGIC && data[1] == VERSION;
+	}
+
+	/**
+	 * Serializes the entries of a map
+	 *
+	 * @param map the map
+	 * @return the data
+	 * @throws IOException if a value could not be serialized
+	 */
+	public static byte[] serialize(Map<String, ? extends Serializable> map) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		TIntObjectHashMap<String> usedTypes = new TIntObjectHashMap<>();
+		writeMap(new DataOutputStream(body), map, usedTypes);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(MAGIC);
+		out.writeByte(VERSION);
+		out.writeShort(usedTypes.size());
+		TIntObjectIterator<String> i = usedTypes.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			out.writeInt(i.key());
+			out.writeUTF(i.value());
+		}
+		body.writeTo(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes the entries of a map.  Nested maps are returned as {@link SerializableHashMap}s.
+	 *
+	 * @param data the data
+	 * @return the entries
+	 * @throws IOException if the data is corrupt or uses a type with no registered serializer
+	 */
+	public static Map<String, Serializable> deserialize(byte[] data) throws IOException {
+		if (!isTyped(data)) {
+			throw new IOException("Data is not in the typed datatable format");
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 2, data.length - 2));
+		int typeCount = in.readUnsignedShort();
+		TIntObjectHashMap<DatatableSerializer<?>> types = new TIntObjectHashMap<>(Math.max(typeCount, 1));
+		for (int i = 0; i < typeCount; i++) {
+			int id = in.readInt();
+			String name = in.readUTF();
+			DatatableSerializer<?> serializer = serializersByName.get(name);
+			if (serializer == null) {
+				throw new IOException("No datatable serializer registered for " + name);
+			}
+			types.put(id, serializer);
+		}
+		int size = in.readInt();
+		Map<String, Serializable> map = new HashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			map.put(readString(in), readValue(in, types));
+		}
+		return map;
+	}
+
+	/**
+	 * Creates a copy of a value that shares no mutable state with it.  Immutable values are returned as they are.
+	 *
+	 * @param value the value
+	 * @return the copy
+	 * @throws IOException if the value could not be copied
+	 */
+	@SuppressWarnings ("unchecked")
+	public static Serializable copy(Serializable value) throws IOException {
+		Byte tag = tags.get(value.getClass());
+		if (tag != null) {
+			if (tag == TAG_BYTE_ARRAY) {
+				return ((byte[]) value).clone();
+			} else if (tag == TAG_MAP) {
+				return ((SerializableHashMap) value).deepCopy();
+			}
+			return value;
+		}
+		DatatableSerializer<Serializable> serializer = (DatatableSerializer<Serializable>) serializersByType.get(value.getClass());
+		if (serializer != null) {
+			return serializer.copy(value);
+		}
+		try (ObjectInputStream in = new SerializableHashMap.PluginClassResolverObjectInputStream(new ByteArrayInputStream(javaSerialize(value)))) {
+			return (Serializable) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to copy " + value.getClass().getName(), e);
+		}
+	}
+
+	/**
+	 * Gets if a value is of a type that can not be modified in place
+	 *
+	 * @param value the value
+	 * @return true if the value is immutable
+	 */
+	public static boolean isImmutable(Serializable value) {
+		Byte tag = tags.get(value.getClass());
+		return tag != null && tag != TAG_BYTE_ARRAY && tag != TAG_MAP;
+	}
+
+	static <T extends Serializable> T copy(DatatableSerializer<T> serializer, T value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		serializer.write(new DataOutputStream(bytes), value);
+		return serializer.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	private static void writeMap(DataOutput out, Map<String, ? extends Serializable> map, TIntObjectHashMap<String> usedTypes) throws IOException {
+		// The map may be modified concurrently, so the entries are counted as they are written
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream entries = new DataOutputStream(bytes);
+		int size = 0;
+		for (Map.Entry<String, ? extends Serializable> e : map.entrySet()) {
+			writeString(entries, e.getKey());
+			writeValue(entries, e.getValue(), usedTypes);
+			size++;
+		}
+		out.writeInt(size);
+		out.write(bytes.toByteArray(), 0, bytes.size());
+	}
+
+	@SuppressWarnings ("unchecked")
+	private static void writeValue(DataOutput out, Serializable value, TIntObjectHashMap<String> usedTypes) throws IOException {
+		Byte tag = tags.get(value.getClass());
+		if (tag == null) {
+			DatatableSerializer<Serializable> serializer = (DatatableSerializer<Serializable>) serializersByType.get(value.getClass());
+			if (serializer != null) {
+				String name = serializer.getType().getName();
+				int id = typeIds.register(name);
+				usedTypes.put(id, name);
+				out.writeByte(TAG_REGISTERED);
+				out.writeInt(id);
+				serializer.write(out, value);
+			} else {
+				byte[] serialized = javaSerialize(value);
+				out.writeByte(TAG_SERIALIZED);
+				out.writeInt(serialized.length);
+				out.write(serialized);
+			}
+			return;
+		}
+		out.writeByte(tag);
+		switch (tag) {
+			case TAG_STRING:
+				writeString(out, (String) value);
+				break;
+			case TAG_BOOLEAN:
+				out.writeBoolean((Boolean) value);
+				break;
+			case TAG_BYTE:
+				out.writeByte((Byte) value);
+				break;
+			case TAG_SHORT:
+				out.writeShort((Short) value);
+				break;
+			case TAG_CHAR:
+				out.writeChar((Character) value);
+				break;
+			case TAG_INT:
+				out.writeInt((Integer) value);
+				break;
+			case TAG_LONG:
+				out.writeLong((Long) value);
+				break;
+			case TAG_FLOAT:
+				out.writeFloat((Float) value);
+				break;
+			case TAG_DOUBLE:
+				out.writeDouble((Double) value);
+				break;
+			case TAG_BYTE_ARRAY:
+				byte[] array = (byte[]) value;
+				out.writeInt(array.length);
+				out.write(array);
+				break;
+			case TAG_UUID:
+				UUID uuid = (UUID) value;
+				out.writeLong(uuid.getMostSignificantBits());
+				out.writeLong(uuid.getLeastSignificantBits());
+				break;
+			case TAG_VECTOR2F:
+				Vector2f v2 = (Vector2f) value;
+				out.writeFloat(v2.getX());
+				out.writeFloat(v2.getY());
+				break;
+			case TAG_VECTOR3F:
+				Vector3f v3 = (Vector3f) value;
+				out.writeFloat(v3.getX());
+				out.writeFloat(v3.getY());
+				out.writeFloat(v3.getZ());
+				break;
+			case TAG_VECTOR3I:
+				Vector3i v3i = (Vector3i) value;
+				out.writeInt(v3i.getX());
+				out.writeInt(v3i.getY());
+				out.writeInt(v3i.getZ());
+				break;
+			case TAG_QUATERNIONF:
+				Quaternionf q = (Quaternionf) value;
+				out.writeFloat(q.getX());
+				out.writeFloat(q.getY());
+				out.writeFloat(q.getZ());
+				out.writeFloat(q.getW());
+				break;
+			case TAG_MAP:
+				writeMap(out, ((SerializableHashMap) value).map, usedTypes);
+				break;
+			default:
+				throw new IllegalStateException("Unknown datatable tag " + tag);
+		}
+	}
+
+	private static Serializable readValue(DataInput in, TIntObjectHashMap<DatatableSerializer<?>> types) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+			case TAG_STRING:
+				return readString(in);
+			case TAG_BOOLEAN:
+				return in.readBoolean();
+			case TAG_BYTE:
+				return in.readByte();
+			case TAG_SHORT:
+				return in.readShort();
+			case TAG_CHAR:
+				return in.readChar();
+			case TAG_INT:
+				return in.readInt();
+			case TAG_LONG:
+				return in.readLong();
+			case TAG_FLOAT:
+				return in.readFloat();
+			case TAG_DOUBLE:
+				return in.readDouble();
+			case TAG_BYTE_ARRAY:
+				byte[] array = new byte[in.readInt()];
+				in.readFully(array);
+				return array;
+			case TAG_UUID:
+				return new UUID(in.readLong(), in.readLong());
+			case TAG_VECTOR2F:
+				return new Vector2f(in.readFloat(), in.readFloat());
+			case TAG_VECTOR3F:
+				return new Vector3f(in.readFloat(), in.readFloat(), in.readFloat());
+			case TAG_VECTOR3I:
+				return new Vector3i(in.readInt(), in.readInt(), in.readInt());
+			case TAG_QUATERNIONF:
+				return new Quaternionf(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+			case TAG_MAP:
+				SerializableHashMap map = new SerializableHashMap();
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					map.map.put(readString(in), readValue(in, types));
+				}
+				return map;
+			case TAG_REGISTERED:
+				int id = in.readInt();
+				DatatableSerializer<?> serializer = types.get(id);
+				if (serializer == null) {
+					throw new IOException("Datatable type id " + id + " is not in the type table");
+				}
+				return serializer.read(in);
+			case TAG_SERIALIZED:
+				byte[] serialized = new byte[in.readInt()];
+				in.readFully(serialized);
+				try (ObjectInputStream ois = new SerializableHashMap.PluginClassResolverObjectInputStream(new ByteArrayInputStream(serialized))) {
+					return (Serializable) ois.readObject();
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Unable to deserialize datatable value", e);
+				}
+			default:
+				throw new IOException("Unknown datatable tag " + tag);
+		}
+	}
+
+	private static byte[] javaSerialize(Serializable value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
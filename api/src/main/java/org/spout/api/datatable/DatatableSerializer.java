@@ -0,0 +1,69 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.datatable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes and reads values of a single type stored in datatables.<br> <br> Types without a serializer are written with Java serialization, registering a serializer with {@link
+ * DatatableCodec#register(DatatableSerializer)} makes their values smaller and faster to save and copy.
+ *
+ * @param <T> the type of value
+ */
+public abstract class DatatableSerializer<T extends Serializable> {
+	private final Class<T> type;
+
+	public DatatableSerializer(Class<T> type) {
+		this.type = type;
+	}
+
+	/**
+	 * Gets the type of value handled by this serializer.  Only values of exactly this class are handled, not subclasses.
+	 *
+	 * @return the type
+	 */
+	public final Class<T> getType() {
+		return type;
+	}
+
+	public abstract void write(DataOutput out, T value) throws IOException;
+
+	public abstract T read(DataInput in) throws IOException;
+
+	/**
+	 * Creates a copy of a value that shares no mutable state with it.  The default implementation writes and reads the value.
+	 *
+	 * @param value the value
+	 * @return the copy
+	 */
+	public T copy(T value) throws IOException {
+		return DatatableCodec.copy(this, value);
+	}
+}
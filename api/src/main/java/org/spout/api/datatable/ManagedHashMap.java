@@ -28,6 +28,10 @@ package org.spout.api.datatable;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -36,7 +40,25 @@ import org.spout.api.datatable.delta.DeltaMap;
 
 public class ManagedHashMap extends SerializableHashMap implements ManagedMap {
 	private static final long serialVersionUID = 1L;
+	/**
+	 * The number of removed keys that are tracked, beyond twice the size of the map, before they are forgotten
+	 */
+	private static final int MAX_REMOVED_KEYS = 16;
 	private final DeltaMap delta;
+	private final Object versionLock = new Object();
+	/**
+	 * The version of the map, guarded by versionLock
+	 */
+	private long version = 0;
+	/**
+	 * Deltas since a version before this one must replace the whole map, guarded by versionLock
+	 */
+	private long replaceVersion = 0;
+	/**
+	 * The version at which each key was last changed or removed, guarded by versionLock
+	 */
+	private final HashMap<String, Long> keyVersions = new HashMap<>();
+	private volatile SerializedData serialized = null;
 
 	public ManagedHashMap() {
 		this.delta = new DeltaMap(DeltaMap.DeltaType.SET);
@@ -49,31 +71,128 @@ public class ManagedHashMap extends SerializableHashMap implements ManagedMap {
 	@Override
 	public Serializable putIfAbsent(String key, Serializable value) {
 		delta.putIfAbsent(key, value);
-		return super.putIfAbsent(key, value);
+		Serializable old = super.putIfAbsent(key, value);
+		if (old == null || value == null || NILTYPE.equals(value)) {
+			changed(key);
+		}
+		return old;
 	}
 
 	@Override
 	public Serializable put(String key, Serializable value) {
 		delta.putIfAbsent(key, value);
-		return super.put(key, value);
+		Serializable old = super.put(key, value);
+		changed(key);
+		return old;
 	}
 
 	@Override
 	public Serializable remove(String key) {
 		delta.put(key, null);
-		return map.remove(key);
+		Serializable old = map.remove(key);
+		if (old != null) {
+			changed(key);
+		}
+		return old;
 	}
 
 	@Override
 	public void clear() {
 		delta.clear();
 		map.clear();
+		replaced();
 	}
 
 	@Override
 	public void deserialize(byte[] data, boolean wipe) throws IOException {
 		delta.deserialize(data, wipe);
 		super.deserialize(data, wipe);
+		if (wipe) {
+			replaced();
+		}
+	}
+
+	/**
+	 * Serializes the map.  When every value is immutable, the data is cached, so a map that has not changed since it was last serialized is not serialized again.  Maps holding
+	 * values that can be modified in place, such as arrays and nested maps, are serialized every time.
+	 */
+	@Override
+	public byte[] serialize() {
+		long version = getVersion();
+		SerializedData cached = serialized;
+		if (cached != null && cached.version == version) {
+			return cached.data.clone();
+		}
+		boolean cacheable = true;
+		for (Serializable value : map.values()) {
+			if (!DatatableCodec.isImmutable(value)) {
+				cacheable = false;
+				break;
+			}
+		}
+		byte[] data = super.serialize();
+		if (cacheable && getVersion() == version) {
+			serialized = new SerializedData(version, data.clone());
+		}
+		return data;
+	}
+
+	@Override
+	public long getVersion() {
+		synchronized (versionLock) {
+			return version;
+		}
+	}
+
+	@Override
+	public DeltaMap getDeltaSince(long since) {
+		List<String> keys = null;
+		synchronized (versionLock) {
+			if (since != 0 && since >= replaceVersion) {
+				keys = new ArrayList<>();
+				for (Map.Entry<String, Long> e : keyVersions.entrySet()) {
+					if (e.getValue() > since) {
+						keys.add(e.getKey());
+					}
+				}
+			}
+		}
+		if (keys == null) {
+			DeltaMap replace = new DeltaMap(DeltaMap.DeltaType.REPLACE);
+			for (Map.Entry<String, Serializable> e : map.entrySet()) {
+				replace.put(e.getKey(), e.getValue());
+			}
+			return replace;
+		}
+		DeltaMap set = new DeltaMap(DeltaMap.DeltaType.SET);
+		for (String key : keys) {
+			set.put(key, map.get(key));
+		}
+		return set;
+	}
+
+	private void changed(String key) {
+		synchronized (versionLock) {
+			version++;
+			keyVersions.put(key, version);
+			if (keyVersions.size() > (map.size() << 1) + MAX_REMOVED_KEYS) {
+				// Forget the removed keys, anyone who has not seen the removals gets the whole map
+				for (Iterator<String> i = keyVersions.keySet().iterator(); i.hasNext(); ) {
+					if (!map.containsKey(i.next())) {
+						i.remove();
+					}
+				}
+				replaceVersion = version;
+			}
+		}
+	}
+
+	private void replaced() {
+		synchronized (versionLock) {
+			version++;
+			keyVersions.clear();
+			replaceVersion = version;
+		}
 	}
 
 	/**
@@ -140,4 +259,14 @@ public class ManagedHashMap extends SerializableHashMap implements ManagedMap {
 		}
 		return true;
 	}
+
+	private static class SerializedData {
+		private final long version;
+		private final byte[] data;
+
+		public SerializedData(long version, byte[] data) {
+			this.version = version;
+			this.data = data;
+		}
+	}
 }
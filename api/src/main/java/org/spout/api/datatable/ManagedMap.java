@@ -40,4 +40,20 @@ public interface ManagedMap extends SerializableMap {
 	public DeltaMap getDeltaMap();
 
 	public void resetDelta();
+
+	/**
+	 * Gets the version of the map.  The version increases every time a key is changed or removed, or the map is cleared.
+	 *
+	 * @return the version
+	 */
+	public long getVersion();
+
+	/**
+	 * Gets the keys changed or removed since the given version, with their current values.  Removed keys are mapped to null.<br> <br> If the map was cleared since the version,
+	 * or removals since then are no longer tracked, the map holds every entry and has type {@link DeltaMap.DeltaType#REPLACE}.  A version of 0 always gives every entry.
+	 *
+	 * @param version the version the receiver of the delta already has
+	 * @return the delta
+	 */
+	public DeltaMap getDeltaSince(long version);
 }
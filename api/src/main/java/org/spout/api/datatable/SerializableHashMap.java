@@ -27,11 +27,9 @@
 package org.spout.api.datatable;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.AbstractCollection;
@@ -216,7 +214,7 @@ public class SerializableHashMap implements SerializableMap {
 
 	@Override
 	public Set<String> keySet() {
-		return map.keySet();
+		return new KeySet();
 	}
 
 	@Override
@@ -243,6 +241,58 @@ public class SerializableHashMap implements SerializableMap {
 		}
 	}
 
+	private final class KeySet extends AbstractSet<String> {
+		@Override
+		public Iterator<String> iterator() {
+			return new KeyIterator();
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return map.containsKey(o);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			return SerializableHashMap.this.remove(o) != null;
+		}
+
+		@Override
+		public void clear() {
+			SerializableHashMap.this.clear();
+		}
+	}
+
+	private final class KeyIterator implements Iterator<String> {
+		final Iterator<String> keys = map.keySet().iterator();
+		String current;
+
+		@Override
+		public boolean hasNext() {
+			return keys.hasNext();
+		}
+
+		@Override
+		public String next() {
+			current = keys.next();
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			if (current == null) {
+				throw new IllegalStateException();
+			}
+			SerializableHashMap.this.remove(current);
+			current = null;
+		}
+	}
+
 	private final class Values extends AbstractCollection<Serializable> {
 		@Override
 		public Iterator<Serializable> iterator() {
@@ -261,7 +311,7 @@ public class SerializableHashMap implements SerializableMap {
 
 		@Override
 		public void clear() {
-			map.clear();
+			SerializableHashMap.this.clear();
 		}
 	}
 
@@ -451,22 +501,19 @@ public class SerializableHashMap implements SerializableMap {
 	}
 
 	/**
-	 * This serializes only the data, as opposed to the whole object.
+	 * This serializes only the data, as opposed to the whole object, using the {@link DatatableCodec} format.
 	 */
 	@Override
 	public byte[] serialize() {
 		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(out);
-			oos.writeObject(map);
-			return out.toByteArray();
+			return DatatableCodec.serialize(map);
 		} catch (IOException ex) {
-			throw new IllegalStateException("Unable to compress SerializableMap");
+			throw new IllegalStateException("Unable to compress SerializableMap", ex);
 		}
 	}
 
 	/**
-	 * This deserializes only the data, as opposed to the whole object.
+	 * This deserializes only the data, as opposed to the whole object.  Data written by Java serialization of the map, by earlier versions, is also accepted.
 	 */
 	@Override
 	@SuppressWarnings ("unchecked")
@@ -474,19 +521,25 @@ public class SerializableHashMap implements SerializableMap {
 		if (wipe) {
 			map.clear();
 		}
-		InputStream in = new ByteArrayInputStream(serializedData);
-		ObjectInputStream ois = new PluginClassResolverObjectInputStream(in);
-		try {
-			// Because it may be a map of maps, we want to UPDATE inner maps, not overwrite
-			for (Map.Entry<String, ? extends Serializable> e : ((Map<String, ? extends Serializable>) ois.readObject()).entrySet()) {
-				if (e.getValue() instanceof Map && map.get(e.getKey()) instanceof Map) {
-					((Map) map.get(e.getKey())).putAll((Map) e.getValue());
-				} else {
-					put(e.getKey(), e.getValue());
-				}
+		Map<String, ? extends Serializable> data;
+		if (DatatableCodec.isTyped(serializedData)) {
+			data = DatatableCodec.deserialize(serializedData);
+		} else {
+			InputStream in = new ByteArrayInputStream(serializedData);
+			ObjectInputStream ois = new PluginClassResolverObjectInputStream(in);
+			try {
+				data = (Map<String, ? extends Serializable>) ois.readObject();
+			} catch (ClassNotFoundException ex) {
+				throw new IllegalStateException("Unable to decompress SerializableHashMap", ex);
+			}
+		}
+		// Because it may be a map of maps, we want to UPDATE inner maps, not overwrite
+		for (Map.Entry<String, ? extends Serializable> e : data.entrySet()) {
+			if (e.getValue() instanceof Map && map.get(e.getKey()) instanceof Map) {
+				((Map) map.get(e.getKey())).putAll((Map) e.getValue());
+			} else {
+				put(e.getKey(), e.getValue());
 			}
-		} catch (ClassNotFoundException ex) {
-			throw new IllegalStateException("Unable to decompress SerializableHashMap", ex);
 		}
 	}
 
@@ -510,14 +563,19 @@ public class SerializableHashMap implements SerializableMap {
 		deserialize(compressedData, true);
 	}
 
+	/**
+	 * Copies the map without serializing it.  Immutable values are shared, other values are copied with {@link DatatableCodec#copy(Serializable)}.
+	 */
 	@Override
 	public SerializableMap deepCopy() {
-		SerializableMap map = new SerializableHashMap();
+		SerializableHashMap copy = new SerializableHashMap();
 		try {
-			map.deserialize(serialize(), true);
+			for (Map.Entry<String, Serializable> e : map.entrySet()) {
+				copy.map.put(e.getKey(), DatatableCodec.copy(e.getValue()));
+			}
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to create a deep copy", e);
 		}
-		return map;
+		return copy;
 	}
 }
@@ -0,0 +1,382 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers non-cancellable events to their listeners away from the calling thread.<br> <br> Events are appended to a bounded, lock-free ring buffer. A single dispatcher thread drains the buffer
+ * in batches and appends each event to a queue per listener. Each listener queue is run on the worker pool by at most one thread at a time, so every listener sees events in the order they were
+ * published, while different listeners run in parallel. The dispatcher blocks while the buffer is empty.<br> <br> If the ring buffer is full, the publisher waits for the dispatcher to make space,
+ * and the wait is counted as a stall. Events published once {@link #shutdown(long, TimeUnit)} has started are delivered synchronously by the calling thread.
+ */
+public class AsyncEventBus {
+	private static final Logger LOGGER = Logger.getLogger(AsyncEventBus.class.getCanonicalName());
+	/**
+	 * The maximum number of events taken from the ring buffer by the dispatcher at a time
+	 */
+	private static final int BATCH_SIZE = 256;
+	private final SimpleEventManager manager;
+	private final AtomicReferenceArray<Event> ring;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head = 0;
+	private final Thread dispatcher;
+	private volatile boolean dispatcherIdle = false;
+	private volatile boolean shutdown = false;
+	/**
+	 * Set once no publisher can add to the ring buffer, the dispatcher stops when the buffer is empty
+	 */
+	private volatile boolean stopping = false;
+	/**
+	 * The number of publishers between checking the shutdown flag and completing their offer
+	 */
+	private final AtomicInteger publishing = new AtomicInteger();
+	private final ExecutorService workers;
+	private final Map<ListenerRegistration, ListenerQueue> queues = new WeakHashMap<>();
+	private final List<ListenerQueue> touched = new ArrayList<>();
+	// Metrics
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong synchronous = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private volatile int maxQueueDepth = 0;
+	private volatile int maxListenerBacklog = 0;
+
+	/**
+	 * Creates an event bus
+	 *
+	 * @param manager the manager used to invoke the listeners
+	 * @param capacity the capacity of the ring buffer, rounded up to a power of two
+	 * @param threads the number of worker threads
+	 * @param factory the factory for the dispatcher and worker threads
+	 */
+	AsyncEventBus(SimpleEventManager manager, int capacity, int threads, ThreadFactory factory) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2");
+		}
+		this.manager = manager;
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.ring = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.workers = Executors.newFixedThreadPool(threads, factory);
+		this.dispatcher = factory.newThread(new Dispatcher());
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Publishes an event for asynchronous delivery
+	 *
+	 * @param event the event
+	 * @throws IllegalArgumentException if the event is {@link Cancellable}
+	 */
+	public void publish(Event event) {
+		if (event instanceof Cancellable) {
+			throw new IllegalArgumentException("Cancellable events cannot be called asynchronously, " + event);
+		}
+		publishing.incrementAndGet();
+		try {
+			if (shutdown) {
+				callSynchronously(event);
+				return;
+			}
+			if (!offer(event)) {
+				stalls.incrementAndGet();
+				do {
+					if (dispatcherIdle) {
+						LockSupport.unpark(dispatcher);
+					}
+					Thread.yield();
+				} while (!offer(event));
+			}
+			published.incrementAndGet();
+			if (dispatcherIdle) {
+				LockSupport.unpark(dispatcher);
+			}
+		} finally {
+			publishing.decrementAndGet();
+		}
+	}
+
+	private void callSynchronously(Event event) {
+		synchronous.incrementAndGet();
+		manager.callEvent(event);
+	}
+
+	private boolean offer(Event event) {
+		long t;
+		do {
+			t = tail.get();
+			if (t - head > mask) {
+				return false;
+			}
+		} while (!tail.compareAndSet(t, t + 1));
+		ring.set((int) t & mask, event);
+		return true;
+	}
+
+	/**
+	 * Removes up to batch.length events from the ring buffer.  Only called by the dispatcher thread.
+	 */
+	private int drain(Event[] batch) {
+		long h = head;
+		long t = tail.get();
+		int depth = (int) (t - h);
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+		int count = 0;
+		while (h < t && count < batch.length) {
+			int index = (int) h & mask;
+			Event event = ring.get(index);
+			if (event == null) {
+				// Slot claimed but not yet written
+				break;
+			}
+			ring.lazySet(index, null);
+			batch[count++] = event;
+			h++;
+		}
+		head = h;
+		return count;
+	}
+
+	private void dispatch(Event[] batch, int count) {
+		for (int i = 0; i < count; i++) {
+			Event event = batch[i];
+			batch[i] = null;
+			ListenerRegistration[] listeners = event.getHandlers().getRegisteredListeners();
+			for (ListenerRegistration listener : listeners) {
+				ListenerQueue queue = queues.get(listener);
+				if (queue == null) {
+					queue = new ListenerQueue(listener);
+					queues.put(listener, queue);
+				}
+				if (queue.add(event)) {
+					touched.add(queue);
+				}
+			}
+			event.setHasBeenCalled(true);
+		}
+		batches.incrementAndGet();
+		for (ListenerQueue queue : touched) {
+			queue.schedule();
+		}
+		touched.clear();
+	}
+
+	/**
+	 * Stops accepting events, delivers all events already published and stops the worker threads.  Events published while this method runs are delivered synchronously.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if all events were delivered before the timeout expired
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		shutdown = true;
+		// Publishers which saw the flag unset finish their offer, the dispatcher keeps draining so a full buffer can't block them
+		while (publishing.get() > 0) {
+			LockSupport.unpark(dispatcher);
+			Thread.yield();
+		}
+		stopping = true;
+		LockSupport.unpark(dispatcher);
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		dispatcher.join(Math.max(1, unit.toMillis(timeout)));
+		workers.shutdown();
+		return workers.awaitTermination(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the number of events accepted into the ring buffer
+	 */
+	public long getPublished() {
+		return published.get();
+	}
+
+	/**
+	 * Gets the number of listener invocations completed by the worker threads
+	 */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * Gets the number of times a publisher had to wait because the ring buffer was full
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+
+	/**
+	 * Gets the number of events delivered synchronously because they were published after the bus was shut down
+	 */
+	public long getSynchronous() {
+		return synchronous.get();
+	}
+
+	/**
+	 * Gets the number of batches taken from the ring buffer by the dispatcher
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * Gets the number of events currently waiting in the ring buffer
+	 */
+	public int getQueueDepth() {
+		return (int) (tail.get() - head);
+	}
+
+	/**
+	 * Gets the highest number of events seen waiting in the ring buffer
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Gets the capacity of the ring buffer
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Gets the highest number of events seen waiting for a single listener
+	 */
+	public int getMaxListenerBacklog() {
+		return maxListenerBacklog;
+	}
+
+	private class Dispatcher implements Runnable {
+		@Override
+		public void run() {
+			Event[] batch = new Event[BATCH_SIZE];
+			while (true) {
+				int count = drain(batch);
+				if (count > 0) {
+					dispatch(batch, count);
+					continue;
+				}
+				if (stopping && head == tail.get()) {
+					break;
+				}
+				dispatcherIdle = true;
+				// Publishers advance the tail before reading the idle flag, so an event offered after this check always unparks the dispatcher
+				if (head == tail.get() && !stopping) {
+					LockSupport.park(this);
+				}
+				dispatcherIdle = false;
+			}
+		}
+	}
+
+	/**
+	 * The events waiting for a single listener.  The queue is run by at most one worker at a time.
+	 */
+	private class ListenerQueue implements Runnable {
+		/**
+		 * The registration is only weakly referenced, so queues for unregistered listeners can be removed from the map
+		 */
+		private final WeakReference<ListenerRegistration> listener;
+		private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		public ListenerQueue(ListenerRegistration listener) {
+			this.listener = new WeakReference<>(listener);
+		}
+
+		/**
+		 * Adds an event to the queue
+		 *
+		 * @return true if the queue was empty
+		 */
+		public boolean add(Event event) {
+			events.add(event);
+			int backlog = size.incrementAndGet();
+			if (backlog > maxListenerBacklog) {
+				maxListenerBacklog = backlog;
+			}
+			return backlog == 1;
+		}
+
+		public void schedule() {
+			if (size.get() > 0 && scheduled.compareAndSet(false, true)) {
+				try {
+					workers.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					run();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			ListenerRegistration registration = listener.get();
+			Event event;
+			while ((event = events.poll()) != null) {
+				size.decrementAndGet();
+				if (registration == null) {
+					continue;
+				}
+				try {
+					manager.callListener(registration, event);
+				} catch (Throwable ex) {
+					LOGGER.log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + registration.getOwner().getClass().getName(), ex);
+				}
+				delivered.incrementAndGet();
+			}
+			scheduled.set(false);
+			// An event may have been added after the last poll, but before the flag was cleared
+			if (!events.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.spout.api.exception.EventException;
+
+/**
+ * Creates {@link EventExecutor}s which call an {@link EventHandler} method directly.<br> <br> For public methods of public classes, a small class is generated at registration time whose execute
+ * method casts the event and invokes the handler with a single invokevirtual or invokestatic instruction, so dispatch costs the same as a hand written executor. Methods which cannot be linked from
+ * another class loader, such as private methods or methods of package private listeners, are called through a {@link MethodHandle} instead.<br> <br> Executors returned by this class do not wrap
+ * exceptions; a handler which throws will propagate the exception unchanged.
+ */
+final class EventExecutorGenerator {
+	private static final String GENERATED_PACKAGE = "org/spout/api/event/generated/";
+	private static final String OBJECT = "java/lang/Object";
+	private static final String EXECUTOR = EventExecutor.class.getName().replace('.', '/');
+	private static final String EXECUTE_DESC = "(L" + Event.class.getName().replace('.', '/') + ";)V";
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+	private EventExecutorGenerator() {
+	}
+
+	/**
+	 * Creates an executor which invokes the given method on the listener
+	 *
+	 * @param listener the listener, ignored for static methods
+	 * @param method the handler method, which must take a single event parameter
+	 * @return the executor
+	 */
+	public static EventExecutor create(Object listener, Method method) {
+		if (canGenerate(method)) {
+			try {
+				return generate(listener, method);
+			} catch (IOException | LinkageError | ReflectiveOperationException e) {
+				// Fall back to a method handle
+			}
+		}
+		return new MethodHandleExecutor(listener, method);
+	}
+
+	/**
+	 * Checks that a class generated in a child of the listener's class loader can link to the handler method, the event type and the API classes
+	 */
+	private static boolean canGenerate(Method method) {
+		Class<?> owner = method.getDeclaringClass();
+		if (!Modifier.isPublic(method.getModifiers()) || owner.isInterface() || !isPublic(owner) || !isPublic(method.getParameterTypes()[0])) {
+			return false;
+		}
+		ClassLoader loader = owner.getClassLoader();
+		if (loader == null) {
+			return false;
+		}
+		try {
+			return Class.forName(EventExecutor.class.getName(), false, loader) == EventExecutor.class && Class.forName(method.getParameterTypes()[0].getName(), false, loader) == method.getParameterTypes()[0];
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static boolean isPublic(Class<?> clazz) {
+		for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+			if (!Modifier.isPublic(c.getModifiers())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static EventExecutor generate(Object listener, Method method) throws IOException, ReflectiveOperationException {
+		String name = GENERATED_PACKAGE + "EventExecutor" + NEXT_ID.getAndIncrement();
+		byte[] bytes = generateClass(name, method);
+		Class<?> clazz = new GeneratedClassLoader(method.getDeclaringClass().getClassLoader()).define(name.replace('/', '.'), bytes);
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+		return (EventExecutor) clazz.getConstructor(Object.class).newInstance(isStatic ? null : listener);
+	}
+
+	/**
+	 * Generates a class equivalent to
+	 * <pre>
+	 * public final class Name implements EventExecutor {
+	 *     private final Object listener;
+	 *
+	 *     public Name(Object listener) {
+	 *         this.listener = listener;
+	 *     }
+	 *
+	 *     public void execute(Event event) {
+	 *         ((Owner) listener).method((EventType) event);
+	 *     }
+	 * }
+	 * </pre>
+	 * The class file version is 50, so no stack map frames are required.
+	 */
+	static byte[] generateClass(String name, Method method) throws IOException {
+		String owner = method.getDeclaringClass().getName().replace('.', '/');
+		String eventType = method.getParameterTypes()[0].getName().replace('.', '/');
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+		Class<?> returnType = method.getReturnType();
+
+		ConstantPool cp = new ConstantPool();
+		int thisClass = cp.addClass(name);
+		int superClass = cp.addClass(OBJECT);
+		int executorClass = cp.addClass(EXECUTOR);
+		int listenerField = cp.addMemberRef(9, name, "listener", "Ljava/lang/Object;");
+		int objectInit = cp.addMemberRef(10, OBJECT, "<init>", "()V");
+		int ownerClass = cp.addClass(owner);
+		int eventClass = cp.addClass(eventType);
+		int handler = cp.addMemberRef(10, owner, method.getName(), getDescriptor(method));
+		int code = cp.addUtf8("Code");
+		int fieldName = cp.addUtf8("listener");
+		int fieldDesc = cp.addUtf8("Ljava/lang/Object;");
+		int initName = cp.addUtf8("<init>");
+		int initDesc = cp.addUtf8("(Ljava/lang/Object;)V");
+		int executeName = cp.addUtf8("execute");
+		int executeDesc = cp.addUtf8(EXECUTE_DESC);
+
+		ByteArrayOutputStream constructorCode = new ByteArrayOutputStream();
+		constructorCode.write(0x2a); // aload_0
+		writeInstruction(constructorCode, 0xb7, objectInit); // invokespecial Object.<init>
+		constructorCode.write(0x2a); // aload_0
+		constructorCode.write(0x2b); // aload_1
+		writeInstruction(constructorCode, 0xb5, listenerField); // putfield listener
+		constructorCode.write(0xb1); // return
+
+		ByteArrayOutputStream executeCode = new ByteArrayOutputStream();
+		if (!isStatic) {
+			executeCode.write(0x2a); // aload_0
+			writeInstruction(executeCode, 0xb4, listenerField); // getfield listener
+			writeInstruction(executeCode, 0xc0, ownerClass); // checkcast Owner
+		}
+		executeCode.write(0x2b); // aload_1
+		writeInstruction(executeCode, 0xc0, eventClass); // checkcast EventType
+		writeInstruction(executeCode, isStatic ? 0xb8 : 0xb6, handler); // invokestatic or invokevirtual
+		if (returnType == long.class || returnType == double.class) {
+			executeCode.write(0x58); // pop2
+		} else if (returnType != void.class) {
+			executeCode.write(0x57); // pop
+		}
+		executeCode.write(0xb1); // return
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(50);
+		cp.write(out);
+		out.writeShort(0x0031); // public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(executorClass);
+		// fields
+		out.writeShort(1);
+		out.writeShort(0x0012); // private final
+		out.writeShort(fieldName);
+		out.writeShort(fieldDesc);
+		out.writeShort(0);
+		// methods
+		out.writeShort(2);
+		writeMethod(out, initName, initDesc, code, 2, constructorCode.toByteArray());
+		writeMethod(out, executeName, executeDesc, code, 2, executeCode.toByteArray());
+		// attributes
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeInstruction(ByteArrayOutputStream code, int opcode, int index) {
+		code.write(opcode);
+		code.write(index >> 8);
+		code.write(index);
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int desc, int codeAttribute, int maxStack, byte[] code) throws IOException {
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(desc);
+		out.writeShort(1);
+		out.writeShort(codeAttribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(2); // max locals, this and the event
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	private static String getDescriptor(Method method) {
+		StringBuilder sb = new StringBuilder("(");
+		for (Class<?> param : method.getParameterTypes()) {
+			appendDescriptor(sb, param);
+		}
+		sb.append(')');
+		appendDescriptor(sb, method.getReturnType());
+		return sb.toString();
+	}
+
+	private static void appendDescriptor(StringBuilder sb, Class<?> clazz) {
+		while (clazz.isArray()) {
+			sb.append('[');
+			clazz = clazz.getComponentType();
+		}
+		if (clazz.isPrimitive()) {
+			if (clazz == void.class) {
+				sb.append('V');
+			} else if (clazz == boolean.class) {
+				sb.append('Z');
+			} else if (clazz == byte.class) {
+				sb.append('B');
+			} else if (clazz == char.class) {
+				sb.append('C');
+			} else if (clazz == short.class) {
+				sb.append('S');
+			} else if (clazz == int.class) {
+				sb.append('I');
+			} else if (clazz == long.class) {
+				sb.append('J');
+			} else if (clazz == float.class) {
+				sb.append('F');
+			} else {
+				sb.append('D');
+			}
+		} else {
+			sb.append('L').append(clazz.getName().replace('.', '/')).append(';');
+		}
+	}
+
+	/**
+	 * A minimal class file constant pool supporting the entry types used by the generated executors
+	 */
+	private static class ConstantPool {
+		private final List<Object[]> entries = new ArrayList<>();
+		private final Map<String, Integer> indexes = new HashMap<>();
+
+		public int addUtf8(String value) {
+			return add(new Object[] {1, value}, "U" + value);
+		}
+
+		public int addClass(String internalName) {
+			int nameIndex = addUtf8(internalName);
+			return add(new Object[] {7, nameIndex}, "C" + internalName);
+		}
+
+		/**
+		 * Adds a field (tag 9) or method (tag 10) reference
+		 */
+		public int addMemberRef(int tag, String owner, String name, String desc) {
+			int classIndex = addClass(owner);
+			int nameIndex = addUtf8(name);
+			int descIndex = addUtf8(desc);
+			int nameAndType = add(new Object[] {12, nameIndex, descIndex}, "N" + name + ":" + desc);
+			return add(new Object[] {tag, classIndex, nameAndType}, tag + owner + "." + name + ":" + desc);
+		}
+
+		private int add(Object[] entry, String key) {
+			Integer index = indexes.get(key);
+			if (index == null) {
+				entries.add(entry);
+				index = entries.size();
+				indexes.put(key, index);
+			}
+			return index;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			out.writeShort(entries.size() + 1);
+			for (Object[] entry : entries) {
+				int tag = (Integer) entry[0];
+				out.writeByte(tag);
+				if (tag == 1) {
+					out.writeUTF((String) entry[1]);
+				} else {
+					for (int i = 1; i < entry.length; i++) {
+						out.writeShort((Integer) entry[i]);
+					}
+				}
+			}
+		}
+	}
+
+	private static class GeneratedClassLoader extends ClassLoader {
+		public GeneratedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		public Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Calls handlers which cannot be linked from generated code
+	 */
+	private static class MethodHandleExecutor implements EventExecutor {
+		private static final MethodType EXECUTE_TYPE = MethodType.methodType(void.class, Object.class, Event.class);
+		private final Object listener;
+		private final MethodHandle handle;
+
+		public MethodHandleExecutor(Object listener, Method method) {
+			this.listener = listener;
+			try {
+				method.setAccessible(true);
+				MethodHandle handle = MethodHandles.lookup().unreflect(method);
+				if (Modifier.isStatic(method.getModifiers())) {
+					handle = MethodHandles.dropArguments(handle, 0, Object.class);
+				}
+				this.handle = handle.asType(EXECUTE_TYPE);
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("Unable to access event handler " + method, e);
+			}
+		}
+
+		@Override
+		public void execute(Event event) throws EventException {
+			try {
+				handle.invokeExact(listener, event);
+			} catch (EventException | RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new EventException(t);
+			}
+		}
+	}
+}
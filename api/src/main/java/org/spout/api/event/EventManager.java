@@ -45,6 +45,15 @@ public interface EventManager {
 	 */
 	public <T extends Event> void callDelayedEvent(T event);
 
+	/**
+	 * Calls an event asynchronously.  The event is delivered to each listener on a worker thread, in the order the events were called, and this method returns without waiting for delivery.<br>
+	 * <br> Listeners for events called this way must be thread safe with respect to the main thread.
+	 *
+	 * @param event Event details
+	 * @throws IllegalArgumentException if the event is {@link Cancellable}
+	 */
+	public <T extends Event> void callAsyncEvent(T event);
+
 	/**
 	 * Unregisters all the events in the given listener class
 	 *
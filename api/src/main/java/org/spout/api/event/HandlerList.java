@@ -193,6 +193,15 @@ public final class HandlerList {
 		return handlers;
 	}
 
+	/**
+	 * Checks if any listeners are registered for this event or any of its parents.  Callers firing events at a high rate may use this to skip constructing the event entirely.
+	 *
+	 * @return true if at least one listener is registered
+	 */
+	public boolean hasListeners() {
+		return getRegisteredListeners().length > 0;
+	}
+
 	protected void addChild(HandlerList handlerList) {
 		children.add(handlerList);
 	}
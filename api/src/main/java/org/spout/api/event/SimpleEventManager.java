@@ -36,6 +36,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,6 +51,10 @@ import org.spout.api.exception.IllegalPluginAccessException;
  */
 public class SimpleEventManager implements EventManager {
 	private static final Logger LOGGER = Logger.getLogger(SimpleEventManager.class.getCanonicalName());
+	private static final int ASYNC_CAPACITY = 8192;
+	private static final int ASYNC_THREADS = 2;
+	private final Object asyncLock = new Object();
+	private volatile AsyncEventBus asyncBus = null;
 
 	@Override
 	public <T extends Event> void callDelayedEvent(final T event) {
@@ -59,16 +66,57 @@ public class SimpleEventManager implements EventManager {
 		});
 	}
 
+	@Override
+	public <T extends Event> void callAsyncEvent(T event) {
+		getAsyncEventBus().publish(event);
+	}
+
+	/**
+	 * Gets the bus used to deliver events called with {@link #callAsyncEvent(Event)}, creating it if required
+	 *
+	 * @return the async event bus
+	 */
+	public AsyncEventBus getAsyncEventBus() {
+		AsyncEventBus bus = asyncBus;
+		if (bus == null) {
+			synchronized (asyncLock) {
+				bus = asyncBus;
+				if (bus == null) {
+					asyncBus = bus = new AsyncEventBus(this, ASYNC_CAPACITY, ASYNC_THREADS, new AsyncThreadFactory());
+				}
+			}
+		}
+		return bus;
+	}
+
+	/**
+	 * Delivers any pending asynchronous events and stops the async event threads.  Events called asynchronously after this method is called are delivered synchronously.
+	 *
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return true if all pending events were delivered
+	 */
+	public boolean shutdownAsync(long timeout) throws InterruptedException {
+		AsyncEventBus bus = asyncBus;
+		if (bus == null) {
+			return true;
+		}
+		return bus.shutdown(timeout, TimeUnit.MILLISECONDS);
+	}
+
 	@Override
 	public <T extends Event> T callEvent(T event) {
 		HandlerList handlers = event.getHandlers();
 		ListenerRegistration[] listeners = handlers.getRegisteredListeners();
 
 		if (listeners != null) {
+			if (listeners.length == 0) {
+				event.setHasBeenCalled(true);
+				return event;
+			}
 			for (ListenerRegistration listener : listeners) {
 				try {
 					if (!event.isCancelled() || listener.getOrder().ignoresCancelled()) {
-						listener.getExecutor().execute(event);
+						callListener(listener, event);
 					}
 				} catch (Throwable ex) {
 					LOGGER.log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + listener.getOwner().getClass().getName(), ex);
@@ -79,6 +127,17 @@ public class SimpleEventManager implements EventManager {
 		return event;
 	}
 
+	/**
+	 * Passes an event to a single registered listener.  Subclasses may override this to wrap listener execution, for example to record timings.
+	 *
+	 * @param listener the listener registration
+	 * @param event the event
+	 * @throws EventException if the listener throws an exception
+	 */
+	protected void callListener(ListenerRegistration listener, Event event) throws EventException {
+		listener.getExecutor().execute(event);
+	}
+
 	@Override
 	public void unRegisterEvents(Listener listener) {
 		for (Map.Entry<Class<? extends Event>, Set<ListenerRegistration>> entry : createRegisteredListeners(listener, null).entrySet()) {
@@ -182,30 +241,41 @@ public class SimpleEventManager implements EventManager {
 		return ret;
 	}
 
+	private static class AsyncThreadFactory implements ThreadFactory {
+		private final AtomicInteger id = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Async Event Thread - " + id.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
 	private static class MethodEventExecutor implements EventExecutor {
 		private final Class<?> clazz;
 		private final Listener listener;
 		private final Method method;
+		private final EventExecutor invoker;
 
 		public MethodEventExecutor(Class<?> clazz, Listener listener, Method method, EventHandler eh) {
 			this.clazz = clazz;
 			this.listener = listener;
 			this.method = method;
+			this.invoker = EventExecutorGenerator.create(listener, method);
 		}
 
 		@Override
 		public void execute(Event event) throws EventException {
 			try {
+				invoker.execute(event);
+			} catch (EventException e) {
+				throw e;
+			} catch (ClassCastException e) {
 				if (!clazz.isAssignableFrom(event.getClass())) {
 					throw new EventException("Wrong event type passed to registered method");
 				}
-				method.invoke(listener, event);
-			} catch (InvocationTargetException e) {
-				if (e.getCause() instanceof EventException) {
-					throw (EventException) e.getCause();
-				}
-
-				throw new EventException(e.getCause());
+				throw new EventException(e);
 			} catch (Throwable t) {
 				throw new EventException(t);
 			}
@@ -30,7 +30,8 @@ import org.spout.api.event.HandlerList;
 import org.spout.api.geo.cuboid.Chunk;
 
 /**
- * Called when a {@link Chunk} is loaded into the server.
+ * Called when a {@link Chunk} is loaded into the server.<br> <br> This event is called asynchronously, see {@link org.spout.api.event.EventManager#callAsyncEvent}. Listeners run
+ * on an event thread, not the main thread, and see the events in the order the chunks were loaded. They must not modify the chunk or the world.
  */
 public class ChunkLoadEvent extends ChunkEvent {
 	private static HandlerList handlers = new HandlerList();
@@ -33,7 +33,9 @@ import org.spout.api.geo.cuboid.Chunk;
 import org.spout.math.vector.Vector3f;
 
 /**
- * Called when {@link Block} data in {@link Chunk} has been updated.
+ * Called when {@link Block} data in {@link Chunk} has been updated.<br> <br> This event is called asynchronously, see {@link org.spout.api.event.EventManager#callAsyncEvent}.
+ * Listeners run on an event thread, not the main thread, and see the events in the order the updates were made. They must not modify the chunk or the world, and the chunk may
+ * have changed again by the time the event is delivered.
  */
 public class ChunkUpdatedEvent extends ChunkEvent {
 	private static HandlerList handlers = new HandlerList();
@@ -0,0 +1,201 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator;
+
+import net.royawesome.jlibnoise.module.Module;
+
+/**
+ * Evaluates a noise module over a whole lattice of points.<br> <br> The module is sampled at every samplingRate-th point of the lattice and the points between the samples are
+ * linearly interpolated one axis at a time, which gives the same result as trilinear interpolation. The lattice includes both ends of each axis, so a lattice of size (xSize,
+ * ySize, zSize) holds (xSize + 1) * (ySize + 1) * (zSize + 1) values. They are stored in a flat array at index ((x * (ySize + 1)) + y) * (zSize + 1) + z, so the inner loops run
+ * over contiguous memory.<br> <br> The samples and partially interpolated values are kept in scratch buffers that are reused by later calls. An instance must only be used by one
+ * thread at a time.
+ */
+public class BatchNoise {
+	private double[] samples = new double[0];
+	private double[] zPass = new double[0];
+	private double[] yPass = new double[0];
+	private double[] weights = new double[0];
+
+	/**
+	 * Generates a 3D noise lattice
+	 *
+	 * @param module The noise generator module
+	 * @param out The array to store the lattice in, or null to allocate a new array. A new array is also allocated if the array is too small.
+	 * @param xSize The x size of the lattice
+	 * @param ySize The y size of the lattice
+	 * @param zSize The z size of the lattice
+	 * @param samplingRate The sampling rate to use. xSize % samplingRate, ySize % samplingRate and zSize % samplingRate must return 0.
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param z The z coord
+	 * @return The lattice
+	 * @throws IllegalArgumentException if the module is null, the sampling rate is not positive, or a size is not a multiple of the sampling rate
+	 */
+	public double[] noise(Module module, double[] out, int xSize, int ySize, int zSize, int samplingRate, int x, int y, int z) {
+		final int planeSize = interpolateYZ(module, xSize, ySize, zSize, samplingRate, x, y, z);
+		final int length = (xSize + 1) * planeSize;
+		if (out == null || out.length < length) {
+			out = new double[length];
+		}
+		lerp(yPass, 0, out, 0, xSize / samplingRate + 1, planeSize, samplingRate);
+		return out;
+	}
+
+	/**
+	 * Generates a 3D noise lattice with float precision.  The samples are interpolated in double precision and stored as floats.
+	 *
+	 * @param module The noise generator module
+	 * @param out The array to store the lattice in, or null to allocate a new array. A new array is also allocated if the array is too small.
+	 * @param xSize The x size of the lattice
+	 * @param ySize The y size of the lattice
+	 * @param zSize The z size of the lattice
+	 * @param samplingRate The sampling rate to use. xSize % samplingRate, ySize % samplingRate and zSize % samplingRate must return 0.
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param z The z coord
+	 * @return The lattice
+	 * @throws IllegalArgumentException if the module is null, the sampling rate is not positive, or a size is not a multiple of the sampling rate
+	 */
+	public float[] noise(Module module, float[] out, int xSize, int ySize, int zSize, int samplingRate, int x, int y, int z) {
+		final int planeSize = interpolateYZ(module, xSize, ySize, zSize, samplingRate, x, y, z);
+		final int length = (xSize + 1) * planeSize;
+		if (out == null || out.length < length) {
+			out = new float[length];
+		}
+		final double[] src = yPass;
+		final double[] w = weights;
+		final int samplesX = xSize / samplingRate + 1;
+		int d = 0;
+		for (int i = 0; i < samplesX - 1; i++) {
+			final int s0 = i * planeSize;
+			final int s1 = s0 + planeSize;
+			for (int o = 0; o < samplingRate; o++) {
+				final double t = w[o];
+				for (int k = 0; k < planeSize; k++) {
+					final double a = src[s0 + k];
+					out[d++] = (float) (a + (src[s1 + k] - a) * t);
+				}
+			}
+		}
+		final int last = (samplesX - 1) * planeSize;
+		for (int k = 0; k < planeSize; k++) {
+			out[d++] = (float) src[last + k];
+		}
+		return out;
+	}
+
+	/**
+	 * Samples the module and interpolates along the z and y axes into the y pass buffer
+	 *
+	 * @return the number of values in each x plane of the lattice
+	 */
+	private int interpolateYZ(Module module, int xSize, int ySize, int zSize, int samplingRate, int x, int y, int z) {
+		if (module == null) {
+			throw new IllegalArgumentException("module cannot be null");
+		}
+		if (samplingRate <= 0) {
+			throw new IllegalArgumentException("samplingRate must be positive");
+		}
+		if (xSize % samplingRate != 0) {
+			throw new IllegalArgumentException("xSize % samplingRate must return 0");
+		}
+		if (ySize % samplingRate != 0) {
+			throw new IllegalArgumentException("ySize % samplingRate must return 0");
+		}
+		if (zSize % samplingRate != 0) {
+			throw new IllegalArgumentException("zSize % samplingRate must return 0");
+		}
+		final int samplesX = xSize / samplingRate + 1;
+		final int samplesY = ySize / samplingRate + 1;
+		final int samplesZ = zSize / samplingRate + 1;
+		final int lengthY = ySize + 1;
+		final int lengthZ = zSize + 1;
+
+		if (weights.length != samplingRate) {
+			weights = new double[samplingRate];
+			for (int o = 0; o < samplingRate; o++) {
+				weights[o] = (double) o / samplingRate;
+			}
+		}
+
+		final double[] s = samples = grow(samples, samplesX * samplesY * samplesZ);
+		int i = 0;
+		for (int sx = 0; sx < samplesX; sx++) {
+			final double px = x + sx * samplingRate;
+			for (int sy = 0; sy < samplesY; sy++) {
+				final double py = y + sy * samplingRate;
+				for (int sz = 0; sz < samplesZ; sz++) {
+					s[i++] = module.GetValue(px, py, z + sz * samplingRate);
+				}
+			}
+		}
+
+		// Each row of samples along z becomes a full row
+		final int rows = samplesX * samplesY;
+		final double[] zRows = zPass = grow(zPass, rows * lengthZ);
+		for (int r = 0; r < rows; r++) {
+			lerp(s, r * samplesZ, zRows, r * lengthZ, samplesZ, 1, samplingRate);
+		}
+
+		// Each plane of sampled rows along y becomes a full plane
+		final int planeSize = lengthY * lengthZ;
+		final double[] planes = yPass = grow(yPass, samplesX * planeSize);
+		for (int sx = 0; sx < samplesX; sx++) {
+			lerp(zRows, sx * samplesY * lengthZ, planes, sx * planeSize, samplesY, lengthZ, samplingRate);
+		}
+		return planeSize;
+	}
+
+	/**
+	 * Interpolates between consecutive runs of values.  Each of the given samples is a run of stride values, and samplingRate runs are written for every pair of samples, followed
+	 * by the last sample.
+	 */
+	private void lerp(double[] src, int srcOffset, double[] dst, int dstOffset, int samples, int stride, int samplingRate) {
+		final double[] w = weights;
+		int d = dstOffset;
+		for (int i = 0; i < samples - 1; i++) {
+			final int s0 = srcOffset + i * stride;
+			final int s1 = s0 + stride;
+			for (int o = 0; o < samplingRate; o++) {
+				final double t = w[o];
+				for (int k = 0; k < stride; k++) {
+					final double a = src[s0 + k];
+					dst[d++] = a + (src[s1 + k] - a) * t;
+				}
+			}
+		}
+		System.arraycopy(src, srcOffset + (samples - 1) * stride, dst, d, stride);
+	}
+
+	private static double[] grow(double[] array, int length) {
+		if (array.length < length) {
+			return new double[length];
+		}
+		return array;
+	}
+}
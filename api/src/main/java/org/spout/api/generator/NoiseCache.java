@@ -0,0 +1,254 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.royawesome.jlibnoise.module.Module;
+
+/**
+ * A bounded cache of noise lattices, so that noise evaluated for a chunk column by one generation pass can be reused by another.<br> <br> Lattices are keyed by the module, the
+ * seed the module was configured with, and the origin, size and sampling rate of the lattice. Modules whose seed is set before each use must be passed as a {@link SeededModule},
+ * so that the seed can not be changed by another thread while the lattice is evaluated. The least recently used lattice is discarded first. The arrays returned are shared
+ * and must not be modified.
+ */
+public class NoiseCache {
+	public static final int DEFAULT_CAPACITY = 1024;
+	/**
+	 * The width of a chunk column in bits
+	 */
+	public static final int COLUMN_BITS = 4;
+	private static final int COLUMN_MASK = (1 << COLUMN_BITS) - 1;
+	private static final NoiseCache instance = new NoiseCache(DEFAULT_CAPACITY);
+	private final ThreadLocal<BatchNoise> batchNoise = new ThreadLocal<BatchNoise>() {
+		@Override
+		protected BatchNoise initialValue() {
+			return new BatchNoise();
+		}
+	};
+	private final Map<LatticeKey, double[]> lattices;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	public NoiseCache(final int capacity) {
+		lattices = new LinkedHashMap<LatticeKey, double[]>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<LatticeKey, double[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cache shared by the biome selector layers and the generators
+	 *
+	 * @return the cache
+	 */
+	public static NoiseCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Gets a noise lattice, evaluating it with a {@link BatchNoise} if it is not cached.  The module must already be configured with the seed.
+	 *
+	 * @param module The noise generator module
+	 * @param seed The seed the module is configured with
+	 * @param xSize The x size of the lattice
+	 * @param ySize The y size of the lattice
+	 * @param zSize The z size of the lattice
+	 * @param samplingRate The sampling rate to use. xSize % samplingRate, ySize % samplingRate and zSize % samplingRate must return 0.
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param z The z coord
+	 * @return The lattice, laid out as described in {@link BatchNoise}
+	 */
+	public double[] get(Module module, long seed, int xSize, int ySize, int zSize, int samplingRate, int x, int y, int z) {
+		final LatticeKey key = new LatticeKey(module, seed, xSize, ySize, zSize, samplingRate, x, y, z);
+		double[] lattice = lookup(key);
+		if (lattice == null) {
+			lattice = batchNoise.get().noise(module, (double[]) null, xSize, ySize, zSize, samplingRate, x, y, z);
+			store(key, lattice);
+		}
+		return lattice;
+	}
+
+	/**
+	 * Gets a noise lattice for a module that is configured with a seed each time it is used, evaluating it with a {@link BatchNoise} if it is not cached.  The module is configured
+	 * and evaluated while synchronized on the source, so users of the module that set its seed must also synchronize on the source.
+	 *
+	 * @param source The source of the noise generator module
+	 * @param seed The seed to configure the module with
+	 * @param xSize The x size of the lattice
+	 * @param ySize The y size of the lattice
+	 * @param zSize The z size of the lattice
+	 * @param samplingRate The sampling rate to use. xSize % samplingRate, ySize % samplingRate and zSize % samplingRate must return 0.
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param z The z coord
+	 * @return The lattice, laid out as described in {@link BatchNoise}
+	 */
+	public double[] get(SeededModule source, long seed, int xSize, int ySize, int zSize, int samplingRate, int x, int y, int z) {
+		final LatticeKey key = new LatticeKey(source, seed, xSize, ySize, zSize, samplingRate, x, y, z);
+		double[] lattice = lookup(key);
+		if (lattice == null) {
+			synchronized (source) {
+				lattice = batchNoise.get().noise(source.getModule(seed), (double[]) null, xSize, ySize, zSize, samplingRate, x, y, z);
+			}
+			store(key, lattice);
+		}
+		return lattice;
+	}
+
+	private double[] lookup(LatticeKey key) {
+		double[] lattice;
+		synchronized (lattices) {
+			lattice = lattices.get(key);
+		}
+		if (lattice != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return lattice;
+	}
+
+	private void store(LatticeKey key, double[] lattice) {
+		synchronized (lattices) {
+			lattices.put(key, lattice);
+		}
+	}
+
+	/**
+	 * Gets the noise value at a position.  The noise is evaluated for every column of the chunk column containing the position at the same height, so this should only be used
+	 * when most columns of the chunk column will be queried.
+	 *
+	 * @param module The noise generator module
+	 * @param seed The seed the module is configured with
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param z The z coord
+	 * @return The noise value
+	 */
+	public double getColumnValue(Module module, long seed, int x, int y, int z) {
+		final double[] lattice = get(module, seed, COLUMN_MASK, 0, COLUMN_MASK, 1, x & ~COLUMN_MASK, y, z & ~COLUMN_MASK);
+		return lattice[(x & COLUMN_MASK) << COLUMN_BITS | (z & COLUMN_MASK)];
+	}
+
+	/**
+	 * Gets the noise value at a position for a module that is configured with a seed each time it is used.  See {@link #getColumnValue(Module, long, int, int, int)} and {@link
+	 * #get(SeededModule, long, int, int, int, int, int, int, int)}.
+	 *
+	 * @param source The source of the noise generator module
+	 * @param seed The seed to configure the module with
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param z The z coord
+	 * @return The noise value
+	 */
+	public double getColumnValue(SeededModule source, long seed, int x, int y, int z) {
+		final double[] lattice = get(source, seed, COLUMN_MASK, 0, COLUMN_MASK, 1, x & ~COLUMN_MASK, y, z & ~COLUMN_MASK);
+		return lattice[(x & COLUMN_MASK) << COLUMN_BITS | (z & COLUMN_MASK)];
+	}
+
+	public void clear() {
+		synchronized (lattices) {
+			lattices.clear();
+		}
+	}
+
+	public int getSize() {
+		synchronized (lattices) {
+			return lattices.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * A noise module shared by several seeds, such as the module of a biome selector layer used by several worlds
+	 */
+	public interface SeededModule {
+		/**
+		 * Configures the module with a seed.  This is called while synchronized on this object.
+		 *
+		 * @param seed The seed
+		 * @return The module
+		 */
+		Module getModule(long seed);
+	}
+
+	private static class LatticeKey {
+		private final Object module;
+		private final long seed;
+		private final int xSize, ySize, zSize, samplingRate, x, y, z;
+		private final int hash;
+
+		public LatticeKey(Object module, long seed, int xSize, int ySize, int zSize, int samplingRate, int x, int y, int z) {
+			this.module = module;
+			this.seed = seed;
+			this.xSize = xSize;
+			this.ySize = ySize;
+			this.zSize = zSize;
+			this.samplingRate = samplingRate;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			int h = System.identityHashCode(module);
+			h = 31 * h + (int) (seed ^ (seed >>> 32));
+			h = 31 * h + x;
+			h = 31 * h + y;
+			h = 31 * h + z;
+			h = 31 * h + ((xSize << 20) ^ (ySize << 10) ^ zSize);
+			this.hash = 31 * h + samplingRate;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LatticeKey)) {
+				return false;
+			}
+			LatticeKey other = (LatticeKey) o;
+			return module == other.module && seed == other.seed && x == other.x && y == other.y && z == other.z && xSize == other.xSize && ySize == other.ySize && zSize == other.zSize
+					&& samplingRate == other.samplingRate;
+		}
+	}
+}
@@ -35,19 +35,35 @@ import org.spout.api.geo.cuboid.Chunk;
  */
 public abstract class Populator {
 	private boolean needsClearance;
+	private boolean threadSafe;
 
 	public Populator() {
 		this(false);
 	}
 
 	public Populator(boolean needsClearance) {
+		this(needsClearance, false);
+	}
+
+	public Populator(boolean needsClearance, boolean threadSafe) {
 		this.needsClearance = needsClearance;
+		this.threadSafe = threadSafe;
 	}
 
 	public boolean needsClearance() {
 		return needsClearance;
 	}
 
+	/**
+	 * Gets if this populator may populate several chunks at the same time.<br> <br> The chunks of a world are only populated off the region thread when every one of its populators
+	 * is thread safe. The chunks populated at the same time never share a neighbour, but a thread safe populator must not keep state between calls without synchronizing it.
+	 *
+	 * @return true if the populator is thread safe
+	 */
+	public boolean isThreadSafe() {
+		return threadSafe;
+	}
+
 	/**
 	 * Populates the chunk.
 	 *
@@ -0,0 +1,61 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator;
+
+import java.util.Random;
+
+import org.spout.api.generator.biome.BiomeManager;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.util.cuboid.CuboidBlockMaterialBuffer;
+
+/**
+ * Runs populators on behalf of the engine, so the time and memory each populator uses can be measured.<br> <br> Implementations must run the populator exactly once on the calling thread and
+ * rethrow anything it throws.
+ */
+public interface PopulatorProfiler {
+	/**
+	 * Populates a chunk with a populator
+	 *
+	 * @param populator the populator
+	 * @param chunk the chunk to populate
+	 * @param random the random to pass to the populator
+	 */
+	public void populate(Populator populator, Chunk chunk, Random random);
+
+	/**
+	 * Populates a material buffer with a generator populator
+	 *
+	 * @param populator the generator populator
+	 * @param blockData the buffer to populate
+	 * @param x the base x coordinate of the buffer
+	 * @param y the base y coordinate of the buffer
+	 * @param z the base z coordinate of the buffer
+	 * @param biomes the biomes of the buffer
+	 * @param seed the world seed
+	 */
+	public void populate(GeneratorPopulator populator, CuboidBlockMaterialBuffer blockData, int x, int y, int z, BiomeManager biomes, long seed);
+}
@@ -31,7 +31,6 @@ import java.util.Random;
 import net.royawesome.jlibnoise.module.Module;
 
 import org.spout.api.geo.World;
-import org.spout.math.GenericMath;
 
 /**
  * Utilities for World generation
@@ -39,6 +38,12 @@ import org.spout.math.GenericMath;
 public class WorldGeneratorUtils {
 	private final static int HASH_SHIFT = 19;
 	private final static long HASH_SHIFT_MASK = (1L << HASH_SHIFT) - 1;
+	private final static ThreadLocal<BatchNoise> batchNoise = new ThreadLocal<BatchNoise>() {
+		@Override
+		protected BatchNoise initialValue() {
+			return new BatchNoise();
+		}
+	};
 
 	/**
 	 * Returns the particular seed a Random should use for a position
@@ -198,6 +203,16 @@ public class WorldGeneratorUtils {
 		return array;
 	}
 
+	/**
+	 * Gets the batch noise engine of the current thread.  Generators that evaluate noise for every chunk should use it, or their own {@link BatchNoise}, with a reused output array
+	 * instead of the fastNoise methods, which allocate a new array for each call.
+	 *
+	 * @return the batch noise engine
+	 */
+	public static BatchNoise getBatchNoise() {
+		return batchNoise.get();
+	}
+
 	/**
 	 * Generates a 1D noise map using reduced sampling and linear interpolation
 	 *
@@ -220,18 +235,7 @@ public class WorldGeneratorUtils {
 		if (xSize % samplingRate != 0) {
 			throw new IllegalArgumentException("xSize % samplingRate must return 0");
 		}
-		final double[] noiseArray = new double[xSize + 1];
-		for (int xx = 0; xx <= xSize; xx += samplingRate) {
-			noiseArray[xx] = noiseGenerator.GetValue(xx + x, y, z);
-		}
-		for (int xx = 0; xx < xSize; xx++) {
-			if (xx % samplingRate != 0) {
-				int nx = (xx / samplingRate) * samplingRate;
-				noiseArray[xx] = GenericMath.lerp(xx, nx, nx + samplingRate,
-						noiseArray[nx], noiseArray[nx + samplingRate]);
-			}
-		}
-		return noiseArray;
+		return getBatchNoise().noise(noiseGenerator, (double[]) null, xSize, 0, 0, samplingRate, x, y, z);
 	}
 
 	/**
@@ -260,22 +264,20 @@ public class WorldGeneratorUtils {
 		if (zSize % samplingRate != 0) {
 			throw new IllegalArgumentException("zSize % samplingRate must return 0");
 		}
+		final double[] lattice = getBatchNoise().noise(noiseGenerator, (double[]) null, xSize, 0, zSize, samplingRate, x, y, z);
 		final double[][] noiseArray = new double[xSize + 1][zSize + 1];
-		for (int xx = 0; xx <= xSize; xx += samplingRate) {
-			for (int zz = 0; zz <= zSize; zz += samplingRate) {
-				noiseArray[xx][zz] = noiseGenerator.GetValue(xx + x, y, z + zz);
-			}
+		for (int xx = 0; xx <= xSize; xx++) {
+			System.arraycopy(lattice, xx * (zSize + 1), noiseArray[xx], 0, zSize + 1);
 		}
+		// The points on the far edges that are between samples have never been interpolated, they are kept at 0 so generated terrain does not change
 		for (int xx = 0; xx < xSize; xx++) {
-			for (int zz = 0; zz < zSize; zz++) {
-				if (xx % samplingRate != 0 || zz % samplingRate != 0) {
-					int nx = (xx / samplingRate) * samplingRate;
-					int nz = (zz / samplingRate) * samplingRate;
-					noiseArray[xx][zz] = GenericMath.biLerp(xx, zz, noiseArray[nx][nz],
-							noiseArray[nx][nz + samplingRate], noiseArray[nx + samplingRate][nz],
-							noiseArray[nx + samplingRate][nz + samplingRate], nx, nx + samplingRate,
-							nz, nz + samplingRate);
-				}
+			if (xx % samplingRate != 0) {
+				noiseArray[xx][zSize] = 0;
+			}
+		}
+		for (int zz = 0; zz < zSize; zz++) {
+			if (zz % samplingRate != 0) {
+				noiseArray[xSize][zz] = 0;
 			}
 		}
 		return noiseArray;
@@ -312,28 +314,27 @@ public class WorldGeneratorUtils {
 		if (zSize % samplingRate != 0) {
 			throw new IllegalArgumentException("zSize % samplingRate must return 0");
 		}
+		final double[] lattice = getBatchNoise().noise(noiseGenerator, (double[]) null, xSize, ySize, zSize, samplingRate, x, y, z);
 		final double[][][] noiseArray = new double[xSize + 1][ySize + 1][zSize + 1];
-		for (int xx = 0; xx <= xSize; xx += samplingRate) {
-			for (int yy = 0; yy <= ySize; yy += samplingRate) {
-				for (int zz = 0; zz <= zSize; zz += samplingRate) {
-					noiseArray[xx][yy][zz] = noiseGenerator.GetValue(xx + x, y + yy, z + zz);
-				}
+		int i = 0;
+		for (int xx = 0; xx <= xSize; xx++) {
+			for (int yy = 0; yy <= ySize; yy++) {
+				System.arraycopy(lattice, i, noiseArray[xx][yy], 0, zSize + 1);
+				i += zSize + 1;
 			}
 		}
-		for (int xx = 0; xx < xSize; xx++) {
-			for (int yy = 0; yy < ySize; yy++) {
-				for (int zz = 0; zz < zSize; zz++) {
-					if (xx % samplingRate != 0 || yy % samplingRate != 0 || zz % samplingRate != 0) {
-						int nx = (xx / samplingRate) * samplingRate;
-						int ny = (yy / samplingRate) * samplingRate;
-						int nz = (zz / samplingRate) * samplingRate;
-						noiseArray[xx][yy][zz] = GenericMath.triLerp(xx, yy, zz,
-								noiseArray[nx][ny][nz], noiseArray[nx][ny + samplingRate][nz],
-								noiseArray[nx][ny][nz + samplingRate], noiseArray[nx][ny + samplingRate][nz + samplingRate],
-								noiseArray[nx + samplingRate][ny][nz], noiseArray[nx + samplingRate][ny + samplingRate][nz],
-								noiseArray[nx + samplingRate][ny][nz + samplingRate], noiseArray[nx + samplingRate][ny + samplingRate][nz + samplingRate],
-								nx, nx + samplingRate, ny, ny + samplingRate, nz, nz + samplingRate);
+		// The points on the far faces that are between samples have never been interpolated, they are kept at 0 so generated terrain does not change
+		for (int xx = 0; xx <= xSize; xx++) {
+			for (int yy = 0; yy <= ySize; yy++) {
+				final boolean sampled = xx % samplingRate == 0 && yy % samplingRate == 0;
+				if (xx == xSize || yy == ySize) {
+					for (int zz = 0; zz <= zSize; zz++) {
+						if (!sampled || zz % samplingRate != 0) {
+							noiseArray[xx][yy][zz] = 0;
+						}
 					}
+				} else if (!sampled) {
+					noiseArray[xx][yy][zSize] = 0;
 				}
 			}
 		}
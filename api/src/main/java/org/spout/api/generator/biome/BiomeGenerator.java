@@ -33,6 +33,7 @@ import com.google.common.collect.Lists;
 
 import org.spout.api.generator.GeneratorPopulator;
 import org.spout.api.generator.Populator;
+import org.spout.api.generator.PopulatorProfiler;
 import org.spout.api.generator.WorldGenerator;
 import org.spout.api.geo.LoadOption;
 import org.spout.api.geo.World;
@@ -44,7 +45,9 @@ import org.spout.api.util.cuboid.CuboidBlockMaterialBuffer;
  * Abstract Biome Column Generator.
  */
 public abstract class BiomeGenerator implements WorldGenerator {
+	private static volatile PopulatorProfiler profiler = null;
 	protected final BiomeMap biomes = new BiomeMap();
+	private final BiomeManagerCache biomeCache = new BiomeManagerCache(BiomeManagerCache.DEFAULT_CAPACITY);
 	private final ArrayList<Populator> populators = new ArrayList<>();
 	private final ArrayList<GeneratorPopulator> generatorPopulators = new ArrayList<>();
 
@@ -55,7 +58,7 @@ public abstract class BiomeGenerator implements WorldGenerator {
 				return;
 			}
 		}
-		populators.add(new BiomePopulator());
+		populators.add(new BiomePopulator(biomes));
 	}
 
 	/**
@@ -85,11 +88,7 @@ public abstract class BiomeGenerator implements WorldGenerator {
 		final int z = blockData.getBase().getFloorZ();
 		final BiomeManager manager;
 		if (blockData.getSize().getFloorX() <= Chunk.BLOCKS.SIZE && blockData.getSize().getFloorZ() <= Chunk.BLOCKS.SIZE) {
-			BiomeManager temp = world.getBiomeManager(x, z, LoadOption.NO_LOAD);
-			if (temp == null) {
-				temp = generateBiomes(blockData.getBaseChunkX(), blockData.getBaseChunkZ(), world);
-			}
-			manager = temp;
+			manager = getBiomeManager(blockData.getBaseChunkX(), blockData.getBaseChunkZ(), world, LoadOption.NO_LOAD);
 		} else {
 			final Vector3f size = blockData.getSize();
 			final int xSize = size.getFloorX();
@@ -106,21 +105,101 @@ public abstract class BiomeGenerator implements WorldGenerator {
 		}
 		final long seed = world.getSeed();
 		generateTerrain(blockData, x, y, z, manager, seed);
+		final PopulatorProfiler profiler = BiomeGenerator.profiler;
 		for (GeneratorPopulator generatorPopulator : generatorPopulators) {
-			generatorPopulator.populate(blockData, x, y, z, manager, seed);
+			if (profiler == null) {
+				generatorPopulator.populate(blockData, x, y, z, manager, seed);
+			} else {
+				profiler.populate(generatorPopulator, blockData, x, y, z, manager, seed);
+			}
+		}
+	}
+
+	/**
+	 * Gets the biome manager of a column. The manager of the column is used if the column can be obtained with the load option, otherwise the biomes are taken from the biome
+	 * cache, and picked only if no other generation pass has picked them yet.
+	 *
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @param world the world the column belongs to
+	 * @param loadopt whether to load or generate the column
+	 * @return the biome manager
+	 */
+	public BiomeManager getBiomeManager(int chunkX, int chunkZ, World world, LoadOption loadopt) {
+		final BiomeManager manager = world.getBiomeManager(chunkX << Chunk.BLOCKS.BITS, chunkZ << Chunk.BLOCKS.BITS, loadopt);
+		if (manager != null) {
+			return manager;
 		}
+		return biomeCache.get(this, world, chunkX, chunkZ);
+	}
+
+	/**
+	 * Gets the biome manager for a column which is being loaded without stored biomes. The manager stays in the biome cache until {@link #invalidateBiomeManager(int, int, World)}
+	 * is called for the column.
+	 *
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @param world the world the column belongs to
+	 * @return the biome manager
+	 */
+	public BiomeManager promoteBiomeManager(int chunkX, int chunkZ, World world) {
+		return biomeCache.promote(this, world, chunkX, chunkZ);
+	}
+
+	/**
+	 * Removes the biome manager of a column from the biome cache. This must be called once the column is registered with its world, since the column holds its biomes from then
+	 * on.
+	 *
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @param world the world the column belongs to
+	 */
+	public void invalidateBiomeManager(int chunkX, int chunkZ, World world) {
+		biomeCache.invalidate(world.getSeed(), chunkX, chunkZ);
 	}
 
+	/**
+	 * Gets the cache of biome managers for columns which are not loaded
+	 *
+	 * @return the biome cache
+	 */
+	public BiomeManagerCache getBiomeCache() {
+		return biomeCache;
+	}
+
+	/**
+	 * Gets the profiler which generator populators are run through
+	 *
+	 * @return the profiler, or null if generator populators are run directly
+	 */
+	public static PopulatorProfiler getPopulatorProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Sets the profiler which generator populators of all biome generators are run through
+	 *
+	 * @param profiler the profiler, or null to run generator populators directly
+	 */
+	public static void setPopulatorProfiler(PopulatorProfiler profiler) {
+		BiomeGenerator.profiler = profiler;
+	}
+
+	/**
+	 * Picks the biomes of a column. This always runs the biome selector, use {@link #getBiomeManager(int, int, World, LoadOption)} to reuse biomes already picked.
+	 *
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @param world the world the column belongs to
+	 * @return the new biome manager
+	 */
 	public BiomeManager generateBiomes(int chunkX, int chunkZ, World world) {
-		final int x = chunkX << Chunk.BLOCKS.BITS;
-		final int z = chunkZ << Chunk.BLOCKS.BITS;
 		final Simple2DBiomeManager biomeManager = new Simple2DBiomeManager(chunkX, chunkZ);
+		final Biome[] columnBiomes = new Biome[Chunk.BLOCKS.AREA];
+		biomes.getBiomes(chunkX, chunkZ, world.getSeed(), columnBiomes);
 		byte[] biomeData = new byte[Chunk.BLOCKS.AREA];
-		for (int dx = x; dx < x + Chunk.BLOCKS.SIZE; ++dx) {
-			for (int dz = z; dz < z + Chunk.BLOCKS.SIZE; ++dz) {
-				biomeData[(dz & Chunk.BLOCKS.MASK) << 4 | (dx & Chunk.BLOCKS.MASK)] =
-						(byte) biomes.getBiome(dx, dz, world.getSeed()).getId();
-			}
+		for (int i = 0; i < biomeData.length; i++) {
+			biomeData[i] = (byte) columnBiomes[i].getId();
 		}
 		biomeManager.deserialize(biomeData);
 		return biomeManager;
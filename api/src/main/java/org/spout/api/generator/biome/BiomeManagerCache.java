@@ -0,0 +1,287 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator.biome;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spout.api.geo.World;
+
+/**
+ * A bounded cache of the biome managers of chunk columns which are not loaded yet, so that the terrain generator, the generator populators and the populators all share the
+ * biomes of a new column instead of each picking them again.<br> <br> Managers are keyed by the world seed and the chunk coordinates of the column. The cache is split into
+ * segments which are locked separately, and each segment discards its least recently used manager first. The biomes of a column are picked at most once while the column is
+ * cached, even when several threads ask for it at the same time. When the column is loaded, the manager is promoted into the column, and it is removed from the cache once the
+ * column is registered with its world. A column loaded with its own biomes removes the cached manager as well.
+ */
+public class BiomeManagerCache {
+	public static final int DEFAULT_CAPACITY = 1024;
+	private static final int SEGMENTS = 16;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private final AtomicLong promotions = new AtomicLong(0);
+
+	public BiomeManagerCache(int capacity) {
+		if (capacity < SEGMENTS) {
+			throw new IllegalArgumentException("Capacity must be at least " + SEGMENTS);
+		}
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(capacity / SEGMENTS);
+		}
+	}
+
+	/**
+	 * Gets the biome manager of a column, picking its biomes with the generator if it is not cached.
+	 *
+	 * @param generator the generator picking the biomes
+	 * @param world the world the column belongs to
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return the biome manager
+	 */
+	public BiomeManager get(BiomeGenerator generator, World world, int chunkX, int chunkZ) {
+		final ColumnKey key = new ColumnKey(world.getSeed(), chunkX, chunkZ);
+		final CachedColumn entry = getSegment(key).getOrCreate(key);
+		return entry.get(generator, world, chunkX, chunkZ);
+	}
+
+	/**
+	 * Gets the biome manager of a column if it is cached and its biomes have been picked.
+	 *
+	 * @param seed the world seed
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return the biome manager, or null if not cached
+	 */
+	public BiomeManager getIfPresent(long seed, int chunkX, int chunkZ) {
+		final ColumnKey key = new ColumnKey(seed, chunkX, chunkZ);
+		final CachedColumn entry = getSegment(key).get(key);
+		return entry == null ? null : entry.manager;
+	}
+
+	/**
+	 * Gets the biome manager of a column which is being loaded. The biomes are picked with the generator if they are not cached.<br> <br> The manager stays cached, so other
+	 * threads keep sharing it until the column is registered with its world and {@link #invalidate(long, int, int)} is called.
+	 *
+	 * @param generator the generator picking the biomes
+	 * @param world the world the column belongs to
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return the biome manager
+	 */
+	public BiomeManager promote(BiomeGenerator generator, World world, int chunkX, int chunkZ) {
+		final ColumnKey key = new ColumnKey(world.getSeed(), chunkX, chunkZ);
+		final Segment segment = getSegment(key);
+		final BiomeManager manager = segment.getOrCreate(key).get(generator, world, chunkX, chunkZ);
+		promotions.incrementAndGet();
+		return manager;
+	}
+
+	/**
+	 * Removes the biome manager of a column, once the column is registered with its world and holds its own biomes
+	 *
+	 * @param seed the world seed
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return true if a manager was removed
+	 */
+	public boolean invalidate(long seed, int chunkX, int chunkZ) {
+		final ColumnKey key = new ColumnKey(seed, chunkX, chunkZ);
+		return getSegment(key).remove(key);
+	}
+
+	/**
+	 * Removes every cached biome manager
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of columns currently cached
+	 *
+	 * @return the number of columns
+	 */
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of requests answered with biomes which had already been picked
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of requests for which the biomes had to be picked
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of columns discarded to keep the cache within its capacity
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the number of biome managers handed over to loaded columns
+	 *
+	 * @return the number of promotions
+	 */
+	public long getPromotions() {
+		return promotions.get();
+	}
+
+	/**
+	 * Gets the fraction of requests answered with biomes which had already been picked
+	 *
+	 * @return the hit rate, between 0 and 1
+	 */
+	public float getHitRate() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+		return total == 0 ? 0 : (float) h / total;
+	}
+
+	private Segment getSegment(ColumnKey key) {
+		return segments[(key.hashCode() >>> 16 ^ key.hashCode()) & (SEGMENTS - 1)];
+	}
+
+	private class Segment {
+		private final Map<ColumnKey, CachedColumn> entries;
+
+		public Segment(final int capacity) {
+			entries = new LinkedHashMap<ColumnKey, CachedColumn>(16, 0.75F, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ColumnKey, CachedColumn> eldest) {
+					if (size() > capacity) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		public synchronized CachedColumn get(ColumnKey key) {
+			return entries.get(key);
+		}
+
+		public synchronized CachedColumn getOrCreate(ColumnKey key) {
+			CachedColumn entry = entries.get(key);
+			if (entry == null) {
+				entry = new CachedColumn();
+				entries.put(key, entry);
+			}
+			return entry;
+		}
+
+		public synchronized boolean remove(ColumnKey key) {
+			return entries.remove(key) != null;
+		}
+
+		public synchronized void clear() {
+			entries.clear();
+		}
+
+		public synchronized int size() {
+			return entries.size();
+		}
+	}
+
+	private class CachedColumn {
+		private volatile BiomeManager manager;
+
+		public BiomeManager get(BiomeGenerator generator, World world, int chunkX, int chunkZ) {
+			BiomeManager m = manager;
+			if (m != null) {
+				hits.incrementAndGet();
+				return m;
+			}
+			synchronized (this) {
+				m = manager;
+				if (m != null) {
+					hits.incrementAndGet();
+					return m;
+				}
+				misses.incrementAndGet();
+				m = generator.generateBiomes(chunkX, chunkZ, world);
+				manager = m;
+				return m;
+			}
+		}
+	}
+
+	private static class ColumnKey {
+		private final long seed;
+		private final int x;
+		private final int z;
+		private final int hash;
+
+		public ColumnKey(long seed, int x, int z) {
+			this.seed = seed;
+			this.x = x;
+			this.z = z;
+			this.hash = 31 * (31 * (int) (seed ^ seed >>> 32) + x) + z;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ColumnKey)) {
+				return false;
+			}
+			final ColumnKey other = (ColumnKey) o;
+			return seed == other.seed && x == other.x && z == other.z;
+		}
+	}
+}
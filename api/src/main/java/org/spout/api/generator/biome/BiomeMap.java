@@ -72,6 +72,16 @@ public final class BiomeMap {
 		return selector.pickBiome(x, y, z, seed);
 	}
 
+	/**
+	 * Gets the biomes of every column in a chunk column, see {@link BiomeSelector#pickBiomes(int, int, long, Biome[])}
+	 */
+	public void getBiomes(int chunkX, int chunkZ, long seed, Biome[] biomes) {
+		if (selector == null) {
+			throw new IllegalStateException("Biome Selector is null and cannot set a selector");
+		}
+		selector.pickBiomes(chunkX, chunkZ, seed, biomes);
+	}
+
 	public Set<Biome> getBiomes() {
 		return new HashSet<>(map.getValues());
 	}
@@ -32,9 +32,42 @@ import org.spout.api.generator.Populator;
 import org.spout.api.geo.cuboid.Chunk;
 
 /**
- * Provides Biome level population for BiomeGenerator
+ * Provides Biome level population for BiomeGenerator<br> <br> The populator is thread safe when every decorator of every biome of its generator is thread safe.
  */
 public final class BiomePopulator extends Populator {
+	private final BiomeMap biomes;
+
+	/**
+	 * Creates a populator which is not thread safe, since it doesn't know the biomes it decorates
+	 */
+	public BiomePopulator() {
+		this(null);
+	}
+
+	/**
+	 * Creates a populator for the biomes of a generator
+	 *
+	 * @param biomes the biomes of the generator
+	 */
+	public BiomePopulator(BiomeMap biomes) {
+		this.biomes = biomes;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		if (biomes == null) {
+			return false;
+		}
+		for (Biome biome : biomes.getBiomes()) {
+			for (Decorator decorator : biome.getDecorators()) {
+				if (!decorator.isThreadSafe()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public void populate(Chunk chunk, Random random) {
 		final Biome biome = chunk.getBiome(7, 7, 7);
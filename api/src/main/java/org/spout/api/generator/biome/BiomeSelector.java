@@ -26,6 +26,8 @@
  */
 package org.spout.api.generator.biome;
 
+import org.spout.api.geo.cuboid.Chunk;
+
 /**
  * Defines an abstract biome selector
  *
@@ -44,4 +46,23 @@ public abstract class BiomeSelector {
 	 * @return the biome between 0 and maxBiomes
 	 */
 	public abstract Biome pickBiome(int x, int y, int z, long seed);
+
+	/**
+	 * Selects the biomes of every column in a chunk column at y = 0.  The biomes are stored at index (z &amp; 15) &lt;&lt; 4 | (x &amp; 15), the layout used by {@link
+	 * Simple2DBiomeManager}.<br> <br> Selectors that can evaluate a whole chunk column faster than each column separately should override this.
+	 *
+	 * @param chunkX the x coordinate of the chunk column
+	 * @param chunkZ the z coordinate of the chunk column
+	 * @param seed the world seed
+	 * @param biomes the array to store the biomes in
+	 */
+	public void pickBiomes(int chunkX, int chunkZ, long seed, Biome[] biomes) {
+		final int x = chunkX << Chunk.BLOCKS.BITS;
+		final int z = chunkZ << Chunk.BLOCKS.BITS;
+		for (int dz = 0; dz < Chunk.BLOCKS.SIZE; dz++) {
+			for (int dx = 0; dx < Chunk.BLOCKS.SIZE; dx++) {
+				biomes[dz << Chunk.BLOCKS.BITS | dx] = pickBiome(x + dx, 0, z + dz, seed);
+			}
+		}
+	}
 }
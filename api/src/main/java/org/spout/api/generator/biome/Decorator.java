@@ -32,4 +32,16 @@ import org.spout.api.generator.Populator;
  * Biome level abstraction layer
  */
 public abstract class Decorator extends Populator {
+	public Decorator() {
+		this(false);
+	}
+
+	/**
+	 * Creates a decorator
+	 *
+	 * @param threadSafe true if the decorator may decorate several chunks at the same time, see {@link Populator#isThreadSafe()}
+	 */
+	public Decorator(boolean threadSafe) {
+		super(false, threadSafe);
+	}
 }
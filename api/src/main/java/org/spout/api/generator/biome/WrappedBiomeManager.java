@@ -51,10 +51,7 @@ public class WrappedBiomeManager extends BiomeManager {
 		subManagers = new BiomeManager[sizeX][sizeZ];
 		for (int xx = 0; xx < sizeX; xx++) {
 			for (int zz = 0; zz < sizeZ; zz++) {
-				subManagers[xx][zz] = world.getBiomeManager(x + xx << Chunk.BLOCKS.BITS, z + zz << Chunk.BLOCKS.BITS, LoadOption.NO_LOAD);
-				if (subManagers[xx][zz] == null) {
-					subManagers[xx][zz] = generator.generateBiomes(x + xx, z + zz, world);
-				}
+				subManagers[xx][zz] = generator.getBiomeManager(x + xx, z + zz, world, LoadOption.NO_LOAD);
 			}
 		}
 	}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator.biome.selector;
+
+/**
+ * A layer of a {@link LayeredBiomeSelector} that can evaluate its noise for a whole chunk column at once. The {@link LayeredBiomeSelector} uses it when it picks the biomes of a
+ * chunk column.
+ */
+public interface ColumnBiomeSelectorLayer extends BiomeSelectorLayer {
+	/**
+	 * Picks and returns a {@link LayeredBiomeSelectorElement} from the seed and coordinates. This gives the same result as {@link #pick(int, int, int, long)}, but the noise is
+	 * evaluated for every column of the chunk column containing the coordinates and cached, so it should only be used when most of the chunk column will be picked.
+	 *
+	 * @param x The x coordinate.
+	 * @param y The y coordinate.
+	 * @param z The z coordinate.
+	 * @param seed The seed from which should be used to determine what element to pick.
+	 * @return The picked {@link LayeredBiomeSelectorElement}.
+	 */
+	public LayeredBiomeSelectorElement pickInColumn(int x, int y, int z, long seed);
+}
@@ -31,6 +31,7 @@ import java.util.logging.Level;
 import org.spout.api.Spout;
 import org.spout.api.generator.biome.Biome;
 import org.spout.api.generator.biome.BiomeSelector;
+import org.spout.api.geo.cuboid.Chunk;
 
 /**
  * A layered biome selector. This selector starts with a starting layer which will pick an element for the same seed and coordinates. If the element is a biome, it will be returned, else if it is a
@@ -54,10 +55,29 @@ public class LayeredBiomeSelector extends BiomeSelector {
 
 	@Override
 	public Biome pickBiome(int x, int y, int z, long seed) {
+		return pickBiome(x, y, z, seed, false);
+	}
+
+	@Override
+	public void pickBiomes(int chunkX, int chunkZ, long seed, Biome[] biomes) {
+		final int x = chunkX << Chunk.BLOCKS.BITS;
+		final int z = chunkZ << Chunk.BLOCKS.BITS;
+		for (int dz = 0; dz < Chunk.BLOCKS.SIZE; dz++) {
+			for (int dx = 0; dx < Chunk.BLOCKS.SIZE; dx++) {
+				biomes[dz << Chunk.BLOCKS.BITS | dx] = pickBiome(x + dx, 0, z + dz, seed, true);
+			}
+		}
+	}
+
+	private Biome pickBiome(int x, int y, int z, long seed, boolean column) {
 		LayeredBiomeSelectorElement current = start;
 		while (!(current instanceof Biome)) {
-			final LayeredBiomeSelectorElement next =
-					((BiomeSelectorLayer) current).pick(x, y, z, seed);
+			final LayeredBiomeSelectorElement next;
+			if (column && current instanceof ColumnBiomeSelectorLayer) {
+				next = ((ColumnBiomeSelectorLayer) current).pickInColumn(x, y, z, seed);
+			} else {
+				next = ((BiomeSelectorLayer) current).pick(x, y, z, seed);
+			}
 			if (next == null) {
 				Spout.getLogger().log(Level.WARNING, "Got a null element in biome selector."
 						+ " Check your ranges in layer: " + current + "."
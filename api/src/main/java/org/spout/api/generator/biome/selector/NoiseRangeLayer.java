@@ -32,12 +32,29 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import net.royawesome.jlibnoise.module.Module;
+
+import org.spout.api.generator.NoiseCache;
+
 /**
  * A layer split into several ranges of noise values provided by an extending class via implementation of {@link #getNoiseValue(int, int, int, int)}. Each range has an element assigned to it. If the
  * elements are not added already sorted, they must be sorted at least once before use using {@link #sortElements()}.
  */
-public abstract class NoiseRangeLayer implements BiomeSelectorLayer {
+public abstract class NoiseRangeLayer implements ColumnBiomeSelectorLayer {
 	protected final List<ElementRange> ranges = new ArrayList<>();
+	/**
+	 * The noise module is shared by every seed, it is configured and used while synchronized on this
+	 */
+	private final NoiseCache.SeededModule noise = new NoiseCache.SeededModule() {
+		@Override
+		public Module getModule(long seed) {
+			return getNoiseModule((int) seed);
+		}
+	};
+	/**
+	 * If the layer provides a noise module, found by the first column pick
+	 */
+	private volatile Boolean hasNoiseModule = null;
 
 	/**
 	 * Adds an element to the layer within the range specified by minimum and maximum.
@@ -95,7 +112,8 @@ public abstract class NoiseRangeLayer implements BiomeSelectorLayer {
 	}
 
 	/**
-	 * Returns the noise value at the specified coordinates using the provided seed.
+	 * Returns the noise value at the specified coordinates using the provided seed.  This is called while the layer's noise is locked, so implementations can configure a shared
+	 * module with the seed.
 	 *
 	 * @param x The x coordinate.
 	 * @param y The y coordinate.
@@ -105,9 +123,42 @@ public abstract class NoiseRangeLayer implements BiomeSelectorLayer {
 	 */
 	protected abstract float getNoiseValue(int x, int y, int z, int seed);
 
+	/**
+	 * Returns the module that provides the noise values, configured for the provided seed. Layers that return a module can have their noise evaluated for a whole chunk column by
+	 * {@link #pickInColumn(int, int, int, long)}. This is called while the layer's noise is locked.
+	 *
+	 * @param seed The seed for the noise source.
+	 * @return The module, or null if the noise values are only available through {@link #getNoiseValue(int, int, int, int)}.
+	 */
+	protected Module getNoiseModule(int seed) {
+		return null;
+	}
+
 	@Override
 	public LayeredBiomeSelectorElement pick(int x, int y, int z, long seed) {
-		final float value = getNoiseValue(x, y, z, (int) seed);
+		final float value;
+		synchronized (noise) {
+			value = getNoiseValue(x, y, z, (int) seed);
+		}
+		return pick(value);
+	}
+
+	@Override
+	public LayeredBiomeSelectorElement pickInColumn(int x, int y, int z, long seed) {
+		Boolean hasModule = hasNoiseModule;
+		if (hasModule == null) {
+			synchronized (noise) {
+				hasModule = getNoiseModule((int) seed) != null;
+			}
+			hasNoiseModule = hasModule;
+		}
+		if (!hasModule) {
+			return pick(x, y, z, seed);
+		}
+		return pick((float) NoiseCache.getInstance().getColumnValue(noise, seed, x, y, z));
+	}
+
+	private LayeredBiomeSelectorElement pick(float value) {
 		for (ElementRange range : ranges) {
 			if (range.isInRange(value)) {
 				return range.getElement();
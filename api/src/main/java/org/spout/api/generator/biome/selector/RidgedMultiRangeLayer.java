@@ -27,6 +27,7 @@
 package org.spout.api.generator.biome.selector;
 
 import net.royawesome.jlibnoise.NoiseQuality;
+import net.royawesome.jlibnoise.module.Module;
 import net.royawesome.jlibnoise.module.modifier.Clamp;
 import net.royawesome.jlibnoise.module.source.RidgedMulti;
 
@@ -54,8 +55,13 @@ public class RidgedMultiRangeLayer extends NoiseRangeLayer implements Cloneable
 
 	@Override
 	protected float getNoiseValue(int x, int y, int z, int seed) {
+		return (float) getNoiseModule(seed).GetValue(x, y, z);
+	}
+
+	@Override
+	protected Module getNoiseModule(int seed) {
 		ridgedMulti.setSeed(seed * uniquenessValue);
-		return (float) clamp.GetValue(x, y, z);
+		return clamp;
 	}
 
 	/**
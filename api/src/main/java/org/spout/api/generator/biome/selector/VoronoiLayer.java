@@ -31,19 +31,32 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import net.royawesome.jlibnoise.module.Module;
 import net.royawesome.jlibnoise.module.modifier.Turbulence;
 import net.royawesome.jlibnoise.module.source.Voronoi;
 
+import org.spout.api.generator.NoiseCache;
 import org.spout.math.GenericMath;
 
 /**
  * A layer where each voronoi cell is a {@link LayeredBiomeSelectorElement}. This layer uses a voronoi source passed through a turbulence modifier. Useful for land with various unorganized biomes.
  */
-public class VoronoiLayer implements BiomeSelectorLayer, Cloneable {
+public class VoronoiLayer implements ColumnBiomeSelectorLayer, Cloneable {
 	private final List<LayeredBiomeSelectorElement> selectorElements = new ArrayList<>();
 	private final Voronoi voronoi = new Voronoi();
 	private final Turbulence turbulence = new Turbulence();
 	private final int uniquenessValue;
+	/**
+	 * The modules are shared by every seed, they are configured and used while synchronized on this
+	 */
+	private final NoiseCache.SeededModule noise = new NoiseCache.SeededModule() {
+		@Override
+		public Module getModule(long seed) {
+			voronoi.setSeed((int) seed * uniquenessValue);
+			turbulence.setSeed((int) seed * uniquenessValue * uniquenessValue);
+			return turbulence;
+		}
+	};
 
 	/**
 	 * Construct a new voronoi layer.
@@ -59,10 +72,21 @@ public class VoronoiLayer implements BiomeSelectorLayer, Cloneable {
 
 	@Override
 	public LayeredBiomeSelectorElement pick(int x, int y, int z, long seed) {
-		voronoi.setSeed((int) seed * uniquenessValue);
-		turbulence.setSeed((int) seed * uniquenessValue * uniquenessValue);
+		final double value;
+		synchronized (noise) {
+			value = noise.getModule(seed).GetValue(x, y, z);
+		}
+		return pick(value);
+	}
+
+	@Override
+	public LayeredBiomeSelectorElement pickInColumn(int x, int y, int z, long seed) {
+		return pick(NoiseCache.getInstance().getColumnValue(noise, seed, x, y, z));
+	}
+
+	private LayeredBiomeSelectorElement pick(double value) {
 		final float size = selectorElements.size() / 2f;
-		return selectorElements.get(GenericMath.floor(turbulence.GetValue(x, y, z) * size + size));
+		return selectorElements.get(GenericMath.floor(value * size + size));
 	}
 
 	/**
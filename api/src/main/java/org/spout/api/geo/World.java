@@ -351,6 +351,19 @@ public interface World extends AreaRegionAccess, AreaPhysicsAccess, Named, Compo
 	@Threadsafe
 	public Entity getNearestEntity(Entity entity, int range);
 
+	/**
+	 * Gets the closest entities to the specified point within a specified range, ordered by increasing distance.
+	 *
+	 * @param position center of search
+	 * @param ignore Entity to ignore
+	 * @param range to search
+	 * @param count the maximum number of entities to return
+	 * @return the nearest entities (or empty if none)
+	 */
+	@LiveRead
+	@Threadsafe
+	public List<Entity> getNearestEntities(Point position, Entity ignore, int range, int count);
+
 	/**
 	 * Gets a set of nearby players to the point, inside of the range. The search will ignore the specified entity.
 	 *
@@ -0,0 +1,241 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.bytearrayarray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of files opened by {@link BAAWrapper}s and the bytes those files map into memory.<br> <br> Wrappers register their file when it is opened. If a limit is
+ * exceeded, open files are closed in clock order. A file accessed since the clock hand last passed it gets a second chance, and a file with I/O in progress is pinned and skipped.
+ * Files with enough free space are compacted before they are closed.<br> <br> Files are compacted and closed by a background thread, so the thread opening a file does not wait for
+ * them. The limits are therefore exceeded until those files are closed, and the mapped bytes of a closed file are only released once its buffers are garbage collected, so the
+ * mapped byte limit is advisory.<br> <br> A closed file is reopened the next time its wrapper is accessed.
+ */
+public class BAACache {
+	public static final int DEFAULT_MAX_OPEN_FILES = 256;
+	public static final long DEFAULT_MAX_MAPPED_BYTES = 1L << 30;
+	/**
+	 * The fraction of free space in a file at which it is compacted when evicted
+	 */
+	public static final float COMPACTION_THRESHOLD = 0.25F;
+	private static final Executor EVICTOR = Executors.newSingleThreadExecutor(new EvictorThreadFactory());
+	private static final BAACache instance = new BAACache(DEFAULT_MAX_OPEN_FILES, DEFAULT_MAX_MAPPED_BYTES);
+	private final Executor evictor;
+	/**
+	 * The open files in clock order
+	 */
+	private final ArrayList<BAAWrapper> open = new ArrayList<>();
+	private int hand = 0;
+	private volatile int maxOpenFiles;
+	private volatile long maxMappedBytes;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	public BAACache(int maxOpenFiles, long maxMappedBytes) {
+		this(maxOpenFiles, maxMappedBytes, EVICTOR);
+	}
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param maxOpenFiles the maximum number of open files
+	 * @param maxMappedBytes the maximum number of bytes mapped by the open files
+	 * @param evictor the executor that compacts and closes the files over the limits
+	 */
+	public BAACache(int maxOpenFiles, long maxMappedBytes, Executor evictor) {
+		this.evictor = evictor;
+		setLimits(maxOpenFiles, maxMappedBytes);
+	}
+
+	/**
+	 * Gets the cache shared by all wrappers that are not given a cache
+	 *
+	 * @return the cache
+	 */
+	public static BAACache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets the limits of the cache.  The limits are applied the next time a file is opened.
+	 *
+	 * @param maxOpenFiles the maximum number of open files
+	 * @param maxMappedBytes the maximum number of bytes mapped by the open files, this limit is advisory
+	 */
+	public void setLimits(int maxOpenFiles, long maxMappedBytes) {
+		if (maxOpenFiles < 1 || maxMappedBytes < 0) {
+			throw new IllegalArgumentException("Invalid cache limits, " + maxOpenFiles + " files, " + maxMappedBytes + " bytes");
+		}
+		this.maxOpenFiles = maxOpenFiles;
+		this.maxMappedBytes = maxMappedBytes;
+	}
+
+	public int getMaxOpenFiles() {
+		return maxOpenFiles;
+	}
+
+	public long getMaxMappedBytes() {
+		return maxMappedBytes;
+	}
+
+	/**
+	 * Called when a wrapper accesses its file while it is open
+	 */
+	void hit(BAAWrapper wrapper) {
+		hits.incrementAndGet();
+		wrapper.setReferenced();
+	}
+
+	/**
+	 * Called when a wrapper has opened its file.  Other files are closed by the evictor if a limit is exceeded.
+	 */
+	void opened(BAAWrapper wrapper) {
+		final List<BAAWrapper> victims;
+		synchronized (this) {
+			misses.incrementAndGet();
+			wrapper.setReferenced();
+			add(wrapper);
+			victims = selectVictims(wrapper);
+		}
+		if (victims.isEmpty()) {
+			return;
+		}
+		// Compacting and closing a file can take a while, so it is not done by the region or prefetch thread opening the file
+		try {
+			evictor.execute(new Runnable() {
+				@Override
+				public void run() {
+					evict(victims);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			evict(victims);
+		}
+	}
+
+	private void evict(List<BAAWrapper> victims) {
+		for (BAAWrapper w : victims) {
+			w.compact(COMPACTION_THRESHOLD);
+			if (w.evict()) {
+				evictions.incrementAndGet();
+			} else {
+				synchronized (this) {
+					add(w);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called when a wrapper has closed its file
+	 */
+	synchronized void closed(BAAWrapper wrapper) {
+		if (wrapper.isCached()) {
+			wrapper.setCached(false);
+			int i = open.indexOf(wrapper);
+			open.remove(i);
+			if (i < hand) {
+				hand--;
+			}
+		}
+	}
+
+	private void add(BAAWrapper wrapper) {
+		if (!wrapper.isCached()) {
+			wrapper.setCached(true);
+			open.add(wrapper);
+		}
+	}
+
+	/**
+	 * Removes the files to close from the list of open files.  Files that can not be closed are added back by the caller.
+	 */
+	private List<BAAWrapper> selectVictims(BAAWrapper opened) {
+		List<BAAWrapper> victims = new ArrayList<>();
+		long mapped = 0;
+		for (BAAWrapper w : open) {
+			mapped += w.getMappedBytes();
+		}
+		// Every file is passed at most twice, once to clear its reference and once to close it
+		int remaining = open.size() << 1;
+		while ((open.size() > maxOpenFiles || mapped > maxMappedBytes) && remaining-- > 0) {
+			if (hand >= open.size()) {
+				hand = 0;
+			}
+			BAAWrapper w = open.get(hand);
+			if (w == opened || w.isPinned() || w.clearReferenced()) {
+				hand++;
+				continue;
+			}
+			w.setCached(false);
+			open.remove(hand);
+			mapped -= w.getMappedBytes();
+			victims.add(w);
+		}
+		return victims;
+	}
+
+	public synchronized int getOpenFiles() {
+		return open.size();
+	}
+
+	public synchronized long getMappedBytes() {
+		long mapped = 0;
+		for (BAAWrapper w : open) {
+			mapped += w.getMappedBytes();
+		}
+		return mapped;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private static class EvictorThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Region File Evictor");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
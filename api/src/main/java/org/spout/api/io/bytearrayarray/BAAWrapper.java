@@ -30,8 +30,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.spout.api.io.compression.CompressionCodec;
+import org.spout.api.io.compression.CompressionCodecs;
+import org.spout.api.io.regionfile.SRFJournal;
+import org.spout.api.io.regionfile.SRFStatistics;
 import org.spout.api.io.regionfile.SimpleRegionFile;
 
 public class BAAWrapper {
@@ -41,29 +46,42 @@ public class BAAWrapper {
 	private final int segmentSize;
 	private final int entries;
 	private final int timeout;
+	private final CompressionCodec codec;
+	private final SRFJournal journal;
+	private final BAACache cache;
+	/**
+	 * The number of operations in progress, the file is not evicted while it is pinned
+	 */
+	private final AtomicInteger pins = new AtomicInteger(0);
+	/**
+	 * Set when the file is accessed, and cleared when the cache's clock hand passes the file
+	 */
+	private volatile boolean referenced = false;
+	/**
+	 * True if the wrapper is in the cache's list of open files, guarded by the cache
+	 */
+	private boolean cached = false;
 
 	public BAAWrapper(File file, int segmentSize, int entries, int timeout) {
+		this(file, segmentSize, entries, timeout, CompressionCodecs.DEFLATE);
+	}
+
+	public BAAWrapper(File file, int segmentSize, int entries, int timeout, CompressionCodec codec) {
+		this(file, segmentSize, entries, timeout, codec, null);
+	}
+
+	public BAAWrapper(File file, int segmentSize, int entries, int timeout, CompressionCodec codec, SRFJournal journal) {
+		this(file, segmentSize, entries, timeout, codec, journal, BAACache.getInstance());
+	}
+
+	public BAAWrapper(File file, int segmentSize, int entries, int timeout, CompressionCodec codec, SRFJournal journal, BAACache cache) {
 		this.file = file;
 		this.segmentSize = segmentSize;
 		this.entries = entries;
 		this.timeout = timeout;
-	}
-
-	/**
-	 * This method should be called periodically in order to see if the ByteArrayArray has timed out.  It always returns immediately.<br> <br> It will only close the array if no block OutputStreams are
-	 * open and the last access occurred more than the timeout previously
-	 */
-	public void timeoutCheck() {
-		ByteArrayArray baa = baaRef.get();
-		if (baa != null) {
-			try {
-				baa.closeIfTimedOut();
-			} catch (IOException ioe) {
-			}
-			if (baa.isClosed()) {
-				baaRef.compareAndSet(baa, null);
-			}
-		}
+		this.codec = codec;
+		this.journal = journal;
+		this.cache = cache;
 	}
 
 	/**
@@ -77,8 +95,8 @@ public class BAAWrapper {
 		if (baa != null) {
 			try {
 				boolean success = baa.attemptClose();
-				if (baa.isClosed()) {
-					baaRef.compareAndSet(baa, null);
+				if (baa.isClosed() && baaRef.compareAndSet(baa, null)) {
+					cache.closed(this);
 				}
 				return success;
 			} catch (IOException ioe) {
@@ -94,21 +112,26 @@ public class BAAWrapper {
 	 * @return true if the input stream exists
 	 */
 	public boolean inputStreamExists(int i) {
-		while (true) {
-			ByteArrayArray baa = getByteArrayArray();
-			if (baa == null) {
-				return false;
-			}
-			if (baa == openInProgress) {
-				continue;
-			}
-			try {
-				return baa.exists(i);
-			} catch (BAAClosedException e) {
-				continue;
-			} catch (IOException e) {
-				return false;
+		pins.incrementAndGet();
+		try {
+			while (true) {
+				ByteArrayArray baa = getByteArrayArray();
+				if (baa == null) {
+					return false;
+				}
+				if (baa == openInProgress) {
+					continue;
+				}
+				try {
+					return baa.exists(i);
+				} catch (BAAClosedException e) {
+					continue;
+				} catch (IOException e) {
+					return false;
+				}
 			}
+		} finally {
+			pins.decrementAndGet();
 		}
 	}
 
@@ -119,22 +142,27 @@ public class BAAWrapper {
 	 * @return true if the delete was successful
 	 */
 	public boolean delete(int i) {
-		while (true) {
-			ByteArrayArray baa = getByteArrayArray();
-			if (baa == null) {
-				return false;
-			}
-			if (baa == openInProgress) {
-				continue;
-			}
-			try {
-				baa.delete(i);
-				return true;
-			} catch (BAAClosedException e) {
-				continue;
-			} catch (IOException e) {
-				return false;
+		pins.incrementAndGet();
+		try {
+			while (true) {
+				ByteArrayArray baa = getByteArrayArray();
+				if (baa == null) {
+					return false;
+				}
+				if (baa == openInProgress) {
+					continue;
+				}
+				try {
+					baa.delete(i);
+					return true;
+				} catch (BAAClosedException e) {
+					continue;
+				} catch (IOException e) {
+					return false;
+				}
 			}
+		} finally {
+			pins.decrementAndGet();
 		}
 	}
 
@@ -145,20 +173,25 @@ public class BAAWrapper {
 	 * @return the DataOutputStream
 	 */
 	public OutputStream getBlockOutputStream(int i) {
-		while (true) {
-			ByteArrayArray baa = getByteArrayArray();
-			if (baa == null) {
-				return null;
-			}
-			OutputStream out;
-			try {
-				out = baa.getOutputStream(i);
-			} catch (BAAClosedException e) {
-				continue;
-			} catch (IOException e) {
-				return null;
+		pins.incrementAndGet();
+		try {
+			while (true) {
+				ByteArrayArray baa = getByteArrayArray();
+				if (baa == null) {
+					return null;
+				}
+				OutputStream out;
+				try {
+					out = baa.getOutputStream(i);
+				} catch (BAAClosedException e) {
+					continue;
+				} catch (IOException e) {
+					return null;
+				}
+				return out;
 			}
-			return out;
+		} finally {
+			pins.decrementAndGet();
 		}
 	}
 
@@ -169,21 +202,128 @@ public class BAAWrapper {
 	 * @return the DataInputStream
 	 */
 	public InputStream getBlockInputStream(int i) {
-		while (true) {
-			ByteArrayArray baa = getByteArrayArray();
-			if (baa == null) {
-				return null;
+		pins.incrementAndGet();
+		try {
+			while (true) {
+				ByteArrayArray baa = getByteArrayArray();
+				if (baa == null) {
+					return null;
+				}
+				InputStream in;
+				try {
+					in = baa.getInputStream(i);
+				} catch (BAAClosedException e) {
+					continue;
+				} catch (IOException e) {
+					return null;
+				}
+				return in;
 			}
-			InputStream in;
+		} finally {
+			pins.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets statistics about how the space in the file is used.  This does not open the file.
+	 *
+	 * @return the statistics, or null if the file is not open
+	 */
+	public SRFStatistics getStatistics() {
+		ByteArrayArray baa = baaRef.get();
+		if (baa instanceof SimpleRegionFile) {
 			try {
-				in = baa.getInputStream(i);
-			} catch (BAAClosedException e) {
-				continue;
-			} catch (IOException e) {
-				return null;
+				return ((SimpleRegionFile) baa).getStatistics();
+			} catch (IOException ioe) {
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compacts the file if it is open and the fraction of free space in the file is at least the given fragmentation.  This does not open the file.
+	 *
+	 * @param fragmentation the minimum fragmentation, between 0 and 1
+	 * @return the number of blocks moved
+	 */
+	public int compact(float fragmentation) {
+		ByteArrayArray baa = baaRef.get();
+		if (baa instanceof SimpleRegionFile) {
+			SimpleRegionFile srf = (SimpleRegionFile) baa;
+			try {
+				if (srf.getStatistics().getFragmentation() >= fragmentation) {
+					return srf.compact();
+				}
+			} catch (IOException ioe) {
 			}
-			return in;
 		}
+		return 0;
+	}
+
+	/**
+	 * Gets the number of bytes of the file that are mapped into memory.  This does not open the file.
+	 *
+	 * @return the mapped bytes, or 0 if the file is not open
+	 */
+	public long getMappedBytes() {
+		ByteArrayArray baa = baaRef.get();
+		if (baa instanceof SimpleRegionFile) {
+			return ((SimpleRegionFile) baa).getMappedBytes();
+		}
+		return 0;
+	}
+
+	/**
+	 * Closes the file for the cache, without notifying the cache
+	 *
+	 * @return true if the file is closed, or not opened
+	 */
+	boolean evict() {
+		ByteArrayArray baa = baaRef.get();
+		if (baa == null) {
+			return true;
+		}
+		if (baa == openInProgress) {
+			return false;
+		}
+		try {
+			baa.attemptClose();
+		} catch (IOException ioe) {
+		}
+		if (baa.isClosed()) {
+			baaRef.compareAndSet(baa, null);
+			return true;
+		}
+		return false;
+	}
+
+	boolean isPinned() {
+		return pins.get() > 0;
+	}
+
+	void setReferenced() {
+		referenced = true;
+	}
+
+	/**
+	 * Clears the referenced flag
+	 *
+	 * @return true if the flag was set
+	 */
+	boolean clearReferenced() {
+		if (referenced) {
+			referenced = false;
+			return true;
+		}
+		return false;
+	}
+
+	boolean isCached() {
+		return cached;
+	}
+
+	void setCached(boolean cached) {
+		this.cached = cached;
 	}
 
 	/**
@@ -203,6 +343,9 @@ public class BAAWrapper {
 			if (baa != null) {
 				// If the baa exists and isn't closed return it
 				if (!baa.isClosed()) {
+					if (baa != openInProgress) {
+						cache.hit(this);
+					}
 					return baa;
 				}
 				baaRef.compareAndSet(baa, null);
@@ -215,18 +358,20 @@ public class BAAWrapper {
 				baa = null; // not needed - already null
 				try {
 					try {
-						baa = new SimpleRegionFile(file, segmentSize, entries, timeout);
+						baa = new SimpleRegionFile(file, segmentSize, entries, timeout, codec, journal);
 					} catch (IOException e) {
 						e.printStackTrace();
 						baa = null; // not needed - already null. The assignment above comes after the potential IOException. 
 					}
-
-					return baa;
 				} finally {
 					if (!baaRef.compareAndSet(openInProgress, baa)) {
 						throw new IllegalStateException("chunkStore variable changed outside locking scheme");
 					}
 				}
+				if (baa != null) {
+					cache.opened(this);
+				}
+				return baa;
 			}
 
 			// Some other thread is trying to open the file
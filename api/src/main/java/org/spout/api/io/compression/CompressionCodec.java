@@ -0,0 +1,168 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression algorithm used for stored and transmitted data.<br> <br> Every codec has an id that is stored alongside the data it compressed, so data written with different codecs
+ * can be read back without knowing which codec was configured when it was written.
+ */
+public abstract class CompressionCodec {
+	private final byte id;
+	private final String name;
+
+	protected CompressionCodec(byte id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	/**
+	 * Gets the id stored with data compressed by this codec
+	 *
+	 * @return the id
+	 */
+	public final byte getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the name of the codec, as accepted by {@link CompressionCodecs#getCodec(String)}
+	 *
+	 * @return the name
+	 */
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the largest number of bytes that compressing the given number of bytes can produce
+	 *
+	 * @param length the uncompressed length
+	 * @return the maximum compressed length
+	 */
+	public abstract int getMaxCompressedLength(int length);
+
+	/**
+	 * Compresses a range of bytes into an array.<br> <br> The destination must have at least {@link #getMaxCompressedLength(int)} bytes available after the offset.
+	 *
+	 * @param src the uncompressed data
+	 * @param srcOffset the offset of the uncompressed data
+	 * @param length the number of bytes to compress
+	 * @param dst the array to compress into
+	 * @param dstOffset the offset to write the compressed data at
+	 * @return the number of compressed bytes written
+	 */
+	public abstract int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+	/**
+	 * Decompresses a range of bytes into an array
+	 *
+	 * @param src the compressed data
+	 * @param srcOffset the offset of the compressed data
+	 * @param length the number of compressed bytes
+	 * @param dst the array to decompress into
+	 * @param dstOffset the offset to write the uncompressed data at
+	 * @param uncompressedLength the maximum number of bytes to write
+	 * @return the number of uncompressed bytes written
+	 * @throws IOException if the compressed data is malformed
+	 */
+	public abstract int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int uncompressedLength) throws IOException;
+
+	/**
+	 * Wraps a stream so that everything written to it is compressed.<br> <br> By default, the data is buffered until the stream is closed and then written as the uncompressed length
+	 * followed by the compressed block.
+	 *
+	 * @param out the stream to write the compressed data to
+	 * @return the compressing stream
+	 */
+	public OutputStream getOutputStream(final OutputStream out) {
+		return new ByteArrayOutputStream() {
+			private boolean closed = false;
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				byte[] compressed = new byte[4 + getMaxCompressedLength(count)];
+				compressed[0] = (byte) (count >>> 24);
+				compressed[1] = (byte) (count >>> 16);
+				compressed[2] = (byte) (count >>> 8);
+				compressed[3] = (byte) count;
+				int length = compress(buf, 0, count, compressed, 4);
+				try {
+					out.write(compressed, 0, 4 + length);
+				} finally {
+					out.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wraps a stream of data written by {@link #getOutputStream(OutputStream)} so that it can be read uncompressed
+	 *
+	 * @param in the stream of compressed data
+	 * @return the decompressing stream
+	 * @throws IOException if the compressed data could not be read
+	 */
+	public InputStream getInputStream(InputStream in) throws IOException {
+		try {
+			DataInputStream dataIn = new DataInputStream(in);
+			int uncompressedLength = dataIn.readInt();
+			if (uncompressedLength < 0) {
+				throw new IOException("Negative uncompressed length " + uncompressedLength);
+			}
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(32, in.available()));
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				compressed.write(buffer, 0, read);
+			}
+			byte[] uncompressed = new byte[uncompressedLength];
+			int length = decompress(compressed.toByteArray(), 0, compressed.size(), uncompressed, 0, uncompressedLength);
+			if (length != uncompressedLength) {
+				throw new IOException("Incorrect decompressed length, expected " + uncompressedLength + " got " + length);
+			}
+			return new ByteArrayInputStream(uncompressed);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
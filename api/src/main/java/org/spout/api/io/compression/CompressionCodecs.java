@@ -0,0 +1,83 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.compression;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * The built-in compression codecs
+ */
+public final class CompressionCodecs {
+	public static final CompressionCodec DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+	public static final CompressionCodec NONE = new NoCompressionCodec();
+	public static final CompressionCodec LZ4 = new LZ4Codec();
+	private static final CompressionCodec[] BY_ID = new CompressionCodec[] {DEFLATE, NONE, LZ4};
+
+	private CompressionCodecs() {
+	}
+
+	/**
+	 * Gets the codec able to decompress data stored with the given id
+	 *
+	 * @param id the codec id
+	 * @return the codec, or null if the id is unknown
+	 */
+	public static CompressionCodec getCodec(int id) {
+		if (id < 0 || id >= BY_ID.length) {
+			return null;
+		}
+		return BY_ID[id];
+	}
+
+	/**
+	 * Gets a codec by name.<br> <br> Accepted names are "none", "lz4", "deflate" and "deflate:&lt;level&gt;" with a level from 0 to 9.
+	 *
+	 * @param name the codec name
+	 * @return the codec
+	 * @throws IllegalArgumentException if the name is not a known codec
+	 */
+	public static CompressionCodec getCodec(String name) {
+		String lower = name.trim().toLowerCase(Locale.ENGLISH);
+		switch (lower) {
+			case "none":
+				return NONE;
+			case "lz4":
+				return LZ4;
+			case "deflate":
+				return DEFLATE;
+		}
+		if (lower.startsWith("deflate:")) {
+			try {
+				return new DeflateCodec(Integer.parseInt(lower.substring(8)));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid deflate level in codec " + name, e);
+			}
+		}
+		throw new IllegalArgumentException("Unknown compression codec " + name);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Zlib compression at a configurable level.<br> <br> All levels share the same id, since the level is not needed to decompress. Streams use the plain zlib format, so data written
+ * before codecs were selectable can be read by this codec.
+ */
+public class DeflateCodec extends CompressionCodec {
+	public static final byte ID = 0;
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+	private final int level;
+	private final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(level);
+		}
+	};
+
+	/**
+	 * Creates a deflate codec
+	 *
+	 * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public DeflateCodec(int level) {
+		super(ID, level == Deflater.DEFAULT_COMPRESSION ? "deflate" : "deflate:" + level);
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid deflate level " + level);
+		}
+		this.level = level;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public int getMaxCompressedLength(int length) {
+		// zlib's deflateBound plus the zlib header and checksum
+		return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 6;
+	}
+
+	@Override
+	public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+		final Deflater deflater = this.deflater.get();
+		deflater.reset();
+		deflater.setInput(src, srcOffset, length);
+		deflater.finish();
+		int offset = dstOffset;
+		while (!deflater.finished()) {
+			if (offset >= dst.length) {
+				throw new IllegalArgumentException("Destination array too small for compressed data");
+			}
+			offset += deflater.deflate(dst, offset, dst.length - offset);
+		}
+		return offset - dstOffset;
+	}
+
+	@Override
+	public int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int uncompressedLength) throws IOException {
+		final Inflater inflater = INFLATER.get();
+		inflater.reset();
+		inflater.setInput(src, srcOffset, length);
+		int offset = dstOffset;
+		int end = dstOffset + uncompressedLength;
+		try {
+			while (!inflater.finished() && offset < end) {
+				int read = inflater.inflate(dst, offset, end - offset);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				offset += read;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed deflate data", e);
+		}
+		return offset - dstOffset;
+	}
+
+	@Override
+	public OutputStream getOutputStream(OutputStream out) {
+		final Deflater deflater = new Deflater(level);
+		return new DeflaterOutputStream(out, deflater) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	@Override
+	public InputStream getInputStream(InputStream in) {
+		return new InflaterInputStream(in);
+	}
+}
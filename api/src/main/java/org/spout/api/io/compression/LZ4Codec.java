@@ -0,0 +1,211 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast compressor producing the LZ4 block format.<br> <br> Matches are found with a single hash table probe per position and no further search, which trades compression ratio
+ * for speed. Streams use the default block layout of {@link CompressionCodec}.
+ */
+public class LZ4Codec extends CompressionCodec {
+	public static final byte ID = 2;
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MATCH_FIND_LIMIT = 12;
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int HASH_BITS = 12;
+	private static final int SKIP_STRENGTH = 6;
+	private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << HASH_BITS];
+		}
+	};
+
+	public LZ4Codec() {
+		super(ID, "lz4");
+	}
+
+	@Override
+	public int getMaxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	@Override
+	public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+		final int end = srcOffset + length;
+		final int matchLimit = end - LAST_LITERALS;
+		final int findLimit = end - MATCH_FIND_LIMIT;
+		int anchor = srcOffset;
+		int op = dstOffset;
+
+		if (length > MATCH_FIND_LIMIT) {
+			final int[] table = HASH_TABLE.get();
+			Arrays.fill(table, -1);
+			int ip = srcOffset;
+			while (ip < findLimit) {
+				final int sequence = readInt(src, ip);
+				final int hash = hash(sequence);
+				int ref = table[hash];
+				table[hash] = ip;
+				if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+					// Step further the longer no match has been found
+					ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+					continue;
+				}
+				while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+					ip--;
+					ref--;
+				}
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+					matchLength++;
+				}
+				op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+
+		return writeLastLiterals(src, anchor, end - anchor, dst, op) - dstOffset;
+	}
+
+	@Override
+	public int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int uncompressedLength) throws IOException {
+		final int end = srcOffset + length;
+		final int outEnd = dstOffset + uncompressedLength;
+		int ip = srcOffset;
+		int op = dstOffset;
+		try {
+			while (ip < end) {
+				final int token = src[ip++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literals += b;
+					} while (b == 255);
+				}
+				if (ip + literals > end || op + literals > outEnd) {
+					throw new IOException("Malformed LZ4 data, literals exceed bounds");
+				}
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				if (ip >= end) {
+					// The last sequence only has literals
+					break;
+				}
+
+				final int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+				ip += 2;
+				int matchLength = token & 0xF;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				int ref = op - offset;
+				if (offset == 0 || ref < dstOffset || op + matchLength > outEnd) {
+					throw new IOException("Malformed LZ4 data, match exceeds bounds");
+				}
+				if (offset >= matchLength) {
+					System.arraycopy(dst, ref, dst, op, matchLength);
+					op += matchLength;
+				} else {
+					// Overlapping matches repeat the bytes they are copying
+					for (int i = 0; i < matchLength; i++) {
+						dst[op++] = dst[ref++];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Malformed LZ4 data, truncated input", e);
+		}
+		return op - dstOffset;
+	}
+
+	private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dst, int op, int offset, int matchLength) {
+		final int token = op++;
+		int tokenValue;
+		if (literals >= 15) {
+			tokenValue = 15 << 4;
+			op = writeLength(dst, op, literals - 15);
+		} else {
+			tokenValue = literals << 4;
+		}
+		System.arraycopy(src, literalStart, dst, op, literals);
+		op += literals;
+
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+
+		matchLength -= MIN_MATCH;
+		if (matchLength >= 15) {
+			tokenValue |= 15;
+			op = writeLength(dst, op, matchLength - 15);
+		} else {
+			tokenValue |= matchLength;
+		}
+		dst[token] = (byte) tokenValue;
+		return op;
+	}
+
+	private static int writeLastLiterals(byte[] src, int literalStart, int literals, byte[] dst, int op) {
+		if (literals >= 15) {
+			dst[op++] = (byte) (15 << 4);
+			op = writeLength(dst, op, literals - 15);
+		} else {
+			dst[op++] = (byte) (literals << 4);
+		}
+		System.arraycopy(src, literalStart, dst, op, literals);
+		return op + literals;
+	}
+
+	private static int writeLength(byte[] dst, int op, int length) {
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	private static int readInt(byte[] src, int i) {
+		return (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8) | ((src[i + 2] & 0xFF) << 16) | ((src[i + 3] & 0xFF) << 24);
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_BITS);
+	}
+}
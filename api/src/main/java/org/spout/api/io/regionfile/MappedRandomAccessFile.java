@@ -30,16 +30,21 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class MappedRandomAccessFile {
 	private final File filePath;
 	private final String permissions;
 	private long pos = 0;
-	private final ArrayList<MappedByteBuffer> pages = new ArrayList<>();
+	/**
+	 * The mapped pages, the array is replaced whenever a page is mapped so that unsynchronized readers see complete pages
+	 */
+	private volatile MappedByteBuffer[] pages = new MappedByteBuffer[0];
+	private volatile int mappedPages = 0;
 	private final int PAGE_SHIFT;
 	private final int PAGE_SIZE;
 	private final long PAGE_MASK;
@@ -58,11 +63,31 @@ public class MappedRandomAccessFile {
 		this.permissions = permissions;
 	}
 
+	/**
+	 * Gets the number of bytes of the file that are mapped into memory
+	 *
+	 * @return the mapped bytes
+	 */
+	public long getMappedBytes() {
+		return ((long) mappedPages) << PAGE_SHIFT;
+	}
+
 	public long length() throws IOException {
 		return file.length();
 	}
 
-	public void close() throws IOException {
+	/**
+	 * Forces the mapped pages to disk
+	 */
+	public synchronized void force() {
+		for (MappedByteBuffer m : pages) {
+			if (m != null) {
+				m.force();
+			}
+		}
+	}
+
+	public synchronized void close() throws IOException {
 		for (MappedByteBuffer m : pages) {
 			if (m != null) {
 				m.force();
@@ -92,12 +117,23 @@ public class MappedRandomAccessFile {
 	}
 
 	private MappedByteBuffer getPage(int pageIndex) throws IOException {
-		while (pageIndex >= pages.size()) {
-			pages.add(null);
+		MappedByteBuffer[] localPages = pages;
+		if (pageIndex < localPages.length && localPages[pageIndex] != null) {
+			return localPages[pageIndex];
+		}
+		return mapPage(pageIndex);
+	}
+
+	private synchronized MappedByteBuffer mapPage(int pageIndex) throws IOException {
+		MappedByteBuffer[] localPages = pages;
+		if (pageIndex >= localPages.length) {
+			localPages = Arrays.copyOf(localPages, Math.max(pageIndex + 1, localPages.length * 3 / 2));
+		} else {
+			localPages = localPages.clone();
 		}
-		MappedByteBuffer page = pages.get(pageIndex);
+		MappedByteBuffer page = localPages[pageIndex];
 		if (page == null) {
-			long pagePosition = pageIndex << PAGE_SHIFT;
+			long pagePosition = ((long) pageIndex) << PAGE_SHIFT;
 			boolean interrupted = false;
 			boolean success = false;
 			try {
@@ -117,11 +153,38 @@ public class MappedRandomAccessFile {
 					Thread.currentThread().interrupt();
 				}
 			}
-			pages.set(pageIndex, page);
+			localPages[pageIndex] = page;
+			mappedPages++;
 		}
+		pages = localPages;
 		return page;
 	}
 
+	/**
+	 * Reads bytes starting at the given position in the file.<br> <br> This does not use or change the file position and may be called concurrently with other reads and writes.
+	 * Reads of a range that is being written concurrently may return a mix of old and new data.
+	 *
+	 * @param position the position in the file to read from
+	 * @param b the array to read into
+	 * @param off the offset in the array
+	 * @param len the number of bytes to read
+	 * @throws IOException if a page could not be mapped
+	 */
+	public void read(long position, byte[] b, int off, int len) throws IOException {
+		int pageIndex = (int) (position >> PAGE_SHIFT);
+		int offset = (int) (position & PAGE_MASK);
+		while (len > 0) {
+			ByteBuffer page = getPage(pageIndex).duplicate();
+			int length = Math.min(len, PAGE_SIZE - offset);
+			page.position(offset);
+			page.get(b, off, length);
+			off += length;
+			len -= length;
+			pageIndex++;
+			offset = 0;
+		}
+	}
+
 	public void seek(long pos) throws IOException {
 		this.pos = pos;
 	}
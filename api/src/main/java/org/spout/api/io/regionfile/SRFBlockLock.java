@@ -58,7 +58,12 @@ public class SRFBlockLock implements Lock {
 
 	@Override
 	public boolean tryLock() {
-		throw new UnsupportedOperationException("");
+		incrementLockCounter();
+		if (lock.tryLock()) {
+			return true;
+		}
+		decrementLockCounter();
+		return false;
 	}
 
 	@Override
@@ -0,0 +1,342 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.regionfile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the blocks written to the region files in a directory.<br> <br> Each block written to a region file that uses the journal is first appended to the
+ * journal.  Appends are not forced to disk individually, {@link #sync()} forces all the blocks appended since the last sync with a single fsync.  The region files themselves are
+ * only forced when the journal is checkpointed, at which point the journal is emptied.<br> <br> After a crash, {@link #replay(File, File, int, int)} writes the blocks in the
+ * journal back to their region files.  Replaying is idempotent, so a journal that was already partially replayed can be replayed again.
+ */
+public class SRFJournal {
+	private static final int RECORD_MAGIC = 0x53524A4C;
+	private static final int MAX_RECORD_LENGTH = 1 << 26;
+	private final FileChannel channel;
+	private final long checkpointLength;
+	/**
+	 * Held for reading while a block is appended and written to its region file, and for writing while the journal is checkpointed
+	 */
+	private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+	private final Set<SimpleRegionFile> dirty = Collections.newSetFromMap(new ConcurrentHashMap<SimpleRegionFile, Boolean>());
+	private final Object syncLock = new Object();
+	/**
+	 * Set once the journal is closed, while holding both checkpointLock and syncLock
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * The number of bytes appended since the last checkpoint, guarded by this
+	 */
+	private long appended = 0;
+	/**
+	 * The number of bytes forced to disk since the last checkpoint, guarded by syncLock
+	 */
+	private long synced = 0;
+	private final AtomicLong records = new AtomicLong(0);
+	private final AtomicLong syncs = new AtomicLong(0);
+	private final AtomicLong checkpoints = new AtomicLong(0);
+
+	/**
+	 * Creates a journal.  Any existing journal at the given location is discarded, so it must be replayed first.
+	 *
+	 * @param file the journal file
+	 * @param checkpointLength the length in bytes at which the journal is checkpointed when it is synced
+	 * @throws IOException on error
+	 */
+	public SRFJournal(File file, long checkpointLength) throws IOException {
+		this.checkpointLength = checkpointLength;
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.truncate(0);
+	}
+
+	/**
+	 * Must be called before a block is appended, the write to the region file must complete before {@link #endWrite()} is called.<br> <br> Once the journal is closed, blocks
+	 * are written directly to their region files instead.
+	 *
+	 * @return true if the block should be appended, false if the journal is closed and {@link #endWrite()} must not be called
+	 */
+	boolean beginWrite() {
+		checkpointLock.readLock().lock();
+		if (closed) {
+			checkpointLock.readLock().unlock();
+			return false;
+		}
+		return true;
+	}
+
+	void endWrite() {
+		checkpointLock.readLock().unlock();
+	}
+
+	/**
+	 * Appends a block to the journal.  A length of 0 records that the block was deleted.
+	 *
+	 * @param srf the region file
+	 * @param i the block index
+	 * @param codec the id of the codec the block was compressed with
+	 * @param buf the compressed block
+	 * @param length the length of the block
+	 */
+	void append(SimpleRegionFile srf, int i, byte codec, byte[] buf, int length) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(length + 64);
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeUTF(srf.getFilePath().getName());
+		out.writeInt(i);
+		out.writeByte(codec);
+		out.writeInt(length);
+		out.write(buf, 0, length);
+		out.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(body.toByteArray(), 0, body.size());
+
+		ByteBuffer record = ByteBuffer.allocate(body.size() + 12);
+		record.putInt(RECORD_MAGIC);
+		record.putInt(body.size());
+		record.put(body.toByteArray(), 0, body.size());
+		record.putInt((int) crc.getValue());
+		record.flip();
+
+		dirty.add(srf);
+		synchronized (this) {
+			while (record.hasRemaining()) {
+				channel.write(record);
+			}
+			appended += record.limit();
+		}
+		records.incrementAndGet();
+	}
+
+	/**
+	 * Forces all the blocks appended so far to disk.  Concurrent calls are combined into a single fsync.<br> <br> If the journal is longer than the checkpoint length, it is
+	 * checkpointed.
+	 *
+	 * @throws IOException on error
+	 */
+	public void sync() throws IOException {
+		long length;
+		synchronized (syncLock) {
+			if (closed) {
+				return;
+			}
+			synchronized (this) {
+				length = appended;
+			}
+			if (length > synced) {
+				channel.force(false);
+				synced = length;
+				syncs.incrementAndGet();
+			}
+		}
+		if (length > checkpointLength) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Forces the region files written since the last checkpoint to disk and empties the journal
+	 *
+	 * @throws IOException on error
+	 */
+	public void checkpoint() throws IOException {
+		checkpointLock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			for (SimpleRegionFile srf : dirty) {
+				srf.force();
+			}
+			dirty.clear();
+			synchronized (syncLock) {
+				synchronized (this) {
+					channel.truncate(0);
+					channel.position(0);
+					appended = 0;
+				}
+				channel.force(true);
+				synced = 0;
+			}
+			checkpoints.incrementAndGet();
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Closes the journal file.  The journal should be checkpointed first, blocks appended since the last checkpoint are replayed on the next start.<br> <br> Region files still
+	 * using the journal write their blocks directly after it is closed.
+	 *
+	 * @throws IOException on error
+	 */
+	public void close() throws IOException {
+		checkpointLock.writeLock().lock();
+		try {
+			synchronized (syncLock) {
+				closed = true;
+				channel.close();
+			}
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of blocks appended to the journal
+	 */
+	public long getRecords() {
+		return records.get();
+	}
+
+	/**
+	 * Gets the number of times the journal was forced to disk
+	 */
+	public long getSyncs() {
+		return syncs.get();
+	}
+
+	/**
+	 * Gets the number of times the journal was checkpointed
+	 */
+	public long getCheckpoints() {
+		return checkpoints.get();
+	}
+
+	/**
+	 * Writes the blocks in a journal back to the region files in the given directory.  The region files must not be open.<br> <br> Replay stops at the first record that is
+	 * incomplete or fails its checksum, which is where the crash happened.  The FAT entries of the blocks in the journal are not trusted, since the crash can leave them overlapping.
+	 *
+	 * @param journal the journal file
+	 * @param regionDirectory the directory holding the region files
+	 * @param segmentSize log2(the segment size) of the region files
+	 * @param entries the number of blocks in the region files
+	 * @return the number of blocks replayed
+	 * @throws IOException on error
+	 */
+	public static int replay(File journal, File regionDirectory, int segmentSize, int entries) throws IOException {
+		if (!journal.exists()) {
+			return 0;
+		}
+		Map<String, List<Record>> records = new LinkedHashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+			while (true) {
+				byte[] body;
+				try {
+					if (in.readInt() != RECORD_MAGIC) {
+						break;
+					}
+					int length = in.readInt();
+					if (length < 0 || length > MAX_RECORD_LENGTH) {
+						break;
+					}
+					body = new byte[length];
+					in.readFully(body);
+					CRC32 crc = new CRC32();
+					crc.update(body, 0, length);
+					if (in.readInt() != (int) crc.getValue()) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+				String name = record.readUTF();
+				int i = record.readInt();
+				byte codec = record.readByte();
+				byte[] buf = new byte[record.readInt()];
+				record.readFully(buf);
+
+				List<Record> fileRecords = records.get(name);
+				if (fileRecords == null) {
+					fileRecords = new ArrayList<>();
+					records.put(name, fileRecords);
+				}
+				fileRecords.add(new Record(i, codec, buf));
+			}
+		}
+
+		int replayed = 0;
+		for (Map.Entry<String, List<Record>> entry : records.entrySet()) {
+			// The segment map is rebuilt from the journal, the FAT entries of the journaled blocks may overlap
+			BitSet journaled = new BitSet(entries);
+			for (Record record : entry.getValue()) {
+				if (record.index < 0 || record.index >= entries) {
+					throw new SRFException("Replayed block index out of range");
+				}
+				journaled.set(record.index);
+			}
+			SimpleRegionFile srf = new SimpleRegionFile(new File(regionDirectory, entry.getKey()), segmentSize, entries, journaled);
+			try {
+				for (Record record : entry.getValue()) {
+					srf.replay(record.index, record.codec, record.data, record.data.length);
+					replayed++;
+				}
+			} finally {
+				if (!srf.attemptClose()) {
+					throw new SRFException("Unable to close region file " + srf.getFilePath() + " after replaying the journal");
+				}
+			}
+		}
+		return replayed;
+	}
+
+	private static class Record {
+		private final int index;
+		private final byte codec;
+		private final byte[] data;
+
+		private Record(int index, byte codec, byte[] data) {
+			this.index = index;
+			this.codec = codec;
+			this.data = data;
+		}
+	}
+}
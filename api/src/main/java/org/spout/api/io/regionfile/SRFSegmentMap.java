@@ -0,0 +1,162 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.regionfile;
+
+import java.util.BitSet;
+
+/**
+ * Tracks which segments of a region file are in use.<br> <br> Allocation picks the smallest free run of segments that is large enough for the block, so that small holes left by deleted
+ * or shrunk blocks are reused before the file is extended.
+ */
+public class SRFSegmentMap {
+	private final BitSet used = new BitSet();
+	private int usedSegments = 0;
+
+	/**
+	 * Reserves a group of segments.  Nothing is reserved if any of the segments is already in use.
+	 *
+	 * @param start the index of the first segment
+	 * @param length the number of segments
+	 * @return true if the segments were reserved
+	 */
+	public synchronized boolean reserve(int start, int length) {
+		if (length <= 0) {
+			return true;
+		}
+		int next = used.nextSetBit(start);
+		if (next != -1 && next < start + length) {
+			return false;
+		}
+		used.set(start, start + length);
+		usedSegments += length;
+		return true;
+	}
+
+	/**
+	 * Releases a group of segments
+	 *
+	 * @param start the index of the first segment
+	 * @param length the number of segments
+	 * @throws SRFException if any of the segments was not in use
+	 */
+	public synchronized void release(int start, int length) throws SRFException {
+		if (length <= 0) {
+			return;
+		}
+		if (used.nextClearBit(start) < start + length) {
+			throw new SRFException("Attempt made to release segments that were not in use, " + start + " to " + (start + length - 1));
+		}
+		used.clear(start, start + length);
+		usedSegments -= length;
+	}
+
+	/**
+	 * Reserves the smallest free run of segments that can hold the given number of segments.  If there is no free run large enough, the segments are allocated at the end of the
+	 * file.
+	 *
+	 * @param length the number of segments
+	 * @return the index of the first segment
+	 */
+	public synchronized int allocate(int length) {
+		return allocate(length, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reserves the smallest free run of segments that can hold the given number of segments and starts before the given limit.
+	 *
+	 * @param length the number of segments
+	 * @param limit the segments must start before this index
+	 * @return the index of the first segment, or -1 if there is no free run that fits
+	 */
+	public synchronized int allocate(int length, int limit) {
+		int end = used.length();
+		int bestStart = -1;
+		int bestLength = Integer.MAX_VALUE;
+		int start = used.nextClearBit(0);
+		while (start < end && start < limit) {
+			int next = used.nextSetBit(start);
+			int run = next - start;
+			if (run >= length && run < bestLength) {
+				bestStart = start;
+				bestLength = run;
+				if (run == length) {
+					break;
+				}
+			}
+			start = used.nextClearBit(next);
+		}
+		if (bestStart == -1) {
+			if (end >= limit) {
+				return -1;
+			}
+			bestStart = end;
+		}
+		used.set(bestStart, bestStart + length);
+		usedSegments += length;
+		return bestStart;
+	}
+
+	/**
+	 * Gets the number of segments in use
+	 *
+	 * @return the number of segments
+	 */
+	public synchronized int getUsedSegments() {
+		return usedSegments;
+	}
+
+	/**
+	 * Gets the index after the last segment in use.  The file does not need to be longer than this.
+	 *
+	 * @return the end segment
+	 */
+	public synchronized int getEndSegment() {
+		return used.length();
+	}
+
+	/**
+	 * Gets statistics about the free space before the end segment
+	 *
+	 * @param segmentSize log2(the segment size)
+	 * @param liveBytes the total length of all blocks
+	 * @param fileLength the length of the file
+	 * @return the statistics
+	 */
+	public synchronized SRFStatistics getStatistics(int segmentSize, long liveBytes, long fileLength) {
+		int end = used.length();
+		int freeRuns = 0;
+		int largestFreeRun = 0;
+		int start = used.nextClearBit(0);
+		while (start < end) {
+			int next = used.nextSetBit(start);
+			freeRuns++;
+			largestFreeRun = Math.max(largestFreeRun, next - start);
+			start = used.nextClearBit(next);
+		}
+		return new SRFStatistics(segmentSize, usedSegments, end, freeRuns, largestFreeRun, liveBytes, fileLength);
+	}
+}
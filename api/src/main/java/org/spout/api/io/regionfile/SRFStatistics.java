@@ -0,0 +1,139 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.regionfile;
+
+/**
+ * A snapshot of how the space in a region file is used
+ */
+public class SRFStatistics {
+	private final int segmentSize;
+	private final int usedSegments;
+	private final int endSegment;
+	private final int freeRuns;
+	private final int largestFreeRun;
+	private final long liveBytes;
+	private final long fileLength;
+
+	public SRFStatistics(int segmentSize, int usedSegments, int endSegment, int freeRuns, int largestFreeRun, long liveBytes, long fileLength) {
+		this.segmentSize = segmentSize;
+		this.usedSegments = usedSegments;
+		this.endSegment = endSegment;
+		this.freeRuns = freeRuns;
+		this.largestFreeRun = largestFreeRun;
+		this.liveBytes = liveBytes;
+		this.fileLength = fileLength;
+	}
+
+	/**
+	 * Gets the segment size
+	 *
+	 * @return log2(the segment size)
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * Gets the number of segments in use, including the header
+	 *
+	 * @return the number of segments
+	 */
+	public int getUsedSegments() {
+		return usedSegments;
+	}
+
+	/**
+	 * Gets the index after the last segment in use
+	 *
+	 * @return the end segment
+	 */
+	public int getEndSegment() {
+		return endSegment;
+	}
+
+	/**
+	 * Gets the number of free segments before the end segment
+	 *
+	 * @return the number of segments
+	 */
+	public int getFreeSegments() {
+		return endSegment - usedSegments;
+	}
+
+	/**
+	 * Gets the number of separate runs of free segments before the end segment
+	 *
+	 * @return the number of runs
+	 */
+	public int getFreeRuns() {
+		return freeRuns;
+	}
+
+	/**
+	 * Gets the length of the longest run of free segments before the end segment
+	 *
+	 * @return the number of segments
+	 */
+	public int getLargestFreeRun() {
+		return largestFreeRun;
+	}
+
+	/**
+	 * Gets the total length of the blocks stored in the file
+	 *
+	 * @return the length in bytes
+	 */
+	public long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * Gets the length of the file on disk
+	 *
+	 * @return the length in bytes
+	 */
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	/**
+	 * Gets the fraction of the segments before the end segment that are free.  This is the fraction of the file that compaction can recover.
+	 *
+	 * @return the fragmentation, between 0 and 1
+	 */
+	public float getFragmentation() {
+		if (endSegment == 0) {
+			return 0;
+		}
+		return getFreeSegments() / (float) endSegment;
+	}
+
+	@Override
+	public String toString() {
+		return "SRFStatistics{used=" + usedSegments + ", end=" + endSegment + ", freeRuns=" + freeRuns + ", largestFreeRun=" + largestFreeRun + ", liveBytes=" + liveBytes + ", fileLength=" + fileLength + ", fragmentation=" + getFragmentation() + "}";
+	}
+}
@@ -34,38 +34,48 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 import org.spout.api.io.bytearrayarray.ByteArrayArray;
+import org.spout.api.io.compression.CompressionCodec;
+import org.spout.api.io.compression.CompressionCodecs;
 
 public class SimpleRegionFile implements ByteArrayArray {
 	private static ConcurrentHashMap<String, Boolean> openMap = new ConcurrentHashMap<>();
 	private static final int VERSION = 1;
 	private static final int DEFAULT_TIMEOUT = 120000; // timeout delay
 	public static final int FILE_CLOSED = -1;
+	/**
+	 * The top byte of the length in each FAT entry holds the id of the codec used for the block, files written before codecs were stored have 0 there, which is deflate
+	 */
+	private static final int CODEC_SHIFT = 24;
+	private static final int MAX_BLOCK_LENGTH = (1 << CODEC_SHIFT) - 1;
 	private final File filePath;
 	private final Object fileSyncObject = new Object();
-	private MappedRandomAccessFile file;
+	private volatile MappedRandomAccessFile file;
 	@SuppressWarnings ("unused")
 	private final int version;
 	private final int timeout;
 	private final AtomicInteger[] blockSegmentStart;
 	private final AtomicInteger[] blockSegmentLength;
 	private final AtomicInteger[] blockActualLength;
+	private final byte[] blockCodec;
 	private final SRFReentrantReadWriteLock[] blockLock;
 	private final AtomicInteger numberBlocksLocked;
 	private final AtomicLong lastAccess;
-	private final AtomicReference<AtomicBoolean[]> inuse;
+	private final SRFSegmentMap segments;
 	private final int segmentSize;
 	private final int segmentMask;
 	private final int entries;
+	private final CompressionCodec codec;
+	private final SRFJournal journal;
 
 	/**
 	 * Creates a SimpleRegionFile
@@ -89,8 +99,57 @@ public class SimpleRegionFile implements ByteArrayArray {
 	 * @throws IOException on error
 	 */
 	public SimpleRegionFile(File filePath, int desiredSegmentSize, int entries, int timeout) throws IOException {
+		this(filePath, desiredSegmentSize, entries, timeout, CompressionCodecs.DEFLATE);
+	}
+
+	/**
+	 * Creates a SimpleRegionFile
+	 *
+	 * @param filePath the path to the file
+	 * @param desiredSegmentSize log2(the desired segment size)
+	 * @param entries the number of blocks (sub-files) in the RegionFile
+	 * @param timeout the time in ms until the file times out for auto-closing
+	 * @param codec the codec used to compress blocks written to the file, blocks are read with the codec they were written with
+	 * @throws IOException on error
+	 */
+	public SimpleRegionFile(File filePath, int desiredSegmentSize, int entries, int timeout, CompressionCodec codec) throws IOException {
+		this(filePath, desiredSegmentSize, entries, timeout, codec, null);
+	}
+
+	/**
+	 * Creates a SimpleRegionFile
+	 *
+	 * @param filePath the path to the file
+	 * @param desiredSegmentSize log2(the desired segment size)
+	 * @param entries the number of blocks (sub-files) in the RegionFile
+	 * @param timeout the time in ms until the file times out for auto-closing
+	 * @param codec the codec used to compress blocks written to the file, blocks are read with the codec they were written with
+	 * @param journal the journal that blocks are appended to before they are written to the file, or null to write to the file directly
+	 * @throws IOException on error
+	 */
+	public SimpleRegionFile(File filePath, int desiredSegmentSize, int entries, int timeout, CompressionCodec codec, SRFJournal journal) throws IOException {
+		this(filePath, desiredSegmentSize, entries, timeout, codec, journal, null);
+	}
+
+	/**
+	 * Creates a SimpleRegionFile for replaying a journal.<br> <br> The FAT entries of the blocks in the journal are ignored and their segments are left free, since a crash can leave
+	 * them pointing at segments that were reused by another block.  Replaying the journal writes every one of those blocks again.
+	 *
+	 * @param filePath the path to the file
+	 * @param desiredSegmentSize log2(the desired segment size)
+	 * @param entries the number of blocks (sub-files) in the RegionFile
+	 * @param journaled the blocks that are in the journal
+	 * @throws IOException on error
+	 */
+	SimpleRegionFile(File filePath, int desiredSegmentSize, int entries, BitSet journaled) throws IOException {
+		this(filePath, desiredSegmentSize, entries, DEFAULT_TIMEOUT, CompressionCodecs.DEFLATE, null, journaled);
+	}
+
+	private SimpleRegionFile(File filePath, int desiredSegmentSize, int entries, int timeout, CompressionCodec codec, SRFJournal journal, BitSet journaled) throws IOException {
 
 		this.filePath = filePath;
+		this.codec = codec;
+		this.journal = journal;
 
 		this.timeout = timeout;
 		this.lastAccess = new AtomicLong(0);
@@ -125,28 +184,34 @@ public class SimpleRegionFile implements ByteArrayArray {
 			throw new SRFException("Number of entries mismatch for file " + this.filePath + ", expected " + entries + " got " + this.entries);
 		}
 
-		inuse = new AtomicReference<>(new AtomicBoolean[0]);
+		segments = new SRFSegmentMap();
 
 		int headerSegments = sizeToSegments(headerSize);
 
-		int segmentsLocked = reserveSegments(0, headerSegments);
-		if (segmentsLocked != headerSegments) {
+		if (!segments.reserve(0, headerSegments)) {
 			throw new SRFException("Unabled to lock header segments");
 		}
 
 		blockSegmentStart = new AtomicInteger[entries];
 		blockSegmentLength = new AtomicInteger[entries];
 		blockActualLength = new AtomicInteger[entries];
+		blockCodec = new byte[entries];
 		blockLock = new SRFReentrantReadWriteLock[entries];
 		numberBlocksLocked = new AtomicInteger(0);
 
 		for (int i = 0; i < entries; i++) {
-			blockSegmentStart[i] = new AtomicInteger(file.readInt());
-			blockActualLength[i] = new AtomicInteger(file.readInt());
+			int start = file.readInt();
+			int lengthAndCodec = file.readInt();
+			if (journaled != null && journaled.get(i)) {
+				start = 0;
+				lengthAndCodec = 0;
+			}
+			blockSegmentStart[i] = new AtomicInteger(start);
+			blockActualLength[i] = new AtomicInteger(lengthAndCodec & MAX_BLOCK_LENGTH);
+			blockCodec[i] = (byte) (lengthAndCodec >>> CODEC_SHIFT);
 			blockSegmentLength[i] = new AtomicInteger(sizeToSegments(blockActualLength[i].get()));
 			blockLock[i] = new SRFReentrantReadWriteLock(numberBlocksLocked);
-			int length = reserveSegments(blockSegmentStart[i].get(), blockSegmentLength[i].get());
-			if (length != blockSegmentLength[i].get()) {
+			if (!segments.reserve(blockSegmentStart[i].get(), blockSegmentLength[i].get())) {
 				throw new SRFException("Reserved segments for Block " + i + " overlap with another block");
 			}
 		}
@@ -195,14 +260,13 @@ public class SimpleRegionFile implements ByteArrayArray {
 			int start = blockSegmentStart[i].get() << segmentSize;
 			int actualLength = blockActualLength[i].get();
 			byte[] result = new byte[actualLength];
-			synchronized (fileSyncObject) {
-				if (file == null) {
-					this.file = new MappedRandomAccessFile(this.filePath, "rw");
-				}
-				file.seek(start);
-				file.readFully(result);
+			// The block read lock keeps the block in place, so the file monitor is not needed
+			getFile().read(start, result, 0, actualLength);
+			CompressionCodec decoder = CompressionCodecs.getCodec(blockCodec[i]);
+			if (decoder == null) {
+				throw new SRFException("Block " + i + " was written with unknown codec " + blockCodec[i]);
 			}
-			return new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(result)));
+			return new BufferedInputStream(decoder.getInputStream(new ByteArrayInputStream(result)));
 		} finally {
 			lock.unlock();
 		}
@@ -219,7 +283,7 @@ public class SimpleRegionFile implements ByteArrayArray {
 		if (this.isClosed()) {
 			throw new SRFClosedException("File closed");
 		}
-		return new BufferedOutputStream(new DeflaterOutputStream(new SRFOutputStream(this, i, this.segmentMask + 1, lock)));
+		return new BufferedOutputStream(codec.getOutputStream(new SRFOutputStream(this, i, this.segmentMask + 1, lock)));
 	}
 
 	/**
@@ -230,8 +294,53 @@ public class SimpleRegionFile implements ByteArrayArray {
 	 * @param length the actual block length
 	 */
 	void write(int i, byte[] buf, int length) throws IOException {
+		if (length > MAX_BLOCK_LENGTH) {
+			throw new SRFException("Block " + i + " is too large to store, " + length + " bytes");
+		}
 		refreshAccess();
+		if (journal == null || !journal.beginWrite()) {
+			writeBlock(i, codec.getId(), buf, length);
+			return;
+		}
+		try {
+			journal.append(this, i, codec.getId(), buf, length);
+			writeBlock(i, codec.getId(), buf, length);
+		} finally {
+			journal.endWrite();
+		}
+	}
+
+	/**
+	 * Writes a block from the journal to the file.  A length of 0 deletes the block.
+	 *
+	 * @param i the block index
+	 * @param codecId the id of the codec the block was compressed with
+	 * @param buf the buffer
+	 * @param length the actual block length
+	 */
+	void replay(int i, byte codecId, byte[] buf, int length) throws IOException {
+		if (i < 0 || i >= entries) {
+			throw new SRFException("Replayed block index out of range");
+		}
+		if (length > MAX_BLOCK_LENGTH) {
+			throw new SRFException("Replayed block " + i + " is too large to store, " + length + " bytes");
+		}
+		Lock lock = blockLock[i].writeLock();
+		lock.lock();
+		try {
+			if (length == 0) {
+				deleteBlock(i);
+			} else {
+				writeBlock(i, codecId, buf, length);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeBlock(int i, byte codecId, byte[] buf, int length) throws IOException {
 		int start = reserveBlockSegments(i, length);
+		blockCodec[i] = codecId;
 		synchronized (fileSyncObject) {
 			if (file == null) {
 				this.file = new MappedRandomAccessFile(this.filePath, "rw");
@@ -258,18 +367,32 @@ public class SimpleRegionFile implements ByteArrayArray {
 			if (this.isClosed()) {
 				throw new SRFClosedException("File closed");
 			}
-			int start = reserveBlockSegments(i, 0);
-			synchronized (fileSyncObject) {
-				if (file == null) {
-					this.file = new MappedRandomAccessFile(this.filePath, "rw");
-				}
-				this.writeFAT(i, start, 0);
+			if (journal == null || !journal.beginWrite()) {
+				deleteBlock(i);
+				return;
+			}
+			try {
+				journal.append(this, i, (byte) 0, new byte[0], 0);
+				deleteBlock(i);
+			} finally {
+				journal.endWrite();
 			}
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	private void deleteBlock(int i) throws IOException {
+		int start = reserveBlockSegments(i, 0);
+		blockCodec[i] = 0;
+		synchronized (fileSyncObject) {
+			if (file == null) {
+				this.file = new MappedRandomAccessFile(this.filePath, "rw");
+			}
+			this.writeFAT(i, start, 0);
+		}
+	}
+
 	@Override
 	public boolean isTimedOut() {
 		return this.lastAccess.get() + this.timeout < System.currentTimeMillis();
@@ -305,12 +428,61 @@ public class SimpleRegionFile implements ByteArrayArray {
 		}
 	}
 
+	/**
+	 * Forces the changes made to the file to disk.  This does nothing if the file is closed, since closing the file forces it.
+	 */
+	public void force() {
+		synchronized (fileSyncObject) {
+			if (file != null) {
+				file.force();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes of the file that are mapped into memory
+	 *
+	 * @return the mapped bytes, or 0 if the file is closed
+	 */
+	public long getMappedBytes() {
+		MappedRandomAccessFile localFile = file;
+		return localFile == null ? 0 : localFile.getMappedBytes();
+	}
+
+	/**
+	 * Gets the path to the file
+	 *
+	 * @return the path
+	 */
+	public File getFilePath() {
+		return filePath;
+	}
+
+	/**
+	 * Gets the underlying file, reopening it if it was closed
+	 *
+	 * @return the file
+	 */
+	private MappedRandomAccessFile getFile() throws IOException {
+		MappedRandomAccessFile localFile = file;
+		if (localFile == null) {
+			synchronized (fileSyncObject) {
+				if (file == null) {
+					file = new MappedRandomAccessFile(this.filePath, "rw");
+				}
+				localFile = file;
+			}
+		}
+		return localFile;
+	}
+
 	private boolean closeFileRaw() throws IOException {
 		synchronized (fileSyncObject) {
 			try {
 				if (file != null) {
 					file.close();
 					file = null;
+					truncate();
 				}
 			} finally {
 				Boolean old = openMap.remove(filePath.getCanonicalPath().toLowerCase());
@@ -322,6 +494,21 @@ public class SimpleRegionFile implements ByteArrayArray {
 		return true;
 	}
 
+	/**
+	 * Truncates the file after the last segment in use, releasing the space freed by compaction or by blocks at the end of the file shrinking.<br> <br> This must only be called
+	 * when the file is closed, since the pages of an open file are mapped.
+	 */
+	private void truncate() {
+		long length = ((long) segments.getEndSegment()) << segmentSize;
+		try (RandomAccessFile raf = new RandomAccessFile(filePath, "rw")) {
+			if (raf.length() > length) {
+				raf.setLength(length);
+			}
+		} catch (IOException e) {
+			// The file is still valid, it is just longer than it needs to be
+		}
+	}
+
 	/**
 	 * Gets the size of the header in bytes
 	 *
@@ -369,53 +556,9 @@ public class SimpleRegionFile implements ByteArrayArray {
 		return ((size - 1) >> segmentSize) + 1;
 	}
 
-	/**
-	 * Releases a segment.
-	 *
-	 * @param i the segment index
-	 * @return true on success
-	 */
-	private boolean releaseSegment(int i) {
-		boolean oldUsed = setInUse(i, false);
-		return oldUsed;
-	}
-
-	/**
-	 * Reserves a segment.
-	 *
-	 * @param i the segment index
-	 * @return true on success
-	 */
-	private boolean reserveSegment(int i) {
-		boolean oldUsed = setInUse(i, true);
-		return !oldUsed;
-	}
-
-	/**
-	 * Reserves a group of segments.  If all segments can't be locked, any locked segments are immediately released.
-	 *
-	 * @param start the index of the first segment
-	 * @param length the number of segments to lock
-	 * @return the number of segments locked (this is equal to length on success)
-	 */
-	private int reserveSegments(int start, int length) throws IOException {
-		int end = start + length;
-		for (int i = start; i < end; i++) {
-			if (!reserveSegment(i)) {
-				for (int j = i - 1; j >= start; j--) {
-					if (!releaseSegment(j)) {
-						throw new SRFException("Release error when releasing a group of segments that had just been locked");
-					}
-				}
-				return i - start;
-			}
-		}
-		return length;
-	}
-
 	/**
 	 * Reserves a contiguous group of segments for a block.<br> <br> If the new length is less than or equal to the old length, then the current allocation is resized down.<br> <br> If there is space
-	 * after the current allocation so that it can be expanded to the new size, then it is expanded.<br> <br> Otherwise, it scans from the start until it finds a large enough group of segments.<br> <br>
+	 * after the current allocation so that it can be expanded to the new size, then it is expanded.<br> <br> Otherwise, the smallest free group of segments that is large enough is used.<br> <br>
 	 * This may result in the file length needing to be increased.
 	 *
 	 * @param i the block index
@@ -435,38 +578,22 @@ public class SimpleRegionFile implements ByteArrayArray {
 		int newEnd = oldStart + newLength;
 
 		if (newLength <= oldLength) { // file has shrunk
-			for (int j = newEnd; j < oldEnd; j++) {
-				if (!this.releaseSegment(j)) {
-					throw new SRFException("Unable to unlock blocks due to file shrinking");
-				}
-			}
+			segments.release(newEnd, oldEnd - newEnd);
 			blockLength.set(newLength);
 			blockBytes.set(length);
 			return oldStart;
 		}
 
-		int extraLength = newLength - oldLength;
-		int lockedSegments = this.reserveSegments(oldEnd, extraLength);
-
-		if (lockedSegments == extraLength) {
+		if (oldLength > 0 && segments.reserve(oldEnd, newLength - oldLength)) {
 			blockLength.set(newLength);
 			blockBytes.set(length);
 			return oldStart;
 		}
 
-		int newStart = 0;
-		lockedSegments = 0;
-
-		while (lockedSegments != newLength) {
-			lockedSegments = this.reserveSegments(newStart, newLength);
-			if (lockedSegments != newLength) {
-				newStart = newStart + lockedSegments + 1;
-			}
-		}
+		// The old segments are kept until the new ones are reserved, so the block is never written over its old data
+		int newStart = segments.allocate(newLength);
 
-		for (int j = oldStart; j < oldEnd; j++) {
-			releaseSegment(j);
-		}
+		segments.release(oldStart, oldLength);
 
 		blockStart.set(newStart);
 		blockLength.set(newLength);
@@ -474,61 +601,125 @@ public class SimpleRegionFile implements ByteArrayArray {
 		return newStart;
 	}
 
-	private void writeFAT(int i, int start, int actualLength) throws IOException {
-		int FATEntryPosition = getFATOffset() + (i << 3);
-		synchronized (fileSyncObject) {
-			if (file == null) {
-				this.file = new MappedRandomAccessFile(this.filePath, "rw");
-			}
-			file.seek(FATEntryPosition);
-			file.writeInt(start);
-			file.writeInt(actualLength);
-		}
+	/**
+	 * Gets the codec used to compress blocks written to this file
+	 *
+	 * @return the codec
+	 */
+	public CompressionCodec getCodec() {
+		return codec;
 	}
 
 	/**
-	 * Sets an element in the in use array and returns the old value.
+	 * Gets statistics about how the space in the file is used
 	 *
-	 * @param i the segment index
-	 * @param used true if the segment should be in use
-	 * @return the old value
+	 * @return the statistics
 	 */
-	private boolean setInUse(int i, boolean used) {
-		AtomicBoolean[] localArray = inuse.get();
-
-		if (localArray.length <= i) {
-			expandInUseArray(Math.max(i + 1, localArray.length * 3 / 2));
+	public SRFStatistics getStatistics() throws IOException {
+		if (this.isClosed()) {
+			throw new SRFClosedException("File closed");
 		}
-
-		localArray = inuse.get();
-
-		return localArray[i].getAndSet(used);
+		long liveBytes = 0;
+		for (int i = 0; i < entries; i++) {
+			liveBytes += blockActualLength[i].get();
+		}
+		return segments.getStatistics(segmentSize, liveBytes, filePath.length());
 	}
 
 	/**
-	 * Expands the in use array.  When this method returns, the in use array will be at least newSize elements long
+	 * Compacts the file while it is open.<br> <br> Blocks are moved, starting with the block at the end of the file, into the smallest free group of segments before their current
+	 * position.  Each block is moved while holding its write lock, blocks that are locked by another thread are skipped.<br> <br> The file is truncated to the last segment in use
+	 * when it is closed.
 	 *
-	 * @param newSize the desired new size
+	 * @return the number of blocks moved
 	 */
-	private void expandInUseArray(int newSize) {
-
-		boolean success = false;
-
-		while (!success) {
-			AtomicBoolean[] oldArray = inuse.get();
+	public int compact() throws IOException {
+		Integer[] order = new Integer[entries];
+		for (int i = 0; i < entries; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(blockSegmentStart[b].get(), blockSegmentStart[a].get());
+			}
+		});
 
-			if (newSize <= oldArray.length) {
-				return;
+		int moved = 0;
+		for (int i : order) {
+			Lock lock = blockLock[i].writeLock();
+			if (!lock.tryLock()) {
+				continue;
+			}
+			try {
+				if (this.isClosed()) {
+					throw new SRFClosedException("File closed");
+				}
+				if (moveBlock(i)) {
+					moved++;
+				}
+			} finally {
+				lock.unlock();
 			}
+		}
+		return moved;
+	}
 
-			AtomicBoolean[] newArray = new AtomicBoolean[newSize];
-			System.arraycopy(oldArray, 0, newArray, 0, oldArray.length);
+	/**
+	 * Moves a block into the smallest free group of segments before its current position.<br> <br> Note: It is assumed that the block is write locked<br>
+	 *
+	 * @param i the block index
+	 * @return true if the block was moved
+	 */
+	private boolean moveBlock(int i) throws IOException {
+		int length = blockActualLength[i].get();
+		if (length == 0) {
+			return false;
+		}
+		int oldStart = blockSegmentStart[i].get();
+		int segmentLength = blockSegmentLength[i].get();
+		int newStart = segments.allocate(segmentLength, oldStart);
+		if (newStart == -1) {
+			return false;
+		}
+		byte[] buf = new byte[length];
+		getFile().read(((long) oldStart) << segmentSize, buf, 0, length);
+		// The move is journaled, since the old segments may be reused before the file is forced
+		if (journal == null || !journal.beginWrite()) {
+			writeMovedBlock(i, oldStart, newStart, buf, length);
+			return true;
+		}
+		try {
+			journal.append(this, i, blockCodec[i], buf, length);
+			writeMovedBlock(i, oldStart, newStart, buf, length);
+		} finally {
+			journal.endWrite();
+		}
+		return true;
+	}
 
-			for (int i = oldArray.length; i < newSize; i++) {
-				newArray[i] = new AtomicBoolean(false);
+	private void writeMovedBlock(int i, int oldStart, int newStart, byte[] buf, int length) throws IOException {
+		synchronized (fileSyncObject) {
+			if (file == null) {
+				this.file = new MappedRandomAccessFile(this.filePath, "rw");
 			}
+			file.seek(((long) newStart) << segmentSize);
+			file.write(buf, 0, length);
+			this.writeFAT(i, newStart, length);
+		}
+		blockSegmentStart[i].set(newStart);
+		segments.release(oldStart, blockSegmentLength[i].get());
+	}
 
-			success = inuse.compareAndSet(oldArray, newArray);
+	private void writeFAT(int i, int start, int actualLength) throws IOException {
+		int FATEntryPosition = getFATOffset() + (i << 3);
+		synchronized (fileSyncObject) {
+			if (file == null) {
+				this.file = new MappedRandomAccessFile(this.filePath, "rw");
+			}
+			file.seek(FATEntryPosition);
+			file.writeInt(start);
+			file.writeInt(actualLength | (blockCodec[i] << CODEC_SHIFT));
 		}
 	}
 }
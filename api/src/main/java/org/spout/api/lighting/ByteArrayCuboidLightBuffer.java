@@ -26,6 +26,9 @@
  */
 package org.spout.api.lighting;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.bouncycastle.util.Arrays;
 
 import org.spout.api.util.cuboid.CuboidBuffer;
@@ -70,4 +73,10 @@ public class ByteArrayCuboidLightBuffer extends CuboidLightBuffer {
 	public byte[] serialize() {
 		return Arrays.copyOf(data, data.length);
 	}
+
+	@Override
+	public void serialize(DataOutput out) throws IOException {
+		out.writeInt(data.length);
+		out.write(data);
+	}
 }
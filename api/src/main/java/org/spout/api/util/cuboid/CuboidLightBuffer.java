@@ -26,6 +26,9 @@
  */
 package org.spout.api.util.cuboid;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.spout.api.lighting.Modifiable;
 
 public abstract class CuboidLightBuffer extends CuboidBuffer implements Modifiable {
@@ -68,6 +71,18 @@ public abstract class CuboidLightBuffer extends CuboidBuffer implements Modifiab
 	 */
 	public abstract byte[] serialize();
 
+	/**
+	 * Writes the length of the serialized buffer followed by the serialized data.  Buffers that hold their data in a single array can override this to write it without copying.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if the output could not be written to
+	 */
+	public void serialize(DataOutput out) throws IOException {
+		byte[] data = serialize();
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
 	/**
 	 * Used to dispose of calls to setModified for wrapped buffers
 	 */
@@ -26,6 +26,8 @@
  */
 package org.spout.api.util.cuboid;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 import org.spout.api.lighting.Modifiable;
@@ -140,6 +142,12 @@ public class CuboidNibbleLightBuffer extends CuboidLightBuffer {
 		return Arrays.copyOf(lightData, lightData.length);
 	}
 
+	@Override
+	public void serialize(DataOutput out) throws IOException {
+		out.writeInt(lightData.length);
+		out.write(lightData);
+	}
+
 	protected static boolean isEven(int i) {
 		return (i | 1) != i;
 	}
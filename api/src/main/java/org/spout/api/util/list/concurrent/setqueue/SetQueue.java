@@ -57,6 +57,14 @@ public class SetQueue<T> implements Iterable<T> {
 			checkQueueElements();
 			count++;
 		}
+		onAdd();
+	}
+
+	/**
+	 * Called after an element has been added to the queue.<br> <br> This is only called when the element was not already in the queue, so subclasses can use it to cheaply flag that the
+	 * queue has pending elements.
+	 */
+	protected void onAdd() {
 	}
 
 	public T poll() {
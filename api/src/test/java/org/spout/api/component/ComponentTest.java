@@ -518,6 +518,11 @@ public final class ComponentTest {
 			return null;
 		}
 
+		@Override
+		public List<Entity> getNearestEntities(Point position, Entity ignore, int range, int count) {
+			return null;
+		}
+
 		@Override
 		public List<Player> getNearbyPlayers(Point position, Player ignore, int range) {
 			return null;
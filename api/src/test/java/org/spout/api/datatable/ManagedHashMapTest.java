@@ -0,0 +1,143 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.datatable;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.spout.api.datatable.delta.DeltaMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ManagedHashMapTest {
+	@Test
+	public void testDeltaSince() throws IOException {
+		ManagedHashMap map = new ManagedHashMap();
+		ManagedHashMap client = new ManagedHashMap();
+
+		map.put("a", 1);
+		map.put("b", "two");
+		map.put("c", 3.0);
+		long version = sync(map, client, 0);
+		assertEquals(map, client);
+
+		map.put("a", 10);
+		map.remove("c");
+		DeltaMap delta = map.getDeltaSince(version);
+		assertEquals("Delta did not use SET for a tracked version", DeltaMap.DeltaType.SET, delta.getType());
+		assertEquals("Delta did not hold only the changed and removed keys", 2, delta.size());
+		version = sync(map, client, version);
+		assertEquals(map, client);
+		assertFalse("Removed key was not removed by the delta", client.containsKey("c"));
+
+		assertTrue("Delta since the current version was not empty", map.getDeltaSince(version).isEmpty());
+
+		map.clear();
+		map.put("d", 4);
+		assertEquals("Delta across a clear did not replace the map", DeltaMap.DeltaType.REPLACE, map.getDeltaSince(version).getType());
+		sync(map, client, version);
+		assertEquals(map, client);
+	}
+
+	@Test
+	public void testRemovedKeysForgotten() throws IOException {
+		ManagedHashMap map = new ManagedHashMap();
+		ManagedHashMap client = new ManagedHashMap();
+		map.put("kept", 1);
+		long version = sync(map, client, 0);
+
+		for (int i = 0; i < 100; i++) {
+			map.put("temp" + i, i);
+			map.remove("temp" + i);
+		}
+
+		DeltaMap delta = map.getDeltaSince(version);
+		assertEquals("Delta after removed keys were forgotten did not replace the map", DeltaMap.DeltaType.REPLACE, delta.getType());
+		sync(map, client, version);
+		assertEquals(map, client);
+	}
+
+	@Test
+	public void testSerializeCache() throws IOException {
+		ManagedHashMap map = new ManagedHashMap();
+		map.put("a", 1);
+		byte[] first = map.serialize();
+		byte[] second = map.serialize();
+		assertTrue(Arrays.equals(first, second));
+		first[first.length - 1]++;
+		assertTrue("Cached data was shared with the caller", Arrays.equals(second, map.serialize()));
+
+		map.put("a", 2);
+		SerializableHashMap copy = new SerializableHashMap();
+		copy.deserialize(map.serialize());
+		assertEquals("Cached data was returned after the map changed", 2, copy.get("a"));
+	}
+
+	@Test
+	public void testSerializeCacheViews() throws IOException {
+		ManagedHashMap map = new ManagedHashMap();
+		map.put("a", 1);
+		map.put("b", 2);
+		map.serialize();
+
+		long version = map.getVersion();
+		map.keySet().remove("a");
+		assertTrue("Removal through the key set did not change the version", map.getVersion() > version);
+		SerializableHashMap copy = new SerializableHashMap();
+		copy.deserialize(map.serialize());
+		assertFalse("Cached data was returned after a removal through the key set", copy.containsKey("a"));
+
+		map.serialize();
+		map.values().clear();
+		copy.deserialize(map.serialize());
+		assertTrue("Cached data was returned after the values were cleared", copy.isEmpty());
+	}
+
+	@Test
+	public void testSerializeMutableValue() throws IOException {
+		ManagedHashMap map = new ManagedHashMap();
+		byte[] value = {1, 2, 3};
+		map.put("a", value);
+		map.serialize();
+
+		value[0] = 9;
+		SerializableHashMap copy = new SerializableHashMap();
+		copy.deserialize(map.serialize());
+		assertEquals("Value modified in place was not serialized", 9, ((byte[]) copy.get("a"))[0]);
+	}
+
+	private static long sync(ManagedHashMap map, ManagedHashMap client, long since) throws IOException {
+		long version = map.getVersion();
+		DeltaMap delta = map.getDeltaSince(since);
+		client.deserialize(delta.serialize(), delta.getType() == DeltaMap.DeltaType.REPLACE);
+		return version;
+	}
+}
@@ -26,19 +26,31 @@
  */
 package org.spout.api.datatable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 
 import org.spout.api.inventory.Inventory;
 import org.spout.api.map.DefaultedKey;
 import org.spout.api.map.DefaultedKeyImpl;
+import org.spout.math.imaginary.Quaternionf;
+import org.spout.math.vector.Vector2f;
+import org.spout.math.vector.Vector3f;
+import org.spout.math.vector.Vector3i;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class SerializableHashMapTest {
@@ -151,6 +163,123 @@ public class SerializableHashMapTest {
 		assertTrue("Entry set size is incorrect", test.entrySet().isEmpty());
 	}
 
+	@Test
+	public void testTypedCodec() throws IOException {
+		SerializableHashMap test = new SerializableHashMap();
+		test.put("string", "A string that is longer than a single byte can count \u00e9");
+		test.put("boolean", true);
+		test.put("byte", (byte) -3);
+		test.put("short", (short) 1234);
+		test.put("char", 'x');
+		test.put("int", intValue);
+		test.put("long", Long.MIN_VALUE);
+		test.put("float", floatValue);
+		test.put("double", Math.PI);
+		test.put("bytes", new byte[] {1, 2, 3});
+		test.put("uuid", UUID.randomUUID());
+		test.put("vector2", new Vector2f(1, 2));
+		test.put("vector3", new Vector3f(1, 2, 3));
+		test.put("vector3i", new Vector3i(-1, 0, 1));
+		test.put("quaternion", new Quaternionf(0, 0, 0, 1));
+		test.put("point", new Point(3, 4));
+		test.put("random", new Random(RANDOM_SEED));
+		SerializableHashMap inner = new SerializableHashMap();
+		inner.put("inner", 5);
+		test.put("map", inner);
+
+		byte[] data = test.serialize();
+		assertTrue("Map was not serialized with the typed codec", DatatableCodec.isTyped(data));
+
+		SerializableHashMap map = new SerializableHashMap();
+		map.deserialize(data);
+		assertEquals("Map size is incorrect after deserializing", test.size(), map.size());
+		for (String key : test.keySet()) {
+			Serializable value = test.get(key);
+			if (value instanceof byte[]) {
+				assertArrayEquals((byte[]) value, (byte[]) map.get(key));
+			} else if (value instanceof Random) {
+				assertEquals(new Random(RANDOM_SEED).nextLong(), ((Random) map.get(key)).nextLong());
+			} else {
+				assertEquals("Value for " + key + " changed after deserializing", value, map.get(key));
+			}
+		}
+	}
+
+	@Test
+	public void testLegacyFormat() throws IOException {
+		ConcurrentHashMap<String, Serializable> legacy = new ConcurrentHashMap<>();
+		legacy.put(intString, intValue);
+		legacy.put(floatString, floatValue);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(legacy);
+		}
+
+		SerializableHashMap map = new SerializableHashMap();
+		map.deserialize(bytes.toByteArray());
+		assertEquals(2, map.size());
+		assertEquals(intValue, map.get(intString));
+		assertEquals(floatValue, map.get(floatString));
+	}
+
+	@Test
+	public void testDeepCopy() {
+		SerializableHashMap test = new SerializableHashMap();
+		byte[] bytes = {1, 2, 3};
+		Point point = new Point(1, 1);
+		SerializableHashMap inner = new SerializableHashMap();
+		inner.put(intString, intValue);
+		test.put("bytes", bytes);
+		test.put("point", point);
+		test.put("map", inner);
+		test.put(floatString, floatValue);
+
+		SerializableHashMap copy = (SerializableHashMap) test.deepCopy();
+		bytes[0] = 0;
+		point.x = 5;
+		inner.put(intString, 2);
+
+		assertArrayEquals("Array was not copied", new byte[] {1, 2, 3}, (byte[]) copy.get("bytes"));
+		assertEquals("Registered type was not copied", new Point(1, 1), copy.get("point"));
+		assertEquals("Nested map was not copied", intValue, ((SerializableHashMap) copy.get("map")).get(intString));
+		assertEquals(floatValue, copy.get(floatString));
+	}
+
+	private static class Point implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int x, y;
+
+		Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+		}
+
+		@Override
+		public int hashCode() {
+			return x * 31 + y;
+		}
+	}
+
+	static {
+		DatatableCodec.register(new DatatableSerializer<Point>(Point.class) {
+			@Override
+			public void write(DataOutput out, Point value) throws IOException {
+				out.writeInt(value.x);
+				out.writeInt(value.y);
+			}
+
+			@Override
+			public Point read(DataInput in) throws IOException {
+				return new Point(in.readInt(), in.readInt());
+			}
+		});
+	}
+
 	private void testMapContents(SerializableHashMap test, boolean matchRandom) {
 		Set<String> keySet = test.keySet();
 
@@ -0,0 +1,202 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.spout.api.exception.EventException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncEventBusTest {
+	private static final int PRODUCERS = 4;
+	private static final int EVENTS = 20000;
+
+	@After
+	public void tearDown() {
+		HandlerList.unregisterAll();
+	}
+
+	@Test
+	public void testOrderedDelivery() throws InterruptedException {
+		final SimpleEventManager eventManager = new SimpleEventManager();
+		final OrderListener first = new OrderListener();
+		final OrderListener second = new OrderListener();
+		eventManager.registerEvent(SequenceEvent.class, Order.DEFAULT, first, this);
+		eventManager.registerEvent(SequenceEvent.class, Order.MONITOR, second, this);
+
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int producer = p;
+			producers.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < EVENTS; i++) {
+						eventManager.callAsyncEvent(new SequenceEvent(producer, i));
+					}
+				}
+			});
+		}
+		for (Thread t : producers) {
+			t.start();
+		}
+		for (Thread t : producers) {
+			t.join();
+		}
+		assertTrue("Events not delivered before timeout", eventManager.shutdownAsync(10000));
+
+		AsyncEventBus bus = eventManager.getAsyncEventBus();
+		assertEquals(PRODUCERS * EVENTS, bus.getPublished());
+		assertEquals(PRODUCERS * EVENTS * 2, bus.getDelivered());
+		assertEquals(PRODUCERS * EVENTS, first.count);
+		assertEquals(PRODUCERS * EVENTS, second.count);
+		assertTrue("Events were delivered out of order", first.ordered && second.ordered);
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testCancellableRejected() {
+		new SimpleEventManager().callAsyncEvent(new CancellableSequenceEvent());
+	}
+
+	@Test
+	public void testShutdown() throws InterruptedException {
+		final SimpleEventManager eventManager = new SimpleEventManager();
+		final OrderListener listener = new OrderListener();
+		eventManager.registerEvent(SequenceEvent.class, Order.DEFAULT, listener, this);
+		AsyncEventBus bus = eventManager.getAsyncEventBus();
+		bus.shutdown(1, TimeUnit.SECONDS);
+		eventManager.callAsyncEvent(new SequenceEvent(0, 0));
+		assertEquals("Events published after shutdown should be delivered synchronously", 1, listener.count);
+		assertEquals(1, bus.getSynchronous());
+	}
+
+	@Test
+	public void testPublishDuringShutdown() throws InterruptedException {
+		final SimpleEventManager eventManager = new SimpleEventManager();
+		final CountingListener listener = new CountingListener();
+		eventManager.getAsyncEventBus();
+		eventManager.registerEvent(SequenceEvent.class, Order.DEFAULT, listener, this);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int producer = p;
+			producers.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < EVENTS; i++) {
+						eventManager.callAsyncEvent(new SequenceEvent(producer, i));
+					}
+				}
+			});
+		}
+		for (Thread t : producers) {
+			t.start();
+		}
+		assertTrue("Events not delivered before timeout", eventManager.shutdownAsync(10000));
+		for (Thread t : producers) {
+			t.join();
+		}
+		AsyncEventBus bus = eventManager.getAsyncEventBus();
+		assertEquals(PRODUCERS * EVENTS, bus.getPublished() + bus.getSynchronous());
+		assertEquals("Events published during shutdown were lost", PRODUCERS * EVENTS, listener.count.get());
+	}
+
+	private static class CountingListener implements EventExecutor {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void execute(Event event) throws EventException {
+			count.incrementAndGet();
+		}
+	}
+
+	private static class OrderListener implements EventExecutor {
+		private final int[] last = new int[PRODUCERS];
+		private int count = 0;
+		private boolean ordered = true;
+
+		public OrderListener() {
+			for (int i = 0; i < PRODUCERS; i++) {
+				last[i] = -1;
+			}
+		}
+
+		@Override
+		public void execute(Event event) throws EventException {
+			SequenceEvent e = (SequenceEvent) event;
+			if (last[e.producer] != e.sequence - 1) {
+				ordered = false;
+			}
+			last[e.producer] = e.sequence;
+			count++;
+		}
+	}
+}
+
+class SequenceEvent extends Event {
+	private static final HandlerList HANDLERS = new HandlerList();
+	final int producer;
+	final int sequence;
+
+	SequenceEvent(int producer, int sequence) {
+		this.producer = producer;
+		this.sequence = sequence;
+	}
+
+	@Override
+	public HandlerList getHandlers() {
+		return HANDLERS;
+	}
+
+	public static HandlerList getHandlerList() {
+		return HANDLERS;
+	}
+}
+
+class CancellableSequenceEvent extends Event implements Cancellable {
+	private static final HandlerList HANDLERS = new HandlerList();
+
+	@Override
+	public void setCancelled(boolean cancelled) {
+		super.setCancelled(cancelled);
+	}
+
+	@Override
+	public HandlerList getHandlers() {
+		return HANDLERS;
+	}
+
+	public static HandlerList getHandlerList() {
+		return HANDLERS;
+	}
+}
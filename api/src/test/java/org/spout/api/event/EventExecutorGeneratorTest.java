@@ -0,0 +1,153 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.event;
+
+import org.junit.Test;
+
+import org.spout.api.exception.EventException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventExecutorGeneratorTest {
+	@Test
+	public void testGeneratedExecutor() throws Exception {
+		PublicListener listener = new PublicListener();
+		EventExecutor executor = EventExecutorGenerator.create(listener, PublicListener.class.getMethod("onTestEvent", PublicEvent.class));
+		assertTrue("Executor for a public listener should be generated", executor.getClass().getName().startsWith("org.spout.api.event.generated."));
+		executor.execute(new PublicEvent());
+		executor.execute(new PublicSubEvent());
+		assertEquals(2, listener.calls);
+	}
+
+	@Test
+	public void testReturnValues() throws Exception {
+		PublicListener listener = new PublicListener();
+		EventExecutorGenerator.create(listener, PublicListener.class.getMethod("onTestEventLong", PublicEvent.class)).execute(new PublicEvent());
+		EventExecutorGenerator.create(listener, PublicListener.class.getMethod("onTestEventStatic", PublicEvent.class)).execute(new PublicEvent());
+		assertEquals(1, listener.calls);
+		assertEquals(1, PublicListener.staticCalls);
+	}
+
+	@Test
+	public void testFallbackExecutor() throws Exception {
+		PublicListener listener = new PublicListener();
+		EventExecutor executor = EventExecutorGenerator.create(listener, PublicListener.class.getDeclaredMethod("onPrivateTestEvent", PublicEvent.class));
+		assertFalse("Private handlers cannot be called from generated code", executor.getClass().getName().startsWith("org.spout.api.event.generated."));
+		executor.execute(new PublicEvent());
+		assertEquals(1, listener.calls);
+	}
+
+	@Test
+	public void testExceptions() throws Exception {
+		final PublicListener listener = new PublicListener();
+		EventExecutor executor = EventExecutorGenerator.create(listener, PublicListener.class.getMethod("onTestEventThrow", PublicEvent.class));
+		try {
+			executor.execute(new PublicEvent());
+			fail("Exception was not propagated");
+		} catch (EventException e) {
+			assertEquals("thrown", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRegisteredListener() {
+		EventManager eventManager = new SimpleEventManager();
+		PublicListener listener = new PublicListener();
+		assertFalse(PublicSubEvent.getHandlerList().hasListeners());
+		eventManager.registerEvents(listener, this);
+		assertTrue(PublicSubEvent.getHandlerList().hasListeners());
+		eventManager.callEvent(new PublicSubEvent());
+		assertEquals(3, listener.calls);
+		assertEquals(1, listener.thrown);
+		eventManager.unRegisterEvents(listener);
+		assertFalse(PublicSubEvent.getHandlerList().hasListeners());
+
+		HandlerList.unregisterAll();
+	}
+
+	public static class PublicEvent extends Event {
+		private static final HandlerList HANDLERS = new HandlerList();
+
+		@Override
+		public HandlerList getHandlers() {
+			return HANDLERS;
+		}
+
+		public static HandlerList getHandlerList() {
+			return HANDLERS;
+		}
+	}
+
+	public static class PublicSubEvent extends PublicEvent {
+		private static final HandlerList HANDLERS = new HandlerList(PublicEvent.getHandlerList());
+
+		@Override
+		public HandlerList getHandlers() {
+			return HANDLERS;
+		}
+
+		public static HandlerList getHandlerList() {
+			return HANDLERS;
+		}
+	}
+
+	public static class PublicListener implements Listener {
+		private static int staticCalls = 0;
+		private int calls = 0;
+		private int thrown = 0;
+
+		@EventHandler
+		public void onTestEvent(PublicEvent event) {
+			calls++;
+		}
+
+		@EventHandler
+		private void onPrivateTestEvent(PublicEvent event) {
+			calls++;
+		}
+
+		@EventHandler
+		public long onTestEventLong(PublicEvent event) {
+			calls++;
+			return calls;
+		}
+
+		@EventHandler
+		public void onTestEventThrow(PublicEvent event) throws EventException {
+			thrown++;
+			throw new EventException("thrown");
+		}
+
+		public static boolean onTestEventStatic(PublicEvent event) {
+			staticCalls++;
+			return true;
+		}
+	}
+}
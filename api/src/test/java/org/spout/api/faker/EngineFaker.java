@@ -89,6 +89,10 @@ public class EngineFaker {
 		public <T extends Event> void callDelayedEvent(T event) {
 		}
 
+		@Override
+		public <T extends Event> void callAsyncEvent(T event) {
+		}
+
 		@Override
 		public void registerEvents(Listener listener, Object owner) {
 		}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.royawesome.jlibnoise.module.source.Perlin;
+
+import org.junit.Test;
+
+import org.spout.api.generator.biome.selector.LayeredBiomeSelectorElement;
+import org.spout.api.generator.biome.selector.PerlinRangeLayer;
+import org.spout.api.generator.biome.selector.VoronoiLayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BatchNoiseTest {
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void testInterpolation() {
+		Perlin perlin = new Perlin();
+		perlin.setFrequency(0.05);
+		BatchNoise batch = new BatchNoise();
+		final int xSize = 16, ySize = 32, zSize = 8, rate = 4;
+		final int x = -37, y = 12, z = 1009;
+		double[] lattice = batch.noise(perlin, (double[]) null, xSize, ySize, zSize, rate, x, y, z);
+		float[] floatLattice = batch.noise(perlin, (float[]) null, xSize, ySize, zSize, rate, x, y, z);
+		assertEquals((xSize + 1) * (ySize + 1) * (zSize + 1), lattice.length);
+		int i = 0;
+		for (int xx = 0; xx <= xSize; xx++) {
+			for (int yy = 0; yy <= ySize; yy++) {
+				for (int zz = 0; zz <= zSize; zz++) {
+					double expected = triLerp(perlin, rate, x, y, z, xx, yy, zz);
+					assertEquals("Incorrect value at " + xx + ", " + yy + ", " + zz, expected, lattice[i], EPSILON);
+					assertEquals("Incorrect float value at " + xx + ", " + yy + ", " + zz, (float) expected, floatLattice[i], 1e-6);
+					i++;
+				}
+			}
+		}
+
+		// The 2D map matches a lattice with a y size of 0, except for the points on the far edges between samples, which are 0
+		double[][] map = WorldGeneratorUtils.fastNoise(perlin, xSize, zSize, rate, x, y, z);
+		for (int xx = 0; xx <= xSize; xx++) {
+			for (int zz = 0; zz <= zSize; zz++) {
+				boolean edge = (xx == xSize || zz == zSize) && (xx % rate != 0 || zz % rate != 0);
+				assertEquals(edge ? 0 : triLerp(perlin, rate, x, y, z, xx, 0, zz), map[xx][zz], EPSILON);
+			}
+		}
+
+		double[][][] volume = WorldGeneratorUtils.fastNoise(perlin, xSize, ySize, zSize, rate, x, y, z);
+		for (int xx = 0; xx <= xSize; xx++) {
+			for (int yy = 0; yy <= ySize; yy++) {
+				for (int zz = 0; zz <= zSize; zz++) {
+					boolean edge = (xx == xSize || yy == ySize || zz == zSize) && (xx % rate != 0 || yy % rate != 0 || zz % rate != 0);
+					assertEquals(edge ? 0 : triLerp(perlin, rate, x, y, z, xx, yy, zz), volume[xx][yy][zz], EPSILON);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCache() {
+		Perlin perlin = new Perlin();
+		NoiseCache cache = new NoiseCache(2);
+		double[] first = cache.get(perlin, 1, 15, 0, 15, 1, 0, 0, 0);
+		assertSame("Lattice was not cached", first, cache.get(perlin, 1, 15, 0, 15, 1, 0, 0, 0));
+		assertEquals(1, cache.getHits());
+		cache.get(perlin, 2, 15, 0, 15, 1, 0, 0, 0);
+		cache.get(perlin, 1, 15, 0, 15, 1, 16, 0, 0);
+		assertEquals("Cache exceeded its capacity", 2, cache.getSize());
+		assertEquals(3, cache.getMisses());
+
+		for (int x = -20; x < 20; x += 3) {
+			for (int z = -20; z < 20; z += 7) {
+				assertEquals(perlin.GetValue(x, 5, z), cache.getColumnValue(perlin, 1, x, 5, z), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testColumnPick() {
+		LayeredBiomeSelectorElement[] elements = new LayeredBiomeSelectorElement[4];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = new LayeredBiomeSelectorElement() {
+			};
+		}
+		PerlinRangeLayer perlin = (PerlinRangeLayer) new PerlinRangeLayer(7).setFrequency(0.01).
+				addElement(elements[0], -1, -0.5f).addElement(elements[1], -0.5f, 0).addElement(elements[2], 0, 0.5f).addElement(elements[3], 0.5f, 1);
+		VoronoiLayer voronoi = new VoronoiLayer(11).setVoronoiFrequency(0.01).setTurbulenceFrequency(0.02).addElements(elements);
+		for (int x = -40; x < 40; x++) {
+			for (int z = -24; z < 24; z++) {
+				assertSame(perlin.pick(x, 0, z, 42), perlin.pickInColumn(x, 0, z, 42));
+				assertSame(voronoi.pick(x, 0, z, 42), voronoi.pickInColumn(x, 0, z, 42));
+			}
+		}
+	}
+
+	@Test
+	public void testColumnPickSeeds() throws InterruptedException {
+		final LayeredBiomeSelectorElement[] elements = new LayeredBiomeSelectorElement[8];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = new LayeredBiomeSelectorElement() {
+			};
+		}
+		final VoronoiLayer shared = new VoronoiLayer(13).setVoronoiFrequency(0.05).setTurbulenceFrequency(0.02).addElements(elements);
+		final int seeds = 4, size = 64;
+		// The picks of each seed, made by a layer that is only used with that seed
+		final LayeredBiomeSelectorElement[][] expected = new LayeredBiomeSelectorElement[seeds][size * size];
+		for (int seed = 0; seed < seeds; seed++) {
+			VoronoiLayer layer = shared.clone();
+			for (int i = 0; i < size * size; i++) {
+				expected[seed][i] = layer.pick(i / size, 0, i % size, 1000 + seed);
+			}
+		}
+		NoiseCache.getInstance().clear();
+
+		final AtomicInteger mismatches = new AtomicInteger(0);
+		Thread[] threads = new Thread[seeds];
+		for (int t = 0; t < seeds; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < size * size; i++) {
+						if (shared.pickInColumn(i / size, 0, i % size, 1000 + seed) != expected[seed][i]) {
+							mismatches.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals("Column picks used the seed of another thread", 0, mismatches.get());
+	}
+
+		private static double triLerp(Perlin perlin, int rate, int x, int y, int z, int xx, int yy, int zz) {
+		int nx = xx / rate * rate, ny = yy / rate * rate, nz = zz / rate * rate;
+		double tx = (double) (xx - nx) / rate, ty = (double) (yy - ny) / rate, tz = (double) (zz - nz) / rate;
+		double result = 0;
+		for (int dx = 0; dx <= 1; dx++) {
+			for (int dy = 0; dy <= 1; dy++) {
+				for (int dz = 0; dz <= 1; dz++) {
+					double w = (dx == 0 ? 1 - tx : tx) * (dy == 0 ? 1 - ty : ty) * (dz == 0 ? 1 - tz : tz);
+					if (w != 0) {
+						result += w * perlin.GetValue(x + nx + dx * rate, y + ny + dy * rate, z + nz + dz * rate);
+					}
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator.biome;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.spout.api.geo.LoadOption;
+import org.spout.api.geo.World;
+import org.spout.api.util.cuboid.CuboidBlockMaterialBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BiomeManagerCacheTest {
+	private World world;
+	private CountingGenerator generator;
+
+	@Before
+	public void setup() {
+		world = mock(World.class);
+		when(world.getSeed()).thenReturn(42L);
+		generator = new CountingGenerator();
+	}
+
+	@Test
+	public void testPickedOnce() throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final BiomeManager[] managers = new BiomeManager[8];
+		Thread[] threads = new Thread[managers.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					managers[index] = generator.getBiomeManager(3, -7, world, LoadOption.NO_LOAD);
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals("Biomes were picked more than once", 1, generator.picks.get());
+		for (BiomeManager manager : managers) {
+			assertSame(managers[0], manager);
+		}
+		BiomeManagerCache cache = generator.getBiomeCache();
+		assertEquals(1, cache.getMisses());
+		assertEquals(managers.length - 1, cache.getHits());
+	}
+
+	@Test
+	public void testPromotion() {
+		BiomeManager generated = generator.getBiomeManager(0, 0, world, LoadOption.NO_LOAD);
+		assertSame(generated, generator.getBiomeCache().getIfPresent(42L, 0, 0));
+		assertSame("Column did not receive the cached biomes", generated, generator.promoteBiomeManager(0, 0, world));
+		assertSame("Promoted biomes were removed before the column was registered", generated, generator.getBiomeCache().getIfPresent(42L, 0, 0));
+		generator.invalidateBiomeManager(0, 0, world);
+		assertNull("Biomes of a registered column were kept in the cache", generator.getBiomeCache().getIfPresent(42L, 0, 0));
+		assertNull(generator.getBiomeCache().getIfPresent(43L, 0, 0));
+		assertEquals(1, generator.picks.get());
+		assertEquals(1, generator.getBiomeCache().getPromotions());
+
+		// A column loaded with its own biomes drops the biomes cached while it was not loaded
+		generator.getBiomeManager(1, 1, world, LoadOption.NO_LOAD);
+		assertNotNull(generator.getBiomeCache().getIfPresent(42L, 1, 1));
+		assertTrue(generator.getBiomeCache().invalidate(42L, 1, 1));
+		assertNull(generator.getBiomeCache().getIfPresent(42L, 1, 1));
+		assertFalse(generator.getBiomeCache().invalidate(42L, 1, 1));
+
+		// A loaded column supplies its own biomes
+		BiomeManager loaded = new Simple2DBiomeManager(5, 5);
+		when(world.getBiomeManager(5 << 4, 5 << 4, LoadOption.LOAD_ONLY)).thenReturn(loaded);
+		assertSame(loaded, generator.getBiomeManager(5, 5, world, LoadOption.LOAD_ONLY));
+		assertEquals(2, generator.picks.get());
+	}
+
+	@Test
+	public void testBounded() {
+		BiomeManagerCache cache = new BiomeManagerCache(16);
+		for (int x = 0; x < 64; x++) {
+			for (int z = 0; z < 64; z++) {
+				assertNotNull(cache.get(generator, world, x, z));
+			}
+		}
+		assertEquals(4096, cache.getMisses());
+		assertEquals(4096, cache.getSize() + cache.getEvictions());
+		assertEquals(0, cache.getHitRate(), 0);
+		cache.clear();
+		assertEquals(0, cache.getSize());
+	}
+
+	private static class CountingGenerator extends BiomeGenerator {
+		private final AtomicInteger picks = new AtomicInteger(0);
+
+		@Override
+		protected void registerBiomes() {
+		}
+
+		@Override
+		public BiomeManager generateBiomes(int chunkX, int chunkZ, World world) {
+			picks.incrementAndGet();
+			return new Simple2DBiomeManager(chunkX, chunkZ);
+		}
+
+		@Override
+		protected void generateTerrain(CuboidBlockMaterialBuffer blockData, int x, int y, int z, BiomeManager manager, long seed) {
+		}
+
+		@Override
+		public int[][] getSurfaceHeight(World world, int chunkX, int chunkZ) {
+			return new int[16][16];
+		}
+
+		@Override
+		public String getName() {
+			return "counting";
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator.biome;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.spout.api.Server;
+import org.spout.api.faker.EngineFaker;
+import org.spout.api.generator.Populator;
+import org.spout.api.geo.World;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.util.cuboid.CuboidBlockMaterialBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class BiomePopulatorTest {
+	@BeforeClass
+	public static void setup() {
+		Server server = EngineFaker.setupEngine();
+		File directory = new File("target/biomepopulator");
+		directory.mkdirs();
+		when(server.getWorldFolder()).thenReturn(directory);
+		try {
+			BiomeRegistry.setupRegistry();
+		} catch (IllegalStateException e) {
+			// Already set up by another test
+		}
+	}
+
+	@Test
+	public void testThreadSafe() {
+		TestGenerator generator = new TestGenerator();
+		Populator[] populators = generator.getPopulators();
+		assertEquals(1, populators.length);
+		assertTrue(populators[0] instanceof BiomePopulator);
+
+		TestBiome biome = new TestBiome();
+		biome.addDecorators(new TestDecorator(true), new TestDecorator(true));
+		generator.register(biome);
+		assertTrue("Biomes with only thread safe decorators are populated concurrently", populators[0].isThreadSafe());
+
+		// One decorator which is not thread safe keeps every chunk on the region thread
+		TestBiome other = new TestBiome();
+		other.addDecorators(new TestDecorator(false));
+		generator.register(other);
+		assertFalse(populators[0].isThreadSafe());
+
+		assertFalse("A populator without biomes can't tell if it is thread safe", new BiomePopulator().isThreadSafe());
+	}
+
+	private static class TestGenerator extends BiomeGenerator {
+		@Override
+		protected void registerBiomes() {
+		}
+
+		@Override
+		protected void generateTerrain(CuboidBlockMaterialBuffer blockData, int x, int y, int z, BiomeManager manager, long seed) {
+		}
+
+		@Override
+		public int[][] getSurfaceHeight(World world, int chunkX, int chunkZ) {
+			return new int[16][16];
+		}
+
+		@Override
+		public String getName() {
+			return "test";
+		}
+	}
+
+	private static class TestBiome extends Biome {
+		@Override
+		public String getName() {
+			return "test";
+		}
+	}
+
+	private static class TestDecorator extends Decorator {
+		private TestDecorator(boolean threadSafe) {
+			super(threadSafe);
+		}
+
+		@Override
+		public void populate(Chunk chunk, Random random) {
+		}
+	}
+}
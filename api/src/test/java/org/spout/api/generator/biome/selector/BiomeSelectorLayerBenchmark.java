@@ -0,0 +1,123 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.generator.biome.selector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time taken by the selector layers to pick the elements of one chunk column, picking each column separately and picking through the column noise cache. Every
+ * invocation moves to a new chunk column, so the cache never holds the noise of the column being picked. Run with {@code main} from the test classpath.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5)
+@Measurement (iterations = 5)
+@Fork (1)
+public class BiomeSelectorLayerBenchmark {
+	private static final int SIZE = 16;
+	private static final long SEED = 1234567L;
+	@Param ({"perlin", "voronoi", "ridged"})
+	public String layerType;
+	private ColumnBiomeSelectorLayer layer;
+	private int column = 0;
+
+	@Setup
+	public void setup() {
+		LayeredBiomeSelectorElement[] elements = new LayeredBiomeSelectorElement[4];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = new LayeredBiomeSelectorElement() {
+			};
+		}
+		switch (layerType) {
+			case "perlin":
+				layer = new PerlinRangeLayer(7).setOctaveCount(4).setFrequency(0.01).addElements(ranges(elements));
+				break;
+			case "voronoi":
+				layer = new VoronoiLayer(11).setVoronoiFrequency(0.01).setTurbulenceFrequency(0.02).setTurbulencePower(8).addElements(elements);
+				break;
+			case "ridged":
+				layer = new RidgedMultiRangeLayer(13).setOctaveCount(4).setFrequency(0.02).addElements(ranges(elements));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown layer " + layerType);
+		}
+	}
+
+	@Benchmark
+	public void pick(Blackhole bh) {
+		final int x = nextColumn() * SIZE;
+		for (int dx = 0; dx < SIZE; dx++) {
+			for (int dz = 0; dz < SIZE; dz++) {
+				bh.consume(layer.pick(x + dx, 0, dz, SEED));
+			}
+		}
+	}
+
+	@Benchmark
+	public void pickInColumn(Blackhole bh) {
+		final int x = nextColumn() * SIZE;
+		for (int dx = 0; dx < SIZE; dx++) {
+			for (int dz = 0; dz < SIZE; dz++) {
+				bh.consume(layer.pickInColumn(x + dx, 0, dz, SEED));
+			}
+		}
+	}
+
+	private int nextColumn() {
+		return column++;
+	}
+
+	private static NoiseRangeLayer.ElementRange[] ranges(LayeredBiomeSelectorElement[] elements) {
+		NoiseRangeLayer.ElementRange[] ranges = new NoiseRangeLayer.ElementRange[elements.length];
+		float step = 2f / elements.length;
+		for (int i = 0; i < elements.length; i++) {
+			ranges[i] = new NoiseRangeLayer.ElementRange(elements[i], -1 + i * step, -1 + (i + 1) * step);
+		}
+		return ranges;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(BiomeSelectorLayerBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.bytearrayarray;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import org.spout.api.io.compression.CompressionCodecs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BAACacheTest {
+	private static final File directory = new File("target/baacache");
+	private static final int entries = 16;
+	/**
+	 * Evicts files on the thread opening a file, so the cache can be checked right after each access
+	 */
+	private static final Executor direct = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Test
+	public void testEviction() throws IOException {
+		clean(directory);
+		BAACache cache = new BAACache(2, Long.MAX_VALUE, direct);
+		BAAWrapper[] files = new BAAWrapper[4];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new BAAWrapper(new File(directory, "file" + i + ".dat"), 8, entries, 1000, CompressionCodecs.DEFLATE, null, cache);
+			write(files[i], 3, i);
+			assertTrue("Too many files open", cache.getOpenFiles() <= 2);
+		}
+		assertEquals("Every file should have been opened once", 4, cache.getMisses());
+		assertEquals("Files were not evicted", 2, cache.getEvictions());
+
+		// Evicted files are reopened with their data intact
+		for (int i = 0; i < files.length; i++) {
+			assertEquals("Incorrect data after eviction", i, read(files[i], 3));
+		}
+		assertTrue("Too many files open", cache.getOpenFiles() <= 2);
+
+		// A file with a block being written cannot be closed
+		OutputStream out = files[0].getBlockOutputStream(5);
+		for (int i = 1; i < files.length; i++) {
+			read(files[i], 3);
+		}
+		out.write(42);
+		out.close();
+		assertEquals("File with a locked block was evicted", 42, read(files[0], 5));
+
+		for (BAAWrapper file : files) {
+			assertTrue("Unable to close file", file.attemptClose());
+		}
+		assertEquals("Closed files are still counted as open", 0, cache.getOpenFiles());
+	}
+
+	@Test
+	public void testMappedLimit() throws IOException {
+		clean(directory);
+		BAACache cache = new BAACache(Integer.MAX_VALUE, 0, direct);
+		BAAWrapper first = new BAAWrapper(new File(directory, "mapped0.dat"), 8, entries, 1000, CompressionCodecs.DEFLATE, null, cache);
+		BAAWrapper second = new BAAWrapper(new File(directory, "mapped1.dat"), 8, entries, 1000, CompressionCodecs.DEFLATE, null, cache);
+		write(first, 0, 1);
+		assertTrue("Open file did not map any bytes", first.getMappedBytes() > 0);
+		write(second, 0, 2);
+		assertEquals("File over the mapped limit was not evicted", 0, first.getMappedBytes());
+		assertEquals("Only the file being opened should stay open", 1, cache.getOpenFiles());
+		assertTrue(second.attemptClose());
+	}
+
+	@Test
+	public void testBackgroundEviction() throws IOException, InterruptedException {
+		clean(directory);
+		BAACache cache = new BAACache(1, Long.MAX_VALUE);
+		BAAWrapper[] files = new BAAWrapper[3];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new BAAWrapper(new File(directory, "background" + i + ".dat"), 8, entries, 1000, CompressionCodecs.DEFLATE, null, cache);
+			write(files[i], 0, i);
+		}
+		for (int i = 0; i < 100 && cache.getEvictions() < 2; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals("Files were not evicted in the background", 2, cache.getEvictions());
+		assertEquals("Too many files open", 1, cache.getOpenFiles());
+		for (int i = 0; i < files.length; i++) {
+			assertEquals("Incorrect data after eviction", i, read(files[i], 0));
+		}
+		// Each file was reopened and evicted the file opened before it
+		for (int i = 0; i < 100 && cache.getEvictions() < 5; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals("Reopened files were not evicted in the background", 5, cache.getEvictions());
+		for (BAAWrapper file : files) {
+			assertTrue("Unable to close file", file.attemptClose());
+		}
+	}
+
+	private static void write(BAAWrapper file, int block, int value) throws IOException {
+		try (OutputStream out = file.getBlockOutputStream(block)) {
+			out.write(value);
+		}
+	}
+
+	private static int read(BAAWrapper file, int block) throws IOException {
+		InputStream in = file.getBlockInputStream(block);
+		try (DataInputStream dis = new DataInputStream(in)) {
+			return dis.read();
+		}
+	}
+
+	private static void clean(File dir) {
+		dir.mkdirs();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.spout.api.geo.cuboid.Region;
+import org.spout.api.io.regionfile.SimpleRegionFile;
+
+/**
+ * Compares the compression codecs on the chunks of a generated world.<br> <br> The chunks are read from the region files of a world saved by the server, in the form the codecs
+ * compress them, and each benchmark run cycles through them. The compression ratio of each codec over all the chunks is printed during setup. Run with {@code main} from the test
+ * classpath, passing the region directory of the world, for example {@code worlds/world/region}.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5)
+@Measurement (iterations = 5)
+@Fork (1)
+public class CompressionCodecBenchmark {
+	/**
+	 * log2(the segment size) of the region files written by the server
+	 */
+	private static final int SEGMENT_SIZE = 8;
+	/**
+	 * The maximum number of chunks read from the world
+	 */
+	private static final int MAX_CHUNKS = 256;
+	@Param ({"none", "lz4", "deflate:1", "deflate", "deflate:9"})
+	public String codecName;
+	@Param ({"worlds/world/region"})
+	public String regionDirectory;
+	private CompressionCodec codec;
+	private byte[][] chunks;
+	private byte[][] compressed;
+	private int[] compressedLength;
+	private byte[] decompressed;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		codec = CompressionCodecs.getCodec(codecName);
+		chunks = readChunks(new File(regionDirectory));
+		compressed = new byte[chunks.length][];
+		compressedLength = new int[chunks.length];
+		long total = 0;
+		long totalCompressed = 0;
+		int maxLength = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			compressed[i] = new byte[codec.getMaxCompressedLength(chunks[i].length)];
+			compressedLength[i] = codec.compress(chunks[i], 0, chunks[i].length, compressed[i], 0);
+			total += chunks[i].length;
+			totalCompressed += compressedLength[i];
+			maxLength = Math.max(maxLength, chunks[i].length);
+		}
+		decompressed = new byte[maxLength];
+		System.out.println(codecName + ", " + chunks.length + " chunks: " + total + " -> " + totalCompressed + " bytes, ratio " + ((float) total / totalCompressed));
+	}
+
+	@Benchmark
+	public int compress() {
+		final int i = nextChunk();
+		return codec.compress(chunks[i], 0, chunks[i].length, compressed[i], 0);
+	}
+
+	@Benchmark
+	public int decompress() throws IOException {
+		final int i = nextChunk();
+		return codec.decompress(compressed[i], 0, compressedLength[i], decompressed, 0, chunks[i].length);
+	}
+
+	private int nextChunk() {
+		final int i = next;
+		next = i + 1 == chunks.length ? 0 : i + 1;
+		return i;
+	}
+
+	/**
+	 * Reads the chunks stored in the region files of a world, as they were before they were compressed
+	 */
+	private static byte[][] readChunks(File directory) throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".spr");
+			}
+		});
+		if (files == null || files.length == 0) {
+			throw new IllegalStateException("No region files in " + directory.getAbsolutePath() + ", generate a world with the server first");
+		}
+		Arrays.sort(files);
+		List<byte[]> chunks = new ArrayList<>();
+		byte[] buf = new byte[8192];
+		for (File file : files) {
+			SimpleRegionFile srf = new SimpleRegionFile(file, SEGMENT_SIZE, Region.CHUNKS.VOLUME);
+			try {
+				for (int i = 0; i < Region.CHUNKS.VOLUME && chunks.size() < MAX_CHUNKS; i++) {
+					InputStream in = srf.getInputStream(i);
+					if (in == null) {
+						continue;
+					}
+					ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+					try {
+						int read;
+						while ((read = in.read(buf)) != -1) {
+							chunk.write(buf, 0, read);
+						}
+					} finally {
+						in.close();
+					}
+					chunks.add(chunk.toByteArray());
+				}
+			} finally {
+				srf.attemptClose();
+			}
+			if (chunks.size() >= MAX_CHUNKS) {
+				break;
+			}
+		}
+		if (chunks.isEmpty()) {
+			throw new IllegalStateException("The region files in " + directory.getAbsolutePath() + " hold no chunks");
+		}
+		return chunks.toArray(new byte[chunks.size()][]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		OptionsBuilder options = new OptionsBuilder();
+		options.include(CompressionCodecBenchmark.class.getSimpleName());
+		if (args.length > 0) {
+			options.param("regionDirectory", args[0]);
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionCodecTest {
+	private static final CompressionCodec[] CODECS = {CompressionCodecs.DEFLATE, CompressionCodecs.getCodec("deflate:1"), CompressionCodecs.NONE, CompressionCodecs.LZ4};
+
+	@Test
+	public void testArrays() throws IOException {
+		for (byte[] data : getSamples()) {
+			for (CompressionCodec codec : CODECS) {
+				byte[] compressed = new byte[3 + codec.getMaxCompressedLength(data.length)];
+				int length = codec.compress(data, 0, data.length, compressed, 3);
+				assertTrue(length <= codec.getMaxCompressedLength(data.length));
+
+				byte[] decompressed = new byte[data.length + 2];
+				assertEquals(codec.getName(), data.length, codec.decompress(compressed, 3, length, decompressed, 2, data.length));
+				assertArrayEquals(codec.getName(), data, Arrays.copyOfRange(decompressed, 2, decompressed.length));
+			}
+		}
+	}
+
+	@Test
+	public void testStreams() throws IOException {
+		for (byte[] data : getSamples()) {
+			for (CompressionCodec codec : CODECS) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				OutputStream out = codec.getOutputStream(compressed);
+				out.write(data);
+				out.close();
+
+				InputStream in = codec.getInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+				ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+				int b;
+				while ((b = in.read()) != -1) {
+					decompressed.write(b);
+				}
+				in.close();
+				assertArrayEquals(codec.getName(), data, decompressed.toByteArray());
+			}
+		}
+	}
+
+	@Test
+	public void testLZ4Compresses() {
+		byte[] data = new byte[65536];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ((i >> 8) & 3);
+		}
+		byte[] compressed = new byte[CompressionCodecs.LZ4.getMaxCompressedLength(data.length)];
+		assertTrue(CompressionCodecs.LZ4.compress(data, 0, data.length, compressed, 0) < data.length / 20);
+	}
+
+	@Test (expected = IOException.class)
+	public void testLZ4Malformed() throws IOException {
+		byte[] data = {(byte) 0x1F, 1, 5, 0};
+		CompressionCodecs.LZ4.decompress(data, 0, data.length, new byte[64], 0, 64);
+	}
+
+	@Test
+	public void testLookup() {
+		for (CompressionCodec codec : CODECS) {
+			assertEquals(codec.getName(), CompressionCodecs.getCodec(codec.getName()).getName());
+			assertEquals(codec.getId(), CompressionCodecs.getCodec(codec.getId()).getId());
+		}
+		assertSame(CompressionCodecs.DEFLATE, CompressionCodecs.getCodec(DeflateCodec.ID));
+		assertEquals(null, CompressionCodecs.getCodec(100));
+	}
+
+	private static byte[][] getSamples() {
+		Random r = new Random(1);
+		byte[] random = new byte[10000];
+		r.nextBytes(random);
+		byte[] sparse = new byte[70000];
+		for (int i = 0; i < 2000; i++) {
+			sparse[r.nextInt(sparse.length)] = (byte) r.nextInt();
+		}
+		byte[] repeating = new byte[5000];
+		for (int i = 0; i < repeating.length; i++) {
+			repeating[i] = (byte) (i % 7);
+		}
+		return new byte[][] {new byte[0], {42}, "abcdabcdabcdabcdabcd".getBytes(), random, sparse, repeating};
+	}
+}
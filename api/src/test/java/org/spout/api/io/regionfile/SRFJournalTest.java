@@ -0,0 +1,199 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.regionfile;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.spout.api.io.compression.CompressionCodecs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SRFJournalTest {
+	private static final int entries = 64;
+	private static final File directory = new File("target/journal");
+	private static final File crashDirectory = new File("target/journal-crash");
+	private static final File tornSourceDirectory = new File("target/journal-torn-source");
+	private static final File tornDirectory = new File("target/journal-torn");
+	private static final File closedDirectory = new File("target/journal-closed");
+
+	@Test
+	public void testReplay() throws IOException {
+		clean(directory);
+		clean(crashDirectory);
+
+		File journalFile = new File(directory, "journal.dat");
+		SRFJournal journal = new SRFJournal(journalFile, Long.MAX_VALUE);
+		SimpleRegionFile srf = new SimpleRegionFile(new File(directory, "reg0_0_0.spr"), 8, entries, 120000, CompressionCodecs.DEFLATE, journal);
+
+		Random r = new Random();
+		byte[][] data = new byte[entries][];
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < entries; i++) {
+				data[i] = new byte[256 + r.nextInt(1024)];
+				r.nextBytes(data[i]);
+				try (OutputStream out = srf.getOutputStream(i)) {
+					out.write(data[i]);
+				}
+			}
+		}
+		srf.delete(3);
+		data[3] = null;
+		journal.sync();
+
+		assertEquals("Not every write was appended to the journal", entries * 2 + 1, journal.getRecords());
+		assertEquals("Journal was not forced once for all the writes", 1, journal.getSyncs());
+
+		// Simulate a crash where none of the region file writes reached the disk, with a torn record at the end of the journal
+		File crashJournal = new File(crashDirectory, "journal.dat");
+		Files.copy(journalFile.toPath(), crashJournal.toPath());
+		try (FileOutputStream out = new FileOutputStream(crashJournal, true)) {
+			out.write(new byte[] {0x53, 0x52, 0x4A, 0x4C, 0, 0, 1});
+		}
+
+		assertEquals("Records before the torn record were not all replayed", entries * 2 + 1, SRFJournal.replay(crashJournal, crashDirectory, 8, entries));
+
+		SimpleRegionFile replayed = new SimpleRegionFile(new File(crashDirectory, "reg0_0_0.spr"), 8, entries);
+		for (int i = 0; i < entries; i++) {
+			if (data[i] == null) {
+				assertFalse("Deleted block exists after replay", replayed.exists(i));
+				assertNull(replayed.getInputStream(i));
+				continue;
+			}
+			assertTrue("Block " + i + " did not match after replay", Arrays.equals(data[i], read(replayed.getInputStream(i), data[i].length)));
+		}
+		assertTrue(replayed.attemptClose());
+
+		assertTrue(srf.attemptClose());
+		journal.checkpoint();
+		assertEquals("Journal was not emptied by the checkpoint", 0, journalFile.length());
+		assertEquals(0, SRFJournal.replay(journalFile, directory, 8, entries));
+		journal.close();
+	}
+
+	@Test
+	public void testWriteAfterClose() throws IOException {
+		clean(closedDirectory);
+
+		SRFJournal journal = new SRFJournal(new File(closedDirectory, "journal.dat"), Long.MAX_VALUE);
+		SimpleRegionFile srf = new SimpleRegionFile(new File(closedDirectory, "reg0_0_0.spr"), 8, entries, 120000, CompressionCodecs.DEFLATE, journal);
+		journal.checkpoint();
+		journal.close();
+
+		// Saves that arrive after shutdown are written directly to the region file
+		byte[] data = new byte[1024];
+		new Random().nextBytes(data);
+		try (OutputStream out = srf.getOutputStream(0)) {
+			out.write(data);
+		}
+		journal.sync();
+		journal.checkpoint();
+		assertEquals("Write was appended to a closed journal", 0, journal.getRecords());
+		assertTrue(srf.attemptClose());
+
+		SimpleRegionFile reopened = new SimpleRegionFile(new File(closedDirectory, "reg0_0_0.spr"), 8, entries);
+		assertTrue("Block written after the journal was closed was lost", Arrays.equals(data, read(reopened.getInputStream(0), data.length)));
+		assertTrue(reopened.attemptClose());
+	}
+
+	@Test
+	public void testReplayOverlappingFAT() throws IOException {
+		clean(tornSourceDirectory);
+		clean(tornDirectory);
+
+		File journalFile = new File(tornSourceDirectory, "journal.dat");
+		SRFJournal journal = new SRFJournal(journalFile, Long.MAX_VALUE);
+		SimpleRegionFile srf = new SimpleRegionFile(new File(tornSourceDirectory, "reg0_0_0.spr"), 8, entries, 120000, CompressionCodecs.DEFLATE, journal);
+		Random r = new Random();
+		byte[][] data = new byte[2][];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = new byte[1024];
+			r.nextBytes(data[i]);
+			try (OutputStream out = srf.getOutputStream(i)) {
+				out.write(data[i]);
+			}
+		}
+		journal.sync();
+		assertTrue(srf.attemptClose());
+		journal.close();
+
+		// Simulate a crash that left the FAT entry of block 1 pointing at the segments of block 0
+		File regionFile = new File(tornDirectory, "reg0_0_0.spr");
+		SimpleRegionFile torn = new SimpleRegionFile(regionFile, 8, entries);
+		for (int i = 0; i < data.length; i++) {
+			try (OutputStream out = torn.getOutputStream(i)) {
+				out.write(new byte[512]);
+			}
+		}
+		assertTrue(torn.attemptClose());
+		try (RandomAccessFile raf = new RandomAccessFile(regionFile, "rw")) {
+			raf.seek(12);
+			int start = raf.readInt();
+			raf.seek(12 + 8);
+			raf.writeInt(start);
+		}
+
+		File crashJournal = new File(tornDirectory, "journal.dat");
+		Files.copy(journalFile.toPath(), crashJournal.toPath());
+		assertEquals(data.length, SRFJournal.replay(crashJournal, tornDirectory, 8, entries));
+
+		SimpleRegionFile replayed = new SimpleRegionFile(regionFile, 8, entries);
+		for (int i = 0; i < data.length; i++) {
+			assertTrue("Block " + i + " did not match after replay", Arrays.equals(data[i], read(replayed.getInputStream(i), data[i].length)));
+		}
+		assertTrue(replayed.attemptClose());
+	}
+
+	private static byte[] read(InputStream in, int length) throws IOException {
+		byte[] buf = new byte[length];
+		try (DataInputStream dis = new DataInputStream(in)) {
+			dis.readFully(buf);
+			assertEquals("Block was longer than the data written", -1, dis.read());
+		}
+		return buf;
+	}
+
+	private static void clean(File dir) {
+		dir.mkdirs();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+	}
+}
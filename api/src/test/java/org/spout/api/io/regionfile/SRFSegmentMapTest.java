@@ -0,0 +1,87 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.api.io.regionfile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SRFSegmentMapTest {
+	@Test
+	public void testBestFit() throws SRFException {
+		SRFSegmentMap map = new SRFSegmentMap();
+		assertTrue(map.reserve(0, 20));
+		assertFalse("Reserved segments that were already in use", map.reserve(19, 2));
+
+		map.release(2, 4);  // hole of 4 at 2
+		map.release(10, 2); // hole of 2 at 10
+		map.release(14, 3); // hole of 3 at 14
+
+		assertEquals("Allocation did not use the smallest hole that fits", 14, map.allocate(3));
+		assertEquals("Allocation did not use the exact fit", 10, map.allocate(2));
+		assertEquals("Allocation did not use the remaining hole", 2, map.allocate(1));
+		assertEquals("Allocation did not extend the file when no hole fits", 20, map.allocate(5));
+		assertEquals(25, map.getEndSegment());
+		assertEquals(22, map.getUsedSegments());
+	}
+
+	@Test
+	public void testAllocateBelowLimit() throws SRFException {
+		SRFSegmentMap map = new SRFSegmentMap();
+		assertTrue(map.reserve(0, 10));
+		map.release(3, 2);
+
+		assertEquals("Allocated a hole that starts after the limit", -1, map.allocate(2, 3));
+		assertEquals("Allocated past the end of the file when a limit was given", -1, map.allocate(3, 9));
+		assertEquals(3, map.allocate(2, 4));
+	}
+
+	@Test
+	public void testStatistics() throws SRFException {
+		SRFSegmentMap map = new SRFSegmentMap();
+		assertTrue(map.reserve(0, 16));
+		map.release(4, 4);
+		map.release(10, 1);
+		map.release(15, 1);
+
+		SRFStatistics stats = map.getStatistics(8, 1000L, 4096L);
+		assertEquals("Free space at the end of the file was counted", 15, stats.getEndSegment());
+		assertEquals(5, stats.getFreeSegments());
+		assertEquals(2, stats.getFreeRuns());
+		assertEquals(4, stats.getLargestFreeRun());
+		assertEquals(5 / 15F, stats.getFragmentation(), 0.0001F);
+	}
+
+	@Test (expected = SRFException.class)
+	public void testReleaseUnused() throws SRFException {
+		SRFSegmentMap map = new SRFSegmentMap();
+		assertTrue(map.reserve(0, 4));
+		map.release(2, 4);
+	}
+}
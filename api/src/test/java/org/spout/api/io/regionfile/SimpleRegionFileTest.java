@@ -33,12 +33,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
 import org.spout.api.io.bytearrayarray.BAAClosedException;
 import org.spout.api.io.bytearrayarray.ByteArrayArray;
+import org.spout.api.io.compression.CompressionCodec;
+import org.spout.api.io.compression.CompressionCodecs;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class SimpleRegionFileTest {
@@ -162,6 +166,134 @@ public class SimpleRegionFileTest {
 		file.delete();
 	}
 
+	@Test
+	public void testConcurrentReads() throws Exception {
+		File file = new File("target/regionfile-concurrent.dat");
+		if (file.exists()) {
+			file.delete();
+		}
+
+		srf = new SimpleRegionFile(file, 9, desiredEntries);
+
+		Random r = new Random();
+
+		for (int i = 0; i < desiredEntries; i++) {
+			updateEntry(i, createFakeChunk(chunkBlocks << 3, 0.15F * r.nextFloat()));
+		}
+
+		final AtomicBoolean matched = new AtomicBoolean(true);
+		Thread[] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			final int offset = t;
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < desiredEntries * 4; i++) {
+							int entry = (i * 7 + offset) % desiredEntries;
+							// Odd entries are rewritten by the main thread while the readers run
+							if ((entry & 1) == 0 && !checkEntryMatch(entry)) {
+								matched.set(false);
+							}
+						}
+					} catch (IOException e) {
+						matched.set(false);
+					}
+				}
+			};
+			readers[t].start();
+		}
+
+		for (int i = 0; i < desiredEntries * 2; i++) {
+			updateEntry(((r.nextInt() & 0x7FFFFFFF) % (desiredEntries >> 1)) * 2 + 1, createFakeChunk(chunkBlocks << 3, 0.15F * r.nextFloat()));
+		}
+
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		assertTrue("Data read concurrently from store did not match written data", matched.get());
+		assertTrue("Unable to close file after concurrent reads", srf.attemptClose());
+		file.delete();
+	}
+
+	@Test
+	public void testMixedCodecs() throws IOException {
+		File file = new File("target/regionfile-codecs.dat");
+		if (file.exists()) {
+			file.delete();
+		}
+
+		Random r = new Random();
+		CompressionCodec[] codecs = {CompressionCodecs.DEFLATE, CompressionCodecs.LZ4, CompressionCodecs.NONE};
+		for (int pass = 0; pass < codecs.length; pass++) {
+			srf = new SimpleRegionFile(file, 9, desiredEntries, 120000, codecs[pass]);
+			for (int i = 0; i < desiredEntries; i++) {
+				assertTrue("Data written with another codec did not match", checkEntryMatch(i));
+				if (i % codecs.length == pass) {
+					updateEntry(i, createFakeChunk(chunkBlocks << 3, 0.15F * r.nextFloat()));
+				}
+			}
+			assertTrue("Unable to close file after writing with " + codecs[pass], srf.attemptClose());
+		}
+
+		srf = new SimpleRegionFile(file, 9, desiredEntries);
+		for (int i = 0; i < desiredEntries; i++) {
+			assertTrue("Data written with mixed codecs did not match after reopening", checkEntryMatch(i));
+		}
+		assertTrue(srf.attemptClose());
+		file.delete();
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		File file = new File("target/regionfile-compaction.dat");
+		if (file.exists()) {
+			file.delete();
+		}
+
+		SimpleRegionFile regionFile = new SimpleRegionFile(file, 9, desiredEntries);
+		srf = regionFile;
+
+		Random r = new Random();
+
+		for (int i = 0; i < desiredEntries; i++) {
+			updateEntry(i, createFakeChunk(chunkBlocks << 3, 0.15F * r.nextFloat()));
+		}
+
+		for (int i = 0; i < desiredEntries; i += 2) {
+			srf.delete(i);
+			dataCache[i] = null;
+		}
+
+		SRFStatistics before = regionFile.getStatistics();
+		assertTrue("Deleting blocks did not leave free space in the file", before.getFragmentation() > 0.25F);
+
+		assertTrue("No blocks were moved during compaction", regionFile.compact() > 0);
+
+		SRFStatistics after = regionFile.getStatistics();
+		assertTrue("Compaction did not reduce the end of the file", after.getEndSegment() < before.getEndSegment());
+		assertTrue("Compaction did not reduce fragmentation", after.getFragmentation() < before.getFragmentation());
+		assertEquals("Compaction changed the number of segments in use", before.getUsedSegments(), after.getUsedSegments());
+
+		for (int i = 0; i < desiredEntries; i++) {
+			assertTrue("Data read after compaction did not match written data", checkEntryMatch(i));
+		}
+
+		assertTrue("Unable to close file after compaction", srf.attemptClose());
+		assertTrue("File was not truncated when closed after compaction", file.length() <= ((long) after.getEndSegment()) << 9);
+
+		srf = new SimpleRegionFile(file, 9, desiredEntries);
+		for (int i = 0; i < desiredEntries; i++) {
+			assertTrue("Data read after reopening a compacted file did not match written data", checkEntryMatch(i));
+			if (i % 2 == 0) {
+				assertTrue("Deleted block exists after compaction", !srf.exists(i));
+			}
+		}
+		assertTrue(srf.attemptClose());
+		file.delete();
+	}
+
 	private boolean checkEntryMatch(int entry) throws IOException {
 		byte[] expected = dataCache[entry];
 		if (expected == null) {
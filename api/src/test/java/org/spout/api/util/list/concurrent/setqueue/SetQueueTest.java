@@ -29,9 +29,11 @@ package org.spout.api.util.list.concurrent.setqueue;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class SetQueueTest {
@@ -135,6 +137,30 @@ public class SetQueueTest {
 		assertTrue("All elements not removed from queue, " + queued.size() + " elements remaining", queued.isEmpty());
 	}
 
+	@Test
+	public void testOnAdd() {
+		final AtomicInteger adds = new AtomicInteger(0);
+
+		SetQueue<Integer> queue = new SetQueue<Integer>(5) {
+			@Override
+			protected void onAdd() {
+				adds.incrementAndGet();
+			}
+		};
+
+		IntegerSetQueueElement element = new IntegerSetQueueElement(queue, 1);
+
+		element.add();
+		element.add();
+
+		assertEquals("onAdd should only be called when the element is added", 1, adds.get());
+
+		queue.poll();
+		element.add();
+
+		assertEquals("onAdd was not called when the element was added again", 2, adds.get());
+	}
+
 	private static void verifyFullAdding(SetQueueElement<Integer>[] elements, int i) {
 		boolean thrown = false;
 		try {
@@ -50,12 +50,20 @@ public class SpoutConfiguration extends ConfigurationHolderConfiguration {
 	public static final ConfigurationHolder UNLOAD_CHUNKS_PER_TICK = new ConfigurationHolder(50, "chunks", "unload-per-tick");
 	public static final ConfigurationHolder DYNAMIC_BLOCKS = new ConfigurationHolder(true, "chunks", "dynamic-blocks");
 	public static final ConfigurationHolder BLOCK_PHYSICS = new ConfigurationHolder(true, "chunks", "block-physics");
+	public static final ConfigurationHolder CHUNK_COMPRESSION = new ConfigurationHolder("deflate", "chunks", "compression");
+	public static final ConfigurationHolder CHUNK_JOURNAL = new ConfigurationHolder(false, "chunks", "journal");
+	public static final ConfigurationHolder MAX_OPEN_REGION_FILES = new ConfigurationHolder(256, "chunks", "max-open-region-files");
+	public static final ConfigurationHolder MAX_MAPPED_REGION_MB = new ConfigurationHolder(1024, "chunks", "max-mapped-region-mb");
+	public static final ConfigurationHolder GENERATION_THREADS = new ConfigurationHolder(0, "chunks", "generation-threads");
+	public static final ConfigurationHolder SPECULATIVE_GENERATION = new ConfigurationHolder(true, "chunks", "speculative-generation");
+	public static final ConfigurationHolder POPULATOR_BUDGET = new ConfigurationHolder(0F, "chunks", "populator-budget-ms");
 	// Messages
 	public static final ConfigurationHolder DEFAULT_LANGUAGE = new ConfigurationHolder("EN_US", "messages", "default-language");
 	// Network
 	public static final ConfigurationHolder UPNP = new ConfigurationHolder(true, "network", "upnp");
 	public static final ConfigurationHolder BONJOUR = new ConfigurationHolder(false, "network", "bonjour");
 	public static final ConfigurationHolder SHOW_CONNECTIONS = new ConfigurationHolder(false, "network", "show-connections");
+	public static final ConfigurationHolder CHUNK_PACKET_COMPRESSION = new ConfigurationHolder("deflate", "network", "chunk-compression");
 	// Debug
 	public static final ConfigurationHolder SEND_LATENCY = new ConfigurationHolder(0L, "debug", "send-latency");
 	public static final ConfigurationHolder SEND_SPIKE_LATENCY = new ConfigurationHolder(0L, "debug", "send-spike-latency");
@@ -66,6 +74,7 @@ public class SpoutConfiguration extends ConfigurationHolderConfiguration {
 	public static final ConfigurationHolder CREATE_FALLBACK_WORLD = new ConfigurationHolder(true, "debug", "create-fallback-world");
 	public static final ConfigurationHolder RUN_LIGHTING = new ConfigurationHolder(true, "debug", "run-lighting");
 	public static final ConfigurationHolder RUN_POPULATION = new ConfigurationHolder(true, "debug", "run-population");
+	public static final ConfigurationHolder PROFILER_ENABLED = new ConfigurationHolder(false, "debug", "tick-profiler");
 
 	public SpoutConfiguration() {
 		super(new YamlConfiguration(new File(CommonFileSystem.CONFIG_DIRECTORY, "spout.yml")));
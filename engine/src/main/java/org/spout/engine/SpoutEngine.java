@@ -44,9 +44,9 @@ import org.spout.api.command.CommandManager;
 import org.spout.api.command.CommandSource;
 import org.spout.api.command.annotated.AnnotatedCommandExecutorFactory;
 import org.spout.api.event.EventManager;
-import org.spout.api.event.SimpleEventManager;
 import org.spout.api.event.server.permissions.PermissionGetAllWithNodeEvent;
 import org.spout.api.exception.SpoutRuntimeException;
+import org.spout.api.generator.biome.BiomeGenerator;
 import org.spout.api.generator.biome.BiomeRegistry;
 import org.spout.api.geo.World;
 import org.spout.api.geo.cuboid.Region;
@@ -77,9 +77,12 @@ import org.spout.engine.command.TestCommands;
 import org.spout.engine.console.ConsoleManager;
 import org.spout.engine.entity.EntityManager;
 import org.spout.engine.entity.SpoutPlayer;
+import org.spout.engine.event.SpoutEventManager;
 import org.spout.engine.filesystem.CommonFileSystem;
 import org.spout.engine.filesystem.ServerFileSystem;
 import org.spout.engine.input.SpoutInputConfiguration;
+import org.spout.engine.profiler.SpoutPopulatorProfiler;
+import org.spout.engine.profiler.TickProfiler;
 import org.spout.engine.protocol.builtin.SpoutProtocol;
 import org.spout.engine.scheduler.SpoutParallelTaskManager;
 import org.spout.engine.scheduler.SpoutScheduler;
@@ -108,11 +111,11 @@ public abstract class SpoutEngine implements AsyncManager, Engine {
 	private final PluginSecurityManager securityManager = new PluginSecurityManager(0); //TODO Need to integrate this/evaluate security in the engine.
 	private final PluginManager pluginManager = new PluginManager(this, securityManager, 0.0);
 	private final ConsoleManager consoleManager;
-	private final EventManager eventManager = new SimpleEventManager();
 	private final RecipeManager recipeManager = new SimpleRecipeManager();
 	private final ServiceManager serviceManager = new ServiceManager();
 	protected final SnapshotManager snapshotManager = new SnapshotManager();
 	protected final SpoutScheduler scheduler = new SpoutScheduler(this);
+	private final SpoutEventManager eventManager = new SpoutEventManager(scheduler.getTickProfiler());
 	protected final SpoutParallelTaskManager parallelTaskManager = new SpoutParallelTaskManager(this);
 	private final AtomicBoolean setupComplete = new AtomicBoolean(false);
 	protected final SnapshotableReference<World> defaultWorld = new SnapshotableReference<>(snapshotManager, null);
@@ -143,6 +146,13 @@ public abstract class SpoutEngine implements AsyncManager, Engine {
 		getDefaultPermissions().addDefaultPermission(STANDARD_BROADCAST_PERMISSION);
 		getDefaultPermissions().addDefaultPermission(STANDARD_CHAT_PREFIX + "*");
 
+		if (SpoutConfiguration.PROFILER_ENABLED.getBoolean()) {
+			getTickProfiler().setEnabled(true);
+		}
+		getTickProfiler().registerMBeans();
+		BiomeGenerator.setPopulatorProfiler(SpoutPopulatorProfiler.getInstance());
+		SpoutPopulatorProfiler.getInstance().registerMBeans();
+
 		if (debugMode()) {
 			new TicklockMonitor().start();
 			new DeadlockMonitor().start();
@@ -315,6 +325,18 @@ public abstract class SpoutEngine implements AsyncManager, Engine {
 
 		getPluginManager().clearPlugins();
 
+		getTickProfiler().unregisterMBeans();
+		SpoutPopulatorProfiler.getInstance().unregisterMBeans();
+
+		try {
+			if (!eventManager.shutdownAsync(5000)) {
+				Spout.warn("Timed out delivering asynchronous events");
+			}
+		} catch (InterruptedException e) {
+			Spout.warn("Interrupted while delivering asynchronous events");
+			Thread.currentThread().interrupt();
+		}
+
 		if (stopScheduler) {
 			scheduler.stop();
 		}
@@ -331,6 +353,10 @@ public abstract class SpoutEngine implements AsyncManager, Engine {
 		return scheduler;
 	}
 
+	public TickProfiler getTickProfiler() {
+		return scheduler.getTickProfiler();
+	}
+
 	@Override
 	public TaskManager getParallelTaskManager() {
 		return parallelTaskManager;
@@ -81,6 +81,8 @@ import org.spout.api.generator.WorldGenerator;
 import org.spout.api.geo.World;
 import org.spout.api.geo.discrete.Point;
 import org.spout.api.geo.discrete.Transform;
+import org.spout.api.io.bytearrayarray.BAACache;
+import org.spout.api.io.compression.CompressionCodecs;
 import org.spout.api.permissions.PermissionsSubject;
 import org.spout.api.protocol.CommonChannelInitializer;
 import org.spout.api.protocol.PortBinding;
@@ -98,15 +100,18 @@ import org.spout.engine.filesystem.ServerFileSystem;
 import org.spout.engine.filesystem.versioned.PlayerFiles;
 import org.spout.engine.filesystem.versioned.WorldFiles;
 import org.spout.engine.listener.SpoutServerListener;
+import org.spout.engine.profiler.SpoutPopulatorProfiler;
 import org.spout.engine.protocol.PortBindingImpl;
 import org.spout.engine.protocol.PortBindings;
 import org.spout.engine.protocol.SpoutServerSession;
 import org.spout.engine.protocol.SpoutSessionRegistry;
+import org.spout.engine.protocol.builtin.codec.ChunkDataCodec;
 import org.spout.engine.util.access.SpoutAccessManager;
 import org.spout.engine.util.thread.snapshotable.SnapshotableLinkedHashMap;
+import org.spout.engine.world.GenerationScheduler;
 import org.spout.engine.world.SpoutServerWorld;
 import org.spout.engine.world.SpoutWorld;
-import org.spout.engine.world.WorldSavingThread;
+import org.spout.engine.world.WorldSavingPipeline;
 import org.spout.math.imaginary.Quaternionf;
 import org.spout.math.vector.Vector3f;
 
@@ -153,6 +158,25 @@ public class SpoutServer extends SpoutEngine implements Server {
 
 	protected void start(boolean checkWorlds, Listener listener) {
 		super.start();
+		String chunkCompression = SpoutConfiguration.CHUNK_PACKET_COMPRESSION.getString();
+		try {
+			ChunkDataCodec.setCompression(CompressionCodecs.getCodec(chunkCompression));
+		} catch (IllegalArgumentException e) {
+			Spout.warn("Invalid chunk packet compression codec " + chunkCompression + ", using " + ChunkDataCodec.getCompression());
+		}
+		try {
+			BAACache.getInstance().setLimits(SpoutConfiguration.MAX_OPEN_REGION_FILES.getInt(), ((long) SpoutConfiguration.MAX_MAPPED_REGION_MB.getInt()) << 20);
+		} catch (IllegalArgumentException e) {
+			Spout.warn("Invalid region file cache limits, using " + BAACache.getInstance().getMaxOpenFiles() + " files and " + (BAACache.getInstance().getMaxMappedBytes() >> 20) + " MB");
+		}
+		// A thread count of 0 keeps the default
+		int generationThreads = SpoutConfiguration.GENERATION_THREADS.getInt();
+		if (generationThreads > 0) {
+			GenerationScheduler.getInstance().setThreads(generationThreads);
+		}
+		GenerationScheduler.getInstance().setSpeculative(SpoutConfiguration.SPECULATIVE_GENERATION.getBoolean());
+		// A budget of 0 never defers population
+		SpoutPopulatorProfiler.getInstance().setDefaultBudgetNanos((long) (SpoutConfiguration.POPULATOR_BUDGET.getFloat() * 1000000));
 		if (checkWorlds) {
 			if (SpoutConfiguration.CREATE_FALLBACK_WORLD.getBoolean() && loadedWorlds.getLive().isEmpty()) {
 				Spout.info("No worlds detected. Creating fallback world.");
@@ -174,7 +198,6 @@ public class SpoutServer extends SpoutEngine implements Server {
 		getEventManager().callEvent(new EngineStartEvent());
 		filesystem.postStartup();
 		filesystem.notifyInstalls();
-		WorldSavingThread.startThread();
 		Spout.info("Done Loading, ready for players.");
 	}
 
@@ -259,8 +282,7 @@ public class SpoutServer extends SpoutEngine implements Server {
 				} catch (InterruptedException ie) {
 					getLogger().info("Thread interrupted when waiting for network shutdown");
 				}
-				WorldSavingThread.finish();
-				WorldSavingThread.staticJoin();
+				WorldSavingPipeline.finish();
 
 				bossGroup.shutdownGracefully();
 				workerGroup.shutdownGracefully();
@@ -26,6 +26,8 @@
  */
 package org.spout.engine.command;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
@@ -53,6 +55,11 @@ import org.spout.api.meta.SpoutMetaPlugin;
 import org.spout.api.plugin.Plugin;
 
 import org.spout.engine.SpoutEngine;
+import org.spout.engine.filesystem.CommonFileSystem;
+import org.spout.engine.profiler.PopulatorTiming;
+import org.spout.engine.profiler.SpoutPopulatorProfiler;
+import org.spout.engine.profiler.TickProfiler;
+import org.spout.engine.profiler.TimingHistogram;
 import org.spout.math.imaginary.Quaternionf;
 import org.spout.math.vector.Vector3f;
 
@@ -236,6 +243,112 @@ public class CommonCommands {
 		source.sendMessage("chunks: " + chunks);
 	}
 
+	@CommandDescription (aliases = {"profiler", "prof"}, usage = "<on|off|reset|report|dump> [regions]", desc = "Controls the tick profiler")
+	@Permissible ("spout.command.profiler")
+	public void profiler(CommandSource source, CommandArguments args) throws CommandException {
+		String action = args.popString("action").toLowerCase();
+		TickProfiler profiler = engine.getTickProfiler();
+		switch (action) {
+			case "on":
+				args.assertCompletelyParsed();
+				profiler.setEnabled(true);
+				source.sendMessage("Tick profiler enabled");
+				break;
+			case "off":
+				args.assertCompletelyParsed();
+				profiler.setEnabled(false);
+				source.sendMessage("Tick profiler disabled");
+				break;
+			case "reset":
+				args.assertCompletelyParsed();
+				profiler.reset();
+				source.sendMessage("Tick profiler reset");
+				break;
+			case "report":
+				int regions = args.popInteger("regions", 5);
+				args.assertCompletelyParsed();
+				source.sendMessage("Ticks profiled: " + profiler.getTicks() + (profiler.isEnabled() ? "" : " (disabled)"));
+				source.sendMessage("==========================");
+				for (String line : profiler.getStageSummary()) {
+					source.sendMessage(line);
+				}
+				source.sendMessage("Plugins:");
+				for (String line : profiler.getPluginSummary()) {
+					source.sendMessage(line);
+				}
+				source.sendMessage("Slowest regions:");
+				for (String line : profiler.getRegionSummary(regions)) {
+					source.sendMessage(line);
+				}
+				break;
+			case "dump":
+				args.assertCompletelyParsed();
+				File file = new File(new File(CommonFileSystem.DATA_DIRECTORY, "profiler"), "tick-" + System.currentTimeMillis() + ".csv");
+				try {
+					profiler.dump(file);
+				} catch (IOException e) {
+					throw new CommandException("Unable to write profiler dump: " + e.getMessage());
+				}
+				source.sendMessage("Tick profiler dumped to " + file.getPath());
+				break;
+			default:
+				throw new CommandException("Unknown action '" + action + "', expected on, off, reset, report or dump");
+		}
+	}
+
+	@CommandDescription (aliases = {"popprofiler", "popprof"}, usage = "<report|reset|budget> [populator|default] [ms]", desc = "Reports populator timings and sets populator time budgets")
+	@Permissible ("spout.command.popprofiler")
+	public void populatorProfiler(CommandSource source, CommandArguments args) throws CommandException {
+		String action = args.popString("action").toLowerCase();
+		SpoutPopulatorProfiler profiler = SpoutPopulatorProfiler.getInstance();
+		switch (action) {
+			case "report":
+				args.assertCompletelyParsed();
+				long budget = profiler.getDefaultBudgetNanos();
+				source.sendMessage("Default budget: " + (budget == 0 ? "none" : TimingHistogram.formatNanos(budget)) + (profiler.isAllocationSupported() ? "" : " (allocation not measured)"));
+				source.sendMessage("==========================");
+				source.sendMessage("Populators:");
+				for (String line : profiler.getPopulatorSummary()) {
+					source.sendMessage(line);
+				}
+				source.sendMessage("Generator populators:");
+				for (String line : profiler.getGeneratorPopulatorSummary()) {
+					source.sendMessage(line);
+				}
+				break;
+			case "reset":
+				args.assertCompletelyParsed();
+				profiler.reset();
+				source.sendMessage("Populator profiler reset");
+				break;
+			case "budget":
+				String name = args.popString("populator");
+				boolean set = args.hasMore();
+				long nanos = set ? (long) (args.popDouble("ms") * 1000000) : 0;
+				args.assertCompletelyParsed();
+				if (name.equalsIgnoreCase("default")) {
+					if (set) {
+						profiler.setDefaultBudgetNanos(nanos);
+					}
+					nanos = profiler.getDefaultBudgetNanos();
+				} else {
+					PopulatorTiming timing = profiler.findPopulatorTiming(name);
+					if (timing == null) {
+						throw new CommandException("No populator named '" + name + "' has run yet");
+					}
+					if (set) {
+						timing.setBudgetNanos(nanos);
+					}
+					name = timing.getName();
+					nanos = timing.getBudgetNanos();
+				}
+				source.sendMessage("Budget of " + name + ": " + (nanos == 0 ? "none" : TimingHistogram.formatNanos(nanos)));
+				break;
+			default:
+				throw new CommandException("Unknown action '" + action + "', expected report, reset or budget");
+		}
+	}
+
 	@CommandDescription (aliases = {"tp", "teleport"}, usage = "[player] <target>", desc = "Teleport to a location")
 	@Permissible ("spout.command.tp")
 	public void tp(CommandSource source, CommandArguments args) throws CommandException {
@@ -37,11 +37,17 @@ import org.spout.api.entity.Player;
 import org.spout.api.event.player.PlayerChatEvent;
 import org.spout.api.exception.CommandException;
 import org.spout.api.geo.World;
+import org.spout.api.geo.discrete.Point;
 import org.spout.api.util.access.AccessManager;
 import org.spout.api.util.access.BanType;
 import org.spout.engine.SpoutConfiguration;
 import org.spout.engine.SpoutEngine;
 import org.spout.engine.SpoutServer;
+import org.spout.engine.protocol.NetworkSendQueue;
+import org.spout.engine.protocol.SpoutSession;
+import org.spout.engine.world.GenerationScheduler;
+import org.spout.engine.world.GenerationScheduler.Pregeneration;
+import org.spout.engine.world.SpoutWorld;
 
 public class ServerCommands extends CommonCommands {
 	public ServerCommands(SpoutEngine engine) {
@@ -210,6 +216,62 @@ public class ServerCommands extends CommonCommands {
 		source.sendMessage(onlineMsg.toString());
 	}
 
+	@CommandDescription (aliases = "netstats", desc = "Shows the outgoing network queue and traffic for each player")
+	@Permissible ("spout.command.netstats")
+	public void netstats(CommandSource source, CommandArguments args) throws CommandException {
+		args.assertCompletelyParsed();
+
+		for (Player player : getEngine().getOnlinePlayers()) {
+			if (!player.isOnline() || !(player.getNetwork().getSession() instanceof SpoutSession)) {
+				continue;
+			}
+			NetworkSendQueue queue = ((SpoutSession<?>) player.getNetwork().getSession()).getNetworkSendQueue();
+			source.sendMessage(player.getName() + ": queued " + queue.getQueueDepth() + " (max " + queue.getMaxQueueDepth() + "), " + queue.getBytesPerSecond() + " bytes/s, " + queue.getMessagesSent() + " messages in " + queue.getFlushes() + " flushes");
+		}
+	}
+
+	@CommandDescription (aliases = {"pregenerate", "pregen"}, usage = "<start|status|cancel> [radius] [world]", desc = "Generates every column within a radius of the spawn point")
+	@Permissible ("spout.command.pregenerate")
+	public void pregenerate(CommandSource source, CommandArguments args) throws CommandException {
+		String action = args.popString("action").toLowerCase();
+		GenerationScheduler scheduler = GenerationScheduler.getInstance();
+		switch (action) {
+			case "start": {
+				int radius = args.popInteger("radius");
+				World world = args.popWorld("world", source);
+				args.assertCompletelyParsed();
+				if (radius < 0) {
+					throw new CommandException("Radius may not be negative");
+				} else if (radius > GenerationScheduler.MAX_PREGENERATION_RADIUS) {
+					throw new CommandException("Radius may not be larger than " + GenerationScheduler.MAX_PREGENERATION_RADIUS);
+				}
+				Point spawn = world.getSpawnPoint().getPosition();
+				Pregeneration pregeneration = scheduler.pregenerate((SpoutWorld) world, spawn.getChunkX(), spawn.getChunkZ(), radius);
+				source.sendMessage("Pre-generating " + pregeneration.getTotal() + " columns around " + spawn.getChunkX() + ", " + spawn.getChunkZ() + " in " + world.getName());
+				break;
+			}
+			case "status":
+			case "cancel": {
+				World world = args.popWorld("world", source);
+				args.assertCompletelyParsed();
+				Pregeneration pregeneration = scheduler.getPregeneration((SpoutWorld) world);
+				if (pregeneration == null) {
+					throw new CommandException("No pre-generation was started for " + world.getName());
+				}
+				if (action.equals("cancel")) {
+					pregeneration.cancel();
+					source.sendMessage("Pre-generation of " + world.getName() + " cancelled");
+				} else {
+					source.sendMessage("Pre-generation of " + world.getName() + ": " + pregeneration.getCompleted() + "/" + pregeneration.getTotal() + " columns" + (pregeneration.isCancelled() ? " (cancelled)" : ""));
+				}
+				source.sendMessage("Generation queue: " + scheduler.getQueueSize() + " tasks on " + scheduler.getThreads() + " threads, " + scheduler.getGenerated() + " generated, " + scheduler.getSpeculated() + " speculated, " + scheduler.getCancelled() + " cancelled");
+				break;
+			}
+			default:
+				throw new CommandException("Unknown action '" + action + "', expected start, status or cancel");
+		}
+	}
+
 	@CommandDescription (aliases = "disconnect", desc = "Disconnect the client from the server", usage = "[message]")
 	public void disconnectClient(CommandSource source, CommandArguments args) throws CommandException {
 		String message = args.popRemainingStrings("message", "Oops!");
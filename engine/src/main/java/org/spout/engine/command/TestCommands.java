@@ -38,7 +38,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 import org.spout.api.Client;
 import org.spout.api.Platform;
@@ -71,7 +70,6 @@ import org.spout.api.component.widget.list.ItemListComponent;
 import org.spout.api.entity.Entity;
 import org.spout.api.entity.Player;
 import org.spout.api.exception.CommandException;
-import org.spout.api.generator.Populator;
 import org.spout.api.generator.biome.Biome;
 import org.spout.api.generator.biome.Decorator;
 import org.spout.api.geo.World;
@@ -93,6 +91,7 @@ import org.spout.api.protocol.event.ChunkSendEvent;
 import org.spout.engine.SpoutClient;
 import org.spout.engine.SpoutEngine;
 import org.spout.engine.component.entity.SpoutModelComponent;
+import org.spout.engine.profiler.SpoutPopulatorProfiler;
 import org.spout.engine.protocol.builtin.message.CommandMessage;
 import org.spout.engine.util.thread.AsyncExecutorUtils;
 import org.spout.engine.world.SpoutChunk;
@@ -437,15 +436,15 @@ public class TestCommands {
 		args.assertCompletelyParsed();
 
 		Spout.getLogger().info("");
-		Spout.getLogger().info("Populator profiler results");
-		long totalPopulator = 0;
-		for (Entry<Class<? extends Populator>, Long> e : SpoutChunk.getProfileResults()) {
-			totalPopulator += e.getValue();
+		Spout.getLogger().info("Populator profiler results (" + SpoutChunk.getChunksPopulated() + " chunks populated)");
+		for (String line : SpoutPopulatorProfiler.getInstance().getPopulatorSummary()) {
+			Spout.getLogger().info(line);
 		}
-		for (Entry<Class<? extends Populator>, Long> e : SpoutChunk.getProfileResults()) {
-			Spout.getLogger().info(e.getKey().getSimpleName() + " " + (TimeUnit.SECONDS.convert(e.getValue(), TimeUnit.NANOSECONDS) / new Integer(SpoutChunk.getChunksPopulated()).floatValue()) + "s average per chunk (" + (0.10 * ((e.getValue() * 1000) / totalPopulator)) + ")");
+		Spout.getLogger().info("");
+		Spout.getLogger().info("Generator populator profiler results");
+		for (String line : SpoutPopulatorProfiler.getInstance().getGeneratorPopulatorSummary()) {
+			Spout.getLogger().info(line);
 		}
-		Spout.getLogger().info("Total " + totalPopulator);
 		Spout.getLogger().info("");
 		Spout.getLogger().info("Decorator profiler results");
 		long totalDecorator = 0;
@@ -26,38 +26,139 @@
  */
 package org.spout.engine.component.entity;
 
+import java.util.Iterator;
+
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import org.spout.api.Platform;
 import org.spout.api.Spout;
 import org.spout.api.component.entity.PlayerNetworkComponent;
+import org.spout.api.datatable.ManagedMap;
+import org.spout.api.datatable.delta.DeltaMap;
 import org.spout.api.entity.Entity;
 import org.spout.api.event.EventHandler;
 import org.spout.api.event.Listener;
-import org.spout.api.geo.cuboid.ChunkSnapshot;
+import org.spout.api.geo.LoadOption;
+import org.spout.api.geo.World;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.geo.discrete.Point;
 import org.spout.api.geo.discrete.Transform;
+import org.spout.api.math.IntVector3;
 import org.spout.api.protocol.Session;
 import org.spout.api.protocol.event.BlockUpdateEvent;
 import org.spout.api.protocol.event.ChunkDatatableSendEvent;
 import org.spout.api.protocol.event.ChunkFreeEvent;
 import org.spout.api.protocol.event.ChunkSendEvent;
 import org.spout.api.protocol.event.EntityUpdateEvent;
+import org.spout.api.protocol.event.EntityUpdateEvent.UpdateAction;
 import org.spout.api.protocol.event.WorldChangeProtocolEvent;
+import org.spout.api.util.hashing.IntPairHashed;
 import org.spout.engine.protocol.builtin.message.BlockUpdateMessage;
 import org.spout.engine.protocol.builtin.message.ChunkDataMessage;
 import org.spout.engine.protocol.builtin.message.ChunkDatatableMessage;
 import org.spout.engine.protocol.builtin.message.EntityDatatableMessage;
 import org.spout.engine.protocol.builtin.message.UpdateEntityMessage;
 import org.spout.engine.protocol.builtin.message.WorldChangeMessage;
+import org.spout.engine.world.ChunkPrefetcher;
+import org.spout.engine.world.GenerationScheduler;
 import org.spout.engine.world.SpoutChunk;
+import org.spout.engine.world.SpoutServerWorld;
+import org.spout.math.vector.Vector3f;
 
 public class SpoutPlayerNetworkComponent extends PlayerNetworkComponent implements Listener {
+	/**
+	 * The number of ticks the player's movement is extrapolated to find the chunks to prefetch
+	 */
+	private static final int PREFETCH_TICKS = 40;
+	/**
+	 * The maximum number of chunks queued for prefetching each time the predicted chunk changes
+	 */
+	private static final int PREFETCH_LIMIT = 64;
+	/**
+	 * The maximum number of ungenerated columns queued for generation each time the predicted chunk changes
+	 */
+	private static final int SPECULATE_LIMIT = 16;
+	/**
+	 * The version of each synced entity's datatable that was last sent to this player
+	 */
+	private final TIntLongHashMap datatableVersions = new TIntLongHashMap();
+	private Point lastPosition = Point.invalid;
+	private Point lastPrediction = Point.invalid;
+	private volatile Vector3f movement = Vector3f.ZERO;
+
 	@Override
 	public void onAttached() {
 		super.onAttached();
 		Spout.getEventManager().registerEvents(this, Spout.getEngine());
 	}
 
+	@Override
+	public void finalizeRun(final Transform live) {
+		super.finalizeRun(live);
+		if (Spout.getPlatform() != Platform.SERVER || getSession().getState() != Session.State.GAME) {
+			return;
+		}
+		prefetchChunks(live.getPosition());
+	}
+
+	/**
+	 * Prefetches the unloaded chunks that will enter the player's view if the player keeps moving as it did during the last tick, and queues the generation of those never generated
+	 */
+	private void prefetchChunks(Point position) {
+		final Point previous = lastPosition;
+		lastPosition = position;
+		final World world = position.getWorld();
+		if (!(world instanceof SpoutServerWorld) || previous.getWorld() != world) {
+			lastPrediction = Point.invalid;
+			movement = Vector3f.ZERO;
+			return;
+		}
+		movement = position.sub(previous);
+		final Point currentBase = Chunk.pointToBase(position);
+		final Point predictedBase = Chunk.pointToBase(position.add(position.sub(previous).mul(PREFETCH_TICKS)));
+		if (predictedBase.equals(currentBase) || predictedBase.equals(lastPrediction)) {
+			return;
+		}
+		lastPrediction = predictedBase;
+
+		final ChunkPrefetcher prefetcher = ((SpoutServerWorld) world).getRegionFileManager().getPrefetcher();
+		final GenerationScheduler scheduler = GenerationScheduler.getInstance();
+		final TLongHashSet columns = new TLongHashSet();
+		final int distance = getSyncDistance();
+		int queued = 0;
+		int speculated = 0;
+		Iterator<IntVector3> i = getViewableVolume(predictedBase.getChunkX(), predictedBase.getChunkY(), predictedBase.getChunkZ(), distance);
+		while (i.hasNext() && (queued < PREFETCH_LIMIT || speculated < SPECULATE_LIMIT)) {
+			IntVector3 v = i.next();
+			Point base = new Point(world, v.getX() << Chunk.BLOCKS.BITS, v.getY() << Chunk.BLOCKS.BITS, v.getZ() << Chunk.BLOCKS.BITS);
+			// Chunks already in view are loaded by the regular chunk updates
+			if (isInViewVolume(currentBase, base, distance) || world.getChunk(v.getX(), v.getY(), v.getZ(), LoadOption.NO_LOAD) != null) {
+				continue;
+			}
+			if (queued < PREFETCH_LIMIT && prefetcher.prefetch(v.getX(), v.getY(), v.getZ())) {
+				queued++;
+			}
+			// Columns which were never generated are generated ahead of the player, and dropped if the player turns away
+			if (speculated < SPECULATE_LIMIT && columns.add(IntPairHashed.key(v.getX(), v.getZ())) && scheduler.speculate((SpoutServerWorld) world, v.getX(), v.getZ(), distance << 1)) {
+				speculated++;
+			}
+		}
+	}
+
+	/**
+	 * Gets the distance the player moved during the last tick
+	 *
+	 * @return the movement
+	 */
+	public Vector3f getMovement() {
+		return movement;
+	}
+
 	@EventHandler
 	public void onChunkSend(ChunkSendEvent event) {
-		event.getMessages().add(new ChunkDataMessage(event.getChunk().getSnapshot(ChunkSnapshot.SnapshotType.BOTH, ChunkSnapshot.EntityType.NO_ENTITIES, ChunkSnapshot.ExtraData.BIOME_DATA)));
+		// The message and its encoded payload are shared by every player sent the chunk until it changes
+		event.getMessages().add(((SpoutChunk) event.getChunk()).getNetworkMessage());
 	}
 
 	@EventHandler
@@ -99,11 +200,49 @@ public class SpoutPlayerNetworkComponent extends PlayerNetworkComponent implemen
 				}
 				break;
 		}
-		if (event.getAction().isUpdate() && event.isFullSync()) {
-			if (!e.getData().getDeltaMap().isEmpty()) {
-				event.getMessages().add(new EntityDatatableMessage(e.getId(), e.getData().getDeltaMap()));
-				e.getData().resetDelta();
+		if (event.isFullSync()) {
+			syncDatatable(event);
+		}
+	}
+
+	/**
+	 * Gets the version of an entity's datatable which was last sent to this player
+	 *
+	 * @param entity the entity
+	 * @return the version, or 0 if the datatable was never sent
+	 */
+	public long getSentDatatableVersion(Entity entity) {
+		synchronized (datatableVersions) {
+			return datatableVersions.get(entity.getId());
+		}
+	}
+
+	/**
+	 * Sends the entries of the entity's datatable changed since the version last sent to this player, or the whole datatable when the entity is added
+	 */
+	private void syncDatatable(EntityUpdateEvent event) {
+		final int id = event.getEntityId();
+		final ManagedMap data = event.getEntity().getData();
+		if (event.getAction() == UpdateAction.REMOVE) {
+			synchronized (datatableVersions) {
+				datatableVersions.remove(id);
 			}
+			return;
+		}
+		long sent;
+		synchronized (datatableVersions) {
+			sent = event.getAction() == UpdateAction.ADD ? 0 : datatableVersions.get(id);
+		}
+		long version = data.getVersion();
+		if (sent != 0 && version == sent) {
+			return;
+		}
+		DeltaMap delta = data.getDeltaSince(sent);
+		if (!delta.isEmpty() || (sent != 0 && delta.getType() == DeltaMap.DeltaType.REPLACE)) {
+			event.getMessages().add(new EntityDatatableMessage(id, delta));
+		}
+		synchronized (datatableVersions) {
+			datatableVersions.put(id, version);
 		}
 	}
 }
@@ -0,0 +1,438 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.entity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.spout.api.entity.Entity;
+import org.spout.api.geo.World;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.geo.discrete.Point;
+import org.spout.api.util.hashing.Int21TripleHashed;
+
+/**
+ * A spatial index of entities, bucketed into chunk sized cells.<br> <br> Each region's {@link EntityManager} updates the index when it copies its snapshot, so the positions held by the index are the
+ * snapshot positions returned by {@link org.spout.api.component.entity.PhysicsComponent#getPosition()} for the rest of the tick. Queries only visit the cells which overlap the search range, read the
+ * positions stored in the cells rather than each entity's transform, and never copy entity lists, although each search allocates a few small objects.<br> <br> There is no index wide lock, each cell
+ * is locked on its own, so regions update the index in parallel. An entity must only be updated by the region which owns it. While an entity moves between cells, a concurrent search may miss it.
+ *
+ * @param <E> the type of entity held by the index
+ */
+public class EntityGrid<E extends SpoutEntity> {
+	private static final int CELL_BITS = Chunk.BLOCKS.BITS;
+	private static final int CELL_SIZE = Chunk.BLOCKS.SIZE;
+	private static final ThreadLocal<float[]> DISTANCES = new ThreadLocal<>();
+	private final Class<E> type;
+	private final World world;
+	private final ConcurrentHashMap<Long, Cell> cells = new ConcurrentHashMap<>();
+	private final AtomicInteger cellCount = new AtomicInteger();
+	private final ConcurrentHashMap<SpoutEntity, Cell> located = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an index
+	 *
+	 * @param world the world the index covers
+	 * @param type the type of entity to index, entities of other types are ignored by {@link #update(Collection)}
+	 */
+	public EntityGrid(World world, Class<E> type) {
+		this.world = world;
+		this.type = type;
+	}
+
+	/**
+	 * Updates the position of the given entities.  Entities which are removed, or have moved to another world, are dropped from the index.
+	 *
+	 * @param entities the entities to update
+	 */
+	public void update(Collection<? extends SpoutEntity> entities) {
+		for (SpoutEntity e : entities) {
+			if (!type.isInstance(e)) {
+				continue;
+			}
+			Point position = e.getPhysics().getPosition();
+			if (e.isRemoved() || position == null || position.getWorld() != world) {
+				removeRaw(e);
+				continue;
+			}
+			float x = position.getX();
+			float y = position.getY();
+			float z = position.getZ();
+			int cx = position.getFloorX() >> CELL_BITS;
+			int cy = position.getFloorY() >> CELL_BITS;
+			int cz = position.getFloorZ() >> CELL_BITS;
+			Cell cell = located.get(e);
+			if (cell != null && cell.x == cx && cell.y == cy && cell.z == cz) {
+				cell.setPosition(e, x, y, z);
+			} else {
+				if (cell != null) {
+					removeFromCell(cell, e);
+				}
+				located.put(e, addToCell(cx, cy, cz, e, x, y, z));
+			}
+		}
+	}
+
+	/**
+	 * Removes the given entities from the index
+	 *
+	 * @param entities the entities to remove
+	 */
+	public void remove(Collection<? extends SpoutEntity> entities) {
+		for (SpoutEntity e : entities) {
+			removeRaw(e);
+		}
+	}
+
+	/**
+	 * Gets the number of entities in the index
+	 *
+	 * @return the number of entities
+	 */
+	public int size() {
+		return located.size();
+	}
+
+	/**
+	 * Adds all entities strictly closer than {@code range} to the position to the given collection
+	 *
+	 * @param position the center of the search
+	 * @param ignore an entity to skip, or null
+	 * @param range the search range
+	 * @param found the collection to add the entities to
+	 */
+	public void getInRange(Point position, Entity ignore, int range, Collection<? super E> found) {
+		final float x = position.getX();
+		final float y = position.getY();
+		final float z = position.getZ();
+		final float rangeSquared = (float) range * range;
+		final Bounds bounds = new Bounds(x, y, z, range);
+		if (bounds.volume() <= cellCount.get()) {
+			for (int cx = bounds.minX; cx <= bounds.maxX; cx++) {
+				for (int cy = bounds.minY; cy <= bounds.maxY; cy++) {
+					for (int cz = bounds.minZ; cz <= bounds.maxZ; cz++) {
+						Cell cell = cells.get(Int21TripleHashed.key(cx, cy, cz));
+						if (cell != null) {
+							cell.getInRange(x, y, z, rangeSquared, ignore, found);
+						}
+					}
+				}
+			}
+		} else {
+			for (Cell cell : cells.values()) {
+				if (bounds.contains(cell)) {
+					cell.getInRange(x, y, z, rangeSquared, ignore, found);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the entity nearest to the position, which is strictly closer than {@code range}
+	 *
+	 * @param position the center of the search
+	 * @param ignore an entity to skip, or null
+	 * @param range the search range
+	 * @return the nearest entity, or null if there are none in range
+	 */
+	@SuppressWarnings ("unchecked")
+	public E getNearest(Point position, Entity ignore, int range) {
+		E[] nearest = (E[]) new SpoutEntity[1];
+		return getNearest(position, ignore, range, nearest) == 0 ? null : nearest[0];
+	}
+
+	/**
+	 * Fills the array with the entities nearest to the position, which are strictly closer than {@code range}, ordered by increasing distance
+	 *
+	 * @param position the center of the search
+	 * @param ignore an entity to skip, or null
+	 * @param range the search range
+	 * @param nearest the array to fill, its length is the number of entities to find
+	 * @return the number of entities found
+	 */
+	public int getNearest(Point position, Entity ignore, int range, E[] nearest) {
+		final int k = nearest.length;
+		if (k == 0) {
+			return 0;
+		}
+		float[] distances = DISTANCES.get();
+		if (distances == null || distances.length < k) {
+			distances = new float[Math.max(k, 16)];
+			DISTANCES.set(distances);
+		}
+		final float x = position.getX();
+		final float y = position.getY();
+		final float z = position.getZ();
+		final Nearest<E> result = new Nearest<>(nearest, distances, (float) range * range);
+		final Bounds bounds = new Bounds(x, y, z, range);
+		if (bounds.volume() <= cellCount.get()) {
+			for (int cx = bounds.minX; cx <= bounds.maxX; cx++) {
+				for (int cy = bounds.minY; cy <= bounds.maxY; cy++) {
+					for (int cz = bounds.minZ; cz <= bounds.maxZ; cz++) {
+						Cell cell = cells.get(Int21TripleHashed.key(cx, cy, cz));
+						if (cell != null && cell.minDistanceSquared(x, y, z) < result.limit()) {
+							cell.getNearest(x, y, z, ignore, result);
+						}
+					}
+				}
+			}
+		} else {
+			for (Cell cell : cells.values()) {
+				if (bounds.contains(cell) && cell.minDistanceSquared(x, y, z) < result.limit()) {
+					cell.getNearest(x, y, z, ignore, result);
+				}
+			}
+		}
+		return result.count;
+	}
+
+	private Cell addToCell(int cx, int cy, int cz, SpoutEntity e, float px, float py, float pz) {
+		final Long key = Int21TripleHashed.key(cx, cy, cz);
+		while (true) {
+			Cell cell = cells.get(key);
+			if (cell == null) {
+				Cell created = new Cell(key, cx, cy, cz);
+				cell = cells.putIfAbsent(key, created);
+				if (cell == null) {
+					cell = created;
+					cellCount.incrementAndGet();
+				}
+			}
+			// A cell which emptied concurrently has been dropped from the map, so retry with a new cell
+			if (cell.add(e, px, py, pz)) {
+				return cell;
+			}
+		}
+	}
+
+	private void removeRaw(SpoutEntity e) {
+		Cell cell = located.remove(e);
+		if (cell != null) {
+			removeFromCell(cell, e);
+		}
+	}
+
+	private void removeFromCell(Cell cell, SpoutEntity e) {
+		if (cell.remove(e) && cells.remove(cell.key, cell)) {
+			cellCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * The range of cells covered by a search
+	 */
+	private static class Bounds {
+		private final int minX, minY, minZ, maxX, maxY, maxZ;
+
+		public Bounds(float x, float y, float z, int range) {
+			minX = floor(x - range) >> CELL_BITS;
+			minY = floor(y - range) >> CELL_BITS;
+			minZ = floor(z - range) >> CELL_BITS;
+			maxX = floor(x + range) >> CELL_BITS;
+			maxY = floor(y + range) >> CELL_BITS;
+			maxZ = floor(z + range) >> CELL_BITS;
+		}
+
+		public long volume() {
+			return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+		}
+
+		public boolean contains(Cell cell) {
+			return cell.x >= minX && cell.x <= maxX && cell.y >= minY && cell.y <= maxY && cell.z >= minZ && cell.z <= maxZ;
+		}
+
+		private static int floor(float f) {
+			int i = (int) f;
+			return f < i ? i - 1 : i;
+		}
+	}
+
+	/**
+	 * The k nearest entities found so far, sorted by distance
+	 */
+	private static class Nearest<E> {
+		private final E[] entities;
+		private final float[] distances;
+		private final float range;
+		private int count = 0;
+
+		public Nearest(E[] entities, float[] distances, float range) {
+			this.entities = entities;
+			this.distances = distances;
+			this.range = range;
+		}
+
+		/**
+		 * Gets the squared distance an entity must be closer than to be added
+		 */
+		public float limit() {
+			return count < entities.length ? range : distances[count - 1];
+		}
+
+		public void offer(E e, float distance) {
+			if (distance >= limit()) {
+				return;
+			}
+			int i = count < entities.length ? count++ : count - 1;
+			while (i > 0 && distances[i - 1] > distance) {
+				entities[i] = entities[i - 1];
+				distances[i] = distances[i - 1];
+				i--;
+			}
+			entities[i] = e;
+			distances[i] = distance;
+		}
+	}
+
+	/**
+	 * The entities in a single cell.  All access to the entity and position arrays is synchronized on the cell.
+	 */
+	private static class Cell {
+		private final long key;
+		private final int x, y, z;
+		private SpoutEntity[] entities = new SpoutEntity[4];
+		private float[] positions = new float[12];
+		private int size = 0;
+		/**
+		 * Set once the cell has emptied and been dropped from the index, after which it accepts no entities
+		 */
+		private boolean dead = false;
+
+		public Cell(long key, int x, int y, int z) {
+			this.key = key;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		/**
+		 * Adds an entity to the cell
+		 *
+		 * @return false if the cell has been dropped from the index
+		 */
+		public synchronized boolean add(SpoutEntity e, float px, float py, float pz) {
+			if (dead) {
+				return false;
+			}
+			if (size == entities.length) {
+				entities = Arrays.copyOf(entities, size << 1);
+				positions = Arrays.copyOf(positions, size * 6);
+			}
+			entities[size] = e;
+			setPosition(size++, px, py, pz);
+			return true;
+		}
+
+		/**
+		 * Removes an entity from the cell
+		 *
+		 * @return true if the cell emptied and must be dropped from the index
+		 */
+		public synchronized boolean remove(SpoutEntity e) {
+			int i = indexOf(e);
+			if (i < 0) {
+				return false;
+			}
+			size--;
+			entities[i] = entities[size];
+			System.arraycopy(positions, size * 3, positions, i * 3, 3);
+			entities[size] = null;
+			if (size == 0) {
+				dead = true;
+			}
+			return dead;
+		}
+
+		public synchronized void setPosition(SpoutEntity e, float px, float py, float pz) {
+			int i = indexOf(e);
+			if (i >= 0) {
+				setPosition(i, px, py, pz);
+			}
+		}
+
+		private void setPosition(int i, float px, float py, float pz) {
+			positions[i * 3] = px;
+			positions[i * 3 + 1] = py;
+			positions[i * 3 + 2] = pz;
+		}
+
+		private int indexOf(SpoutEntity e) {
+			for (int i = 0; i < size; i++) {
+				if (entities[i] == e) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Gets the squared distance from a point to the nearest point of the cell
+		 */
+		public float minDistanceSquared(float px, float py, float pz) {
+			float dx = axisDistance(px, x);
+			float dy = axisDistance(py, y);
+			float dz = axisDistance(pz, z);
+			return dx * dx + dy * dy + dz * dz;
+		}
+
+		private float axisDistance(float p, int cell) {
+			float min = cell << CELL_BITS;
+			if (p < min) {
+				return min - p;
+			}
+			float max = min + CELL_SIZE;
+			return p > max ? p - max : 0;
+		}
+
+		private float distanceSquared(int i, float px, float py, float pz) {
+			float dx = positions[i * 3] - px;
+			float dy = positions[i * 3 + 1] - py;
+			float dz = positions[i * 3 + 2] - pz;
+			return dx * dx + dy * dy + dz * dz;
+		}
+
+		@SuppressWarnings ("unchecked")
+		public synchronized <E> void getInRange(float px, float py, float pz, float rangeSquared, Entity ignore, Collection<? super E> found) {
+			for (int i = 0; i < size; i++) {
+				if (entities[i] != ignore && distanceSquared(i, px, py, pz) < rangeSquared) {
+					found.add((E) entities[i]);
+				}
+			}
+		}
+
+		@SuppressWarnings ("unchecked")
+		public synchronized <E> void getNearest(float px, float py, float pz, Entity ignore, Nearest<E> result) {
+			for (int i = 0; i < size; i++) {
+				if (entities[i] != ignore) {
+					result.offer((E) entities[i], distanceSquared(i, px, py, pz));
+				}
+			}
+		}
+	}
+}
@@ -28,7 +28,11 @@ package org.spout.engine.entity;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -37,13 +41,21 @@ import org.spout.api.Spout;
 import org.spout.api.component.entity.PlayerNetworkComponent;
 import org.spout.api.entity.Entity;
 import org.spout.api.entity.Player;
+import org.spout.api.geo.World;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.geo.discrete.Point;
+import org.spout.api.protocol.Message;
+import org.spout.api.protocol.Session;
+import org.spout.api.protocol.Session.SendType;
 import org.spout.api.protocol.event.EntityUpdateEvent;
 import org.spout.api.protocol.event.EntityUpdateEvent.UpdateAction;
 import org.spout.engine.component.entity.SpoutPhysicsComponent;
+import org.spout.engine.component.entity.SpoutPlayerNetworkComponent;
 import org.spout.engine.util.thread.snapshotable.SnapshotManager;
 import org.spout.engine.util.thread.snapshotable.SnapshotableHashMap;
 import org.spout.engine.world.SpoutChunk;
 import org.spout.engine.world.SpoutRegion;
+import org.spout.engine.world.SpoutWorld;
 
 /**
  * A class which manages all of the entities within a world.
@@ -69,6 +81,23 @@ public class EntityManager {
 	 * Player listings plus listings of sync'd entities per player
 	 */
 	private final SnapshotableHashMap<Player, ArrayList<SpoutEntity>> players = new SnapshotableHashMap<>(snapshotManager);
+	/**
+	 * Entities removed from the manager since the last snapshot copy, either because they were removed or because they moved to another region
+	 */
+	private final List<SpoutEntity> departed = new ArrayList<>();
+	/**
+	 * The cell, chunk and datatable version of each entity at its last sync
+	 */
+	private final Map<SpoutEntity, EntityInterest> entityInterest = new HashMap<>();
+	/**
+	 * The cell, sync distance and hidden entities of each player observing this region at the last sync
+	 */
+	private final Map<Player, PlayerInterest> playerInterest = new HashMap<>();
+	/**
+	 * Messages produced for each player by the current entity sync, sent once the sync has finished
+	 */
+	private final Map<Player, UpdateBatch> pendingUpdates = new LinkedHashMap<>();
+	private int syncCount = 0;
 
 	public EntityManager(SpoutRegion region) {
 		if (region == null) {
@@ -152,6 +181,7 @@ public class EntityManager {
 	 * @param entity The entity
 	 */
 	public void removeEntity(SpoutEntity entity) {
+		departed.add(entity);
 		entities.remove(entity.getId());
 		if (entity instanceof Player) {
 			players.remove((Player) entity);
@@ -185,6 +215,23 @@ public class EntityManager {
 		}
 		snapshotManager.copyAllSnapshots();
 
+		// Entities which moved to another region in this world are updated by that region, anything else which left is dropped
+		SpoutWorld world = region.getWorld();
+		world.getEntityGrid().update(entities.get().values());
+		world.getPlayerGrid().update(entities.get().values());
+		if (!departed.isEmpty()) {
+			Iterator<SpoutEntity> i = departed.iterator();
+			while (i.hasNext()) {
+				SpoutEntity e = i.next();
+				if (!e.isRemoved() && e.getPhysics().getPosition().getWorld() == world) {
+					i.remove();
+				}
+			}
+			world.getEntityGrid().remove(departed);
+			world.getPlayerGrid().remove(departed);
+			departed.clear();
+		}
+
 		// We want one more tick with for the removed Entities
 		// The next tick works with the snapshotted values which contains has all removed entities with isRemoved true
 		for (SpoutEntity e : entities.get().values()) {
@@ -204,30 +251,69 @@ public class EntityManager {
 	}
 
 	/**
-	 * Syncs all entities/observers in this region
+	 * Syncs all entities/observers in this region.<br> <br> Entities and the players observing them are tracked by the chunk sized cell they are in, and sync range is measured between
+	 * cells. Whether a player should have an entity spawned can therefore only change when the entity or the player moves to another cell, when the observers of the entity's
+	 * chunk change, or when the player changes its sync distance or the entities hidden from it. Entities for which none of this happened, and which have no changed transform or
+	 * datatable, are skipped. The updates for each player are sent together, in order, once every entity has been synced.
 	 */
 	public void syncEntities() {
 		if (!(Spout.getPlatform() == Platform.SERVER)) {
 			throw new UnsupportedOperationException("Must be in server mode to sync entities");
 		}
-		for (Entity observed : getAll()) {
+		syncCount++;
+		final Map<SpoutChunk, Boolean> chunksChanged = new HashMap<>();
+		final Map<Player, Boolean> playersChanged = new HashMap<>();
+		for (SpoutEntity observed : getAll()) {
 			if (observed.getId() == SpoutEntity.NOTSPAWNEDID) {
 				throw new IllegalStateException("Attempt to sync entity with not spawned id.");
 			}
-			if (observed.getChunk() == null) {
+			final SpoutChunk chunk = (SpoutChunk) observed.getChunk();
+			if (chunk == null) {
 				continue;
 			}
-			//Players observing the chunk this entity is in
-			Set<? extends Entity> observers = observed.getChunk().getObservers();
-			syncEntity(observed, observers, false);
+			final SpoutPhysicsComponent physics = (SpoutPhysicsComponent) observed.getPhysics();
+			final Point position = physics.getTransformLive().getPosition();
+			final long version = observed.getData().getVersion();
+			EntityInterest interest = entityInterest.get(observed);
+			if (interest == null) {
+				interest = new EntityInterest();
+				entityInterest.put(observed, interest);
+			}
+			// Both are evaluated, so the state of the chunk's observers is recorded even when the entity moved
+			final boolean moved = interest.update(position, chunk, syncCount);
+			final boolean observersChanged = haveObserversChanged(chunk, chunksChanged, playersChanged);
+			final boolean recheck = moved || observersChanged;
+			if (recheck || observed.isRemoved() || physics.isTransformDirty() || version != interest.version) {
+				//Players observing the chunk this entity is in
+				syncEntity(observed, interest, version, chunk.getObservers(), false, recheck, playersChanged);
+			}
+			interest.version = version;
 
 			//TODO: Why do we need this...?
-			Set<? extends Entity> expiredObservers = ((SpoutChunk) observed.getChunk()).getExpiredObservers();
-			syncEntity(observed, expiredObservers, true);
+			Set<? extends Entity> expiredObservers = chunk.getExpiredObservers();
+			syncEntity(observed, interest, version, expiredObservers, true, true, playersChanged);
+
+			// Each observer tracks the datatable version it was sent, so the delta map is not needed to find changes
+			observed.getData().resetDelta();
+		}
+		// Forget the entities which left this region and the players which no longer observe it
+		Iterator<EntityInterest> entities = entityInterest.values().iterator();
+		while (entities.hasNext()) {
+			if (entities.next().syncCount != syncCount) {
+				entities.remove();
+			}
 		}
+		playerInterest.keySet().retainAll(playersChanged.keySet());
+		flushUpdates();
 	}
 
-	private void syncEntity(Entity observed, Set<? extends Entity> observers, boolean forceDestroy) {
+	private void syncEntity(Entity observed, EntityInterest interest, long version, Set<? extends Entity> observers, boolean forceDestroy, boolean recheck, Map<Player, Boolean> playersChanged) {
+		if (observers.isEmpty()) {
+			return;
+		}
+		final SpoutPhysicsComponent physics = (SpoutPhysicsComponent) observed.getPhysics();
+		final boolean isRemoved = observed.isRemoved();
+		final boolean transformDirty = physics.isTransformDirty();
 		for (Entity observer : observers) {
 			//Non-players have no synchronizer, ignore
 			if (!(observer instanceof Player)) {
@@ -236,32 +322,249 @@ public class EntityManager {
 			Player player = (Player) observer;
 			//Grab the NetworkSynchronizer of the player
 			PlayerNetworkComponent network = player.getNetwork();
-			//Grab player's sync distance
-			int syncDistance = network.getSyncDistance();
-			/*
-			 * Just because a player can see a chunk doesn't mean the entity is within sync-range, do the math and sync based on the result.
-			 */
-			final SpoutPhysicsComponent physics = (SpoutPhysicsComponent) observed.getPhysics();
 			boolean hasSpawned = network.hasSpawned(observed);
-			boolean isRemoved = observed.isRemoved();
-			double distance = physics.getTransformLive().getPosition().distanceSquared(((SpoutPhysicsComponent) player.getPhysics()).getTransformLive().getPosition());
-			//Entity is out of range of the player's view distance, destroy
-			boolean tooFar = distance > syncDistance * syncDistance;
-			boolean isInvisible = player.isInvisible(observed);
 			UpdateAction action;
-			if (hasSpawned) {
-				if (forceDestroy || isRemoved || tooFar || isInvisible) {
-					action = UpdateAction.REMOVE;
+			if (forceDestroy || isRemoved) {
+				if (!hasSpawned) {
+					continue;
+				}
+				action = UpdateAction.REMOVE;
+			} else if (!recheck) {
+				// Neither the entity nor the player changed cells, so only spawned entities with changes need an update
+				if (!hasSpawned || !(transformDirty || isDatatableChanged(network, observed, version))) {
+					continue;
+				}
+				action = UpdateAction.TRANSFORM;
+			} else {
+				/*
+				 * Just because a player can see a chunk doesn't mean the entity is within sync-range, do the math and sync based on the result.
+				 */
+				hasPlayerChanged(player, playersChanged);
+				boolean inRange = interest.isInRange(playerInterest.get(player));
+				boolean isInvisible = player.isInvisible(observed);
+				if (hasSpawned) {
+					if (!inRange || isInvisible) {
+						action = UpdateAction.REMOVE;
+					} else if (transformDirty || isDatatableChanged(network, observed, version)) {
+						// Spawned observers only need a TRANSFORM when something they would receive has changed
+						// TODO use POSITION?
+						action = UpdateAction.TRANSFORM;
+					} else {
+						continue;
+					}
+				} else if (inRange && !isInvisible) {
+					action = UpdateAction.ADD;
 				} else {
-					// TODO use POSITION?
-					action = UpdateAction.TRANSFORM;
+					continue;
 				}
-			} else if (!tooFar && !isInvisible) {
-				action =  UpdateAction.ADD;
+			}
+			queueUpdate(player, observed, physics, action);
+		}
+	}
+
+	/**
+	 * Tests if the player was sent an older version of the entity's datatable.  Versions are compared rather than checking the delta map, which is reset after each sync and would lose
+	 * a change written during the sync.
+	 */
+	private static boolean isDatatableChanged(PlayerNetworkComponent network, Entity observed, long version) {
+		if (network instanceof SpoutPlayerNetworkComponent) {
+			return ((SpoutPlayerNetworkComponent) network).getSentDatatableVersion(observed) != version;
+		}
+		// Other components don't record what they were sent
+		return true;
+	}
+
+	/**
+	 * Tests if any player observing the chunk changed its interest during this sync.  The result is computed once per chunk and sync.
+	 */
+	private boolean haveObserversChanged(SpoutChunk chunk, Map<SpoutChunk, Boolean> chunksChanged, Map<Player, Boolean> playersChanged) {
+		Boolean changed = chunksChanged.get(chunk);
+		if (changed == null) {
+			changed = false;
+			for (Entity observer : chunk.getObservers()) {
+				// Every player is checked, so that each records its state for this sync
+				if (observer instanceof Player && hasPlayerChanged((Player) observer, playersChanged)) {
+					changed = true;
+				}
+			}
+			chunksChanged.put(chunk, changed);
+		}
+		return changed;
+	}
+
+	/**
+	 * Tests if the player changed cell, world, sync distance or hidden entities since the previous sync.  The result is computed once per player and sync.
+	 */
+	private boolean hasPlayerChanged(Player player, Map<Player, Boolean> playersChanged) {
+		Boolean changed = playersChanged.get(player);
+		if (changed == null) {
+			PlayerInterest interest = playerInterest.get(player);
+			if (interest == null) {
+				interest = new PlayerInterest();
+				playerInterest.put(player, interest);
+			}
+			changed = interest.update(player);
+			playersChanged.put(player, changed);
+		}
+		return changed;
+	}
+
+	/**
+	 * Fires the update event for the player and holds its messages until the end of the sync
+	 */
+	private void queueUpdate(Player player, Entity observed, SpoutPhysicsComponent physics, UpdateAction action) {
+		PlayerNetworkComponent network = player.getNetwork();
+		EntityUpdateEvent event = Spout.getEventManager().callEvent(new EntityUpdateEvent(observed, physics.getTransformLive(), action, network.getRepositionManager(), true));
+		List<Message> messages = event.getMessages();
+		if (messages.isEmpty()) {
+			return;
+		}
+		UpdateBatch batch = pendingUpdates.get(player);
+		if (batch == null) {
+			batch = new UpdateBatch();
+			pendingUpdates.put(player, batch);
+		}
+		batch.add(event.getSendType(), messages);
+	}
+
+	/**
+	 * Sends each player the updates queued for it during this sync
+	 */
+	private void flushUpdates() {
+		if (pendingUpdates.isEmpty()) {
+			return;
+		}
+		for (Map.Entry<Player, UpdateBatch> entry : pendingUpdates.entrySet()) {
+			Session session = entry.getKey().getNetwork().getSession();
+			if (session != null) {
+				entry.getValue().send(session);
+			}
+		}
+		pendingUpdates.clear();
+	}
+
+	/**
+	 * Tests if two cells are within sync range of each other.  The range is measured between the nearest points of the cells, so every entity within the sync distance of a player
+	 * is in range.
+	 *
+	 * @param dx the distance between the cells along the x axis, in cells
+	 * @param dy the distance between the cells along the y axis, in cells
+	 * @param dz the distance between the cells along the z axis, in cells
+	 * @param syncDistance the sync distance of the observing player, in blocks
+	 * @return true if the entity should be synced to the observer
+	 */
+	protected static boolean isInSyncRange(int dx, int dy, int dz, int syncDistance) {
+		final long x = cellGap(dx);
+		final long y = cellGap(dy);
+		final long z = cellGap(dz);
+		return x * x + y * y + z * z <= (long) syncDistance * syncDistance;
+	}
+
+	/**
+	 * Gets the distance in blocks between the nearest points of two cells which are a number of cells apart along an axis
+	 */
+	private static long cellGap(int cells) {
+		cells = Math.abs(cells);
+		return cells <= 1 ? 0 : (long) (cells - 1) << Chunk.BLOCKS.BITS;
+	}
+
+	/**
+	 * The cell and chunk of an entity, and its datatable version, as of its last sync
+	 */
+	private static class EntityInterest {
+		private World world;
+		private int cellX, cellY, cellZ;
+		private SpoutChunk chunk;
+		private int observerVersion;
+		private long version;
+		private int syncCount;
+
+		/**
+		 * Records the current state of the entity
+		 *
+		 * @return true if the entity moved to another cell or chunk, or the observers of its chunk changed
+		 */
+		public boolean update(Point position, SpoutChunk chunk, int syncCount) {
+			this.syncCount = syncCount;
+			final World world = position.getWorld();
+			final int x = position.getChunkX();
+			final int y = position.getChunkY();
+			final int z = position.getChunkZ();
+			final int observers = chunk.getObserverVersion();
+			if (world == this.world && x == cellX && y == cellY && z == cellZ && chunk == this.chunk && observers == observerVersion) {
+				return false;
+			}
+			this.world = world;
+			cellX = x;
+			cellY = y;
+			cellZ = z;
+			this.chunk = chunk;
+			observerVersion = observers;
+			return true;
+		}
+
+		public boolean isInRange(PlayerInterest viewer) {
+			return viewer.world == world && isInSyncRange(cellX - viewer.cellX, cellY - viewer.cellY, cellZ - viewer.cellZ, viewer.syncDistance);
+		}
+	}
+
+	/**
+	 * The state of a player which decides the entities it should have spawned, as of the last sync
+	 */
+	private static class PlayerInterest {
+		private World world;
+		private int cellX, cellY, cellZ;
+		private int syncDistance;
+		private int visibilityVersion;
+
+		/**
+		 * Records the current state of the player
+		 *
+		 * @return true if anything changed since the last update
+		 */
+		public boolean update(Player player) {
+			final Point position = ((SpoutPhysicsComponent) player.getPhysics()).getTransformLive().getPosition();
+			final World world = position.getWorld();
+			final int x = position.getChunkX();
+			final int y = position.getChunkY();
+			final int z = position.getChunkZ();
+			final int distance = player.getNetwork().getSyncDistance();
+			final int visibility = player instanceof SpoutPlayer ? ((SpoutPlayer) player).getVisibilityVersion() : 0;
+			if (world == this.world && x == cellX && y == cellY && z == cellZ && distance == syncDistance && visibility == visibilityVersion) {
+				return false;
+			}
+			this.world = world;
+			cellX = x;
+			cellY = y;
+			cellZ = z;
+			syncDistance = distance;
+			visibilityVersion = visibility;
+			return true;
+		}
+	}
+
+	/**
+	 * The messages for a player, grouped into runs of the same send type so they are sent in the order they were produced
+	 */
+	private static class UpdateBatch {
+		private final List<SendType> types = new ArrayList<>();
+		private final List<List<Message>> runs = new ArrayList<>();
+
+		public void add(SendType type, List<Message> messages) {
+			final int last = types.size() - 1;
+			if (last >= 0 && types.get(last) == type) {
+				runs.get(last).addAll(messages);
 			} else {
-				continue;
+				types.add(type);
+				runs.add(new ArrayList<>(messages));
+			}
+		}
+
+		public void send(Session session) {
+			for (int i = 0; i < runs.size(); i++) {
+				final List<Message> run = runs.get(i);
+				session.sendAll(types.get(i), run.toArray(new Message[run.size()]));
 			}
-			network.callProtocolEvent(new EntityUpdateEvent(observed, ((SpoutPhysicsComponent) observed.getPhysics()).getTransformLive(), action, network.getRepositionManager(), true), player);
 		}
 	}
 }
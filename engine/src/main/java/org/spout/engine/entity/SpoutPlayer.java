@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.spout.api.Client;
 
@@ -81,6 +82,10 @@ public class SpoutPlayer extends SpoutEntity implements Player {
 	private PlayerInputState inputState = PlayerInputState.DEFAULT_STATE;
 	private Locale preferredLocale = Locale.getByCode(SpoutConfiguration.DEFAULT_LANGUAGE.getString());
 	private List<Entity> hiddenEntities = new ConcurrentList<>();
+	/**
+	 * Incremented whenever an entity is hidden or shown
+	 */
+	private final AtomicInteger visibilityVersion = new AtomicInteger();
 
 	public SpoutPlayer(Engine engine, Class<? extends PlayerNetworkComponent> network, SpoutPlayerSnapshot snapshot) {
 		super(engine, snapshot);
@@ -344,15 +349,29 @@ public class SpoutPlayer extends SpoutEntity implements Player {
 
 	@Override
 	public void setVisible(Entity entity, boolean visible) {
+		visibilityVersion.incrementAndGet();
 		if (visible) {
 			hiddenEntities.remove(entity);
-			getEngine().getEventManager().callEvent(new EntityShownEvent(entity, this));
+			if (EntityShownEvent.getHandlerList().hasListeners()) {
+				getEngine().getEventManager().callEvent(new EntityShownEvent(entity, this));
+			}
 		} else {
 			hiddenEntities.add(entity);
-			getEngine().getEventManager().callEvent(new EntityHiddenEvent(entity, this));
+			if (EntityHiddenEvent.getHandlerList().hasListeners()) {
+				getEngine().getEventManager().callEvent(new EntityHiddenEvent(entity, this));
+			}
 		}
 	}
 
+	/**
+	 * Gets a counter which changes whenever an entity is hidden from or shown to this player
+	 *
+	 * @return the visibility version
+	 */
+	public int getVisibilityVersion() {
+		return visibilityVersion.get();
+	}
+
 	@Override
 	public List<Entity> getInvisibleEntities() {
 		return new ArrayList<>(hiddenEntities);
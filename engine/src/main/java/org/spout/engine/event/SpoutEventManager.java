@@ -0,0 +1,58 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.event;
+
+import org.spout.api.event.Event;
+import org.spout.api.event.ListenerRegistration;
+import org.spout.api.event.SimpleEventManager;
+import org.spout.api.exception.EventException;
+import org.spout.engine.profiler.TickProfiler;
+
+/**
+ * The engine's event manager, which records the time spent in each listener against its owner when the {@link TickProfiler} is enabled
+ */
+public class SpoutEventManager extends SimpleEventManager {
+	private final TickProfiler profiler;
+
+	public SpoutEventManager(TickProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	@Override
+	protected void callListener(ListenerRegistration listener, Event event) throws EventException {
+		if (!profiler.isEnabled()) {
+			super.callListener(listener, event);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			super.callListener(listener, event);
+		} finally {
+			profiler.recordPlugin(listener.getOwner(), System.nanoTime() - start);
+		}
+	}
+}
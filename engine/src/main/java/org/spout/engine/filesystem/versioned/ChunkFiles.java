@@ -26,13 +26,18 @@
  */
 package org.spout.engine.filesystem.versioned;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 
+import gnu.trove.iterator.TShortObjectIterator;
+import gnu.trove.map.hash.TShortObjectHashMap;
 import gnu.trove.procedure.TShortObjectProcedure;
 
 import org.spout.api.Platform;
@@ -67,83 +72,184 @@ import org.spout.nbt.IntArrayTag;
 import org.spout.nbt.IntTag;
 import org.spout.nbt.ListTag;
 import org.spout.nbt.LongTag;
-import org.spout.nbt.ShortTag;
 import org.spout.nbt.Tag;
 import org.spout.nbt.stream.NBTInputStream;
 import org.spout.nbt.stream.NBTOutputStream;
 import org.spout.nbt.util.NBTMapper;
 
+/**
+ * Loads and saves chunks.<br> <br> Chunks are saved in a binary layout, introduced in version 6, that writes the block arrays and light buffers directly to the stream. Only the
+ * entities are still stored as NBT. Chunks saved as NBT by earlier versions are converted in memory when they are loaded, and are written in the binary layout the next time they
+ * are saved.
+ */
 public class ChunkFiles {
-	public static final byte CHUNK_VERSION = 5;
+	public static final byte CHUNK_VERSION = 6;
+	/**
+	 * The last version that was saved as NBT
+	 */
+	public static final byte NBT_CHUNK_VERSION = 5;
+	/**
+	 * The first byte of a binary chunk, NBT chunks always start with the compound tag id instead
+	 */
+	private static final int BINARY_MARKER = 0xFF;
 	private static final TypeChecker<List<? extends CompoundTag>> checkerListCompoundTag = TypeChecker.tList(CompoundTag.class);
 
 	public static SpoutChunk loadChunk(SpoutRegion r, int x, int y, int z, InputStream dis, ChunkDataForRegion dataForRegion) {
 		if (Spout.getPlatform() != Platform.SERVER) {
 			throw new UnsupportedOperationException("Unable to load chunk in client mode");
 		}
-		SpoutChunk chunk = null;
-		NBTInputStream is = null;
-
+		if (dis == null) {
+			//The inputstream is null because no chunk data exists
+			return null;
+		}
 		try {
-			if (dis == null) {
-				//The inputstream is null because no chunk data exists
-				return chunk;
-			}
-
-			is = new NBTInputStream(dis, false);
-			CompoundTag chunkTag = (CompoundTag) is.readTag();
-			CompoundMap map = chunkTag.getValue();
-
-			byte version = SafeCast.toByte(NBTMapper.toTagValue(map.get("version")), (byte) -1);
-
-			boolean converted = false;
-
-			if (version > CHUNK_VERSION) {
-				Spout.getLogger().log(Level.SEVERE, "Chunk version " + version + " exceeds maximum allowed value of " + CHUNK_VERSION);
+			ChunkData data = readChunk(dis);
+			if (data == null) {
+				Spout.getLogger().log(Level.SEVERE, "Unable to load chunk at " + x + ", " + y + ", " + z + " in " + r);
 				return null;
-			} else if (version < CHUNK_VERSION) {
-				if (version <= 0) {
-					Spout.getLogger().log(Level.SEVERE, "Unable to parse chunk version " + version);
-					return null;
-				}
-				converted = true;
-				if (version <= 1) {
-					map = convertV1V2(map);
-				}
-				if (version <= 2) {
-					map = convertV2V3(map);
-				}
-				if (version <= 3) {
-					map = convertV3V4(map);
-				}
-				if (version <= 4) {
-					map = convertV4V5(map);
-				}
-			}
-
-			chunk = loadChunk(r, x, y, z, dataForRegion, map, version);
-			if (converted) {
-				chunk.setModified();
 			}
+			// The chunk isn't marked as modified, it is converted to the current version when it is next saved
+			return createChunk(r, x, y, z, dataForRegion, data);
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException ignore) {
-				}
+			try {
+				dis.close();
+			} catch (IOException ignore) {
 			}
 		}
-		return chunk;
+		return null;
 	}
 
 	public static SpoutChunk loadChunk(SpoutRegion r, int x, int y, int z, ChunkDataForRegion dataForRegion, CompoundMap map, int version) throws IOException {
 		if (Spout.getPlatform() != Platform.SERVER) {
 			throw new UnsupportedOperationException("Unable to load chunk in client mode");
 		}
-		SpoutChunk chunk = null;
+		return createChunk(r, x, y, z, dataForRegion, readNBTChunk(map));
+	}
+
+	/**
+	 * Reads the stored data of a chunk, in either the binary layout or an NBT version
+	 *
+	 * @param dis the stream to read from
+	 * @return the chunk data, or null if the chunk is empty or its version is not supported
+	 */
+	static ChunkData readChunk(InputStream dis) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(dis, 1);
+		int marker = in.read();
+		if (marker == BINARY_MARKER) {
+			return readBinaryChunk(new DataInputStream(in));
+		} else if (marker == -1) {
+			Spout.getLogger().log(Level.SEVERE, "Chunk data is empty");
+			return null;
+		}
+		in.unread(marker);
+
+		NBTInputStream is = new NBTInputStream(in, false);
+		CompoundTag chunkTag = (CompoundTag) is.readTag();
+		CompoundMap map = chunkTag.getValue();
+
+		byte version = SafeCast.toByte(NBTMapper.toTagValue(map.get("version")), (byte) -1);
+
+		if (version > NBT_CHUNK_VERSION) {
+			Spout.getLogger().log(Level.SEVERE, "NBT chunk version " + version + " exceeds maximum allowed value of " + NBT_CHUNK_VERSION);
+			return null;
+		} else if (version < NBT_CHUNK_VERSION) {
+			if (version <= 0) {
+				Spout.getLogger().log(Level.SEVERE, "Unable to parse chunk version " + version);
+				return null;
+			}
+			if (version <= 1) {
+				map = convertV1V2(map);
+			}
+			if (version <= 2) {
+				map = convertV2V3(map);
+			}
+			if (version <= 3) {
+				map = convertV3V4(map);
+			}
+			if (version <= 4) {
+				map = convertV4V5(map);
+			}
+		}
+		return readNBTChunk(map);
+	}
 
+	/**
+	 * Reads a chunk saved in the binary layout.  The marker byte must already have been read.
+	 */
+	private static ChunkData readBinaryChunk(DataInputStream in) throws IOException {
+		byte version = in.readByte();
+		if (version != CHUNK_VERSION) {
+			Spout.getLogger().log(Level.SEVERE, "Binary chunk version " + version + " is not supported, expected " + CHUNK_VERSION);
+			return null;
+		}
+		// Chunk coordinates, only used when inspecting files
+		in.readInt();
+		in.readInt();
+		in.readInt();
+
+		ChunkData data = new ChunkData();
+		data.populationState = in.readByte();
+		data.lightStable = in.readBoolean();
+		data.palette = readInts(in);
+		data.blockArrayWidth = in.readInt();
+		data.blocks = readInts(in);
+		data.extraData = readBytes(in);
+
+		int lightCount = in.readShort();
+		for (int i = 0; i < lightCount; i++) {
+			data.lightIds.add(in.readInt());
+			data.lightData.add(readBytes(in));
+		}
+
+		int updateCount = in.readInt();
+		for (int i = 0; i < updateCount; i++) {
+			int packed = in.readInt();
+			long nextUpdate = in.readLong();
+			int updateData = in.readInt();
+			data.updates.add(new DynamicBlockUpdate(packed, nextUpdate, updateData));
+		}
+
+		int componentCount = in.readInt();
+		for (int i = 0; i < componentCount; i++) {
+			short packed = in.readShort();
+			data.components.put(packed, readBytes(in));
+		}
+
+		CompoundTag entities = (CompoundTag) new NBTInputStream(in, false).readTag();
+		data.entities = entities.getValue();
+		return data;
+	}
+
+	/**
+	 * Reads a chunk from the map of an NBT chunk, which must already have been converted to {@link #NBT_CHUNK_VERSION}
+	 */
+	private static ChunkData readNBTChunk(CompoundMap map) {
+		ChunkData data = new ChunkData();
+		data.extraData = SafeCast.toByteArray(NBTMapper.toTagValue(map.get("extraData")), null);
+
+		data.populationState = SafeCast.toGeneric(map.get("populationState"), new ByteTag("", PopulationState.POPULATED.getId()), ByteTag.class).getValue();
+		data.lightStable = SafeCast.toByte(NBTMapper.toTagValue(map.get("lightStable")), (byte) 0) != 0;
+
+		data.palette = SafeCast.toIntArray(NBTMapper.toTagValue(map.get("palette")), null);
+		data.blockArrayWidth = SafeCast.toInt(NBTMapper.toTagValue(map.get("packedWidth")), -1);
+		data.blocks = SafeCast.toIntArray(NBTMapper.toTagValue(map.get("packedBlockArray")), null);
+
+		data.entities = SafeCast.toGeneric(NBTMapper.toTagValue(map.get("entities")), null, CompoundMap.class);
+
+		List<? extends CompoundTag> updateList = checkerListCompoundTag.checkTag(map.get("dynamic_updates"));
+		loadDynamicUpdates(updateList, data.updates);
+
+		List<? extends CompoundTag> componentsList = checkerListCompoundTag.checkTag(map.get("block_components"), null);
+		data.components = loadBlockComponents(componentsList);
+
+		CompoundMap lightingMap = SafeCast.toGeneric(NBTMapper.toTagValue(map.get("light_buffers")), null, CompoundMap.class);
+		loadLightingBuffers(data, lightingMap);
+		return data;
+	}
+
+	private static SpoutChunk createChunk(SpoutRegion r, int x, int y, int z, ChunkDataForRegion dataForRegion, ChunkData data) throws IOException {
 		int cx = r.getChunkX() + x;
 		int cy = r.getChunkY() + y;
 		int cz = r.getChunkZ() + z;
@@ -153,42 +259,31 @@ public class ChunkFiles {
 		StringToUniqueIntegerMap globalItemMap = ((SpoutServer) Spout.getEngine()).getEngineItemMap();
 		StringToUniqueIntegerMap itemMap = world.getItemMap();
 
-		byte[] extraData = SafeCast.toByteArray(NBTMapper.toTagValue(map.get("extraData")), null);
-
 		ManagedHashMap extraDataMap = new ManagedHashMap();
-		extraDataMap.deserialize(extraData);
-
-		boolean skipScan = false;
-
-		byte populationState = SafeCast.toGeneric(map.get("populationState"), new ByteTag("", PopulationState.POPULATED.getId()), ByteTag.class).getValue();
-		boolean lightStable = SafeCast.toByte(NBTMapper.toTagValue(map.get("lightStable")), (byte) 0) != 0;
-
-		int[] palette = SafeCast.toIntArray(NBTMapper.toTagValue(map.get("palette")), null);
-		int blockArrayWidth = SafeCast.toInt(NBTMapper.toTagValue(map.get("packedWidth")), -1);
-		int[] variableWidthBlockArray = SafeCast.toIntArray(NBTMapper.toTagValue(map.get("packedBlockArray")), null);
+		extraDataMap.deserialize(data.extraData);
 
-		if (palette.length > 0) {
-			convertArray(palette, itemMap, globalItemMap);
-			skipScan = componentSkipCheck(palette);
+		boolean skipScan;
+		if (data.palette.length > 0) {
+			convertArray(data.palette, itemMap, globalItemMap);
+			skipScan = componentSkipCheck(data.palette);
 		} else {
-			convertArray(variableWidthBlockArray, itemMap, globalItemMap);
-			skipScan = componentSkipCheck(variableWidthBlockArray);
+			convertArray(data.blocks, itemMap, globalItemMap);
+			skipScan = componentSkipCheck(data.blocks);
 		}
-		chunk = new SpoutChunk(r.getWorld(), r, cx, cy, cz, PopulationState.byID(populationState), palette, blockArrayWidth, variableWidthBlockArray, extraDataMap, lightStable);
 
-		CompoundMap entityMap = SafeCast.toGeneric(NBTMapper.toTagValue(map.get("entities")), null, CompoundMap.class);
-		EntityFiles.loadEntities(r, entityMap, dataForRegion.loadedEntities);
+		//Convert world lighting ids to engine lighting managers
+		StringToUniqueIntegerMap globalLighting = ((SpoutServer) Spout.getEngine()).getEngineLightingMap();
+		List<LightingManager<?>> lightingManagers = new ArrayList<>(data.lightIds.size());
+		List<byte[]> lightingData = new ArrayList<>(data.lightIds.size());
+		for (int i = 0; i < data.lightIds.size(); i++) {
+			addLightingBuffer(lightingManagers, lightingData, data.lightIds.get(i), data.lightData.get(i), globalLighting, world.getLightingMap());
+		}
 
-		List<? extends CompoundTag> updateList = checkerListCompoundTag.checkTag(map.get("dynamic_updates"));
-		loadDynamicUpdates(updateList, dataForRegion.loadedUpdates);
+		dataForRegion.loadedUpdates.addAll(data.updates);
 
-		List<? extends CompoundTag> componentsList = checkerListCompoundTag.checkTag(map.get("block_components"), null);
+		SpoutChunk chunk = new SpoutChunk(r.getWorld(), r, cx, cy, cz, PopulationState.byID(data.populationState), data.palette, data.blockArrayWidth, data.blocks, extraDataMap, data.lightStable);
 
-		CompoundMap lightingMap = SafeCast.toGeneric(NBTMapper.toTagValue(map.get("light_buffers")), null, CompoundMap.class);
-		StringToUniqueIntegerMap worldMap = world.getLightingMap();
-		List<LightingManager<?>> lightingManagers = new ArrayList<>();
-		List<byte[]> lightingData = new ArrayList<>();
-		loadLightingBuffers(lightingManagers, lightingData, lightingMap, worldMap);
+		EntityFiles.loadEntities(r, data.entities, dataForRegion.loadedEntities);
 
 		chunk.addLightingBufferData(lightingManagers, lightingData);
 
@@ -201,7 +296,7 @@ public class ChunkFiles {
 			chunk.blockComponentScan();
 		}
 		//Load data associated with block components
-		loadBlockComponents(chunk, componentsList);
+		loadBlockComponents(chunk, data.components);
 		//Attach block components
 		chunk.getBlockComponentOwners().forEachEntry(new AttachComponentProcedure());
 		return chunk;
@@ -211,54 +306,137 @@ public class ChunkFiles {
 		if (Spout.getPlatform() != Platform.SERVER) {
 			throw new UnsupportedOperationException("Unable to save chunk in client mode");
 		}
-		CompoundMap chunkTags = new CompoundMap();
-
 		//Switch block ids from engine material ids to world specific ids
 		StringToUniqueIntegerMap global = ((SpoutServer) Spout.getEngine()).getEngineItemMap();
 		StringToUniqueIntegerMap itemMap = world.getItemMap();
 
 		StringToUniqueIntegerMap lightingMap = world.getLightingMap();
 
-		int[] palette = snapshot.getPalette();
-		int[] packetBlockArray = snapshot.getPackedBlockArray();
-		int packedWidth = snapshot.getPackedWidth();
+		ChunkData data = new ChunkData();
+		data.populationState = snapshot.getPopulationState().getId();
+		data.lightStable = false; // Light stability isn't known for snapshots
+		data.palette = snapshot.getPalette();
+		data.blocks = snapshot.getPackedBlockArray();
+		data.blockArrayWidth = snapshot.getPackedWidth();
 
-		if (palette.length > 0) {
-			convertArray(palette, global, itemMap);
+		if (data.palette.length > 0) {
+			convertArray(data.palette, global, itemMap);
 		} else {
-			convertArray(packetBlockArray, global, itemMap);
-		}
-
-		chunkTags.put(new ByteTag("version", CHUNK_VERSION));
-		chunkTags.put(new ByteTag("format", (byte) 0));
-		chunkTags.put(new IntTag("x", snapshot.getX()));
-		chunkTags.put(new IntTag("y", snapshot.getY()));
-		chunkTags.put(new IntTag("z", snapshot.getZ()));
-		chunkTags.put(new ByteTag("populationState", snapshot.getPopulationState().getId()));
-		chunkTags.put(new IntArrayTag("palette", palette));
-		chunkTags.put(new IntTag("packedWidth", packedWidth));
-		chunkTags.put(new IntArrayTag("packedBlockArray", packetBlockArray));
-		chunkTags.put(new CompoundTag("entities", EntityFiles.saveEntities(snapshot.getEntities())));
-		chunkTags.put(saveDynamicUpdates(blockUpdates));
-		chunkTags.put(saveBlockComponents(snapshot.getBlockComponents()));
-		chunkTags.put(new ByteArrayTag("extraData", snapshot.getDataMap().serialize()));
-		chunkTags.put(saveLightingBuffers(lightingMap, snapshot.getLightBuffers()));
-
-		CompoundTag chunkCompound = new CompoundTag("chunk", chunkTags);
-
-		NBTOutputStream os = null;
+			convertArray(data.blocks, global, itemMap);
+		}
+		data.extraData = snapshot.getSerializedDataMap();
+
+		StringToUniqueIntegerMap globalLighting = ((SpoutServer) Spout.getEngine()).getEngineLightingMap();
+		for (CuboidLightBuffer buffer : snapshot.getLightBuffers()) {
+			data.lightIds.add(globalLighting.convertTo(lightingMap, buffer.getManagerId()));
+			data.lightBuffers.add(buffer);
+		}
+
+		data.updates.addAll(blockUpdates);
+
+		for (BlockComponentSnapshot component : snapshot.getBlockComponents()) {
+			if (!component.getData().isEmpty()) {
+				byte[] componentData = component.getData().serialize();
+				if (componentData != null && componentData.length > 0) {
+					data.components.put((short) NibbleQuadHashed.key(component.getX(), component.getY(), component.getZ(), 0), componentData);
+				}
+			}
+		}
+
+		data.entities = EntityFiles.saveEntities(snapshot.getEntities());
+
 		try {
-			os = new NBTOutputStream(dos, false);
-			os.writeTag(chunkCompound);
-			os.flush();
+			writeChunk(new DataOutputStream(dos), snapshot.getX(), snapshot.getY(), snapshot.getZ(), data);
 		} catch (IOException e) {
-			Spout.getLogger().log(Level.SEVERE, "Error saving chunk {" + snapshot.getX() + ", " + snapshot.getY() + ", " + snapshot + "}", e);
+			Spout.getLogger().log(Level.SEVERE, "Error saving chunk {" + snapshot.getX() + ", " + snapshot.getY() + ", " + snapshot.getZ() + "}", e);
 		}
 
 		world.getItemMap().save();
 		world.getLightingMap().save();
 	}
 
+	/**
+	 * Writes a chunk in the binary layout
+	 *
+	 * @param out the stream to write to
+	 * @param x the chunk x coordinate
+	 * @param y the chunk y coordinate
+	 * @param z the chunk z coordinate
+	 * @param data the chunk data, with world specific block and lighting ids
+	 */
+	static void writeChunk(DataOutputStream out, int x, int y, int z, ChunkData data) throws IOException {
+		out.writeByte(BINARY_MARKER);
+		out.writeByte(CHUNK_VERSION);
+		out.writeInt(x);
+		out.writeInt(y);
+		out.writeInt(z);
+		out.writeByte(data.populationState);
+		out.writeBoolean(data.lightStable);
+		writeInts(out, data.palette);
+		out.writeInt(data.blockArrayWidth);
+		writeInts(out, data.blocks);
+		writeBytes(out, data.extraData);
+
+		out.writeShort(data.lightIds.size());
+		for (int i = 0; i < data.lightIds.size(); i++) {
+			out.writeInt(data.lightIds.get(i));
+			data.lightBuffers.get(i).serialize(out);
+		}
+
+		out.writeInt(data.updates.size());
+		for (DynamicBlockUpdate update : data.updates) {
+			out.writeInt(update.getPacked());
+			out.writeLong(update.getNextUpdate());
+			out.writeInt(update.getData());
+		}
+
+		out.writeInt(data.components.size());
+		TShortObjectIterator<byte[]> i = data.components.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			out.writeShort(i.key());
+			writeBytes(out, i.value());
+		}
+
+		NBTOutputStream os = new NBTOutputStream(out, false);
+		os.writeTag(new CompoundTag("entities", data.entities));
+		os.flush();
+	}
+
+	private static void writeInts(DataOutputStream out, int[] array) throws IOException {
+		out.writeInt(array.length);
+		for (int i : array) {
+			out.writeInt(i);
+		}
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative array length " + length);
+		}
+		int[] array = new int[length];
+		for (int i = 0; i < length; i++) {
+			array[i] = in.readInt();
+		}
+		return array;
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] array) throws IOException {
+		out.writeInt(array.length);
+		out.write(array);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative array length " + length);
+		}
+		byte[] array = new byte[length];
+		in.readFully(array);
+		return array;
+	}
+
 	private static void convertArray(int[] fullState, StringToUniqueIntegerMap from, StringToUniqueIntegerMap to) {
 		for (int i = 0; i < fullState.length; i++) {
 			short newId = (short) from.convertTo(to, BlockFullState.getId(fullState[i]));
@@ -276,37 +454,29 @@ public class ChunkFiles {
 		return true;
 	}
 
-	private static CompoundTag saveBlockComponent(BlockComponentSnapshot snapshot) {
-		if (!snapshot.getData().isEmpty()) {
-			byte[] data = snapshot.getData().serialize();
-
-			if (data != null && data.length > 0) {
-				CompoundMap map = new CompoundMap();
-				short packed = NibbleQuadHashed.key(snapshot.getX(), snapshot.getY(), snapshot.getZ(), 0);
-				map.put(new ShortTag("packed", packed));
-				map.put(new ByteArrayTag("data", data));
-
-				return new CompoundTag("block_component_" + packed, map);
-			}
-		}
-
-		return null;
-	}
-
-	private static void loadBlockComponents(SpoutChunk chunk, List<? extends CompoundTag> list) {
+	private static TShortObjectHashMap<byte[]> loadBlockComponents(List<? extends CompoundTag> list) {
+		TShortObjectHashMap<byte[]> componentData = new TShortObjectHashMap<>();
 		if (list == null) {
-			return;
+			return componentData;
 		}
 
 		for (CompoundTag compoundTag : list) {
 			CompoundMap map = compoundTag.getValue();
 			short packed = (Short) map.get("packed").getValue();
 			ByteArrayTag data = (ByteArrayTag) map.get("data");
+			componentData.put(packed, data.getValue());
+		}
+		return componentData;
+	}
 
-			BlockComponentOwner component = chunk.getBlockComponentOwners().get(packed);
+	private static void loadBlockComponents(SpoutChunk chunk, TShortObjectHashMap<byte[]> componentData) {
+		TShortObjectIterator<byte[]> i = componentData.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			BlockComponentOwner component = chunk.getBlockComponentOwners().get(i.key());
 			if (component != null) {
 				try {
-					component.getData().deserialize(data.getValue());
+					component.getData().deserialize(i.value());
 				} catch (IOException e) {
 					Spout.getLogger().log(Level.SEVERE, "Unhandled exception deserializing block component data", e);
 				}
@@ -314,41 +484,6 @@ public class ChunkFiles {
 		}
 	}
 
-	private static ListTag<CompoundTag> saveBlockComponents(List<BlockComponentSnapshot> components) {
-		List<CompoundTag> list = new ArrayList<>(components.size());
-
-		for (BlockComponentSnapshot snapshot : components) {
-			CompoundTag tag = saveBlockComponent(snapshot);
-			if (tag != null) {
-				list.add(tag);
-			}
-		}
-		return new ListTag<>("block_components", CompoundTag.class, list);
-	}
-
-	private static ListTag<CompoundTag> saveDynamicUpdates(List<DynamicBlockUpdate> updates) {
-		List<CompoundTag> list = new ArrayList<>(updates.size());
-
-		for (DynamicBlockUpdate update : updates) {
-			CompoundTag tag = saveDynamicUpdate(update);
-			if (tag != null) {
-				list.add(tag);
-			}
-		}
-
-		return new ListTag<>("dynamic_updates", CompoundTag.class, list);
-	}
-
-	private static CompoundTag saveDynamicUpdate(DynamicBlockUpdate update) {
-		CompoundMap map = new CompoundMap();
-
-		map.put(new IntTag("packedPosition", update.getPacked()));
-		map.put(new LongTag("nextUpdate", update.getNextUpdate()));
-		map.put(new IntTag("data", update.getData()));
-
-		return new CompoundTag("update", map);
-	}
-
 	private static void loadDynamicUpdates(List<? extends CompoundTag> list, List<DynamicBlockUpdate> loadedUpdates) {
 		if (list == null) {
 			return;
@@ -393,52 +528,29 @@ public class ChunkFiles {
 		}
 	}
 
-	private static CompoundTag saveLightingBuffers(StringToUniqueIntegerMap worldLighting, CuboidLightBuffer[] buffers) {
-		StringToUniqueIntegerMap globalLighting = ((SpoutServer) Spout.getEngine()).getEngineLightingMap();
-
-		CompoundMap map = new CompoundMap();
-
-		for (int i = 0; i < buffers.length; i++) {
-			CuboidLightBuffer buffer = buffers[i];
-			int worldId = globalLighting.convertTo(worldLighting, buffer.getManagerId());
-			map.put(saveLightingBuffer(worldId, buffer));
-		}
-
-		return new CompoundTag("light_buffers", map);
-	}
-
-	private static CompoundTag saveLightingBuffer(int worldId, CuboidLightBuffer buffer) {
-		CompoundMap map = new CompoundMap();
-		map.put(new IntTag("manager_id", worldId));
-		map.put(new ByteArrayTag("light_data", buffer.serialize()));
-		return new CompoundTag("lighting_" + worldId, map);
-	}
-
-	private static void loadLightingBuffers(List<LightingManager<?>> managers, List<byte[]> lightData, CompoundMap map, StringToUniqueIntegerMap worldLighting) {
+	private static void loadLightingBuffers(ChunkData data, CompoundMap map) {
 		if (map == null) {
 			return;
 		}
 
-		StringToUniqueIntegerMap globalLighting = ((SpoutServer) Spout.getEngine()).getEngineLightingMap();
-
 		for (Tag<?> t : map) {
 			if (t instanceof CompoundTag) {
-				CompoundTag compoundTag = (CompoundTag) t;
-				loadLightingBuffer(managers, lightData, compoundTag, globalLighting, worldLighting);
+				final CompoundMap bufferMap = ((CompoundTag) t).getValue();
+				int worldId = SafeCast.toInt(NBTMapper.toTagValue(bufferMap.get("manager_id")), -1);
+				if (worldId == -1) {
+					continue;
+				}
+				byte[] lightData = SafeCast.toByteArray(NBTMapper.toTagValue(bufferMap.get("light_data")), null);
+				if (lightData == null) {
+					continue;
+				}
+				data.lightIds.add(worldId);
+				data.lightData.add(lightData);
 			}
 		}
 	}
 
-	private static void loadLightingBuffer(List<LightingManager<?>> managers, List<byte[]> lightData, CompoundTag tag, StringToUniqueIntegerMap globalLighting, StringToUniqueIntegerMap worldLighting) {
-		final CompoundMap map = tag.getValue();
-		int worldId = SafeCast.toInt(NBTMapper.toTagValue(map.get("manager_id")), -1);
-		if (worldId == -1) {
-			return;
-		}
-		byte[] data = SafeCast.toByteArray(NBTMapper.toTagValue(map.get("light_data")), null);
-		if (data == null) {
-			return;
-		}
+	private static void addLightingBuffer(List<LightingManager<?>> managers, List<byte[]> lightData, int worldId, byte[] data, StringToUniqueIntegerMap globalLighting, StringToUniqueIntegerMap worldLighting) {
 		short globalId = (short) worldLighting.convertTo(globalLighting, worldId);
 		LightingManager<?> manager = LightingRegistry.get(globalId);
 		if (manager == null) {
@@ -610,4 +722,28 @@ public class ChunkFiles {
 	private static CompoundMap convertV4V5(CompoundMap map) {
 		return map;
 	}
+
+	/**
+	 * The stored data of a chunk, with world specific block and lighting ids
+	 */
+	static class ChunkData {
+		byte populationState;
+		boolean lightStable;
+		int[] palette;
+		int blockArrayWidth;
+		int[] blocks;
+		byte[] extraData;
+		final List<Integer> lightIds = new ArrayList<>();
+		/**
+		 * The light data read from a chunk, in the same order as the ids
+		 */
+		final List<byte[]> lightData = new ArrayList<>();
+		/**
+		 * The light buffers to write, in the same order as the ids
+		 */
+		final List<CuboidLightBuffer> lightBuffers = new ArrayList<>();
+		final List<DynamicBlockUpdate> updates = new ArrayList<>();
+		TShortObjectHashMap<byte[]> components = new TShortObjectHashMap<>();
+		CompoundMap entities;
+	}
 }
@@ -41,6 +41,7 @@ import org.spout.api.Spout;
 import org.spout.api.datatable.SerializableMap;
 import org.spout.api.generator.WorldGenerator;
 import org.spout.api.geo.discrete.Transform;
+import org.spout.api.io.compression.CompressionCodecs;
 import org.spout.api.io.nbt.TransformTag;
 import org.spout.api.io.nbt.UUIDTag;
 import org.spout.api.io.store.simple.BinaryFileStore;
@@ -147,6 +148,15 @@ public class WorldFiles {
 
 		world.setSpawnPoint(t);
 
+		String compression = SafeCast.toString(NBTMapper.toTagValue(map.get("compression")), null);
+		if (compression != null) {
+			try {
+				world.setCompressionCodec(CompressionCodecs.getCodec(compression));
+			} catch (IllegalArgumentException e) {
+				Spout.severe("Unknown chunk compression " + compression + " for world " + name + ", using " + world.getCompressionCodec());
+			}
+		}
+
 		SerializableMap dataMap = world.getData();
 		dataMap.clear();
 		try {
@@ -195,6 +205,7 @@ public class WorldFiles {
 
 		map.put(new ByteTag("version", WORLD_VERSION));
 		map.put(new StringTag("generator", world.getGenerator().getName()));
+		map.put(new StringTag("compression", world.getCompressionCodec().getName()));
 		map.put(new LongTag("seed", world.getSeed()));
 		map.put(new ByteArrayTag("extra_data", world.getData().serialize()));
 		map.put(new LongTag("age", world.getAge()));
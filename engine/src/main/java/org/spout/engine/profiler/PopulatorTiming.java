@@ -0,0 +1,147 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timings of a single populator or generator populator class.<br> <br> As well as the time histogram, this records the bytes allocated while the populator ran, a decaying mean of its
+ * recent run times, the number of times it was deferred and its time budget.
+ */
+public class PopulatorTiming extends TimingHistogram implements PopulatorTimingMXBean {
+	/**
+	 * The weight of the latest run in the recent mean time, older runs fade out after about 1 / RECENT_WEIGHT runs
+	 */
+	public static final double RECENT_WEIGHT = 0.05;
+	private final String owner;
+	private final AtomicLong allocated = new AtomicLong();
+	/**
+	 * The bits of the recent mean time as a double, 0 before the first run
+	 */
+	private final AtomicLong recent = new AtomicLong(Double.doubleToLongBits(0));
+	private final AtomicLong deferred = new AtomicLong();
+	private volatile long budget = 0;
+
+	public PopulatorTiming(String name, String owner) {
+		super(name);
+		this.owner = owner;
+	}
+
+	/**
+	 * Records a run of the populator
+	 *
+	 * @param nanos the time taken, in nanoseconds
+	 * @param bytes the number of bytes allocated, or a negative value if unknown
+	 */
+	public void record(long nanos, long bytes) {
+		record(nanos);
+		while (true) {
+			long bits = recent.get();
+			double mean = Double.longBitsToDouble(bits);
+			double updated = mean == 0 ? nanos : mean + (nanos - mean) * RECENT_WEIGHT;
+			if (recent.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+				break;
+			}
+		}
+		if (bytes > 0) {
+			allocated.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * Records that the populator was deferred
+	 */
+	public void recordDeferred() {
+		deferred.incrementAndGet();
+	}
+
+	@Override
+	public String getOwner() {
+		return owner;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocated.get();
+	}
+
+	@Override
+	public double getMeanAllocatedBytes() {
+		long c = getCount();
+		return c == 0 ? 0 : ((double) allocated.get()) / c;
+	}
+
+	@Override
+	public double getRecentMeanNanos() {
+		return Double.longBitsToDouble(recent.get());
+	}
+
+	@Override
+	public long getDeferred() {
+		return deferred.get();
+	}
+
+	@Override
+	public long getBudgetNanos() {
+		return budget;
+	}
+
+	@Override
+	public void setBudgetNanos(long nanos) {
+		this.budget = Math.max(0, nanos);
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		allocated.set(0);
+		recent.set(Double.doubleToLongBits(0));
+		deferred.set(0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(super.toString());
+		sb.append(", recent=").append(formatNanos((long) getRecentMeanNanos()));
+		sb.append(", allocated=").append(formatBytes((long) getMeanAllocatedBytes())).append("/run");
+		long d = deferred.get();
+		if (d > 0) {
+			sb.append(", deferred=").append(d);
+		}
+		if (budget > 0) {
+			sb.append(", budget=").append(formatNanos(budget));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Formats a number of bytes as kilobytes
+	 */
+	public static String formatBytes(long bytes) {
+		return String.format("%.1fKB", bytes / 1024D);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+/**
+ * The management interface for a {@link PopulatorTiming}.  All times are in nanoseconds.
+ */
+public interface PopulatorTimingMXBean extends TimingHistogramMXBean {
+	/**
+	 * Gets the plugin which owns the populator, or Spout for built in populators
+	 */
+	public String getOwner();
+
+	/**
+	 * Gets the number of bytes allocated by the populator, or 0 if allocation can't be measured by this JVM
+	 */
+	public long getAllocatedBytes();
+
+	public double getMeanAllocatedBytes();
+
+	/**
+	 * Gets the mean time of the recent runs, in which each run weighs less than the run after it
+	 */
+	public double getRecentMeanNanos();
+
+	/**
+	 * Gets the number of times the populator has been deferred for exceeding its budget
+	 */
+	public long getDeferred();
+
+	/**
+	 * Gets the budget for this populator, or 0 if the default budget applies
+	 */
+	public long getBudgetNanos();
+
+	public void setBudgetNanos(long nanos);
+}
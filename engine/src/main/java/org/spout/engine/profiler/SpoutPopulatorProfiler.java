@@ -0,0 +1,327 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.spout.api.Spout;
+import org.spout.api.generator.GeneratorPopulator;
+import org.spout.api.generator.Populator;
+import org.spout.api.generator.PopulatorProfiler;
+import org.spout.api.generator.biome.BiomeManager;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.plugin.PluginClassLoader;
+import org.spout.api.util.cuboid.CuboidBlockMaterialBuffer;
+
+/**
+ * Records the CPU time and the bytes allocated by each populator and generator populator class, grouped by the plugin which owns the class.<br> <br> Populators may be given a time budget, either
+ * individually or through a default budget. Once a populator has run at least {@link #MIN_SAMPLES} times, and its recent runs take longer than its budget on average, {@link #shouldDefer(Populator)}
+ * returns true and the whole population of the chunk is postponed, see {@link org.spout.engine.world.DeferredPopulationQueue}. Deferred chunks still run and are timed, so a populator which
+ * speeds up is no longer deferred. Generator populators can't be deferred, since the column isn't complete until they have run, so they are only profiled.
+ */
+public class SpoutPopulatorProfiler implements PopulatorProfiler, SpoutPopulatorProfilerMXBean {
+	/**
+	 * The number of runs needed before a populator can be deferred
+	 */
+	public static final int MIN_SAMPLES = 20;
+	private static final Comparator<TimingHistogram> TOTAL_TIME_ORDER = new Comparator<TimingHistogram>() {
+		@Override
+		public int compare(TimingHistogram o1, TimingHistogram o2) {
+			long t1 = o1.getTotalNanos();
+			long t2 = o2.getTotalNanos();
+			return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+		}
+	};
+	private static final SpoutPopulatorProfiler instance = new SpoutPopulatorProfiler();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final com.sun.management.ThreadMXBean allocations;
+	private final boolean cpuTime;
+	private final ConcurrentHashMap<Class<?>, PopulatorTiming> populators = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Class<?>, PopulatorTiming> generatorPopulators = new ConcurrentHashMap<>();
+	private volatile long defaultBudget = 0;
+	private volatile MBeanServer server = null;
+
+	public SpoutPopulatorProfiler() {
+		com.sun.management.ThreadMXBean allocations = null;
+		try {
+			if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+				allocations = (com.sun.management.ThreadMXBean) threads;
+				if (!allocations.isThreadAllocatedMemoryEnabled()) {
+					allocations.setThreadAllocatedMemoryEnabled(true);
+				}
+			}
+		} catch (NoClassDefFoundError | UnsupportedOperationException e) {
+			allocations = null;
+		}
+		this.allocations = allocations;
+		this.cpuTime = threads.isCurrentThreadCpuTimeSupported();
+	}
+
+	/**
+	 * Gets the profiler shared by all worlds
+	 *
+	 * @return the profiler
+	 */
+	public static SpoutPopulatorProfiler getInstance() {
+		return instance;
+	}
+
+	@Override
+	public void populate(Populator populator, Chunk chunk, Random random) {
+		final PopulatorTiming timing = getTiming(populators, populator.getClass(), "populator");
+		final long thread = Thread.currentThread().getId();
+		final long bytes = getAllocatedBytes(thread);
+		final long time = getTime();
+		try {
+			populator.populate(chunk, random);
+		} finally {
+			timing.record(getTime() - time, bytes < 0 ? -1 : getAllocatedBytes(thread) - bytes);
+		}
+	}
+
+	@Override
+	public void populate(GeneratorPopulator populator, CuboidBlockMaterialBuffer blockData, int x, int y, int z, BiomeManager biomes, long seed) {
+		final PopulatorTiming timing = getTiming(generatorPopulators, populator.getClass(), "generatorPopulator");
+		final long thread = Thread.currentThread().getId();
+		final long bytes = getAllocatedBytes(thread);
+		final long time = getTime();
+		try {
+			populator.populate(blockData, x, y, z, biomes, seed);
+		} finally {
+			timing.record(getTime() - time, bytes < 0 ? -1 : getAllocatedBytes(thread) - bytes);
+		}
+	}
+
+	/**
+	 * Gets if a populator should be deferred, because its recent runs have used more than its budget on average. The deferral is counted if true is returned.
+	 *
+	 * @param populator the populator
+	 * @return true if the population of the chunk should be postponed
+	 */
+	public boolean shouldDefer(Populator populator) {
+		final PopulatorTiming timing = populators.get(populator.getClass());
+		if (timing == null) {
+			return false;
+		}
+		long budget = timing.getBudgetNanos();
+		if (budget == 0) {
+			budget = defaultBudget;
+		}
+		if (budget <= 0 || timing.getCount() < MIN_SAMPLES || timing.getRecentMeanNanos() <= budget) {
+			return false;
+		}
+		timing.recordDeferred();
+		return true;
+	}
+
+	/**
+	 * Gets the timing of a populator class
+	 *
+	 * @param populator the populator class
+	 * @return the timing, or null if the populator hasn't run yet
+	 */
+	public PopulatorTiming getPopulatorTiming(Class<? extends Populator> populator) {
+		return populators.get(populator);
+	}
+
+	/**
+	 * Gets the timing of a generator populator class
+	 *
+	 * @param populator the generator populator class
+	 * @return the timing, or null if the generator populator hasn't run yet
+	 */
+	public PopulatorTiming getGeneratorPopulatorTiming(Class<? extends GeneratorPopulator> populator) {
+		return generatorPopulators.get(populator);
+	}
+
+	/**
+	 * Finds the timing of a populator which has run, by its simple or fully qualified class name
+	 *
+	 * @param name the class name, case insensitive
+	 * @return the timing, or null if no populator with that name has run
+	 */
+	public PopulatorTiming findPopulatorTiming(String name) {
+		for (Class<?> clazz : populators.keySet()) {
+			if (clazz.getName().equalsIgnoreCase(name) || clazz.getSimpleName().equalsIgnoreCase(name)) {
+				return populators.get(clazz);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the timings of all populators which have run, sorted by total time, highest first
+	 */
+	public List<PopulatorTiming> getPopulators() {
+		return sorted(populators.values());
+	}
+
+	/**
+	 * Gets the timings of all generator populators which have run, sorted by total time, highest first
+	 */
+	public List<PopulatorTiming> getGeneratorPopulators() {
+		return sorted(generatorPopulators.values());
+	}
+
+	@Override
+	public boolean isAllocationSupported() {
+		return allocations != null;
+	}
+
+	@Override
+	public long getDefaultBudgetNanos() {
+		return defaultBudget;
+	}
+
+	@Override
+	public void setDefaultBudgetNanos(long nanos) {
+		this.defaultBudget = Math.max(0, nanos);
+	}
+
+	@Override
+	public String[] getPopulatorSummary() {
+		return summarize(getPopulators());
+	}
+
+	@Override
+	public String[] getGeneratorPopulatorSummary() {
+		return summarize(getGeneratorPopulators());
+	}
+
+	@Override
+	public void reset() {
+		for (PopulatorTiming timing : populators.values()) {
+			timing.reset();
+		}
+		for (PopulatorTiming timing : generatorPopulators.values()) {
+			timing.reset();
+		}
+	}
+
+	/**
+	 * Registers the profiler and all populator timings with the platform MBean server
+	 */
+	public void registerMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		this.server = server;
+		register(server, null, null, this);
+		for (PopulatorTiming timing : populators.values()) {
+			register(server, "populator", timing.getName(), timing);
+		}
+		for (PopulatorTiming timing : generatorPopulators.values()) {
+			register(server, "generatorPopulator", timing.getName(), timing);
+		}
+	}
+
+	/**
+	 * Unregisters all MBeans registered by this profiler
+	 */
+	public void unregisterMBeans() {
+		MBeanServer server = this.server;
+		if (server == null) {
+			return;
+		}
+		this.server = null;
+		try {
+			for (ObjectName name : server.queryNames(new ObjectName(TickProfiler.DOMAIN + ":type=PopulatorProfiler,*"), null)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			Spout.getLogger().log(Level.WARNING, "Unable to unregister populator profiler MBeans", e);
+		}
+	}
+
+	private PopulatorTiming getTiming(ConcurrentHashMap<Class<?>, PopulatorTiming> map, Class<?> clazz, String category) {
+		PopulatorTiming timing = map.get(clazz);
+		if (timing != null) {
+			return timing;
+		}
+		String owner = TickProfiler.getOwnerName(PluginClassLoader.getPlugin(clazz.getName()));
+		String simpleName = clazz.getSimpleName().isEmpty() ? clazz.getName() : clazz.getSimpleName();
+		timing = new PopulatorTiming(simpleName + " [" + owner + "]", owner);
+		PopulatorTiming old = map.putIfAbsent(clazz, timing);
+		if (old != null) {
+			return old;
+		}
+		MBeanServer server = this.server;
+		if (server != null) {
+			register(server, category, timing.getName(), timing);
+		}
+		return timing;
+	}
+
+	private long getTime() {
+		return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	private long getAllocatedBytes(long thread) {
+		return allocations == null ? -1 : allocations.getThreadAllocatedBytes(thread);
+	}
+
+	private static String[] summarize(List<PopulatorTiming> list) {
+		String[] summary = new String[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			summary[i] = list.get(i).toString();
+		}
+		return summary;
+	}
+
+	private static List<PopulatorTiming> sorted(Collection<PopulatorTiming> values) {
+		List<PopulatorTiming> list = new ArrayList<>(values);
+		Collections.sort(list, TOTAL_TIME_ORDER);
+		return list;
+	}
+
+	private static void register(MBeanServer server, String category, String name, Object bean) {
+		try {
+			ObjectName objectName;
+			if (category == null) {
+				objectName = new ObjectName(TickProfiler.DOMAIN + ":type=PopulatorProfiler");
+			} else {
+				objectName = new ObjectName(TickProfiler.DOMAIN + ":type=PopulatorProfiler,category=" + category + ",name=" + ObjectName.quote(name));
+			}
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(bean, objectName);
+			}
+		} catch (JMException e) {
+			Spout.getLogger().log(Level.WARNING, "Unable to register populator profiler MBean", e);
+		}
+	}
+}
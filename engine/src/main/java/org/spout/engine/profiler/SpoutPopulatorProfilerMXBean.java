@@ -0,0 +1,59 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+/**
+ * The management interface for the {@link SpoutPopulatorProfiler}
+ */
+public interface SpoutPopulatorProfilerMXBean {
+	/**
+	 * Gets whether the bytes allocated by each populator can be measured by this JVM
+	 */
+	public boolean isAllocationSupported();
+
+	/**
+	 * Gets the budget applied to populators without a budget of their own, or 0 if there is no default budget
+	 */
+	public long getDefaultBudgetNanos();
+
+	public void setDefaultBudgetNanos(long nanos);
+
+	/**
+	 * Gets a summary line for each chunk populator
+	 */
+	public String[] getPopulatorSummary();
+
+	/**
+	 * Gets a summary line for each generator populator
+	 */
+	public String[] getGeneratorPopulatorSummary();
+
+	/**
+	 * Clears all recorded timings, budgets are kept
+	 */
+	public void reset();
+}
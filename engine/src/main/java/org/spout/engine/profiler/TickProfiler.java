@@ -0,0 +1,446 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.spout.api.Spout;
+import org.spout.api.util.Named;
+import org.spout.engine.util.thread.AsyncManager;
+
+/**
+ * Records the time taken by each tick, tick stage, region and plugin.<br> <br> When disabled, the only overhead is a volatile read at each hook. When enabled, stage and plugin histograms are
+ * registered as MBeans under the {@link #DOMAIN} domain, and the last {@link #getWindowSize()} ticks are kept so they can be written to disk. Region timings are not registered as MBeans, since
+ * there may be thousands of regions; they can be read through {@link #getRegionSummary(int)}.
+ */
+public class TickProfiler implements TickProfilerMXBean {
+	public static final String DOMAIN = "org.spout";
+	/**
+	 * The default number of ticks kept for {@link #dump(File)}, one minute at 20 ticks per second
+	 */
+	public static final int DEFAULT_WINDOW = 1200;
+	/**
+	 * The maximum number of stages which are tracked per tick for the rolling window
+	 */
+	private static final int MAX_WINDOW_STAGES = 32;
+	private static final Comparator<TimingHistogram> TOTAL_TIME_ORDER = new Comparator<TimingHistogram>() {
+		@Override
+		public int compare(TimingHistogram o1, TimingHistogram o2) {
+			long t1 = o1.getTotalNanos();
+			long t2 = o2.getTotalNanos();
+			return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+		}
+	};
+	private volatile boolean enabled = false;
+	private final TimingHistogram tick = new TimingHistogram("Tick");
+	private final ConcurrentHashMap<String, TimingHistogram> stages = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, TimingHistogram> plugins = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<AsyncManager, TimingHistogram> managers = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Integer> stageIndexes = new ConcurrentHashMap<>();
+	private final String[] stageNames = new String[MAX_WINDOW_STAGES];
+	private final long[] currentTick = new long[MAX_WINDOW_STAGES];
+	/**
+	 * Each entry holds the start time, total time and the time taken by each stage
+	 */
+	private final long[][] window;
+	private int windowPosition = 0;
+	private long ticks = 0;
+	private volatile MBeanServer server = null;
+
+	public TickProfiler(int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("The window size must be at least 1");
+		}
+		window = new long[windowSize][MAX_WINDOW_STAGES + 2];
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getWindowSize() {
+		return window.length;
+	}
+
+	@Override
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Records the end of a tick.  This should only be called by the main thread.
+	 *
+	 * @param startMillis the time the tick started
+	 * @param nanos the duration of the tick
+	 */
+	public void recordTick(long startMillis, long nanos) {
+		tick.record(nanos);
+		synchronized (this) {
+			long[] entry = window[windowPosition];
+			entry[0] = startMillis;
+			entry[1] = nanos;
+			System.arraycopy(currentTick, 0, entry, 2, MAX_WINDOW_STAGES);
+			windowPosition = (windowPosition + 1) % window.length;
+			ticks++;
+		}
+		for (int i = 0; i < MAX_WINDOW_STAGES; i++) {
+			currentTick[i] = 0;
+		}
+	}
+
+	/**
+	 * Records the time taken by a tick stage.  This should only be called by the main thread.
+	 *
+	 * @param stage the name of the stage
+	 * @param nanos the duration of the stage
+	 */
+	public void recordStage(String stage, long nanos) {
+		TimingHistogram h = stages.get(stage);
+		if (h == null) {
+			h = getHistogram(stages, stage, "stage");
+		}
+		h.record(nanos);
+		Integer index = stageIndexes.get(stage);
+		if (index == null) {
+			index = getStageIndex(stage);
+		}
+		if (index >= 0) {
+			currentTick[index] += nanos;
+		}
+	}
+
+	/**
+	 * Records the time taken by a single task for an AsyncManager
+	 *
+	 * @param manager the manager
+	 * @param nanos the duration of the task
+	 */
+	public void recordManager(AsyncManager manager, long nanos) {
+		TimingHistogram h = managers.get(manager);
+		if (h == null) {
+			h = new TimingHistogram(manager.toString());
+			TimingHistogram old = managers.putIfAbsent(manager, h);
+			if (old != null) {
+				h = old;
+			}
+		}
+		h.record(nanos);
+	}
+
+	/**
+	 * Records time spent executing code owned by a plugin
+	 *
+	 * @param owner the owner, may be null for the engine
+	 * @param nanos the duration
+	 */
+	public void recordPlugin(Object owner, long nanos) {
+		String name = getOwnerName(owner);
+		TimingHistogram h = plugins.get(name);
+		if (h == null) {
+			h = getHistogram(plugins, name, "plugin");
+		}
+		h.record(nanos);
+	}
+
+	/**
+	 * Removes the timings for a manager which is no longer used by the scheduler
+	 *
+	 * @param manager the manager
+	 */
+	public void removeManager(AsyncManager manager) {
+		managers.remove(manager);
+	}
+
+	public TimingHistogram getTickHistogram() {
+		return tick;
+	}
+
+	/**
+	 * Gets the stage histograms, sorted by total time
+	 */
+	public List<TimingHistogram> getStages() {
+		return sorted(stages.values());
+	}
+
+	/**
+	 * Gets the plugin histograms, sorted by total time
+	 */
+	public List<TimingHistogram> getPlugins() {
+		return sorted(plugins.values());
+	}
+
+	/**
+	 * Gets the region and world histograms, sorted by total time
+	 */
+	public List<TimingHistogram> getManagers() {
+		return sorted(managers.values());
+	}
+
+	@Override
+	public String[] getStageSummary() {
+		List<TimingHistogram> list = getStages();
+		String[] summary = new String[list.size() + 1];
+		summary[0] = tick.toString();
+		for (int i = 0; i < list.size(); i++) {
+			summary[i + 1] = list.get(i).toString();
+		}
+		return summary;
+	}
+
+	@Override
+	public String[] getRegionSummary(int count) {
+		List<TimingHistogram> list = getManagers();
+		int size = Math.max(0, Math.min(count, list.size()));
+		String[] summary = new String[size];
+		for (int i = 0; i < size; i++) {
+			summary[i] = list.get(i).toString();
+		}
+		return summary;
+	}
+
+	@Override
+	public String[] getPluginSummary() {
+		List<TimingHistogram> list = getPlugins();
+		String[] summary = new String[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			summary[i] = list.get(i).toString();
+		}
+		return summary;
+	}
+
+	@Override
+	public void reset() {
+		tick.reset();
+		for (TimingHistogram h : stages.values()) {
+			h.reset();
+		}
+		for (TimingHistogram h : plugins.values()) {
+			h.reset();
+		}
+		managers.clear();
+		synchronized (this) {
+			for (long[] entry : window) {
+				for (int i = 0; i < entry.length; i++) {
+					entry[i] = 0;
+				}
+			}
+			windowPosition = 0;
+			ticks = 0;
+		}
+	}
+
+	@Override
+	public void dump(String fileName) throws IOException {
+		dump(new File(fileName));
+	}
+
+	/**
+	 * Writes the rolling window of recent ticks, as comma separated values, followed by the summaries for each stage, plugin and region.
+	 *
+	 * @param file the file to write to
+	 */
+	public void dump(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		String linesep = System.getProperty("line.separator");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			StringBuilder header = new StringBuilder("start_ms,tick_ms");
+			int stageCount = 0;
+			for (; stageCount < MAX_WINDOW_STAGES && stageNames[stageCount] != null; stageCount++) {
+				header.append(',').append(stageNames[stageCount].replace(',', ' ')).append("_ms");
+			}
+			writer.write(header.toString());
+			writer.write(linesep);
+			synchronized (this) {
+				int entries = (int) Math.min(ticks, window.length);
+				int start = (windowPosition - entries + window.length) % window.length;
+				for (int i = 0; i < entries; i++) {
+					long[] entry = window[(start + i) % window.length];
+					StringBuilder line = new StringBuilder();
+					line.append(entry[0]).append(',').append(entry[1] / 1000000D);
+					for (int s = 0; s < stageCount; s++) {
+						line.append(',').append(entry[s + 2] / 1000000D);
+					}
+					writer.write(line.toString());
+					writer.write(linesep);
+				}
+			}
+			writer.write(linesep);
+			writer.write("# Stages" + linesep);
+			for (String s : getStageSummary()) {
+				writer.write("# " + s + linesep);
+			}
+			writer.write("# Plugins" + linesep);
+			for (String s : getPluginSummary()) {
+				writer.write("# " + s + linesep);
+			}
+			writer.write("# Regions" + linesep);
+			for (String s : getRegionSummary(Integer.MAX_VALUE)) {
+				writer.write("# " + s + linesep);
+			}
+		}
+	}
+
+	/**
+	 * Registers the profiler and all stage and plugin histograms with the platform MBean server
+	 */
+	public void registerMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		this.server = server;
+		register(server, new ObjectNameBuilder(null, null), this);
+		register(server, new ObjectNameBuilder("tick", tick.getName()), tick);
+		for (TimingHistogram h : stages.values()) {
+			register(server, new ObjectNameBuilder("stage", h.getName()), h);
+		}
+		for (TimingHistogram h : plugins.values()) {
+			register(server, new ObjectNameBuilder("plugin", h.getName()), h);
+		}
+	}
+
+	/**
+	 * Unregisters all MBeans registered by this profiler
+	 */
+	public void unregisterMBeans() {
+		MBeanServer server = this.server;
+		if (server == null) {
+			return;
+		}
+		this.server = null;
+		try {
+			for (ObjectName name : server.queryNames(new ObjectName(DOMAIN + ":type=TickProfiler,*"), null)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			Spout.getLogger().log(Level.WARNING, "Unable to unregister tick profiler MBeans", e);
+		}
+	}
+
+	private TimingHistogram getHistogram(ConcurrentHashMap<String, TimingHistogram> map, String name, String category) {
+		TimingHistogram h = new TimingHistogram(name);
+		TimingHistogram old = map.putIfAbsent(name, h);
+		if (old != null) {
+			return old;
+		}
+		MBeanServer server = this.server;
+		if (server != null) {
+			register(server, new ObjectNameBuilder(category, name), h);
+		}
+		return h;
+	}
+
+	private synchronized int getStageIndex(String stage) {
+		Integer index = stageIndexes.get(stage);
+		if (index != null) {
+			return index;
+		}
+		int i = 0;
+		while (i < MAX_WINDOW_STAGES && stageNames[i] != null) {
+			i++;
+		}
+		if (i == MAX_WINDOW_STAGES) {
+			i = -1;
+		} else {
+			stageNames[i] = stage;
+		}
+		stageIndexes.put(stage, i);
+		return i;
+	}
+
+	private static void register(MBeanServer server, ObjectNameBuilder name, Object bean) {
+		try {
+			ObjectName objectName = name.build();
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(bean, objectName);
+			}
+		} catch (JMException e) {
+			Spout.getLogger().log(Level.WARNING, "Unable to register tick profiler MBean", e);
+		}
+	}
+
+	private static List<TimingHistogram> sorted(Collection<TimingHistogram> values) {
+		List<TimingHistogram> list = new ArrayList<>(values);
+		Collections.sort(list, TOTAL_TIME_ORDER);
+		return list;
+	}
+
+	/**
+	 * Gets the name used to group timings for an owner object
+	 *
+	 * @param owner the owner
+	 * @return the name
+	 */
+	public static String getOwnerName(Object owner) {
+		if (owner == null) {
+			return "Spout";
+		} else if (owner instanceof Named) {
+			return ((Named) owner).getName();
+		} else {
+			return owner.getClass().getSimpleName();
+		}
+	}
+
+	private static class ObjectNameBuilder {
+		private final String category;
+		private final String name;
+
+		public ObjectNameBuilder(String category, String name) {
+			this.category = category;
+			this.name = name;
+		}
+
+		public ObjectName build() throws JMException {
+			if (category == null) {
+				return new ObjectName(DOMAIN + ":type=TickProfiler");
+			}
+			return new ObjectName(DOMAIN + ":type=TickProfiler,category=" + category + ",name=" + ObjectName.quote(name));
+		}
+	}
+
+}
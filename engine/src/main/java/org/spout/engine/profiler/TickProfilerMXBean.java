@@ -0,0 +1,72 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.io.IOException;
+
+/**
+ * The management interface for the {@link TickProfiler}
+ */
+public interface TickProfilerMXBean {
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * Gets the number of ticks recorded since the profiler was last reset
+	 */
+	public long getTicks();
+
+	/**
+	 * Gets a summary line for each tick stage
+	 */
+	public String[] getStageSummary();
+
+	/**
+	 * Gets a summary line for the regions which used the most time
+	 *
+	 * @param count the maximum number of regions
+	 */
+	public String[] getRegionSummary(int count);
+
+	/**
+	 * Gets a summary line for each plugin, for time spent in scheduled tasks and event handlers
+	 */
+	public String[] getPluginSummary();
+
+	/**
+	 * Clears all recorded timings
+	 */
+	public void reset();
+
+	/**
+	 * Writes the rolling window of recent ticks and all summaries to a file
+	 *
+	 * @param fileName the name of the file
+	 */
+	public void dump(String fileName) throws IOException;
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in nanoseconds.<br> <br> Values are stored in log-linear buckets, in the same way as an HDR histogram. Each power of two range is split into {@link
+ * #SUB_BUCKETS} / 2 buckets, so percentiles are accurate to within about 3%. Recording a value is a few arithmetic operations and an atomic increment.
+ */
+public class TimingHistogram implements TimingHistogramMXBean {
+	private static final int SUB_BUCKET_BITS = 6;
+	/**
+	 * The number of linear buckets used for the smallest values
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+	/**
+	 * The largest value which can be recorded, larger values are recorded as this value (about 18 minutes)
+	 */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+	private static final int BUCKETS = getIndex(MAX_VALUE) + 1;
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public TimingHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a duration
+	 *
+	 * @param nanos the duration, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		} else if (nanos > MAX_VALUE) {
+			nanos = MAX_VALUE;
+		}
+		counts.incrementAndGet(getIndex(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long oldMax;
+		while (nanos > (oldMax = max.get())) {
+			if (max.compareAndSet(oldMax, nanos)) {
+				break;
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public long getTotalNanos() {
+		return total.get();
+	}
+
+	@Override
+	public double getMeanNanos() {
+		long c = count.get();
+		return c == 0 ? 0 : ((double) total.get()) / c;
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	@Override
+	public long getP50Nanos() {
+		return getPercentile(50);
+	}
+
+	@Override
+	public long getP90Nanos() {
+		return getPercentile(90);
+	}
+
+	@Override
+	public long getP99Nanos() {
+		return getPercentile(99);
+	}
+
+	@Override
+	public long getP999Nanos() {
+		return getPercentile(99.9);
+	}
+
+	/**
+	 * Gets the value at the given percentile.  The value returned is the highest value which would be recorded in the same bucket.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the value, in nanoseconds, or 0 if no values have been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil((Math.min(100, Math.max(0, percentile)) / 100) * c);
+		if (target < 1) {
+			target = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(getHighestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return name + ": count=" + getCount() + ", mean=" + formatNanos((long) getMeanNanos()) + ", p50=" + formatNanos(getP50Nanos()) + ", p99=" + formatNanos(getP99Nanos()) + ", max=" + formatNanos(getMaxNanos()) + ", total=" + formatNanos(getTotalNanos());
+	}
+
+	/**
+	 * Formats a duration in nanoseconds as milliseconds
+	 */
+	public static String formatNanos(long nanos) {
+		return String.format("%.3fms", nanos / 1000000D);
+	}
+
+	static int getIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (magnitude << (SUB_BUCKET_BITS - 1)) + (int) (value >>> magnitude);
+	}
+
+	static long getHighestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+		long sub = index - (magnitude << (SUB_BUCKET_BITS - 1));
+		return ((sub + 1) << magnitude) - 1;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+/**
+ * The management interface for a {@link TimingHistogram}.  All times are in nanoseconds.
+ */
+public interface TimingHistogramMXBean {
+	public String getName();
+
+	public long getCount();
+
+	public long getTotalNanos();
+
+	public double getMeanNanos();
+
+	public long getMaxNanos();
+
+	public long getP50Nanos();
+
+	public long getP90Nanos();
+
+	public long getP99Nanos();
+
+	public long getP999Nanos();
+
+	/**
+	 * Clears all recorded values
+	 */
+	public void reset();
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.protocol;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import org.spout.api.Spout;
+import org.spout.api.protocol.Message;
+import org.spout.engine.SpoutConfiguration;
+
+/**
+ * Coalesces the outgoing messages for a session.<br> <br> Messages are queued by any thread, and a single drain task is submitted to the channel's event loop. The drain writes every queued message
+ * and then flushes the channel once, so a burst of messages sent during a tick costs one flush rather than one per message. No dedicated threads are used.<br> <br> The queue also counts the
+ * encoded bytes written to the channel, for the per-session traffic statistics.
+ */
+public class NetworkSendQueue {
+	private static final String TRAFFIC_HANDLER = "spout-traffic-counter";
+	private final static long minimumLatency = SpoutConfiguration.SEND_LATENCY.getLong();
+	private final static long spikeLatency = SpoutConfiguration.SEND_SPIKE_LATENCY.getLong();
+	private final static float spikeChance = SpoutConfiguration.SEND_SPIKE_CHANCE.getFloat() / 10.0F;
+	private final SpoutSession<?> session;
+	private final Channel channel;
+	private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger depth = new AtomicInteger();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+	// Statistics, only written by the event loop
+	private final Random random = new Random();
+	private long nextSpikeCheck = 0L;
+	private volatile long messagesSent = 0;
+	private volatile long bytesSent = 0;
+	private volatile long flushes = 0;
+	private volatile int maxDepth = 0;
+	private volatile long bytesPerSecond = 0;
+	private long windowStart = System.currentTimeMillis();
+	private long windowBytes = 0;
+
+	public NetworkSendQueue(SpoutSession<?> session, Channel channel) {
+		this.session = session;
+		this.channel = channel;
+		if (channel.pipeline().get(TRAFFIC_HANDLER) == null) {
+			channel.pipeline().addFirst(TRAFFIC_HANDLER, new TrafficCounter());
+		}
+	}
+
+	/**
+	 * Queues a message to be written on the next drain
+	 *
+	 * @param message the message
+	 */
+	public void send(Message message) {
+		queue.add(message);
+		int d = depth.incrementAndGet();
+		if (d > maxDepth) {
+			maxDepth = d;
+		}
+		if (scheduled.compareAndSet(false, true)) {
+			long delay = getSimulatedLatency();
+			if (delay > 0) {
+				channel.eventLoop().schedule(drainTask, delay, TimeUnit.MILLISECONDS);
+			} else {
+				channel.eventLoop().execute(drainTask);
+			}
+		}
+	}
+
+	private void drain() {
+		scheduled.set(false);
+		boolean written = false;
+		Message message;
+		try {
+			while ((message = queue.poll()) != null) {
+				depth.decrementAndGet();
+				if (channel.isOpen()) {
+					channel.write(message);
+					written = true;
+					messagesSent++;
+				}
+			}
+			if (written) {
+				channel.flush();
+				flushes++;
+			}
+		} catch (Exception e) {
+			try {
+				session.disconnect("Socket Error!");
+			} catch (Exception e2) {
+				try {
+					Spout.getLogger().info("Unable to cleanly close session for " + session.getPlayer().getName());
+				} catch (Exception e3) {
+					Spout.getLogger().info("Unable to cleanly close session for unknown player (Unable to get player name)");
+				}
+			}
+		}
+		updateRate();
+	}
+
+	private void updateRate() {
+		long now = System.currentTimeMillis();
+		long elapsed = now - windowStart;
+		if (elapsed >= 1000) {
+			long bytes = bytesSent;
+			bytesPerSecond = (bytes - windowBytes) * 1000 / elapsed;
+			windowBytes = bytes;
+			windowStart = now;
+		}
+	}
+
+	/**
+	 * Gets the delay before the next drain, when send latency is being simulated for debugging
+	 */
+	private long getSimulatedLatency() {
+		long delay = minimumLatency;
+		if (spikeChance > 0) {
+			synchronized (random) {
+				long currentTime = System.currentTimeMillis();
+				if (currentTime > nextSpikeCheck) {
+					nextSpikeCheck = currentTime + 100L;
+					if (random.nextFloat() < spikeChance) {
+						delay += (long) (spikeLatency * random.nextFloat());
+					}
+				}
+			}
+		}
+		return delay;
+	}
+
+	/**
+	 * Gets the number of messages waiting to be written
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * Gets the highest number of messages seen waiting to be written
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth;
+	}
+
+	public long getMessagesSent() {
+		return messagesSent;
+	}
+
+	/**
+	 * Gets the total number of encoded bytes written to the channel
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Gets the number of bytes written during the last measured second
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Gets the number of times the channel has been flushed
+	 */
+	public long getFlushes() {
+		return flushes;
+	}
+
+	/**
+	 * Counts the bytes passed to the socket.  This handler is added at the head of the pipeline, so it sees the fully encoded buffers.
+	 */
+	private class TrafficCounter extends ChannelOutboundHandlerAdapter {
+		@Override
+		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+			if (msg instanceof ByteBuf) {
+				bytesSent += ((ByteBuf) msg).readableBytes();
+			} else if (msg instanceof ByteBufHolder) {
+				bytesSent += ((ByteBufHolder) msg).content().readableBytes();
+			}
+			ctx.write(msg, promise);
+		}
+	}
+}
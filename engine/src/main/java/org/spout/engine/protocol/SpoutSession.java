@@ -63,9 +63,9 @@ public abstract class SpoutSession<T extends SpoutEngine> implements Session {
 	 */
 	private final Channel channel;
 	/**
-	 * Network send thread
+	 * Coalesces outgoing messages into one flush per drain
 	 */
-	private final AtomicReference<NetworkSendThread> networkSendThread = new AtomicReference<>();
+	private final NetworkSendQueue networkSendQueue;
 	/**
 	 * A queue of incoming and unprocessed messages
 	 */
@@ -109,6 +109,7 @@ public abstract class SpoutSession<T extends SpoutEngine> implements Session {
 	public SpoutSession(T engine, Channel channel, Protocol bootstrapProtocol) {
 		this.engine = engine;
 		this.channel = channel;
+		this.networkSendQueue = new NetworkSendQueue(this, channel);
 		this.protocol = new AtomicReference<>(bootstrapProtocol);
 		this.exceptionHandler = new AtomicReference<UncaughtExceptionHandler>(new DefaultUncaughtExceptionHandler(this));
 	}
@@ -158,9 +159,6 @@ public abstract class SpoutSession<T extends SpoutEngine> implements Session {
 		if (!this.player.compareAndSet(null, player)) {
 			throw new IllegalStateException("Not allowed to set the player of a session twice");
 		}
-		if (!this.networkSendThread.compareAndSet(null, NetworkSendThreadPool.getNetworkThread(player.getId()))) {
-			throw new IllegalStateException("Not allowed to set the network thread for a player twice");
-		}
 	}
 
 	private final static long spikeLatency = SpoutConfiguration.RECV_SPIKE_LATENCY.getLong();
@@ -217,12 +215,7 @@ public abstract class SpoutSession<T extends SpoutEngine> implements Session {
 		try {
 			if (type == SendType.FORCE || this.state == State.GAME) {
 				if (channel.isActive()) {
-					NetworkSendThread sendThread = networkSendThread.get();
-					if (sendThread == null) {
-						channel.writeAndFlush(message);
-					} else {
-						sendThread.send(this, channel, message);
-					}
+					networkSendQueue.send(message);
 				}
 			} else if (type == SendType.QUEUE) {
 				sendQueue.add(message);
@@ -339,6 +332,10 @@ public abstract class SpoutSession<T extends SpoutEngine> implements Session {
 		}
 	}
 
+	public NetworkSendQueue getNetworkSendQueue() {
+		return networkSendQueue;
+	}
+
 	public Channel getChannel() {
 		return channel;
 	}
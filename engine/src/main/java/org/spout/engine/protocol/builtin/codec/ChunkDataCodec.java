@@ -27,101 +27,155 @@
 package org.spout.engine.protocol.builtin.codec;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
 
-import org.spout.api.Spout;
 import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.io.compression.CompressionCodec;
+import org.spout.api.io.compression.CompressionCodecs;
+import org.spout.api.material.block.BlockFullState;
 import org.spout.api.protocol.MessageCodec;
 import org.spout.api.util.ByteBufUtils;
+import org.spout.api.util.map.concurrent.palette.AtomicPaletteBlockStore;
 import org.spout.engine.protocol.builtin.message.ChunkDataMessage;
 
 /**
- *
+ * Encodes chunk data into pooled buffers.<br> <br> The block payload is compressed with the configured {@link CompressionCodec} straight from one pooled buffer into the backing array
+ * of the outgoing buffer, so no intermediate byte arrays are allocated per chunk. The codec id is sent with the payload, so the receiver does not need the same configuration. Chunks sent from a palette snapshot are sent in palette form, and chunks with a single block state and
+ * uniform lighting are sent without compression at all.<br> <br> Shared messages are only encoded once. The payload is copied into an exact size unpooled buffer that is kept by the message, and
+ * every send gets a retained duplicate of it. Since the copy is unpooled, a payload released while a send is retaining it is never recycled into another allocation, the retain
+ * fails and the message is encoded again.
  */
 public class ChunkDataCodec extends MessageCodec<ChunkDataMessage> {
 	private static final byte ISUNLOAD = 0b1;
 	private static final byte HASBIOMES = 0b10;
-	private static final int INTIAL_DATA_SIZE = Chunk.BLOCKS.VOLUME * 2 + Chunk.BLOCKS.VOLUME * 2; // Block Ids, Block Data
+	private static final byte ISPALETTE = 0b100;
+	private static final byte ISUNIFORM = 0b1000;
+	private static final int LIGHT_DATA_SIZE = Chunk.BLOCKS.HALF_VOLUME;
+	private static final int HEADER_SIZE = 1 + 3 * 4 + 2 + 2 * 4 + 1; // info byte, x, y, z, light count, uncompressed size, codec and compressed size
+	private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+	private static final ThreadLocal<byte[]> COMPRESSED_INPUT = new ThreadLocal<>();
+	private static volatile CompressionCodec compression = CompressionCodecs.DEFLATE;
 
 	public ChunkDataCodec(int opcode) {
 		super(ChunkDataMessage.class, opcode);
 	}
 
+	/**
+	 * Sets the codec used to compress chunk data sent by this engine
+	 *
+	 * @param codec the codec
+	 */
+	public static void setCompression(CompressionCodec codec) {
+		compression = codec;
+	}
+
+	public static CompressionCodec getCompression() {
+		return compression;
+	}
+
 	@Override
 	public ByteBuf encode(ChunkDataMessage message) throws IOException {
-		final ByteBuf buffer;
+		if (!message.isShared()) {
+			return encodeMessage(message);
+		}
+		ByteBuf payload = message.getSharedPayload();
+		if (payload != null) {
+			try {
+				return payload.retain().duplicate();
+			} catch (IllegalReferenceCountException e) {
+				// The payload was released after the message went stale, so encode it again
+			}
+		}
+		// The message may be cached for a long time, so it keeps an exact size unpooled copy rather than holding a pooled buffer
+		final ByteBuf buffer = encodeMessage(message);
+		try {
+			// Unpooled.copiedBuffer(ByteBuf) copies with the allocator of the source, which is pooled
+			final byte[] bytes = new byte[buffer.readableBytes()];
+			buffer.getBytes(buffer.readerIndex(), bytes);
+			payload = Unpooled.wrappedBuffer(bytes);
+		} finally {
+			buffer.release();
+		}
+		// One reference for the message and one for this send
+		payload.retain();
+		if (!message.setSharedPayload(payload)) {
+			// Another send stored its payload first, or the message was released, so only this send holds the buffer
+			payload.release();
+			return payload;
+		}
+		return payload.duplicate();
+	}
+
+	private ByteBuf encodeMessage(ChunkDataMessage message) throws IOException {
 		if (message.isUnload()) {
-			buffer = Unpooled.buffer(13);
+			final ByteBuf buffer = ALLOCATOR.heapBuffer(13);
 			buffer.writeByte(ISUNLOAD); // we're unloading
 			buffer.writeInt(message.getX());
 			buffer.writeInt(message.getY());
 			buffer.writeInt(message.getZ());
-		} else {
-			int size = 17; // 1 byte + 5 ints (4 byte each)
-			final short lightSize = (short) message.getLight().size();
-			int dataSize = INTIAL_DATA_SIZE;
-			boolean hasBiomes = message.hasBiomes();
-			if (hasBiomes) {
-				dataSize += Chunk.BLOCKS.AREA;
-			}
-			dataSize += lightSize * (2 + 2048); // One short id + 1 16^3/2 chunk data per lighting manager
-
-			byte[] uncompressedData = new byte[dataSize];
-			byte[] compressedData = new byte[dataSize];
-
-			int index = 0;
-			for (short s : message.getBlockIds()) {
-				uncompressedData[index++] = (byte) s;
-				uncompressedData[index++] = (byte) (s >> 8);
-			}
-			for (short s : message.getBlockData()) {
-				uncompressedData[index++] = (byte) s;
-				uncompressedData[index++] = (byte) (s >> 8);
-			}
-			for (Entry<Short, byte[]> e : message.getLight().entrySet()) {
-				short s = e.getKey();
-				uncompressedData[index++] = (byte) s;
-				uncompressedData[index++] = (byte) (s >> 8);
-				System.arraycopy(e.getValue(), 0, uncompressedData, index, e.getValue().length);
-				index += e.getValue().length;
-			}
-			if (hasBiomes) {
-				System.arraycopy(message.getBiomeData(), 0, uncompressedData, index, message.getBiomeData().length);
-				index += message.getBiomeData().length;
-			}
-
-			Deflater deflater = new Deflater();
-			deflater.setInput(uncompressedData);
-			deflater.finish();
-			int compressedSize = deflater.deflate(compressedData);
-			deflater.end();
+			return buffer;
+		}
 
-			if (compressedSize == 0) {
-				throw new IOException("Not all data compressed!");
-			}
+		final boolean hasBiomes = message.hasBiomes();
+		final Map<Short, byte[]> light = message.getLight();
+		byte info = hasBiomes ? HASBIOMES : 0;
+		if (isUniform(message) && isUniform(light)) {
+			info |= ISUNIFORM;
+		} else if (message.hasPalette()) {
+			info |= ISPALETTE;
+		}
 
-			size += compressedSize;
-			buffer = Unpooled.buffer(size);
-			buffer.writeByte(hasBiomes ? HASBIOMES : 0); // Has biomes only, not unload
+		final ByteBuf buffer = ALLOCATOR.heapBuffer(HEADER_SIZE + Chunk.BLOCKS.VOLUME);
+		boolean success = false;
+		try {
+			buffer.writeByte(info);
 			buffer.writeInt(message.getX());
 			buffer.writeInt(message.getY());
 			buffer.writeInt(message.getZ());
 			if (hasBiomes) {
 				ByteBufUtils.writeString(buffer, message.getBiomeManagerClass());
 			}
-			buffer.writeShort(lightSize);
-			buffer.writeInt(compressedSize);
-			buffer.writeBytes(compressedData, 0, compressedSize);
+			buffer.writeShort(light.size());
+			if ((info & ISUNIFORM) == ISUNIFORM) {
+				buffer.writeInt(getFirstState(message));
+				for (Entry<Short, byte[]> e : light.entrySet()) {
+					buffer.writeShort(e.getKey());
+					buffer.writeByte(e.getValue()[0]);
+				}
+				if (hasBiomes) {
+					buffer.writeBytes(message.getBiomeData());
+				}
+			} else {
+				final ByteBuf uncompressed = ALLOCATOR.heapBuffer(getPayloadSize(message));
+				try {
+					writePayload(message, uncompressed);
+					final CompressionCodec codec = compression;
+					buffer.writeInt(uncompressed.readableBytes());
+					buffer.writeByte(codec.getId());
+					final int sizeIndex = buffer.writerIndex();
+					buffer.writeInt(0);
+					final int compressedSize = compress(codec, uncompressed, buffer);
+					buffer.setInt(sizeIndex, compressedSize);
+				} finally {
+					uncompressed.release();
+				}
+			}
+			success = true;
+			return buffer;
+		} finally {
+			if (!success) {
+				buffer.release();
+			}
 		}
-		return buffer;
 	}
 
 	@Override
@@ -134,57 +188,214 @@ public class ChunkDataCodec extends MessageCodec<ChunkDataMessage> {
 		final int z = buffer.readInt();
 		if (unload) {
 			return new ChunkDataMessage(x, y, z);
-		} else {
-			final String biomeManagerClass = hasBiomes ? ByteBufUtils.readString(buffer) : null;
-			final short lightSize = buffer.readShort();
-			int uncompressedSize = INTIAL_DATA_SIZE;
+		}
+
+		final String biomeManagerClass = hasBiomes ? ByteBufUtils.readString(buffer) : null;
+		final short lightSize = buffer.readShort();
+		final Map<Short, byte[]> light = new HashMap<>();
+		final byte[] biomeData = hasBiomes ? new byte[Chunk.BLOCKS.AREA] : null;
+		final short[] blockIds;
+		final short[] blockData;
+
+		if ((info & ISUNIFORM) == ISUNIFORM) {
+			final int state = buffer.readInt();
+			blockIds = new short[Chunk.BLOCKS.VOLUME];
+			blockData = new short[Chunk.BLOCKS.VOLUME];
+			Arrays.fill(blockIds, BlockFullState.getId(state));
+			Arrays.fill(blockData, BlockFullState.getData(state));
+			for (int i = 0; i < lightSize; ++i) {
+				final short lightId = buffer.readShort();
+				final byte[] data = new byte[LIGHT_DATA_SIZE];
+				Arrays.fill(data, buffer.readByte());
+				light.put(lightId, data);
+			}
 			if (hasBiomes) {
-				uncompressedSize += Chunk.BLOCKS.AREA;
-			}
-			uncompressedSize += lightSize * (2 + 2048); // One short id + 1 16^3/2 chunk data for every lighting manager
-			final byte[] uncompressedData = new byte[uncompressedSize];
-			final byte[] compressedData = new byte[buffer.readInt()];
-			buffer.readBytes(compressedData);
-			Inflater inflater = new Inflater();
-			inflater.setInput(compressedData);
-			try {
-				inflater.inflate(uncompressedData);
-			} catch (DataFormatException e) {
-				throw new IOException("Error while reading chunk (" + x + "," + y + "," + z + ")!", e);
+				buffer.readBytes(biomeData);
 			}
-			inflater.end();
-
-			final short[] blockIds = new short[Chunk.BLOCKS.VOLUME];
-			final short[] blockData = new short[Chunk.BLOCKS.VOLUME];
-			final Map<Short, byte[]> light = new HashMap<>();
-			final byte[] biomeData = hasBiomes ? new byte[Chunk.BLOCKS.AREA] : null;
+			return new ChunkDataMessage(x, y, z, blockIds, blockData, biomeData, biomeManagerClass, light);
+		}
 
-			int index = 0;
-			for (int i = 0; i < blockIds.length; ++i) {
-				blockIds[i] = (short) (uncompressedData[index++] | (uncompressedData[index++] << 8));
+		final int uncompressedSize = buffer.readInt();
+		final byte codecId = buffer.readByte();
+		final int compressedSize = buffer.readInt();
+		final CompressionCodec codec = CompressionCodecs.getCodec(codecId);
+		if (codec == null) {
+			throw new IOException("Unknown compression codec " + codecId + " for chunk (" + x + "," + y + "," + z + ")");
+		}
+		final ByteBuf uncompressed = ALLOCATOR.heapBuffer(uncompressedSize, uncompressedSize);
+		try {
+			decompress(codec, buffer, compressedSize, uncompressed);
+			if (uncompressed.readableBytes() != uncompressedSize) {
+				throw new IOException("Incorrect decompressed size for chunk (" + x + "," + y + "," + z + ") - actual: " + uncompressed.readableBytes() + " expected: " + uncompressedSize);
 			}
-			for (int i = 0; i < blockData.length; ++i) {
-				blockData[i] = (short) (uncompressedData[index++] | (uncompressedData[index++] << 8));
+
+			if ((info & ISPALETTE) == ISPALETTE) {
+				final int[] palette = readInts(uncompressed);
+				final int packedWidth = uncompressed.readInt();
+				final int[] packedBlocks = readInts(uncompressed);
+				final AtomicPaletteBlockStore store = new AtomicPaletteBlockStore(Chunk.BLOCKS.BITS, false, true, 0, palette, packedWidth, packedBlocks);
+				blockIds = store.getBlockIdArray();
+				blockData = store.getDataArray();
+			} else {
+				blockIds = new short[Chunk.BLOCKS.VOLUME];
+				blockData = new short[Chunk.BLOCKS.VOLUME];
+				for (int i = 0; i < blockIds.length; ++i) {
+					blockIds[i] = uncompressed.readShort();
+				}
+				for (int i = 0; i < blockData.length; ++i) {
+					blockData[i] = uncompressed.readShort();
+				}
 			}
 			for (int i = 0; i < lightSize; ++i) {
-				byte[] data = new byte[2048];
-				final short lightId = (short) (uncompressedData[index++] | (uncompressedData[index++] << 8));
-				System.arraycopy(uncompressedData, index, data, 0, data.length);
-				index += data.length;
+				final short lightId = uncompressed.readShort();
+				final byte[] data = new byte[LIGHT_DATA_SIZE];
+				uncompressed.readBytes(data);
 				light.put(lightId, data);
 			}
 			if (hasBiomes) {
-				System.arraycopy(uncompressedData, index, biomeData, 0, biomeData.length);
-				index += biomeData.length;
+				uncompressed.readBytes(biomeData);
 			}
 
-			if (index != uncompressedData.length) {
-				String message = "Incorrect parse size - actual:" + index + " expected: " + uncompressedData.length;
-				Spout.getLogger().severe(message);
-				throw new IllegalStateException(message);
+			if (uncompressed.isReadable()) {
+				throw new IOException("Incorrect parse size for chunk (" + x + "," + y + "," + z + ") - " + uncompressed.readableBytes() + " bytes left over");
 			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Truncated data for chunk (" + x + "," + y + "," + z + ")", e);
+		} finally {
+			uncompressed.release();
+		}
 
-			return new ChunkDataMessage(x, y, z, blockIds, blockData, biomeData, biomeManagerClass, light);
+		return new ChunkDataMessage(x, y, z, blockIds, blockData, biomeData, biomeManagerClass, light);
+	}
+
+	private static int getPayloadSize(ChunkDataMessage message) {
+		int size;
+		if (message.hasPalette()) {
+			size = 4 * (3 + message.getPalette().length + message.getPackedBlocks().length); // palette length, packed width, packed length
+		} else {
+			size = Chunk.BLOCKS.VOLUME * 2 * 2; // Block Ids, Block Data
+		}
+		size += message.getLight().size() * (2 + LIGHT_DATA_SIZE); // One short id + 1 16^3/2 chunk data per lighting manager
+		if (message.hasBiomes()) {
+			size += message.getBiomeData().length;
+		}
+		return size;
+	}
+
+	private static void writePayload(ChunkDataMessage message, ByteBuf out) {
+		if (message.hasPalette()) {
+			writeInts(out, message.getPalette());
+			out.writeInt(message.getPackedWidth());
+			writeInts(out, message.getPackedBlocks());
+		} else {
+			for (short s : message.getBlockIds()) {
+				out.writeShort(s);
+			}
+			for (short s : message.getBlockData()) {
+				out.writeShort(s);
+			}
+		}
+		for (Entry<Short, byte[]> e : message.getLight().entrySet()) {
+			out.writeShort(e.getKey());
+			out.writeBytes(e.getValue());
+		}
+		if (message.hasBiomes()) {
+			out.writeBytes(message.getBiomeData());
+		}
+	}
+
+	private static void writeInts(ByteBuf out, int[] array) {
+		out.writeInt(array.length);
+		for (int i : array) {
+			out.writeInt(i);
+		}
+	}
+
+	private static int[] readInts(ByteBuf in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0 || length * 4L > in.readableBytes()) {
+			throw new IOException("Invalid array length " + length);
+		}
+		final int[] array = new int[length];
+		for (int i = 0; i < length; i++) {
+			array[i] = in.readInt();
+		}
+		return array;
+	}
+
+	/**
+	 * Compresses the readable bytes of a heap buffer directly into the backing array of another heap buffer
+	 *
+	 * @return the number of compressed bytes written
+	 */
+	private static int compress(CompressionCodec codec, ByteBuf in, ByteBuf out) {
+		final int length = in.readableBytes();
+		out.ensureWritable(codec.getMaxCompressedLength(length));
+		final int written = codec.compress(in.array(), in.arrayOffset() + in.readerIndex(), length, out.array(), out.arrayOffset() + out.writerIndex());
+		out.writerIndex(out.writerIndex() + written);
+		in.skipBytes(length);
+		return written;
+	}
+
+	/**
+	 * Decompresses the next {@code length} bytes of a buffer into the backing array of a heap buffer sized for the uncompressed data
+	 */
+	private static void decompress(CompressionCodec codec, ByteBuf in, int length, ByteBuf out) throws IOException {
+		if (length < 0 || length > in.readableBytes()) {
+			throw new IOException("Invalid compressed length " + length);
+		}
+		final byte[] input;
+		final int inputOffset;
+		if (in.hasArray()) {
+			input = in.array();
+			inputOffset = in.arrayOffset() + in.readerIndex();
+		} else {
+			byte[] cached = COMPRESSED_INPUT.get();
+			if (cached == null || cached.length < length) {
+				cached = new byte[length];
+				COMPRESSED_INPUT.set(cached);
+			}
+			in.getBytes(in.readerIndex(), cached, 0, length);
+			input = cached;
+			inputOffset = 0;
+		}
+		final int read = codec.decompress(input, inputOffset, length, out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+		out.writerIndex(out.writerIndex() + read);
+		in.skipBytes(length);
+	}
+
+	private static boolean isUniform(ChunkDataMessage message) {
+		if (message.hasPalette()) {
+			return message.getPalette().length == 1;
+		}
+		final short[] blockIds = message.getBlockIds();
+		final short[] blockData = message.getBlockData();
+		final short id = blockIds[0];
+		final short data = blockData[0];
+		for (int i = 1; i < blockIds.length; i++) {
+			if (blockIds[i] != id || blockData[i] != data) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isUniform(Map<Short, byte[]> light) {
+		for (byte[] data : light.values()) {
+			final byte value = data[0];
+			for (int i = 1; i < data.length; i++) {
+				if (data[i] != value) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static int getFirstState(ChunkDataMessage message) {
+		if (message.hasPalette()) {
+			return message.getPalette()[0];
 		}
+		return BlockFullState.getPacked(message.getBlockIds()[0], message.getBlockData()[0]);
 	}
 }
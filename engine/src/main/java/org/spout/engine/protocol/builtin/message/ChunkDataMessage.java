@@ -29,6 +29,10 @@ package org.spout.engine.protocol.builtin.message;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -37,16 +41,24 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.spout.api.geo.cuboid.ChunkSnapshot;
 import org.spout.api.util.SpoutToStringStyle;
 import org.spout.api.util.cuboid.CuboidLightBuffer;
+import org.spout.engine.world.SpoutChunkSnapshot;
 
 public class ChunkDataMessage extends SpoutMessage {
 	private final boolean unload;
 	// Block x, y, z
 	private final int x, y, z;
 	private final short[] blockIds, blockData;
+	// Palette encoded block states, only set when built from a palette snapshot
+	private final int[] palette, packedBlocks;
+	private final int packedWidth;
 	private final Map<Short, byte[]> light;
 	//private final byte[] blockLight, skyLight;
 	private final byte[] biomeData;
 	private final String biomeManagerClass;
+	// Encoded payload shared between every session the message is sent to
+	private static final ByteBuf RELEASED = Unpooled.EMPTY_BUFFER;
+	private final boolean shared;
+	private final AtomicReference<ByteBuf> sharedPayload = new AtomicReference<>();
 
 	// TODO: protocol - what to do with light
 	public ChunkDataMessage(int x, int y, int z) {
@@ -56,18 +68,43 @@ public class ChunkDataMessage extends SpoutMessage {
 		this.z = z;
 		this.blockIds = null;
 		this.blockData = null;
+		this.palette = null;
+		this.packedBlocks = null;
+		this.packedWidth = 0;
 		this.biomeData = null;
 		this.biomeManagerClass = null;
+		this.shared = false;
 		light = null;
 	}
 
 	public ChunkDataMessage(ChunkSnapshot snapshot) {
+		this(snapshot, false);
+	}
+
+	/**
+	 * Creates a message for the given snapshot.<br> <br> A shared message keeps the first encoding of its payload, so it can be sent to any number of sessions while only being compressed once.
+	 *
+	 * @param snapshot the chunk snapshot
+	 * @param shared true to keep the encoded payload
+	 */
+	public ChunkDataMessage(ChunkSnapshot snapshot, boolean shared) {
 		this.unload = false;
+		this.shared = shared;
 		this.x = snapshot.getX();
 		this.y = snapshot.getY();
 		this.z = snapshot.getZ();
 		this.blockIds = snapshot.getBlockIds();
 		this.blockData = snapshot.getBlockData();
+		if (blockIds == null && snapshot instanceof SpoutChunkSnapshot) {
+			SpoutChunkSnapshot spoutSnapshot = (SpoutChunkSnapshot) snapshot;
+			this.palette = spoutSnapshot.getPalette();
+			this.packedWidth = spoutSnapshot.getPackedWidth();
+			this.packedBlocks = spoutSnapshot.getPackedBlockArray();
+		} else {
+			this.palette = null;
+			this.packedWidth = 0;
+			this.packedBlocks = null;
+		}
 		light = new HashMap<>();
 		for (CuboidLightBuffer b : snapshot.getLightBuffers()) {
 			light.put(b.getManagerId(), b.serialize());
@@ -83,8 +120,28 @@ public class ChunkDataMessage extends SpoutMessage {
 		this.z = z;
 		this.blockIds = blockIds;
 		this.blockData = blockData;
+		this.palette = null;
+		this.packedBlocks = null;
+		this.packedWidth = 0;
 		this.biomeData = biomeData;
 		this.biomeManagerClass = biomeManagerClass;
+		this.shared = false;
+		this.light = map;
+	}
+
+	public ChunkDataMessage(int x, int y, int z, int[] palette, int packedWidth, int[] packedBlocks, byte[] biomeData, String biomeManagerClass, Map<Short, byte[]> map) {
+		this.unload = false;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.blockIds = null;
+		this.blockData = null;
+		this.palette = palette;
+		this.packedWidth = packedWidth;
+		this.packedBlocks = packedBlocks;
+		this.biomeData = biomeData;
+		this.biomeManagerClass = biomeManagerClass;
+		this.shared = false;
 		this.light = map;
 	}
 
@@ -112,6 +169,32 @@ public class ChunkDataMessage extends SpoutMessage {
 		return blockData;
 	}
 
+	/**
+	 * Gets if the block states are carried in palette form rather than as block id and data arrays
+	 *
+	 * @return true if the palette, packed width and packed block array are set
+	 */
+	public boolean hasPalette() {
+		return palette != null && packedBlocks != null;
+	}
+
+	/**
+	 * Gets the block state palette, or an array of zero length if the packed block array holds the full states directly
+	 *
+	 * @return the palette or null if the message does not carry palette data
+	 */
+	public int[] getPalette() {
+		return palette;
+	}
+
+	public int getPackedWidth() {
+		return packedWidth;
+	}
+
+	public int[] getPackedBlocks() {
+		return packedBlocks;
+	}
+
 	public byte[] getBiomeData() {
 		return biomeData;
 	}
@@ -124,6 +207,41 @@ public class ChunkDataMessage extends SpoutMessage {
 		return biomeData != null && biomeManagerClass != null;
 	}
 
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * Gets the shared encoded payload
+	 *
+	 * @return the payload, or null if the message has not been encoded yet or is not shared
+	 */
+	public ByteBuf getSharedPayload() {
+		ByteBuf payload = sharedPayload.get();
+		return payload == RELEASED ? null : payload;
+	}
+
+	/**
+	 * Sets the shared encoded payload.  The message takes ownership of one reference to the buffer if successful.
+	 *
+	 * @param payload the encoded payload
+	 * @return true if the payload was set, false if the message is not shared, already has a payload or its payload was released
+	 */
+	public boolean setSharedPayload(ByteBuf payload) {
+		return shared && sharedPayload.compareAndSet(null, payload);
+	}
+
+	/**
+	 * Releases the reference held to the shared encoded payload.  Sessions which still hold a duplicate of the payload keep it alive until they are done with it. Once released, the message
+	 * never keeps a payload again, so encodings racing with the release are owned by their send alone.
+	 */
+	public void releaseSharedPayload() {
+		ByteBuf payload = sharedPayload.getAndSet(RELEASED);
+		if (payload != null && payload != RELEASED) {
+			payload.release();
+		}
+	}
+
 	public Map<Short, byte[]> getLight() {
 		return Collections.unmodifiableMap(light);
 	}
@@ -137,6 +255,9 @@ public class ChunkDataMessage extends SpoutMessage {
 				.append("z", z)
 				.append("blockIds", blockIds, false)
 				.append("blockData", blockData, false)
+				.append("palette", palette, false)
+				.append("packedWidth", packedWidth)
+				.append("packedBlocks", packedBlocks, false)
 						//.append("blockLigh", blockLight, false)
 						//.append("skyLight", skyLigh, false)
 				.append("biomeData", biomeData, false)
@@ -153,6 +274,9 @@ public class ChunkDataMessage extends SpoutMessage {
 				.append(z)
 				.append(blockIds)
 				.append(blockData)
+				.append(palette)
+				.append(packedWidth)
+				.append(packedBlocks)
 						//.append(blockLight)
 						//.append(skyLight)
 				.append(biomeData)
@@ -171,6 +295,9 @@ public class ChunkDataMessage extends SpoutMessage {
 					.append(z, other.z)
 					.append(blockIds, other.blockIds)
 					.append(blockData, other.blockData)
+					.append(palette, other.palette)
+					.append(packedWidth, other.packedWidth)
+					.append(packedBlocks, other.packedBlocks)
 							//.append(blockLight, other.blockLight)
 							//.append(skyLight, other.skyLight)
 					.append(biomeData, other.biomeData)
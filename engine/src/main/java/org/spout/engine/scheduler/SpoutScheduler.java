@@ -31,18 +31,15 @@ import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -68,7 +65,8 @@ import org.spout.engine.SpoutConfiguration;
 import org.spout.engine.SpoutEngine;
 import org.spout.engine.SpoutRenderer;
 import org.spout.engine.mesh.ChunkMesh;
-import org.spout.engine.protocol.NetworkSendThreadPool;
+import org.spout.engine.profiler.TickProfiler;
+import org.spout.engine.util.thread.ActiveManagerQueue;
 import org.spout.engine.util.thread.AsyncExecutorUtils;
 import org.spout.engine.util.thread.AsyncManager;
 import org.spout.engine.util.thread.coretasks.CopySnapshotTask;
@@ -160,8 +158,14 @@ public final class SpoutScheduler implements Scheduler {
 	private final FinalizeTask finalizeTask = new FinalizeTask();
 	private final PreSnapshotTask preSnapshotTask = new PreSnapshotTask();
 	private final CopySnapshotTask copySnapshotTask = new CopySnapshotTask();
-	// scheduler executor service
-	private final ExecutorService executorService;
+	// Managers with pending work for the physics, dynamic update and lighting passes
+	private final ActiveManagerQueue physicsQueue = new ActiveManagerQueue();
+	private final ActiveManagerQueue dynamicUpdatesQueue = new ActiveManagerQueue();
+	private final ActiveManagerQueue lightingQueue = new ActiveManagerQueue();
+	private final List<AsyncManager> activeManagers = new ArrayList<>();
+	// scheduler tick stage executor
+	private final TickStageExecutor stageExecutor;
+	private final TickProfiler profiler = new TickProfiler(TickProfiler.DEFAULT_WINDOW);
 
 	/**
 	 * Creates a new task scheduler.
@@ -184,7 +188,7 @@ public final class SpoutScheduler implements Scheduler {
 			meshThread = null;
 		}
 
-		executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2 + 1, new MarkedNamedThreadFactory("SpoutScheduler - async manager executor service", true));
+		stageExecutor = new TickStageExecutor(Runtime.getRuntime().availableProcessors(), new MarkedNamedThreadFactory("SpoutScheduler - tick stage executor", true), profiler);
 
 		taskManager = new SpoutTaskManager(this, mainThread);
 	}
@@ -343,9 +347,13 @@ public final class SpoutScheduler implements Scheduler {
 
 				long delta = startTime - lastTick;
 				try {
+					long tickStartNanos = System.nanoTime();
 					if (!tick(delta)) {
 						throw new IllegalStateException("Attempt made to start a tick before the previous one ended");
 					}
+					if (profiler.isEnabled()) {
+						profiler.recordTick(startTime, System.nanoTime() - tickStartNanos);
+					}
 					lastTick = startTime;
 				} catch (InterruptedException | IllegalStateException ex) {
 					Spout.severe("Error while pulsing: {0}", ex.getMessage());
@@ -425,7 +433,7 @@ public final class SpoutScheduler implements Scheduler {
 
 			// Shutdown manager thread pool
 
-			NetworkSendThreadPool.shutdown();
+			stageExecutor.shutdown();
 
 			runFinalTasks();
 		}
@@ -551,6 +559,7 @@ public final class SpoutScheduler implements Scheduler {
 	 */
 	@DelayedWrite
 	public boolean removeAsyncManager(AsyncManager manager) {
+		profiler.removeManager(manager);
 		return asyncManagers.remove(manager);
 	}
 
@@ -614,6 +623,8 @@ public final class SpoutScheduler implements Scheduler {
 
 		asyncManagers.copySnapshot();
 
+		long stageStart = System.nanoTime();
+
 		taskManager.heartbeat(delta);
 
 		if (parallelTaskManager == null) {
@@ -621,6 +632,10 @@ public final class SpoutScheduler implements Scheduler {
 		}
 		parallelTaskManager.heartbeat(delta);
 
+		if (profiler.isEnabled()) {
+			profiler.recordStage("Scheduled tasks", System.nanoTime() - stageStart);
+		}
+
 		List<AsyncManager> managers = asyncManagers.get();
 
 		TickStage.setStage(TickStage.STAGE1);
@@ -651,7 +666,7 @@ public final class SpoutScheduler implements Scheduler {
 			int uP = 1;
 			while ((uD + uP) > 0 && totalUpdates < UPDATE_THRESHOLD) {
 				if (DYNAMIC_UPDATES) {
-					doDynamicUpdates(managers);
+					doDynamicUpdates();
 				}
 
 				uD = updates.getAndSet(0);
@@ -659,7 +674,7 @@ public final class SpoutScheduler implements Scheduler {
 				dynamicUpdates += uD;
 
 				if (BLOCK_PHYSICS) {
-					doPhysics(managers);
+					doPhysics();
 				}
 
 				uP = updates.getAndSet(0);
@@ -670,7 +685,7 @@ public final class SpoutScheduler implements Scheduler {
 			updates.set(1);
 
 			if (LIGHTING || !Spout.debugMode()) {
-				doLighting(managers);
+				doLighting();
 			}
 
 			if (totalUpdates >= UPDATE_THRESHOLD) {
@@ -690,30 +705,38 @@ public final class SpoutScheduler implements Scheduler {
 		return true;
 	}
 
-	private void doPhysics(List<AsyncManager> managers) {
+	private void doPhysics() {
 		int passStartUpdates = updates.get() - 1;
 		int startUpdates = updates.get();
 		while (passStartUpdates < updates.get() && updates.get() < startUpdates + UPDATE_THRESHOLD) {
 			passStartUpdates = updates.get();
-			this.runTasks(managers, physicsTask, "Physics", TickStage.GLOBAL_PHYSICS, TickStage.PHYSICS);
+			activeManagers.clear();
+			physicsQueue.drainTo(activeManagers);
+			this.runTasks(activeManagers, physicsTask, "Physics", TickStage.GLOBAL_PHYSICS, TickStage.PHYSICS);
 		}
+		activeManagers.clear();
 	}
 
-	private void doDynamicUpdates(List<AsyncManager> managers) {
+	private void doDynamicUpdates() {
 		int passStartUpdates = updates.get() - 1;
 		int startUpdates = updates.get();
 
 		TickStage.setStage(TickStage.GLOBAL_DYNAMIC_BLOCKS);
 
+		activeManagers.clear();
+		dynamicUpdatesQueue.drainTo(activeManagers);
+
 		long earliestTime = END_OF_THE_WORLD;
 
-		for (AsyncManager e : managers) {
+		for (AsyncManager e : activeManagers) {
 			long firstTime = e.getFirstDynamicUpdateTime();
 			if (firstTime < earliestTime) {
 				earliestTime = firstTime;
 			}
 		}
 
+		boolean firstPass = true;
+
 		while (passStartUpdates < updates.get() && updates.get() < startUpdates + UPDATE_THRESHOLD) {
 			passStartUpdates = updates.get();
 
@@ -721,12 +744,43 @@ public final class SpoutScheduler implements Scheduler {
 
 			dynamicUpdatesTask.setThreshold(threshold);
 
-			this.runTasks(managers, dynamicUpdatesTask, "Dynamic Blocks", TickStage.GLOBAL_DYNAMIC_BLOCKS, TickStage.DYNAMIC_BLOCKS);
+			if (!firstPass) {
+				activeManagers.clear();
+				dynamicUpdatesQueue.drainTo(activeManagers);
+			}
+			firstPass = false;
+
+			this.runTasks(activeManagers, dynamicUpdatesTask, "Dynamic Blocks", TickStage.GLOBAL_DYNAMIC_BLOCKS, TickStage.DYNAMIC_BLOCKS);
 		}
+		activeManagers.clear();
 	}
 
-	private void doLighting(List<AsyncManager> managers) {
-		this.runTasks(managers, lightingTask, "Lighting", TickStage.LIGHTING);
+	private void doLighting() {
+		activeManagers.clear();
+		lightingQueue.drainTo(activeManagers);
+		this.runTasks(activeManagers, lightingTask, "Lighting", TickStage.LIGHTING);
+		activeManagers.clear();
+	}
+
+	/**
+	 * Gets the queue of managers with pending block physics
+	 */
+	public ActiveManagerQueue getPhysicsQueue() {
+		return physicsQueue;
+	}
+
+	/**
+	 * Gets the queue of managers with queued dynamic block updates
+	 */
+	public ActiveManagerQueue getDynamicUpdatesQueue() {
+		return dynamicUpdatesQueue;
+	}
+
+	/**
+	 * Gets the queue of managers with pending lighting updates
+	 */
+	public ActiveManagerQueue getLightingQueue() {
+		return lightingQueue;
 	}
 
 	public void addUpdates(int inc) {
@@ -816,55 +870,69 @@ public final class SpoutScheduler implements Scheduler {
 
 	private void runTasks(List<AsyncManager> managers, ManagerRunnableFactory taskFactory, String stageString, int globalStage, int localStage) {
 		long time = -System.currentTimeMillis();
+		long stageStart = System.nanoTime();
 		int maxSequence = taskFactory.getMaxSequence();
+		boolean interrupted = false;
 		for (int s = taskFactory.getMinSequence(); s <= maxSequence; s++) {
 			if (s == -1) {
 				TickStage.setStage(localStage);
 			} else {
 				TickStage.setStage(globalStage);
 			}
-			List<Future<?>> futures = new ArrayList<>(managers.size());
 			for (AsyncManager manager : managers) {
 				if (s == -1 || s == manager.getSequence()) {
 					Runnable r = taskFactory.getTask(manager, s);
 					if (r != null) {
-						futures.add(executorService.submit(r));
+						stageExecutor.addTask(r);
 					}
 				}
 			}
-			forLoop:
-			for (int i = 0; i < futures.size(); i++) {
-				boolean done = false;
-				while (!done) {
-					try {
-						Future<?> f = futures.get(i);
-						if (!f.isDone()) {
-							f.get(PULSE_EVERY, TimeUnit.MILLISECONDS);
-						}
-						done = true;
-					} catch (InterruptedException e) {
-						Spout.info("Warning: main thread interrupted while waiting on tick stage task, " + taskFactory.getClass().getName());
-						break forLoop;
-					} catch (ExecutionException e) {
-						Spout.info("Exception thrown when executing task, " + taskFactory.getClass().getName() + ", " + e.getMessage());
-						e.printStackTrace();
-						Spout.info("Caused by");
-						e.getCause().printStackTrace();
-						done = true;
-					} catch (TimeoutException e) {
-						if (((SpoutEngine) engine).isSetupComplete()) {
-							logLongDurationTick(stageString, managers);
-						}
+			if (!stageExecutor.startStage(stageString)) {
+				continue;
+			}
+			boolean done = false;
+			while (!done) {
+				try {
+					done = stageExecutor.awaitStage(PULSE_EVERY, TimeUnit.MILLISECONDS);
+					if (!done && ((SpoutEngine) engine).isSetupComplete()) {
+						logLongDurationTick(stageString, managers);
 					}
+				} catch (InterruptedException e) {
+					Spout.info("Warning: main thread interrupted while waiting on tick stage task, " + taskFactory.getClass().getName());
+					interrupted = true;
 				}
 			}
 		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (profiler.isEnabled()) {
+			profiler.recordStage(stageString, System.nanoTime() - stageStart);
+		}
 		time += System.currentTimeMillis();
 		if (Spout.debugMode() && time > PULSE_EVERY) {
 			//Spout.getLogger().info("Task " + TickStage.getStage(TickStage.getStageInt()) + " took " + time + "ms");
 		}
 	}
 
+	/**
+	 * Gets the wall time and queue depth metrics for each tick stage, indexed by stage name
+	 *
+	 * @return the stage metrics
+	 */
+	public Map<String, TickStageExecutor.StageMetrics> getStageMetrics() {
+		return stageExecutor.getMetrics();
+	}
+
+	/**
+	 * Gets the profiler which records the time taken by each tick, stage, region and plugin
+	 *
+	 * @return the tick profiler
+	 */
+	public TickProfiler getTickProfiler() {
+		return profiler;
+	}
+
 	public long getFps() {
 		return renderThread.getFps();
 	}
@@ -44,6 +44,7 @@ import org.spout.api.scheduler.Task;
 import org.spout.api.scheduler.TaskManager;
 import org.spout.api.scheduler.TaskPriority;
 import org.spout.api.scheduler.Worker;
+import org.spout.engine.profiler.TickProfiler;
 import org.spout.engine.util.thread.AsyncManager;
 import org.spout.engine.util.thread.threadfactory.NamedThreadFactory;
 
@@ -56,6 +57,7 @@ public class SpoutTaskManager implements TaskManager {
 	private final AtomicLong upTime;
 	private final Object scheduleLock = new Object();
 	private final Scheduler scheduler;
+	private final TickProfiler profiler;
 	private final ExecutorService pool = Executors.newFixedThreadPool(20, new NamedThreadFactory("Scheduler Thread Pool Thread"));
 
 	public SpoutTaskManager(Scheduler scheduler, Thread mainThread) {
@@ -72,6 +74,7 @@ public class SpoutTaskManager implements TaskManager {
 		this.alive = new AtomicBoolean(true);
 		this.upTime = new AtomicLong(age);
 		this.scheduler = scheduler;
+		this.profiler = scheduler instanceof SpoutScheduler ? ((SpoutScheduler) scheduler).getTickProfiler() : null;
 	}
 
 	@Override
@@ -145,7 +148,13 @@ public class SpoutTaskManager implements TaskManager {
 				if (!currentTask.isAlive()) {
 					continue;
 				} else if (currentTask.isSync()) {
-					currentTask.pulse();
+					if (profiler != null && profiler.isEnabled()) {
+						long start = System.nanoTime();
+						currentTask.pulse();
+						profiler.recordPlugin(currentTask.getOwner(), System.nanoTime() - start);
+					} else {
+						currentTask.pulse();
+					}
 					repeatSchedule(currentTask);
 				} else {
 					Spout.getLogger().info("Async repeating task submitted");
@@ -0,0 +1,303 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.scheduler;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.spout.api.Spout;
+import org.spout.engine.profiler.TickProfiler;
+import org.spout.engine.util.thread.coretasks.ManagerRunnable;
+
+/**
+ * Executes the parallel part of each tick stage on a fixed set of worker threads.<br> <br> The main thread queues the tasks for a stage using {@link #addTask(Runnable)} and then releases
+ * the workers with {@link #startStage(String)}. Workers claim tasks from a shared index, so a worker which finishes early takes the next pending task rather than idling behind a slow region.
+ * The end of the stage is a barrier which the main thread waits on using {@link #awaitStage(long, TimeUnit)}.<br> <br> No futures are created and the workers park on the barrier between
+ * stages.
+ */
+public class TickStageExecutor {
+	/**
+	 * Two phases are used per stage, one to release the workers and one to wait for them to complete
+	 */
+	private final Phaser phaser;
+	private final Thread[] workers;
+	private final TickProfiler profiler;
+	private final AtomicInteger nextTask = new AtomicInteger();
+	private final ConcurrentHashMap<String, StageMetrics> metrics = new ConcurrentHashMap<>();
+	private Runnable[] tasks = new Runnable[64];
+	private int taskCount = 0;
+	private String stageName = null;
+	private int completionPhase = -1;
+	private long stageStart;
+	private StageMetrics stageMetrics;
+
+	public TickStageExecutor(int threads, ThreadFactory factory) {
+		this(threads, factory, null);
+	}
+
+	/**
+	 * Creates an executor which records the time taken by each {@link ManagerRunnable} task against its manager when the profiler is enabled
+	 *
+	 * @param threads the number of worker threads
+	 * @param factory the factory used to create the worker threads
+	 * @param profiler the profiler, or null to disable profiling
+	 */
+	public TickStageExecutor(int threads, ThreadFactory factory, TickProfiler profiler) {
+		this.profiler = profiler;
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one worker thread is required");
+		}
+		phaser = new Phaser(threads + 1);
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = factory.newThread(new StageWorker());
+		}
+		for (Thread t : workers) {
+			t.start();
+		}
+	}
+
+	/**
+	 * Queues a task for the next stage.  This method should only be called by the thread which drives the stages.
+	 *
+	 * @param task the task
+	 */
+	public void addTask(Runnable task) {
+		if (completionPhase != -1) {
+			throw new IllegalStateException("Tasks may not be added while a stage is running");
+		}
+		if (taskCount == tasks.length) {
+			Runnable[] newTasks = new Runnable[tasks.length << 1];
+			System.arraycopy(tasks, 0, newTasks, 0, taskCount);
+			tasks = newTasks;
+		}
+		tasks[taskCount++] = task;
+	}
+
+	/**
+	 * Gets the number of tasks queued for the next stage
+	 *
+	 * @return the number of tasks
+	 */
+	public int getQueuedTasks() {
+		return taskCount;
+	}
+
+	/**
+	 * Releases the worker threads to execute the queued tasks.  If no tasks are queued, the workers are not woken.
+	 *
+	 * @param name the name of the stage, used for metrics and error reporting
+	 * @return true if the stage was started, false if there were no tasks to run
+	 */
+	public boolean startStage(String name) {
+		if (completionPhase != -1) {
+			throw new IllegalStateException("Attempt made to start a stage before the previous one completed");
+		}
+		if (phaser.isTerminated()) {
+			throw new IllegalStateException("Attempt made to start a stage after the executor was shutdown");
+		}
+		stageMetrics = getMetrics(name);
+		if (taskCount == 0) {
+			stageMetrics.record(0, 0L);
+			return false;
+		}
+		stageName = name;
+		nextTask.set(0);
+		stageStart = System.nanoTime();
+		phaser.arriveAndAwaitAdvance();
+		completionPhase = phaser.arrive();
+		return true;
+	}
+
+	/**
+	 * Waits for all tasks of the current stage to complete.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if the stage completed, false if the timeout expired first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitStage(long timeout, TimeUnit unit) throws InterruptedException {
+		if (completionPhase == -1) {
+			return true;
+		}
+		try {
+			phaser.awaitAdvanceInterruptibly(completionPhase, timeout, unit);
+		} catch (TimeoutException e) {
+			return false;
+		}
+		stageMetrics.record(taskCount, System.nanoTime() - stageStart);
+		for (int i = 0; i < taskCount; i++) {
+			tasks[i] = null;
+		}
+		taskCount = 0;
+		stageName = null;
+		completionPhase = -1;
+		return true;
+	}
+
+	/**
+	 * Gets the metrics for all stages executed so far, indexed by stage name
+	 *
+	 * @return the stage metrics
+	 */
+	public Map<String, StageMetrics> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * Stops the worker threads.  Any stage currently running is allowed to complete.
+	 */
+	public void shutdown() {
+		phaser.forceTermination();
+	}
+
+	private StageMetrics getMetrics(String name) {
+		StageMetrics m = metrics.get(name);
+		if (m == null) {
+			m = new StageMetrics(name);
+			StageMetrics old = metrics.putIfAbsent(name, m);
+			if (old != null) {
+				m = old;
+			}
+		}
+		return m;
+	}
+
+	private class StageWorker implements Runnable {
+		@Override
+		public void run() {
+			while (phaser.arriveAndAwaitAdvance() >= 0) {
+				final Runnable[] tasks = TickStageExecutor.this.tasks;
+				final int taskCount = TickStageExecutor.this.taskCount;
+				final boolean profile = profiler != null && profiler.isEnabled();
+				int i;
+				while ((i = nextTask.getAndIncrement()) < taskCount) {
+					try {
+						if (profile && tasks[i] instanceof ManagerRunnable) {
+							long start = System.nanoTime();
+							tasks[i].run();
+							profiler.recordManager(((ManagerRunnable) tasks[i]).getManager(), System.nanoTime() - start);
+						} else {
+							tasks[i].run();
+						}
+					} catch (Throwable t) {
+						Spout.info("Exception thrown when executing task, " + stageName + ", " + t.getMessage());
+						t.printStackTrace();
+					}
+				}
+				if (phaser.arriveAndAwaitAdvance() < 0) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wall time and queue depth statistics for a tick stage.  The values are updated by the thread driving the stages and may be read from any thread.
+	 */
+	public static class StageMetrics {
+		private final String name;
+		private volatile long runs;
+		private volatile long totalTasks;
+		private volatile int lastTasks;
+		private volatile int maxTasks;
+		private volatile long totalNanos;
+		private volatile long lastNanos;
+		private volatile long maxNanos;
+
+		private StageMetrics(String name) {
+			this.name = name;
+		}
+
+		private void record(int tasks, long nanos) {
+			runs++;
+			totalTasks += tasks;
+			lastTasks = tasks;
+			if (tasks > maxTasks) {
+				maxTasks = tasks;
+			}
+			totalNanos += nanos;
+			lastNanos = nanos;
+			if (nanos > maxNanos) {
+				maxNanos = nanos;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the number of times the stage has been run, including runs with no tasks
+		 */
+		public long getRuns() {
+			return runs;
+		}
+
+		public long getTotalTasks() {
+			return totalTasks;
+		}
+
+		/**
+		 * Gets the number of tasks queued the last time the stage was run
+		 */
+		public int getLastTasks() {
+			return lastTasks;
+		}
+
+		public int getMaxTasks() {
+			return maxTasks;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * Gets the wall time of the last run of the stage, from release of the workers until the barrier completed
+		 */
+		public long getLastNanos() {
+			return lastNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "StageMetrics{name=" + name + ", runs=" + runs + ", tasks=" + totalTasks + ", maxTasks=" + maxTasks + ", totalMs=" + (totalNanos / 1000000) + ", maxMs=" + (maxNanos / 1000000) + "}";
+		}
+	}
+}
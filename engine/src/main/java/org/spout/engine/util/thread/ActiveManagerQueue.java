@@ -0,0 +1,112 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.util.thread;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A queue of the AsyncManagers which have pending work for a tick pass.<br> <br> Each manager holds an {@link Entry} for the queue and marks it whenever work is queued for the pass. Marking an
+ * entry which is already in the queue has no effect, so a pass only has to visit the managers which were marked since it last drained the queue.
+ */
+public class ActiveManagerQueue {
+	private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a new entry for a manager.  The entry is not initially queued.
+	 *
+	 * @param manager the manager
+	 * @return the entry
+	 */
+	public Entry newEntry(AsyncManager manager) {
+		return new Entry(manager);
+	}
+
+	/**
+	 * Removes all queued managers from the queue and adds them to the given collection.  The entries are cleared before being added, so any work queued while the pass runs will mark the manager
+	 * again for the next pass.
+	 *
+	 * @param managers the collection to add the managers to
+	 * @return the number of managers added
+	 */
+	public int drainTo(Collection<AsyncManager> managers) {
+		int count = 0;
+		Entry e;
+		while ((e = queue.poll()) != null) {
+			e.queued.set(false);
+			if (e.valid) {
+				managers.add(e.manager);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public class Entry {
+		private final AsyncManager manager;
+		private final AtomicBoolean queued = new AtomicBoolean(false);
+		private volatile boolean valid = true;
+
+		private Entry(AsyncManager manager) {
+			this.manager = manager;
+		}
+
+		/**
+		 * Marks the manager as having work for the pass
+		 *
+		 * @return true if the manager was added to the queue, false if it was already queued or the entry is invalid
+		 */
+		public boolean mark() {
+			if (valid && queued.compareAndSet(false, true)) {
+				queue.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Prevents the manager from being returned by the queue.  This should be called when the manager is removed from the scheduler.
+		 */
+		public void invalidate() {
+			valid = false;
+		}
+
+		public AsyncManager getManager() {
+			return manager;
+		}
+
+		@Override
+		public String toString() {
+			return "ActiveManagerQueue.Entry{" + manager + "}";
+		}
+	}
+}
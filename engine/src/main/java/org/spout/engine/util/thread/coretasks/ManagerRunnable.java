@@ -41,5 +41,9 @@ public abstract class ManagerRunnable implements Runnable {
 		runTask();
 	}
 
+	public AsyncManager getManager() {
+		return manager;
+	}
+
 	protected abstract void runTask();
 }
@@ -0,0 +1,258 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spout.api.geo.cuboid.Region;
+import org.spout.api.io.bytearrayarray.BAAWrapper;
+import org.spout.api.util.hashing.Int21TripleHashed;
+import org.spout.engine.util.thread.threadfactory.NamedThreadFactory;
+
+/**
+ * Reads chunks from the region files of a world before they are needed.<br> <br> Chunks are read and decompressed on a shared pool of threads and the decompressed bytes are kept
+ * in a bounded cache until the region loads the chunk, so the region thread does not wait on the file or the codec. The bytes are still parsed into a chunk by {@link
+ * org.spout.engine.filesystem.versioned.ChunkFiles#loadChunk} on the region thread. The cache only holds chunks that have not been attached to a region. When a chunk is written, its cached
+ * data and any read in progress are discarded.
+ */
+public class ChunkPrefetcher {
+	private static final ThreadPoolExecutor executor;
+	/**
+	 * The maximum number of decompressed chunks held for each world, the least recently prefetched chunk is discarded first
+	 */
+	public static final int MAX_CACHED_CHUNKS = 512;
+	/**
+	 * The maximum number of reads queued for each world, requests beyond this are ignored
+	 */
+	public static final int MAX_PENDING_READS = 128;
+	private final RegionFileManager manager;
+	private final Map<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(64, 0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+			if (size() > MAX_CACHED_CHUNKS) {
+				evicted.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+	private final ConcurrentHashMap<Long, PrefetchTask> pending = new ConcurrentHashMap<>();
+	private volatile boolean closed = false;
+	private final AtomicLong requested = new AtomicLong(0);
+	private final AtomicLong read = new AtomicLong(0);
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong evicted = new AtomicLong(0);
+	private final AtomicLong invalidated = new AtomicLong(0);
+
+	static {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("Chunk Prefetch Thread", true));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public ChunkPrefetcher(RegionFileManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Queues a chunk to be read from its region file.  Nothing is done if the chunk is already cached or queued, or if too many reads are queued.
+	 *
+	 * @param x the chunk x coordinate
+	 * @param y the chunk y coordinate
+	 * @param z the chunk z coordinate
+	 * @return true if a read was queued
+	 */
+	public boolean prefetch(int x, int y, int z) {
+		if (closed || pending.size() >= MAX_PENDING_READS) {
+			return false;
+		}
+		Long key = Int21TripleHashed.key(x, y, z);
+		synchronized (cache) {
+			if (cache.containsKey(key)) {
+				return false;
+			}
+		}
+		PrefetchTask task = new PrefetchTask(key, x, y, z);
+		if (pending.putIfAbsent(key, task) != null) {
+			return false;
+		}
+		requested.incrementAndGet();
+		executor.execute(task);
+		return true;
+	}
+
+	/**
+	 * Removes the decompressed data for a chunk from the cache
+	 *
+	 * @param x the chunk x coordinate
+	 * @param y the chunk y coordinate
+	 * @param z the chunk z coordinate
+	 * @return the decompressed data, or null if the chunk was not prefetched
+	 */
+	public byte[] take(int x, int y, int z) {
+		byte[] data;
+		synchronized (cache) {
+			data = cache.remove(Int21TripleHashed.key(x, y, z));
+		}
+		if (data != null) {
+			hits.incrementAndGet();
+		}
+		return data;
+	}
+
+	/**
+	 * Discards the cached data for a chunk and any read of it in progress.  This is called before and after the chunk is written.
+	 *
+	 * @param x the chunk x coordinate
+	 * @param y the chunk y coordinate
+	 * @param z the chunk z coordinate
+	 */
+	public void invalidate(int x, int y, int z) {
+		Long key = Int21TripleHashed.key(x, y, z);
+		PrefetchTask task = pending.remove(key);
+		if (task != null) {
+			task.stale = true;
+		}
+		byte[] old;
+		synchronized (cache) {
+			old = cache.remove(key);
+		}
+		if (task != null || old != null) {
+			invalidated.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Discards all cached data and stops queuing reads
+	 */
+	public void close() {
+		closed = true;
+		Iterator<PrefetchTask> i = pending.values().iterator();
+		while (i.hasNext()) {
+			i.next().stale = true;
+			i.remove();
+		}
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	public int getCachedChunks() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public int getPendingReads() {
+		return pending.size();
+	}
+
+	public long getRequested() {
+		return requested.get();
+	}
+
+	public long getRead() {
+		return read.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getEvicted() {
+		return evicted.get();
+	}
+
+	public long getInvalidated() {
+		return invalidated.get();
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+			byte[] buf = new byte[4096];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private class PrefetchTask implements Runnable {
+		private final Long key;
+		private final int x, y, z;
+		private volatile boolean stale = false;
+
+		public PrefetchTask(Long key, int x, int y, int z) {
+			this.key = key;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (stale) {
+					return;
+				}
+				BAAWrapper regionFile = manager.getBAAWrapper(x >> Region.CHUNKS.BITS, y >> Region.CHUNKS.BITS, z >> Region.CHUNKS.BITS);
+				InputStream in = regionFile.getBlockInputStream(SpoutRegion.getChunkKey(x, y, z));
+				if (in == null) {
+					return;
+				}
+				byte[] data = readFully(in);
+				read.incrementAndGet();
+				synchronized (cache) {
+					// The chunk may have been written while it was read
+					if (!stale && !closed) {
+						cache.put(key, data);
+					}
+				}
+			} catch (IOException e) {
+				// The region thread reads the chunk again and reports the error
+			} finally {
+				pending.remove(key, this);
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.spout.api.scheduler.Scheduler;
+
+/**
+ * The chunks of a region whose population was deferred because a populator was over its time budget.<br> <br> Deferred chunks are handed to the {@link PopulationScheduler} when the
+ * tick has time to spare. A chunk which has waited longer than the maximum deferral is handed over on the next tick however busy the server is, so population slows down on a busy
+ * server but never stops.
+ */
+public class DeferredPopulationQueue {
+	/**
+	 * The maximum time, in milliseconds, a chunk waits for spare tick time
+	 */
+	public static final long MAX_DEFERRAL = 5000;
+	/**
+	 * The tick time, in milliseconds, which must be left for chunks that have not waited for the maximum deferral to be populated
+	 */
+	public static final long SPARE_TICK_TIME = 10;
+	private final Scheduler scheduler;
+	private final long maxDeferral;
+	private final ConcurrentLinkedQueue<SpoutChunk> queue = new ConcurrentLinkedQueue<>();
+	/**
+	 * The time each queued chunk was deferred at
+	 */
+	private final ConcurrentHashMap<SpoutChunk, Long> deferred = new ConcurrentHashMap<>();
+
+	public DeferredPopulationQueue(Scheduler scheduler) {
+		this(scheduler, MAX_DEFERRAL);
+	}
+
+	/**
+	 * Creates a queue
+	 *
+	 * @param scheduler the scheduler giving the time left in the tick
+	 * @param maxDeferral the maximum time, in milliseconds, a chunk waits for spare tick time
+	 */
+	public DeferredPopulationQueue(Scheduler scheduler, long maxDeferral) {
+		this.scheduler = scheduler;
+		this.maxDeferral = maxDeferral;
+	}
+
+	/**
+	 * Queues a chunk, unless it is already queued
+	 *
+	 * @param chunk the chunk
+	 * @return true if the chunk was queued
+	 */
+	public boolean defer(SpoutChunk chunk) {
+		if (deferred.putIfAbsent(chunk, System.currentTimeMillis()) != null) {
+			return false;
+		}
+		queue.add(chunk);
+		return true;
+	}
+
+	public boolean contains(SpoutChunk chunk) {
+		return deferred.containsKey(chunk);
+	}
+
+	/**
+	 * Takes the chunks to populate during this tick, in the order they were deferred.  This must only be called by the region thread.<br> <br> Chunks are only taken while the tick has time to spare, except for those which have waited
+	 * longer than the maximum deferral.
+	 *
+	 * @param max the maximum number of chunks to take
+	 * @return the chunks
+	 */
+	public List<SpoutChunk> poll(int max) {
+		final List<SpoutChunk> chunks = new ArrayList<>();
+		final long now = System.currentTimeMillis();
+		SpoutChunk chunk;
+		while (chunks.size() < max && (chunk = queue.peek()) != null) {
+			boolean overdue = now - deferred.get(chunk) >= maxDeferral;
+			if (!overdue && (scheduler.getRemainingTickTime() <= SPARE_TICK_TIME || scheduler.isServerOverloaded())) {
+				break;
+			}
+			queue.poll();
+			deferred.remove(chunk);
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+}
@@ -0,0 +1,629 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spout.api.Spout;
+import org.spout.api.entity.Player;
+import org.spout.api.geo.LoadOption;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.geo.discrete.Point;
+import org.spout.api.scheduler.SnapshotLock;
+import org.spout.api.util.hashing.IntPairHashed;
+import org.spout.engine.component.entity.SpoutPlayerNetworkComponent;
+import org.spout.engine.util.thread.threadfactory.NamedThreadFactory;
+import org.spout.math.vector.Vector3f;
+
+/**
+ * Runs column generation off the main thread, nearest work first.<br> <br> Every task has a priority, lower values run first. The priority of a column is its distance in chunks
+ * to the nearest player, scaled down when the column lies in the direction the player is moving and up when it lies behind. Speculative generation ahead of players is dropped
+ * when no player is still close to the column by the time it would run. Pre-generation fills a radius around a point with the lowest priority, so it only uses threads that
+ * players do not need. The number of threads bounds the CPU time spent on generation.
+ */
+public class GenerationScheduler {
+	/**
+	 * The default number of generation threads
+	 */
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 2 + 1;
+	/**
+	 * How strongly the direction of travel changes the priority. A column straight ahead of a player has its distance multiplied by 1 - HEADING_WEIGHT, one straight behind by 1 +
+	 * HEADING_WEIGHT
+	 */
+	public static final double HEADING_WEIGHT = 0.5;
+	/**
+	 * The priority added to pre-generation tasks, which places them after any work for players
+	 */
+	private static final double PREGENERATION_PRIORITY = 1.0E9;
+	/**
+	 * The largest number of columns of a pre-generation which are queued at once. More columns are queued, ring by ring, as the queued ones complete
+	 */
+	private static final int PREGENERATION_WINDOW = 256;
+	/**
+	 * The largest radius, in chunks, which may be pre-generated
+	 */
+	public static final int MAX_PREGENERATION_RADIUS = 1024;
+	private static final GenerationScheduler instance = new GenerationScheduler(DEFAULT_THREADS);
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong sequence = new AtomicLong(0);
+	private final ConcurrentHashMap<ColumnKey, ColumnTask> queued = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<SpoutWorld, Pregeneration> pregenerations = new ConcurrentHashMap<>();
+	private volatile boolean speculative = true;
+	private final AtomicLong speculated = new AtomicLong(0);
+	private final AtomicLong generated = new AtomicLong(0);
+	private final AtomicLong cancelled = new AtomicLong(0);
+
+	public GenerationScheduler(int threads) {
+		executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory("RegionGenerator - async pool", true));
+	}
+
+	/**
+	 * Gets the scheduler shared by all worlds
+	 *
+	 * @return the scheduler
+	 */
+	public static GenerationScheduler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets the number of threads generating columns
+	 *
+	 * @param threads the number of threads, at least 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one generation thread is required");
+		}
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Gets the number of threads generating columns
+	 *
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Sets whether columns ahead of moving players are generated before they are requested
+	 *
+	 * @param speculative true to generate ahead of players
+	 */
+	public void setSpeculative(boolean speculative) {
+		this.speculative = speculative;
+	}
+
+	public boolean isSpeculative() {
+		return speculative;
+	}
+
+	/**
+	 * Runs a task on the generation threads.<br> <br> The task keeps the priority it was given and always runs, only speculative column tasks are dropped when players move away.
+	 *
+	 * @param task the task
+	 * @param priority the priority, lower values run first
+	 */
+	public void execute(final Runnable task, double priority) {
+		executor.execute(new PrioritizedTask(priority) {
+			@Override
+			public void run() {
+				task.run();
+			}
+		});
+	}
+
+	/**
+	 * Queues the generation of a column of a region, with the priority of the column.  Nothing is done if the column is already queued with the same or a better priority.
+	 *
+	 * @param region the region containing the column
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return true if the column was queued
+	 */
+	public boolean generate(SpoutRegion region, int chunkX, int chunkZ) {
+		final SpoutWorld world = region.getWorld();
+		return queue(new ColumnTask(getPriority(world, chunkX, chunkZ), world, region, chunkX, chunkZ, -1, null));
+	}
+
+	/**
+	 * Queues the generation of a column which is expected to come into view of a player.  The task is dropped if, when it runs, no player is within the cancel distance of the
+	 * column.
+	 *
+	 * @param world the world
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @param cancelDistance the distance in chunks to the nearest player beyond which the column is not generated
+	 * @return true if the column was queued
+	 */
+	public boolean speculate(SpoutWorld world, int chunkX, int chunkZ, int cancelDistance) {
+		if (!speculative) {
+			return false;
+		}
+		if (queue(new ColumnTask(getPriority(world, chunkX, chunkZ), world, null, chunkX, chunkZ, cancelDistance, null))) {
+			speculated.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Starts generating every column within a radius of a column, nearest first.  A pre-generation already running for the world is cancelled.<br> <br> Columns are queued in
+	 * square rings around the center, and no more than {@link #PREGENERATION_WINDOW} are waiting at any time.
+	 *
+	 * @param world the world
+	 * @param centerX the x chunk coordinate of the center column
+	 * @param centerZ the z chunk coordinate of the center column
+	 * @param radius the radius in chunks, at most {@link #MAX_PREGENERATION_RADIUS}
+	 * @return the pre-generation, which reports its progress
+	 */
+	public Pregeneration pregenerate(SpoutWorld world, int centerX, int centerZ, int radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("Radius may not be negative");
+		}
+		if (radius > MAX_PREGENERATION_RADIUS) {
+			throw new IllegalArgumentException("Radius may not be larger than " + MAX_PREGENERATION_RADIUS);
+		}
+		final Pregeneration pregeneration = new Pregeneration(world, centerX, centerZ, radius);
+		final Pregeneration previous = pregenerations.put(world, pregeneration);
+		if (previous != null) {
+			previous.cancel();
+		}
+		feed(pregeneration);
+		return pregeneration;
+	}
+
+	/**
+	 * Queues the next columns of a pre-generation until its window is full
+	 */
+	private void feed(Pregeneration pregeneration) {
+		final int[] column = new int[2];
+		while (!pregeneration.isCancelled() && !executor.isShutdown()) {
+			if (pregeneration.outstanding.incrementAndGet() > PREGENERATION_WINDOW) {
+				pregeneration.outstanding.decrementAndGet();
+				return;
+			}
+			if (!pregeneration.next(column)) {
+				pregeneration.outstanding.decrementAndGet();
+				return;
+			}
+			final double distance = Math.sqrt(column[0] * column[0] + column[1] * column[1]);
+			executor.execute(new ColumnTask(PREGENERATION_PRIORITY + distance, pregeneration.world, null, pregeneration.centerX + column[0], pregeneration.centerZ + column[1], -1, pregeneration));
+		}
+	}
+
+	/**
+	 * Gets the pre-generation of a world which is running or last finished
+	 *
+	 * @param world the world
+	 * @return the pre-generation, or null if none was started
+	 */
+	public Pregeneration getPregeneration(SpoutWorld world) {
+		return pregenerations.get(world);
+	}
+
+	/**
+	 * Gets the priority of a column, which is the distance in chunks to the nearest player weighted by the direction that player is moving
+	 *
+	 * @param world the world
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return the priority, or {@link Double#MAX_VALUE} if there are no players in the world
+	 */
+	public static double getPriority(SpoutWorld world, int chunkX, int chunkZ) {
+		double best = Double.MAX_VALUE;
+		for (Player player : world.getPlayers()) {
+			final Point position = player.getPhysics().getPosition();
+			final double dx = chunkX + 0.5 - position.getX() / Chunk.BLOCKS.SIZE;
+			final double dz = chunkZ + 0.5 - position.getZ() / Chunk.BLOCKS.SIZE;
+			final double distance = Math.sqrt(dx * dx + dz * dz);
+			double priority = distance;
+			if (player.getNetwork() instanceof SpoutPlayerNetworkComponent) {
+				final Vector3f movement = ((SpoutPlayerNetworkComponent) player.getNetwork()).getMovement();
+				final double speed = Math.sqrt(movement.getX() * movement.getX() + movement.getZ() * movement.getZ());
+				if (speed > 0 && distance > 0) {
+					final double cos = (dx * movement.getX() + dz * movement.getZ()) / (distance * speed);
+					priority *= 1 - HEADING_WEIGHT * cos;
+				}
+			}
+			best = Math.min(best, priority);
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the distance in chunks from a column to the nearest player
+	 *
+	 * @param world the world
+	 * @param chunkX the x chunk coordinate of the column
+	 * @param chunkZ the z chunk coordinate of the column
+	 * @return the distance, or {@link Double#MAX_VALUE} if there are no players in the world
+	 */
+	public static double getNearestPlayerDistance(SpoutWorld world, int chunkX, int chunkZ) {
+		double best = Double.MAX_VALUE;
+		for (Player player : world.getPlayers()) {
+			final Point position = player.getPhysics().getPosition();
+			final double dx = chunkX + 0.5 - position.getX() / Chunk.BLOCKS.SIZE;
+			final double dz = chunkZ + 0.5 - position.getZ() / Chunk.BLOCKS.SIZE;
+			best = Math.min(best, Math.sqrt(dx * dx + dz * dz));
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the number of tasks waiting for a thread
+	 *
+	 * @return the number of tasks
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Gets the number of columns queued ahead of players
+	 *
+	 * @return the number of columns
+	 */
+	public long getSpeculated() {
+		return speculated.get();
+	}
+
+	/**
+	 * Gets the number of column tasks which ran the generator
+	 *
+	 * @return the number of columns
+	 */
+	public long getGenerated() {
+		return generated.get();
+	}
+
+	/**
+	 * Gets the number of column tasks dropped because players moved away or the pre-generation was cancelled
+	 *
+	 * @return the number of tasks
+	 */
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	private boolean queue(ColumnTask task) {
+		while (true) {
+			final ColumnTask current = queued.putIfAbsent(task.key, task);
+			if (current == null) {
+				executor.execute(task);
+				return true;
+			}
+			if (current.priority <= task.priority) {
+				return false;
+			}
+			// Move the column forward if it became more urgent
+			if (queued.replace(task.key, current, task)) {
+				executor.remove(current);
+				executor.execute(task);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gets the region holding the surface of a column
+	 */
+	private SpoutRegion getSurfaceRegion(SpoutWorld world, int chunkX, int chunkZ) {
+		final int[][] height = world.getGenerator().getSurfaceHeight(world, chunkX, chunkZ);
+		final int chunkY = height[7][7] >> Chunk.BLOCKS.BITS;
+		final SnapshotLock lock = Spout.getScheduler().getSnapshotLock();
+		lock.readLock(this);
+		try {
+			return world.getRegionFromChunk(chunkX, chunkY, chunkZ, LoadOption.LOAD_GEN);
+		} finally {
+			lock.readUnlock(this);
+		}
+	}
+
+	private abstract class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+		protected final double priority;
+		private final long order = sequence.getAndIncrement();
+
+		public PrioritizedTask(double priority) {
+			this.priority = priority;
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask other) {
+			final int c = Double.compare(priority, other.priority);
+			if (c != 0) {
+				return c;
+			}
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+	}
+
+	private class ColumnTask extends PrioritizedTask {
+		private final ColumnKey key;
+		private final SpoutWorld world;
+		private final SpoutRegion region;
+		private final int chunkX;
+		private final int chunkZ;
+		private final int cancelDistance;
+		private final Pregeneration pregeneration;
+
+		public ColumnTask(double priority, SpoutWorld world, SpoutRegion region, int chunkX, int chunkZ, int cancelDistance, Pregeneration pregeneration) {
+			super(priority);
+			this.key = new ColumnKey(world, chunkX, chunkZ);
+			this.world = world;
+			this.region = region;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.cancelDistance = cancelDistance;
+			this.pregeneration = pregeneration;
+		}
+
+		@Override
+		public void run() {
+			queued.remove(key, this);
+			try {
+				if (pregeneration != null && pregeneration.isCancelled()) {
+					cancelled.incrementAndGet();
+					return;
+				}
+				if (cancelDistance >= 0 && getNearestPlayerDistance(world, chunkX, chunkZ) > cancelDistance) {
+					cancelled.incrementAndGet();
+					return;
+				}
+				if (region != null) {
+					region.getRegionGenerator().generateColumn(chunkX, chunkZ, false, false);
+					generated.incrementAndGet();
+					return;
+				}
+				// Columns with a height map on disk have already been generated
+				if (world.getColumn(chunkX, chunkZ, LoadOption.LOAD_ONLY) != null) {
+					return;
+				}
+				final SpoutRegion surface = getSurfaceRegion(world, chunkX, chunkZ);
+				final RegionGenerator generator = surface == null ? null : surface.getRegionGenerator();
+				if (generator != null) {
+					generator.generateColumn(chunkX, chunkZ, false, pregeneration != null);
+					generated.incrementAndGet();
+				}
+			} finally {
+				if (pregeneration != null) {
+					pregeneration.outstanding.decrementAndGet();
+					pregeneration.completed();
+					feed(pregeneration);
+				}
+			}
+		}
+	}
+
+	private static class ColumnKey {
+		private final SpoutWorld world;
+		private final long key;
+
+		public ColumnKey(SpoutWorld world, int chunkX, int chunkZ) {
+			this.world = world;
+			this.key = IntPairHashed.key(chunkX, chunkZ);
+		}
+
+		@Override
+		public int hashCode() {
+			return world.hashCode() * 31 + (int) (key ^ key >>> 32);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ColumnKey)) {
+				return false;
+			}
+			final ColumnKey other = (ColumnKey) o;
+			return world == other.world && key == other.key;
+		}
+	}
+
+	/**
+	 * The progress of the generation of every column within a radius
+	 */
+	public static class Pregeneration {
+		private static final int REPORT_STEP = 10;
+		private final SpoutWorld world;
+		private final int centerX;
+		private final int centerZ;
+		private final int radius;
+		private final int total;
+		private final AtomicInteger completed = new AtomicInteger(0);
+		private final AtomicInteger outstanding = new AtomicInteger(0);
+		private final AtomicInteger reported = new AtomicInteger(0);
+		private final long start = System.currentTimeMillis();
+		private volatile boolean cancelled = false;
+		// The ring being queued, as pairs of offsets from the center
+		private int ring = 0;
+		private int[] ringColumns = new int[0];
+		private int ringIndex = 0;
+
+		private Pregeneration(SpoutWorld world, int centerX, int centerZ, int radius) {
+			this.world = world;
+			this.centerX = centerX;
+			this.centerZ = centerZ;
+			this.radius = radius;
+			int count = 0;
+			for (int x = -radius; x <= radius; x++) {
+				count += 2 * halfWidth(x) + 1;
+			}
+			this.total = count;
+		}
+
+		/**
+		 * Gets the largest z offset within the radius at an x offset
+		 */
+		private int halfWidth(int x) {
+			final int remaining = radius * radius - x * x;
+			int z = (int) Math.sqrt(remaining);
+			while (z * z > remaining) {
+				z--;
+			}
+			while ((z + 1) * (z + 1) <= remaining) {
+				z++;
+			}
+			return z;
+		}
+
+		/**
+		 * Gets the offsets of the next column to queue
+		 *
+		 * @param column the array to store the x and z offsets in
+		 * @return false if every column has been queued
+		 */
+		private synchronized boolean next(int[] column) {
+			while (ringIndex >= ringColumns.length) {
+				if (ring > radius) {
+					return false;
+				}
+				ringColumns = getRing(ring++);
+				ringIndex = 0;
+			}
+			column[0] = ringColumns[ringIndex++];
+			column[1] = ringColumns[ringIndex++];
+			return true;
+		}
+
+		/**
+		 * Gets the columns within the radius on the edge of the square of a half width
+		 */
+		private int[] getRing(int r) {
+			if (r == 0) {
+				return new int[] {0, 0};
+			}
+			final int radiusSquared = radius * radius;
+			final int[] columns = new int[16 * r];
+			int i = 0;
+			for (int x = -r; x <= r; x++) {
+				for (int z = -r; z <= r; z += x == -r || x == r ? 1 : 2 * r) {
+					if (x * x + z * z <= radiusSquared) {
+						columns[i++] = x;
+						columns[i++] = z;
+					}
+				}
+			}
+			return Arrays.copyOf(columns, i);
+		}
+
+		public SpoutWorld getWorld() {
+			return world;
+		}
+
+		public int getCenterX() {
+			return centerX;
+		}
+
+		public int getCenterZ() {
+			return centerZ;
+		}
+
+		public int getRadius() {
+			return radius;
+		}
+
+		/**
+		 * Gets the number of columns in the radius
+		 *
+		 * @return the number of columns
+		 */
+		public int getTotal() {
+			return total;
+		}
+
+		/**
+		 * Gets the number of columns which have been generated, loaded or skipped
+		 *
+		 * @return the number of columns
+		 */
+		public int getCompleted() {
+			return completed.get();
+		}
+
+		/**
+		 * Gets the fraction of the columns completed
+		 *
+		 * @return the progress, between 0 and 1
+		 */
+		public float getProgress() {
+			return total == 0 ? 1 : (float) completed.get() / total;
+		}
+
+		public boolean isDone() {
+			return completed.get() >= total;
+		}
+
+		/**
+		 * Stops generating the columns which have not been started yet
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		private void completed() {
+			final int done = completed.incrementAndGet();
+			final int percent = (int) (100L * done / total);
+			final int step = percent / REPORT_STEP * REPORT_STEP;
+			int last = reported.get();
+			while (step > last) {
+				if (reported.compareAndSet(last, step)) {
+					if (!cancelled) {
+						Spout.getLogger().info("Pre-generation of " + world.getName() + " " + step + "% complete (" + done + "/" + total + " columns, " + (System.currentTimeMillis() - start) / 1000 + "s)");
+					}
+					break;
+				}
+				last = reported.get();
+			}
+		}
+	}
+}
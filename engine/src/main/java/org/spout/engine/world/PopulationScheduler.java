@@ -0,0 +1,267 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.spout.api.Spout;
+import org.spout.api.generator.Populator;
+import org.spout.api.scheduler.Scheduler;
+import org.spout.engine.util.thread.threadfactory.NamedThreadFactory;
+
+/**
+ * Populates the chunks of a region on a shared pool of threads.<br> <br> Populating a chunk may change the blocks of every chunk around it, so chunks are split into waves in which
+ * no two chunks have overlapping neighbourhoods. A chunk's neighbourhood is 3x3x3 chunks, or 5x5x5 when a populator needs clearance, since clearance populates the chunks around
+ * it as well. The chunks of a wave are populated concurrently, and the region thread waits for each wave to finish, so population stays within the region's tick stage as it did
+ * when it ran on the region thread.<br> <br> Populators, including those of plugins, therefore run on the population threads and not on the region thread. This only happens
+ * when every populator of the world's generator is {@link Populator#isThreadSafe() thread safe}. Otherwise the chunks are populated one at a time on the region thread.<br> <br>
+ * The number of chunks taken each tick adapts to the time left in the tick: it grows while population finishes well within the tick and halves when the server is overloaded.<br>
+ * <br> Chunks deferred because a populator was over its budget are populated the same way, see {@link DeferredPopulationQueue}.
+ */
+public class PopulationScheduler {
+	private static final ThreadPoolExecutor executor;
+	/**
+	 * The number of chunks populated during the first tick
+	 */
+	public static final int INITIAL_BUDGET = 20;
+	public static final int MIN_BUDGET = 4;
+	public static final int MAX_BUDGET = 256;
+	/**
+	 * The distance in chunks along every axis up to which the neighbourhoods of two chunks overlap
+	 */
+	protected static final int CONFLICT_DISTANCE = 2;
+	/**
+	 * The conflict distance when a populator needs clearance, which populates the chunks next to the chunk
+	 */
+	protected static final int CLEARANCE_CONFLICT_DISTANCE = 4;
+	/**
+	 * The weight of the latest tick in the average time per chunk
+	 */
+	private static final double SMOOTHING = 0.25;
+	private final Scheduler scheduler;
+	private int budget = INITIAL_BUDGET;
+	private double nanosPerChunk = 0;
+
+	static {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("Population Thread", true));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public PopulationScheduler(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Gets the number of chunks to populate during this tick
+	 *
+	 * @return the number of chunks
+	 */
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Populates the chunks, a wave at a time.  If the server becomes overloaded, the chunks of the remaining waves are queued for population again.  The budget for the next tick
+	 * is adjusted to the time taken.
+	 *
+	 * @param chunks the chunks of a world, all surrounded by loaded chunks
+	 * @return the number of chunks populated
+	 */
+	public int populate(List<SpoutChunk> chunks) {
+		return populate(chunks, false);
+	}
+
+	/**
+	 * Populates chunks taken from the {@link DeferredPopulationQueue}, however long their populators take.  The chunks are all populated, even if the server becomes overloaded.
+	 *
+	 * @param chunks the chunks of a world, all surrounded by loaded chunks
+	 * @return the number of chunks populated
+	 */
+	public int populateDeferred(List<SpoutChunk> chunks) {
+		return populate(chunks, true);
+	}
+
+	private int populate(List<SpoutChunk> chunks, boolean deferred) {
+		if (chunks.isEmpty()) {
+			return 0;
+		}
+		final long start = System.nanoTime();
+		final Populator[] populators = chunks.get(0).getWorld().getGenerator().getPopulators();
+		final List<List<SpoutChunk>> waves;
+		if (isThreadSafe(populators)) {
+			waves = getWaves(chunks, getConflictDistance(populators));
+		} else {
+			waves = new ArrayList<>(chunks.size());
+			for (SpoutChunk chunk : chunks) {
+				waves.add(Collections.singletonList(chunk));
+			}
+		}
+		int populated = 0;
+		int attempted = 0;
+		for (int i = 0; i < waves.size(); i++) {
+			final List<SpoutChunk> wave = waves.get(i);
+			if (i > 0 && !deferred && scheduler.isServerOverloaded()) {
+				for (; i < waves.size(); i++) {
+					for (SpoutChunk chunk : waves.get(i)) {
+						chunk.queueForPopulation(false);
+					}
+				}
+				break;
+			}
+			populated += populateWave(wave, deferred);
+			attempted += wave.size();
+		}
+		adjustBudget(System.nanoTime() - start, attempted);
+		return populated;
+	}
+
+	/**
+	 * Checks if all the populators may run on several chunks at the same time
+	 */
+	protected static boolean isThreadSafe(Populator[] populators) {
+		for (Populator populator : populators) {
+			if (!populator.isThreadSafe()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the distance up to which the neighbourhoods populated by the populators overlap
+	 */
+	protected static int getConflictDistance(Populator[] populators) {
+		for (Populator populator : populators) {
+			if (populator.needsClearance()) {
+				return CLEARANCE_CONFLICT_DISTANCE;
+			}
+		}
+		return CONFLICT_DISTANCE;
+	}
+
+	/**
+	 * Splits the chunks into waves in which no two chunks have overlapping neighbourhoods, keeping the queue order as far as possible
+	 *
+	 * @param chunks the chunks
+	 * @param distance the distance along every axis up to which two chunks conflict
+	 * @return the waves
+	 */
+	protected static List<List<SpoutChunk>> getWaves(List<SpoutChunk> chunks, int distance) {
+		final List<List<SpoutChunk>> waves = new ArrayList<>();
+		for (SpoutChunk chunk : chunks) {
+			List<SpoutChunk> target = null;
+			for (List<SpoutChunk> wave : waves) {
+				if (!conflicts(wave, chunk.getX(), chunk.getY(), chunk.getZ(), distance)) {
+					target = wave;
+					break;
+				}
+			}
+			if (target == null) {
+				target = new ArrayList<>();
+				waves.add(target);
+			}
+			target.add(chunk);
+		}
+		return waves;
+	}
+
+	/**
+	 * Checks if the neighbourhood of a chunk overlaps the neighbourhood of any chunk of a wave
+	 */
+	protected static boolean conflicts(List<SpoutChunk> wave, int x, int y, int z, int distance) {
+		for (SpoutChunk other : wave) {
+			if (Math.abs(other.getX() - x) <= distance && Math.abs(other.getY() - y) <= distance && Math.abs(other.getZ() - z) <= distance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int populateWave(List<SpoutChunk> wave, final boolean deferred) {
+		if (wave.size() == 1) {
+			return populate(wave.get(0), deferred) ? 1 : 0;
+		}
+		final List<Callable<Boolean>> tasks = new ArrayList<>(wave.size());
+		for (final SpoutChunk chunk : wave) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return populate(chunk, deferred);
+				}
+			});
+		}
+		int populated = 0;
+		boolean interrupted = false;
+		try {
+			for (Future<Boolean> result : executor.invokeAll(tasks)) {
+				try {
+					if (result.get()) {
+						populated++;
+					}
+				} catch (ExecutionException e) {
+					Spout.getLogger().log(Level.SEVERE, "Exception while populating chunk", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return populated;
+	}
+
+	private static boolean populate(SpoutChunk chunk, boolean deferred) {
+		return deferred ? chunk.populateDeferred() : chunk.populate();
+	}
+
+	private void adjustBudget(long nanos, int chunks) {
+		if (chunks == 0) {
+			return;
+		}
+		final double perChunk = (double) nanos / chunks;
+		nanosPerChunk = nanosPerChunk == 0 ? perChunk : nanosPerChunk * (1 - SMOOTHING) + perChunk * SMOOTHING;
+		final long remaining = scheduler.getRemainingTickTime();
+		if (remaining <= 0 || scheduler.isServerOverloaded()) {
+			budget = Math.max(MIN_BUDGET, budget >> 1);
+			return;
+		}
+		// Use half of the time left, other regions share the tick
+		final long fit = (long) (TimeUnit.MILLISECONDS.toNanos(remaining) / 2 / nanosPerChunk);
+		budget = (int) Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, Math.min((long) budget << 1, fit)));
+	}
+}
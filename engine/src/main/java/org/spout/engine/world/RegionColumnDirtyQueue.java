@@ -24,47 +24,36 @@
  * License and see <http://spout.in/licensev1> for the full license, including
  * the MIT license.
  */
-package org.spout.engine.protocol;
+package org.spout.engine.world;
 
-import org.spout.api.Spout;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class NetworkSendThreadPool {
-	private static final int POOL_MASK = 0xF;
-	private static final NetworkSendThread[] pool;
+import org.spout.api.util.list.concurrent.setqueue.SetQueue;
 
-	static {
-		pool = new NetworkSendThread[POOL_MASK + 1];
-		for (int i = 0; i < pool.length; i++) {
-			pool[i] = new NetworkSendThread(i);
-		}
-	}
+/**
+ * The queue of dirty height map columns for a column of regions.<br> <br> The regions of the column register with the queue and are marked for lighting whenever a column is added to it.
+ */
+public class RegionColumnDirtyQueue extends SetQueue<SpoutColumn> {
+	private final Set<SpoutRegion> regions = Collections.newSetFromMap(new ConcurrentHashMap<SpoutRegion, Boolean>());
 
-	public static NetworkSendThread getNetworkThread(int playerId) {
-		return pool[hash(playerId) & POOL_MASK];
+	public RegionColumnDirtyQueue(int capacity) {
+		super(capacity);
 	}
 
-	public static void interrupt() {
-		for (int i = 0; i < pool.length; i++) {
-			pool[i].interrupt();
-		}
+	public void addRegion(SpoutRegion region) {
+		regions.add(region);
 	}
 
-	public static void shutdown() {
-		for (int i = 0; i < pool.length; i++) {
-			pool[i].interrupt();
-		}
-		for (int i = 0; i < pool.length; i++) {
-			try {
-				pool[i].interruptAndJoin();
-			} catch (InterruptedException e) {
-				Spout.getLogger().info("Thread interrupted when waiting for NetworkSendPool to shutdown");
-			}
-		}
+	public void removeRegion(SpoutRegion region) {
+		regions.remove(region);
 	}
 
-	// Taken from HashMap
-	private static int hash(int h) {
-		h ^= (h >>> 20) ^ (h >>> 12);
-		return h ^ (h >>> 7) ^ (h >>> 4);
+	@Override
+	protected void onAdd() {
+		for (SpoutRegion r : regions) {
+			r.markLighting();
+		}
 	}
 }
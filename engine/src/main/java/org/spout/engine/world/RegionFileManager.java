@@ -27,13 +27,20 @@
 package org.spout.engine.world;
 
 import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 
 import org.spout.api.Spout;
 import org.spout.api.geo.cuboid.ChunkSnapshot;
 import org.spout.api.geo.cuboid.Region;
+import org.spout.api.io.bytearrayarray.BAACache;
 import org.spout.api.io.bytearrayarray.BAAWrapper;
+import org.spout.api.io.compression.CompressionCodec;
+import org.spout.api.io.compression.CompressionCodecs;
+import org.spout.api.io.regionfile.SRFJournal;
 
 public class RegionFileManager {
 	/**
@@ -41,12 +48,25 @@ public class RegionFileManager {
 	 */
 	private final int SEGMENT_SIZE = 8;
 	/**
-	 * The timeout for the chunk storage in ms. If the store isn't accessed within that time, it can be automatically shutdown
+	 * The timeout for the chunk storage in ms.  Region files are not closed when they time out, the number of open files is limited by the {@link BAACache}
 	 */
 	public static final int TIMEOUT = 30000;
+	/**
+	 * The length of the journal in bytes at which the region files are forced to disk and the journal is emptied
+	 */
+	public static final long JOURNAL_CHECKPOINT_LENGTH = 64L << 20;
+	private static final String JOURNAL_FILENAME = "journal.dat";
 	private final File regionDirectory;
 	private final ConcurrentHashMap<String, BAAWrapper> cache = new ConcurrentHashMap<>();
-	private final TimeoutThread timeoutThread;
+	/**
+	 * The codec used to compress chunks, blocks are always read back with the codec they were written with
+	 */
+	private volatile CompressionCodec codec = CompressionCodecs.DEFLATE;
+	/**
+	 * The journal that chunk writes are appended to, or null if chunks are written directly to the region files
+	 */
+	private volatile SRFJournal journal = null;
+	private final ChunkPrefetcher prefetcher = new ChunkPrefetcher(this);
 
 	public RegionFileManager(File worldDirectory) {
 		this(worldDirectory, "region");
@@ -55,8 +75,7 @@ public class RegionFileManager {
 	public RegionFileManager(File worldDirectory, String prefix) {
 		this.regionDirectory = new File(worldDirectory, prefix);
 		this.regionDirectory.mkdirs();
-		this.timeoutThread = new TimeoutThread(worldDirectory);
-		this.timeoutThread.start();
+		replayJournal();
 	}
 
 	public BAAWrapper getBAAWrapper(int rx, int ry, int rz) {
@@ -66,7 +85,7 @@ public class RegionFileManager {
 			return regionFile;
 		}
 		File file = new File(regionDirectory, filename);
-		regionFile = new BAAWrapper(file, SEGMENT_SIZE, SpoutRegion.CHUNKS.VOLUME, TIMEOUT);
+		regionFile = new BAAWrapper(file, SEGMENT_SIZE, SpoutRegion.CHUNKS.VOLUME, TIMEOUT, codec, journal);
 		BAAWrapper oldRegionFile = cache.putIfAbsent(filename, regionFile);
 		if (oldRegionFile != null) {
 			return oldRegionFile;
@@ -81,72 +100,143 @@ public class RegionFileManager {
 	 * @return the DataOutputStream
 	 */
 	public OutputStream getChunkOutputStream(ChunkSnapshot c) {
-		int rx = c.getX() >> Region.CHUNKS.BITS;
-		int ry = c.getY() >> Region.CHUNKS.BITS;
-		int rz = c.getZ() >> Region.CHUNKS.BITS;
-		return getBAAWrapper(rx, ry, rz).getBlockOutputStream(SpoutRegion.getChunkKey(c.getX(), c.getY(), c.getZ()));
+		final int x = c.getX();
+		final int y = c.getY();
+		final int z = c.getZ();
+		int rx = x >> Region.CHUNKS.BITS;
+		int ry = y >> Region.CHUNKS.BITS;
+		int rz = z >> Region.CHUNKS.BITS;
+		prefetcher.invalidate(x, y, z);
+		OutputStream blockOut = getBAAWrapper(rx, ry, rz).getBlockOutputStream(SpoutRegion.getChunkKey(x, y, z));
+		if (blockOut == null) {
+			return null;
+		}
+		// Reads started while the chunk was written are discarded when the stream is closed
+		return new FilterOutputStream(blockOut) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					prefetcher.invalidate(x, y, z);
+				}
+			}
+		};
 	}
 
-	public void stopTimeoutThread() {
-		timeoutThread.interrupt();
+	/**
+	 * Gets the prefetcher that reads chunks of this world ahead of the regions loading them
+	 *
+	 * @return the prefetcher
+	 */
+	public ChunkPrefetcher getPrefetcher() {
+		return prefetcher;
 	}
 
-	public void closeAll() {
-		timeoutThread.interrupt();
+	public CompressionCodec getCompressionCodec() {
+		return codec;
+	}
+
+	/**
+	 * Sets the codec used to compress chunks.<br> <br> This only applies to region files opened after the call, so it should be set before any chunks of the world are accessed.
+	 *
+	 * @param codec the codec
+	 */
+	public void setCompressionCodec(CompressionCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Enables the journal.  Chunk writes are appended to the journal, which is only forced to disk by {@link #syncJournal()}, and the region files are only forced when the journal
+	 * is checkpointed.<br> <br> This only applies to region files opened after the call, so it should be called before any chunks of the world are accessed.
+	 */
+	public void enableJournal() {
+		if (journal != null) {
+			return;
+		}
+		File journalFile = new File(regionDirectory, JOURNAL_FILENAME);
+		if (journalFile.exists()) {
+			Spout.getLogger().severe("The journal in " + regionDirectory + " was not replayed, chunks will be written directly to the region files");
+			return;
+		}
+		try {
+			journal = new SRFJournal(journalFile, JOURNAL_CHECKPOINT_LENGTH);
+		} catch (IOException e) {
+			Spout.getLogger().log(Level.SEVERE, "Unable to create journal in " + regionDirectory + ", chunks will be written directly to the region files", e);
+		}
+	}
+
+	public SRFJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Forces the chunks written since the last call to disk, if the journal is enabled.  Chunks written by several threads are forced together.
+	 */
+	public void syncJournal() {
+		SRFJournal journal = this.journal;
+		if (journal == null) {
+			return;
+		}
 		try {
-			timeoutThread.join();
-		} catch (InterruptedException ie) {
-			Spout.getLogger().info("Interrupted when trying to stop RegionFileManager timeout thread");
+			journal.sync();
+		} catch (IOException e) {
+			Spout.getLogger().log(Level.SEVERE, "Unable to sync journal in " + regionDirectory, e);
+		}
+	}
+
+	/**
+	 * Writes the chunks in a journal left by a crash back to the region files
+	 */
+	private void replayJournal() {
+		File journalFile = new File(regionDirectory, JOURNAL_FILENAME);
+		if (!journalFile.exists()) {
+			return;
+		}
+		try {
+			int replayed = SRFJournal.replay(journalFile, regionDirectory, SEGMENT_SIZE, SpoutRegion.CHUNKS.VOLUME);
+			if (replayed > 0) {
+				Spout.getLogger().info("Replayed " + replayed + " chunks from the journal in " + regionDirectory);
+			}
+			if (!journalFile.delete()) {
+				Spout.getLogger().warning("Unable to delete journal " + journalFile);
+			}
+		} catch (IOException e) {
+			Spout.getLogger().log(Level.SEVERE, "Unable to replay journal " + journalFile + ", it will be replayed again on the next start", e);
 		}
+	}
+
+	public void closeAll() {
+		prefetcher.close();
 		for (BAAWrapper regionFile : cache.values()) {
 			if (!regionFile.attemptClose()) {
 				Spout.getLogger().info("Unable to close region file " + regionFile.getFilename());
 			}
 		}
+		// Region files that could not be closed are still forced by the checkpoint
+		SRFJournal journal = this.journal;
+		if (journal != null) {
+			// Region files opened from now on write directly, those still holding the journal do so once it is closed
+			this.journal = null;
+			try {
+				journal.checkpoint();
+			} catch (IOException e) {
+				Spout.getLogger().log(Level.SEVERE, "Unable to checkpoint journal in " + regionDirectory, e);
+			}
+			try {
+				journal.close();
+			} catch (IOException e) {
+				Spout.getLogger().log(Level.SEVERE, "Unable to close journal in " + regionDirectory, e);
+			}
+		}
 	}
 
 	private static String getFilename(int rx, int ry, int rz) {
 		return "reg" + rx + "_" + ry + "_" + rz + ".spr";
 	}
-
-	private class TimeoutThread extends Thread {
-		public TimeoutThread(File worldDirectory) {
-			super("Region File Manager Timeout Thread - " + worldDirectory.getPath());
-			setDaemon(true);
-		}
-
-		@Override
-		public void run() {
-			while (!isInterrupted()) {
-				int files = cache.size();
-				if (files <= 0) {
-					try {
-						Thread.sleep(TIMEOUT >> 1);
-					} catch (InterruptedException ie) {
-						return;
-					}
-					continue;
-				}
-				int cnt = 0;
-				long start = System.currentTimeMillis();
-				for (BAAWrapper regionFile : cache.values()) {
-					regionFile.timeoutCheck();
-					cnt++;
-					long currentTime = System.currentTimeMillis();
-					long expiredTime = currentTime - start;
-					long idealTime = (cnt * ((long) TIMEOUT)) / files / 2;
-					long excessTime = idealTime - expiredTime;
-					if (excessTime > 0) {
-						try {
-							Thread.sleep(excessTime);
-						} catch (InterruptedException ie) {
-							return;
-						}
-					} else if (isInterrupted()) {
-						return;
-					}
-				}
-			}
-		}
-	}
 }
@@ -26,8 +26,6 @@
  */
 package org.spout.engine.world;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -50,15 +48,9 @@ import org.spout.api.util.cuboid.CuboidBlockMaterialBuffer;
 import org.spout.api.util.cuboid.CuboidLightBuffer;
 import org.spout.api.util.map.concurrent.AtomicBlockStore;
 import org.spout.api.util.map.concurrent.palette.AtomicPaletteBlockStore;
-import org.spout.engine.util.thread.threadfactory.NamedThreadFactory;
 import org.spout.math.GenericMath;
 
 public class RegionGenerator implements Named {
-	private final static ExecutorService pool =
-			Executors.newFixedThreadPool(
-					Runtime.getRuntime().availableProcessors() * 2 + 1,
-					new NamedThreadFactory("RegionGenerator - async pool",
-							true));
 	private final SpoutRegion region;
 	private final SpoutWorld world;
 	private final Lock[][] columnLocks;
@@ -311,7 +303,7 @@ public class RegionGenerator implements Named {
 	}
 
 	public static void shutdownExecutorService() {
-		pool.shutdown();
+		GenerationScheduler.getInstance().shutdown();
 	}
 
 	public static void awaitExecutorServiceTermination() {
@@ -320,7 +312,7 @@ public class RegionGenerator implements Named {
 			boolean done = false;
 			while (!done) {
 				try {
-					if (pool.awaitTermination(10, TimeUnit.SECONDS)) {
+					if (GenerationScheduler.getInstance().awaitTermination(10, TimeUnit.SECONDS)) {
 						done = true;
 						break;
 					}
@@ -372,7 +364,7 @@ public class RegionGenerator implements Named {
 				} else {
 					final BlockFace finalFace = face;
 
-					pool.submit(new Runnable() {
+					GenerationScheduler.getInstance().execute(new Runnable() {
 						@Override
 						public void run() {
 							SnapshotLock lock = Spout.getScheduler().getSnapshotLock();
@@ -384,7 +376,7 @@ public class RegionGenerator implements Named {
 								lock.readUnlock(RegionGenerator.this);
 							}
 						}
-					}, true);
+					}, GenerationScheduler.getPriority(world, cx + ox, cz + oz));
 				}
 			} else {
 				touchChunk(ox, y, oz);
@@ -403,12 +395,7 @@ public class RegionGenerator implements Named {
 		}
 
 		if (!region.inputStreamExists(x, y, z)) {
-			pool.submit(new Runnable() {
-				@Override
-				public void run() {
-					generateColumn(x & mask, z & mask, false, false);
-				}
-			}, true);
+			GenerationScheduler.getInstance().generate(region, cx + (x & mask), cz + (z & mask));
 		}
 	}
 
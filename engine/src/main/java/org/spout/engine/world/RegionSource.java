@@ -86,6 +86,7 @@ public class RegionSource implements Iterable<Region> {
 							if (!world.getEngine().getScheduler().removeAsyncManager(r)) {
 								throw new IllegalStateException("Failed to de-register the region from the scheduler");
 							}
+							r.removeFromActiveQueues();
 							TaskManager tm = Spout.getEngine().getParallelTaskManager();
 							SpoutParallelTaskManager ptm = (SpoutParallelTaskManager) tm;
 							ptm.unRegisterRegion(r);
@@ -101,6 +102,10 @@ public class RegionSource implements Iterable<Region> {
 							Spout.getEventManager().callDelayedEvent(new RegionUnloadEvent(world, r));
 
 							r.unlinkNeighbours();
+
+							// Entities left behind in the region must not be found by searches
+							world.getEntityGrid().remove(r.getEntityManager().getAll());
+							world.getPlayerGrid().remove(r.getEntityManager().getAll());
 						} else {
 							Spout.getLogger().info("Tried to remove region " + r + " but region removal failed");
 						}
@@ -26,13 +26,9 @@
  */
 package org.spout.engine.world;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
 import java.lang.ref.WeakReference;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -113,6 +109,8 @@ import org.spout.api.util.map.concurrent.palette.AtomicPaletteBlockStore;
 import org.spout.engine.SpoutConfiguration;
 import org.spout.engine.entity.SpoutEntity;
 import org.spout.engine.entity.SpoutPlayer;
+import org.spout.engine.profiler.SpoutPopulatorProfiler;
+import org.spout.engine.protocol.builtin.message.ChunkDataMessage;
 import org.spout.engine.scheduler.SpoutScheduler;
 import org.spout.engine.util.thread.snapshotable.Snapshotable;
 import org.spout.engine.world.physics.PhysicsQueue;
@@ -126,6 +124,10 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 	private final int autosaveInterval = SpoutConfiguration.AUTOSAVE_INTERVAL.getInt(60000);
 	private final Set<SpoutEntity> observers = Sets.newSetFromMap(new ConcurrentHashMap<SpoutEntity, Boolean>());
 	private final Set<SpoutEntity> unmodifiableObservers = Collections.unmodifiableSet(observers);
+	/**
+	 * Incremented whenever an observer is refreshed or removed
+	 */
+	private final AtomicInteger observerVersion = new AtomicInteger();
 	private final Set<SpoutPlayer> observingPlayers = Sets.newSetFromMap(new ConcurrentHashMap<SpoutPlayer, Boolean>());
 	private final Set<SpoutPlayer> unmodifiableObservingPlayers = Collections.unmodifiableSet(observingPlayers);
 	/**
@@ -192,6 +194,14 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 	 */
 	private final AtomicBoolean chunkModified = new AtomicBoolean(false);
 	private final AtomicBoolean entitiesModified = new AtomicBoolean(false);
+	/**
+	 * Incremented on every block or light change, used to detect a stale cached network message
+	 */
+	private final AtomicInteger modificationSequence = new AtomicInteger(0);
+	/**
+	 * The chunk data message last sent for this chunk, shared between all players that are sent the chunk
+	 */
+	private final AtomicReference<CachedChunkMessage> networkMessage = new AtomicReference<>();
 	/**
 	 * A WeakReference to this chunk
 	 */
@@ -339,7 +349,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		short dataMask = material.getDataMask();
 		data = (short) ((data & ~dataMask) | (material.getData() & dataMask));
 
-		if (event) {
+		if (event && BlockChangeEvent.getHandlerList().hasListeners()) {
 			// TODO - move to block change method?
 			Block block = getBlock(x, y, z);
 			BlockChangeEvent blockEvent = new BlockChangeEvent(block, new BlockSnapshot(block, material, data), cause);
@@ -685,7 +695,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		if (this.chunkModified.get() || entitiesModified.get() || this.hasEntities()) {
 			chunkModified.set(false);
 			entitiesModified.set(false);
-			WorldSavingThread.saveChunk(this);
+			WorldSavingPipeline.saveChunk(this);
 		} else {
 			saveComplete();
 		}
@@ -753,6 +763,12 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		checkChunkLoaded();
 		short[] blockIds = null, blockData = null;
 		CuboidLightBuffer[] lightBuffersCopy = null;
+		if (palette) {
+			if (type == SnapshotType.LIGHT_ONLY || type == SnapshotType.BOTH) {
+				lightBuffersCopy = copyLightBuffers();
+			}
+			return new SpoutChunkSnapshot(this, blockStore.getPalette(), blockStore.getPackedWidth(), blockStore.getPackedArray(), lightBuffersCopy, entities, data);
+		}
 		switch (type) {
 			case NO_BLOCK_DATA:
 				break;
@@ -773,11 +789,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 				break;
 		}
 
-		if (palette) {
-			return new SpoutChunkSnapshot(this, blockStore.getPalette(), blockStore.getPackedWidth(), blockStore.getPackedArray(), lightBuffersCopy, entities, data);
-		} else {
-			return new SpoutChunkSnapshot(this, blockIds, blockData, lightBuffersCopy, entities, data);
-		}
+		return new SpoutChunkSnapshot(this, blockIds, blockData, lightBuffersCopy, entities, data);
 	}
 
 	@Override
@@ -803,6 +815,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		if (!isPopulated()) {
 			queueForPopulation(false);
 		}
+		observerVersion.incrementAndGet();
 		boolean wasEmpty = observers.isEmpty();
 		if (observers.add((SpoutEntity) entity) && (entity instanceof SpoutPlayer)) {
 			observingPlayers.add((SpoutPlayer) entity);
@@ -825,6 +838,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		TickStage.checkStage(TickStage.FINALIZE);
 		checkChunkLoaded();
 
+		observerVersion.incrementAndGet();
 		if (observers.remove(entity) && (entity instanceof SpoutPlayer)) {
 			observingPlayers.remove(entity);
 		}
@@ -856,6 +870,15 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		return unmodifiableObservers;
 	}
 
+	/**
+	 * Gets a counter which changes whenever an observer of the chunk is refreshed or removed
+	 *
+	 * @return the observer version
+	 */
+	public int getObserverVersion() {
+		return observerVersion.get();
+	}
+
 	/**
 	 * Gets observers that have expired during the most recent tick
 	 *
@@ -978,6 +1001,10 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		//Clear as much as possible to limit the damage of a potential leak
 		this.blockStore = null;
 		this.dataMap.clear();
+		CachedChunkMessage cached = networkMessage.getAndSet(null);
+		if (cached != null) {
+			cached.message.releaseSharedPayload();
+		}
 		if (!oldState.isUnloaded()) {
 			deregisterFromColumn(saveColumn);
 		}
@@ -1239,6 +1266,29 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 
 	@Override
 	public boolean populate(boolean force) {
+		// Forced population runs regardless of the populators' budgets
+		return populateChunk(force, !force);
+	}
+
+	/**
+	 * Populates a chunk whose population was deferred, however long its populators take
+	 *
+	 * @return true if the chunk was populated
+	 */
+	protected boolean populateDeferred() {
+		return populateChunk(true, false);
+	}
+
+	/**
+	 * Populates the chunk.<br> <br> If deferral is allowed and any populator is over its time budget, nothing is populated and the chunk is queued on its region until there is
+	 * tick time to spare, or for at most {@link DeferredPopulationQueue#MAX_DEFERRAL}. The chunk keeps its population state until then, so it is saved and loaded as unpopulated, and its populators still run together, in order, with the
+	 * chunk's random.
+	 *
+	 * @param force true to populate the chunk even if it isn't observed or is already populated
+	 * @param allowDefer true to defer the population of a chunk with a populator over its budget
+	 * @return true if the chunk was populated
+	 */
+	private boolean populateChunk(boolean force, boolean allowDefer) {
 		if (!isObserved() && !force && !popObserver.get()) {
 			return false;
 		}
@@ -1249,9 +1299,20 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 			return false;
 		}
 
+		final Populator[] allPopulators = getWorld().getGenerator().getPopulators();
+		final SpoutPopulatorProfiler profiler = SpoutPopulatorProfiler.getInstance();
+		if (allowDefer) {
+			for (Populator pop : allPopulators) {
+				if (profiler.shouldDefer(pop)) {
+					parentRegion.deferPopulation(this);
+					return false;
+				}
+			}
+		}
+
 		final List<Populator> clearPopulators = new ArrayList<>();
 		final List<Populator> populators = new ArrayList<>();
-		for (Populator pop : getWorld().getGenerator().getPopulators()) {
+		for (Populator pop : allPopulators) {
 			if (pop.needsClearance()) {
 				clearPopulators.add(pop);
 			} else {
@@ -1298,10 +1359,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		final Random random = new Random(WorldGeneratorUtils.getSeed(getWorld(), x, y, z, 42));
 		for (Populator populator : populators) {
 			try {
-				long time = -bean.getCurrentThreadCpuTime();
-				populator.populate(this, random);
-				time += bean.getCurrentThreadCpuTime();
-				populatorAdd(populator, time);
+				profiler.populate(populator, this, random);
 			} catch (Exception e) {
 				Spout.getEngine().getLogger().log(Level.SEVERE, "Could not populate Chunk with " + populator.toString());
 				e.printStackTrace();
@@ -1320,58 +1378,15 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 
 	public void populate(Populator populator) {
 		try {
-			long time = -bean.getCurrentThreadCpuTime();
-			populator.populate(this, new Random(WorldGeneratorUtils.getSeed(getWorld(), getX(), getY(), getZ(), 42)));
-			time += bean.getCurrentThreadCpuTime();
-			populatorAdd(populator, time);
+			SpoutPopulatorProfiler.getInstance().populate(populator, this, new Random(WorldGeneratorUtils.getSeed(getWorld(), getX(), getY(), getZ(), 42)));
 		} catch (Exception e) {
 			Spout.getEngine().getLogger().log(Level.SEVERE, "Could not populate Chunk with " + populator.toString());
 			e.printStackTrace();
 		}
 	}
 
-	private final static ConcurrentHashMap<Class<? extends Populator>, AtomicLong> populatorProfilerMap = new ConcurrentHashMap<>();
-	private final static ThreadMXBean bean = ManagementFactory.getThreadMXBean();
 	private final static AtomicInteger populated = new AtomicInteger();
 
-	private void populatorAdd(Populator populator, long delta) {
-		AtomicLong i = populatorProfilerMap.get(populator.getClass());
-		if (i == null) {
-			i = new AtomicLong();
-			AtomicLong oldCounter = populatorProfilerMap.putIfAbsent(populator.getClass(), i);
-			if (oldCounter != null) {
-				i = oldCounter;
-			}
-		}
-		i.addAndGet(delta);
-	}
-
-	private final static Comparator<Entry<Class<? extends Populator>, Long>> comp = new Comparator<Entry<Class<? extends Populator>, Long>>() {
-		@Override
-		public int compare(Entry<Class<? extends Populator>, Long> o1, Entry<Class<? extends Populator>, Long> o2) {
-			if (o1.getValue() > o2.getValue()) {
-				return 1;
-			} else if (o1.getValue() < o2.getValue()) {
-				return -1;
-			} else {
-				return 0;
-			}
-		}
-	};
-
-	public static List<Entry<Class<? extends Populator>, Long>> getProfileResults() {
-
-		List<Entry<Class<? extends Populator>, Long>> list = new ArrayList<>(populatorProfilerMap.size());
-
-		for (Entry<Class<? extends Populator>, AtomicLong> e : populatorProfilerMap.entrySet()) {
-			list.add(new AbstractMap.SimpleEntry<Class<? extends Populator>, Long>(e.getKey(), e.getValue().get()));
-		}
-
-		Collections.sort(list, comp);
-
-		return list;
-	}
-
 	public static int getChunksPopulated() {
 		return populated.get();
 	}
@@ -1697,15 +1712,18 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 			BlockMaterial bm = BlockMaterial.get(state);
 			newId = bm.getId();
 
-			Block block = getBlock(bx, by, bz);
-			BlockChangeEvent blockEvent = new BlockChangeEvent(block, new BlockSnapshot(block, bm, newData), cause);
-			Spout.getEngine().getEventManager().callEvent(blockEvent);
-			if (!blockEvent.isCancelled()) {
+			if (BlockChangeEvent.getHandlerList().hasListeners()) {
+				Block block = getBlock(bx, by, bz);
+				BlockChangeEvent blockEvent = new BlockChangeEvent(block, new BlockSnapshot(block, bm, newData), cause);
+				Spout.getEngine().getEventManager().callEvent(blockEvent);
+				if (blockEvent.isCancelled()) {
+					continue;
+				}
 				newId = blockEvent.getSnapshot().getMaterial().getId();
 				newData = blockEvent.getSnapshot().getData();
-				success = blockStore.compareAndSetBlock(bx, by, bz, oldId, oldData, newId, newData);
-				updated = oldData != newData || oldId != newId;
 			}
+			success = blockStore.compareAndSetBlock(bx, by, bz, oldId, oldData, newId, newData);
+			updated = oldData != newData || oldId != newId;
 		}
 
 		if (updated) {
@@ -1742,15 +1760,18 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 			BlockMaterial bm = BlockMaterial.get(state);
 			newId = bm.getId();
 
-			Block block = getBlock(bx, by, bz);
-			BlockChangeEvent blockEvent = new BlockChangeEvent(block, new BlockSnapshot(block, bm, newData), cause);
-			Spout.getEngine().getEventManager().callEvent(blockEvent);
-			if (!blockEvent.isCancelled()) {
+			if (BlockChangeEvent.getHandlerList().hasListeners()) {
+				Block block = getBlock(bx, by, bz);
+				BlockChangeEvent blockEvent = new BlockChangeEvent(block, new BlockSnapshot(block, bm, newData), cause);
+				Spout.getEngine().getEventManager().callEvent(blockEvent);
+				if (blockEvent.isCancelled()) {
+					continue;
+				}
 				newId = blockEvent.getSnapshot().getMaterial().getId();
 				newData = blockEvent.getSnapshot().getData();
-				success = blockStore.compareAndSetBlock(bx, by, bz, oldId, oldData, newId, newData);
-				updated = oldData != newData || oldId != newId;
 			}
+			success = blockStore.compareAndSetBlock(bx, by, bz, oldId, oldData, newId, newData);
+			updated = oldData != newData || oldId != newId;
 		}
 
 		if (updated) {
@@ -1953,6 +1974,7 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 
 	@Override
 	public void setModified() {
+		modificationSequence.incrementAndGet();
 		if (chunkModified.compareAndSet(false, true)) {
 			setAutosaveTicks(new Random().nextInt(autosaveInterval * 2));
 		}
@@ -2091,6 +2113,29 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		return (T) getLightBuffer(manager.getId());
 	}
 
+	/**
+	 * Gets a chunk data message for the current state of the chunk.<br> <br> The message is cached until the next block or light change, and its encoded payload is shared between every
+	 * session it is sent to, so a chunk watched by many players is only snapshotted and compressed once per change.
+	 *
+	 * @return the chunk data message
+	 */
+	public ChunkDataMessage getNetworkMessage() {
+		// Read the sequence first, so that a change during the snapshot leaves the cached message stale
+		final int sequence = modificationSequence.get();
+		CachedChunkMessage cached = networkMessage.get();
+		if (cached != null && cached.sequence == sequence) {
+			return cached.message;
+		}
+		ChunkDataMessage message = new ChunkDataMessage(getSnapshot(SnapshotType.BOTH, EntityType.NO_ENTITIES, ExtraData.BIOME_DATA, true), true);
+		CachedChunkMessage update = new CachedChunkMessage(sequence, message);
+		if (networkMessage.compareAndSet(cached, update)) {
+			if (cached != null) {
+				cached.message.releaseSharedPayload();
+			}
+		}
+		return message;
+	}
+
 	public int getRenderSequence() {
 		return renderSequence.get();
 	}
@@ -2218,4 +2263,14 @@ public class SpoutChunk extends Chunk implements Snapshotable, Modifiable {
 		// Basically a new chunk, we want to rerender everything
 		firstRender = true;
 	}
+
+	private static class CachedChunkMessage {
+		private final int sequence;
+		private final ChunkDataMessage message;
+
+		public CachedChunkMessage(int sequence, ChunkDataMessage message) {
+			this.sequence = sequence;
+			this.message = message;
+		}
+	}
 }
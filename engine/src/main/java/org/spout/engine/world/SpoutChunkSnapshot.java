@@ -26,6 +26,7 @@
  */
 package org.spout.engine.world;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -38,6 +39,7 @@ import gnu.trove.procedure.TShortObjectProcedure;
 import org.spout.api.component.BlockComponentOwner;
 import org.spout.api.component.Component;
 import org.spout.api.component.block.BlockComponent;
+import org.spout.api.datatable.SerializableHashMap;
 import org.spout.api.datatable.SerializableMap;
 import org.spout.api.entity.Entity;
 import org.spout.api.entity.EntitySnapshot;
@@ -68,7 +70,11 @@ public class SpoutChunkSnapshot extends ChunkSnapshot {
 	private final CuboidLightBuffer[] lightBuffers;
 	private final CuboidLightBuffer[] idLightBufferMap;
 	private final BiomeManager biomes;
-	private final SerializableMap dataMap;
+	/**
+	 * The serialized datatable, the chunk caches it so an unchanged datatable is not serialized again
+	 */
+	private final byte[] serializedDataMap;
+	private SerializableMap dataMap;
 	private final PopulationState populationState;
 	private boolean renderDirty = false;
 
@@ -137,17 +143,17 @@ public class SpoutChunkSnapshot extends ChunkSnapshot {
 		if (data == ExtraData.BIOME_DATA) {
 			BiomeManager biomeManager = chunk.getWorld().getBiomeManager(chunk.getBlockX(), chunk.getBlockZ(), LoadOption.LOAD_ONLY);
 			this.biomes = biomeManager == null ? null : biomeManager.clone();
-			this.dataMap = null;
+			this.serializedDataMap = null;
 		} else if (data == ExtraData.DATATABLE) {
-			this.dataMap = chunk.getDataMap().deepCopy();
+			this.serializedDataMap = chunk.getDataMap().serialize();
 			this.biomes = null;
 		} else if (data == ExtraData.BOTH) {
 			BiomeManager biomeManager = chunk.getWorld().getBiomeManager(chunk.getBlockX(), chunk.getBlockZ(), LoadOption.LOAD_ONLY);
 			this.biomes = biomeManager == null ? null : biomeManager.clone();
-			this.dataMap = chunk.getDataMap().deepCopy();
+			this.serializedDataMap = chunk.getDataMap().serialize();
 		} else {
 			this.biomes = null;
-			this.dataMap = null;
+			this.serializedDataMap = null;
 		}
 		this.populationState = chunk.getPopulationState();
 		renderDirty = chunk.isDirty();
@@ -258,8 +264,26 @@ public class SpoutChunkSnapshot extends ChunkSnapshot {
 	}
 
 	@Override
-	public SerializableMap getDataMap() {
-		return this.dataMap;
+	public synchronized SerializableMap getDataMap() {
+		if (dataMap == null && serializedDataMap != null) {
+			SerializableHashMap map = new SerializableHashMap();
+			try {
+				map.deserialize(serializedDataMap);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to deserialize the datatable of the snapshot", e);
+			}
+			dataMap = map;
+		}
+		return dataMap;
+	}
+
+	/**
+	 * Gets the serialized datatable of the chunk
+	 *
+	 * @return the datatable, or null if the snapshot does not include it
+	 */
+	public byte[] getSerializedDataMap() {
+		return serializedDataMap;
 	}
 
 	@Override
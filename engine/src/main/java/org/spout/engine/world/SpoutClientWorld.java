@@ -228,6 +228,7 @@ public class SpoutClientWorld extends SpoutWorld {
 
 	@Override
 	public void copySnapshotRun() {
+		copyColumnSnapshots();
 		snapshotManager.copyAllSnapshots();
 	}
 
@@ -107,7 +107,7 @@ public class SpoutColumn {
 		if (biomes.get() == null) {
 			if (world.getGenerator() instanceof BiomeGenerator) {
 				BiomeGenerator generator = (BiomeGenerator) world.getGenerator();
-				setBiomeManager(generator.generateBiomes(x, z, world));
+				setBiomeManager(generator.promoteBiomeManager(x, z, world));
 			}
 		}
 		copySnapshot();
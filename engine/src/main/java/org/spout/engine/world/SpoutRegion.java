@@ -26,6 +26,7 @@
  */
 package org.spout.engine.world;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -94,6 +95,7 @@ import org.spout.engine.filesystem.ChunkDataForRegion;
 import org.spout.engine.filesystem.versioned.ChunkFiles;
 import org.spout.engine.scheduler.SpoutScheduler;
 import org.spout.engine.scheduler.SpoutTaskManager;
+import org.spout.engine.util.thread.ActiveManagerQueue;
 import org.spout.engine.util.thread.AsyncManager;
 import org.spout.engine.util.thread.snapshotable.SnapshotManager;
 import org.spout.engine.world.collision.SpoutCollisionListener;
@@ -114,10 +116,6 @@ public class SpoutRegion extends Region implements AsyncManager {
 	private Thread executionThread;
 	@SuppressWarnings ("unchecked")
 	public AtomicReference<SpoutChunk>[][][] chunks = new AtomicReference[CHUNKS.SIZE][CHUNKS.SIZE][CHUNKS.SIZE];
-	/**
-	 * The maximum number of chunks that will be processed for population each tick.
-	 */
-	private static final int POPULATE_PER_TICK = 20;
 	/**
 	 * The source of this region
 	 */
@@ -134,6 +132,10 @@ public class SpoutRegion extends Region implements AsyncManager {
 	 * Reference to the persistent ByteArrayArray that stores chunk data
 	 */
 	private final BAAWrapper chunkStore;
+	/**
+	 * Chunks of this region read ahead of being loaded, null on the client
+	 */
+	private final ChunkPrefetcher prefetcher;
 	private final Queue<SpoutChunkSnapshotFuture> snapshotQueue = new ConcurrentLinkedQueue<>();
 	protected SetQueue<SpoutChunk> unloadQueue = new SetQueue<>(CHUNKS.VOLUME);
 	/**
@@ -148,12 +150,26 @@ public class SpoutRegion extends Region implements AsyncManager {
 	private final RegionGenerator generator;
 	private final SpoutTaskManager taskManager;
 	private final SpoutScheduler scheduler;
+	/**
+	 * Populates chunks concurrently and sets the number of chunks populated each tick
+	 */
+	private final PopulationScheduler populationScheduler;
+	/**
+	 * Chunks with a populator over its time budget, which are populated when there is tick time to spare
+	 */
+	private final DeferredPopulationQueue deferredPopulation;
 	private final LinkedHashMap<SpoutPlayer, TByteTripleHashSet> observers = new LinkedHashMap<>();
-	protected final SetQueue<SpoutChunk> localPhysicsChunkQueue = new SetQueue<>(CHUNKS.VOLUME);
-	protected final SetQueue<SpoutChunk> globalPhysicsChunkQueue = new SetQueue<>(CHUNKS.VOLUME);
-	protected final SetQueue<SpoutChunk> dirtyChunkQueue = new SetQueue<>(CHUNKS.VOLUME);
-	protected final SetQueue<SpoutChunk> newChunkQueue = new SetQueue<>(CHUNKS.VOLUME);
-	protected final SetQueue<SpoutColumn> dirtyColumnQueue;
+	protected final SetQueue<SpoutChunk> localPhysicsChunkQueue = new PhysicsSetQueue();
+	protected final SetQueue<SpoutChunk> globalPhysicsChunkQueue = new PhysicsSetQueue();
+	protected final SetQueue<SpoutChunk> dirtyChunkQueue = new LightingSetQueue();
+	protected final SetQueue<SpoutChunk> newChunkQueue = new LightingSetQueue();
+	protected final RegionColumnDirtyQueue dirtyColumnQueue;
+	/**
+	 * Entries for the scheduler queues of regions with pending physics, dynamic updates and lighting
+	 */
+	private final ActiveManagerQueue.Entry physicsEntry;
+	private final ActiveManagerQueue.Entry dynamicUpdatesEntry;
+	private final ActiveManagerQueue.Entry lightingEntry;
 	private final DynamicBlockUpdateTree dynamicBlockTree;
 	private List<DynamicBlockUpdate> multiRegionUpdates = null;
 	private int lightingUpdates = 0;
@@ -168,7 +184,15 @@ public class SpoutRegion extends Region implements AsyncManager {
 		super(world, x * Region.BLOCKS.SIZE, y * Region.BLOCKS.SIZE, z * Region.BLOCKS.SIZE);
 		this.source = source;
 
+		scheduler = (SpoutScheduler) (Spout.getEngine().getScheduler());
+		populationScheduler = new PopulationScheduler(scheduler);
+		deferredPopulation = new DeferredPopulationQueue(scheduler);
+		physicsEntry = scheduler.getPhysicsQueue().newEntry(this);
+		dynamicUpdatesEntry = scheduler.getDynamicUpdatesQueue().newEntry(this);
+		lightingEntry = scheduler.getLightingQueue().newEntry(this);
+
 		this.dirtyColumnQueue = world.getColumnDirtyQueue(getX(), getZ());
+		this.dirtyColumnQueue.addRegion(this);
 
 		int xx = GenericMath.mod(getX(), 3);
 		int yy = GenericMath.mod(getY(), 3);
@@ -200,12 +224,13 @@ public class SpoutRegion extends Region implements AsyncManager {
 		if (Spout.getPlatform() == Platform.CLIENT) {
 			this.generator = null;
 			this.chunkStore = null;
+			this.prefetcher = null;
 		} else {
 			this.generator = new RegionGenerator(this, 4);
 			this.chunkStore = ((SpoutServerWorld) world).getRegionFile(getX(), getY(), getZ());
+			this.prefetcher = ((SpoutServerWorld) world).getRegionFileManager().getPrefetcher();
 		}
 		taskManager = new SpoutTaskManager(world.getEngine().getScheduler(), null, this, world.getAge());
-		scheduler = (SpoutScheduler) (Spout.getEngine().getScheduler());
 		simulation = new LinkedDynamicsWorld(ReactConverter.toReactVector3(0f, -9.81f, -0f), new SpoutLinkedWorldInfo(this));
 		simulation.addListener(new SpoutCollisionListener());
 		simulation.start();
@@ -260,11 +285,14 @@ public class SpoutRegion extends Region implements AsyncManager {
 		SpoutChunk newChunk = null;
 		ChunkDataForRegion dataForRegion = null;
 
-		boolean fileExists = this.inputStreamExists(x, y, z);
+		// Chunks read ahead by the prefetcher do not have to wait on the region file
+		byte[] prefetched = loadopt.loadIfNeeded() ? prefetcher.take(getChunkX() + x, getChunkY() + y, getChunkZ() + z) : null;
+		boolean fileExists = prefetched != null || this.inputStreamExists(x, y, z);
 
 		if (loadopt.loadIfNeeded() && fileExists) {
 			dataForRegion = new ChunkDataForRegion();
-			newChunk = ChunkFiles.loadChunk(this, x, y, z, this.getChunkInputStream(x, y, z), dataForRegion);
+			InputStream in = prefetched != null ? new ByteArrayInputStream(prefetched) : this.getChunkInputStream(x, y, z);
+			newChunk = ChunkFiles.loadChunk(this, x, y, z, in, dataForRegion);
 			if (newChunk == null) {
 				Spout.getLogger().severe("Unable to load chunk at location " + (getChunkX() + x) + ", " + (getChunkY() + y) + ", " + (getChunkZ() + z) + " in region " + this + ", regenerating chunks");
 				fileExists = false;
@@ -348,7 +376,7 @@ public class SpoutRegion extends Region implements AsyncManager {
 					dynamicBlockTree.addDynamicBlockUpdates(dataForRegion.loadedUpdates);
 				}
 
-				Spout.getEventManager().callDelayedEvent(new ChunkLoadEvent(newChunk, generated));
+				Spout.getEventManager().callAsyncEvent(new ChunkLoadEvent(newChunk, generated));
 				return newChunk;
 			}
 
@@ -585,7 +613,14 @@ public class SpoutRegion extends Region implements AsyncManager {
 
 	@ServerOnly
 	private void updatePopulation() {
-		for (int i = 0; i < POPULATE_PER_TICK && !scheduler.isServerOverloaded();) {
+		final int budget = populationScheduler.getBudget();
+		// Chunks deferred for too long are populated even when the server is overloaded
+		runDeferredPopulation(budget);
+		if (scheduler.isServerOverloaded()) {
+			return;
+		}
+		final List<SpoutChunk> batch = new ArrayList<>(budget);
+		while (batch.size() < budget) {
 			// First take from priorityQueue then from populationQueue
 			SpoutChunk toPopulate = populationPriorityQueue.poll();
 			if (toPopulate == null) {
@@ -600,33 +635,65 @@ public class SpoutRegion extends Region implements AsyncManager {
 			// This would mean that chunks that don't need population, they're performance hit is nearly 0
 			// Also, we could move loading chunks to the actual population, so if the populators don't need the extra chunks, they don't get loaded either
 			if (toPopulate.isLoaded()) {
-				if (!toPopulate.isObserved()) {
+				// Deferred chunks are populated by runDeferredPopulation
+				if (!toPopulate.isObserved() || !toPopulate.getPopulationState().incomplete() || deferredPopulation.contains(toPopulate)) {
 					continue;
 				}
-				boolean surrounded = true;
-				for (int nx = -1; nx <= 1; nx++) {
-					int nxx = nx + toPopulate.getX();
-					for (int ny = -1; ny <= 1; ny++) {
-						int nyy = ny + toPopulate.getY();
-						for (int nz = -1; nz <= 1; nz++) {
-							int nzz = nz + toPopulate.getZ();
-							// TODO: Can we make chunks not unload if there are surrounding chunks that are/need to be queued for population
-							Chunk c = getWorld().getChunk(nxx, nyy, nzz, LoadOption.LOAD_ONLY);
-							if (c == null) {
-								surrounded = false;
-								getWorld().queueChunkForGeneration(new Vector3f(nxx, nyy, nzz));
-							}
-						}
-					}
+				if (isSurrounded(toPopulate)) {
+					batch.add(toPopulate);
 				}
-				if (surrounded && toPopulate.populate()) {
-					if (scheduler.isServerOverloaded()) {
-						break;
+			}
+		}
+		populationScheduler.populate(batch);
+	}
+
+	/**
+	 * Checks if every chunk around a chunk is loaded, queuing the generation of the missing ones
+	 */
+	private boolean isSurrounded(SpoutChunk chunk) {
+		boolean surrounded = true;
+		for (int nx = -1; nx <= 1; nx++) {
+			int nxx = nx + chunk.getX();
+			for (int ny = -1; ny <= 1; ny++) {
+				int nyy = ny + chunk.getY();
+				for (int nz = -1; nz <= 1; nz++) {
+					int nzz = nz + chunk.getZ();
+					// TODO: Can we make chunks not unload if there are surrounding chunks that are/need to be queued for population
+					Chunk c = getWorld().getChunk(nxx, nyy, nzz, LoadOption.LOAD_ONLY);
+					if (c == null) {
+						surrounded = false;
+						getWorld().queueChunkForGeneration(new Vector3f(nxx, nyy, nzz));
 					}
-					i++;
 				}
 			}
 		}
+		return surrounded;
+	}
+
+	/**
+	 * Queues the population of a chunk until the region has tick time to spare, or the chunk has waited for {@link DeferredPopulationQueue#MAX_DEFERRAL}.  The chunk is left
+	 * unpopulated until then.
+	 *
+	 * @param chunk the chunk to populate
+	 */
+	public void deferPopulation(SpoutChunk chunk) {
+		deferredPopulation.defer(chunk);
+	}
+
+	private void runDeferredPopulation(int budget) {
+		final List<SpoutChunk> batch = new ArrayList<>();
+		for (SpoutChunk chunk : deferredPopulation.poll(budget)) {
+			// Chunks which unloaded in the meantime were saved unpopulated, and are queued again once they are loaded and observed
+			if (!chunk.isLoaded() || !chunk.getPopulationState().incomplete()) {
+				continue;
+			}
+			if (isSurrounded(chunk)) {
+				batch.add(chunk);
+			} else {
+				chunk.queueForPopulation(false);
+			}
+		}
+		populationScheduler.populateDeferred(batch);
 	}
 
 	@ServerOnly
@@ -766,7 +833,7 @@ public class SpoutRegion extends Region implements AsyncManager {
 			}
 			evt = new ChunkUpdatedEvent(chunk, lst);
 		}
-		Spout.getEventManager().callDelayedEvent(evt);
+		Spout.getEventManager().callAsyncEvent(evt);
 	}
 
 	@Override
@@ -864,6 +931,11 @@ public class SpoutRegion extends Region implements AsyncManager {
 		} else if (sequence == this.updateSequence) {
 			runGlobalDynamicUpdates();
 		}
+
+		// Updates are reported at the start of the next pass, and future updates must be checked each tick
+		if (dynamicBlockTree.getLastUpdates() > 0 || multiRegionUpdates != null || dynamicBlockTree.getFirstDynamicUpdateTime() != SpoutScheduler.END_OF_THE_WORLD) {
+			markDynamicUpdates();
+		}
 	}
 
 	@Override
@@ -1368,6 +1440,37 @@ public class SpoutRegion extends Region implements AsyncManager {
 		}
 	}
 
+	/**
+	 * Marks the region as having block physics to execute
+	 */
+	public void markPhysics() {
+		physicsEntry.mark();
+	}
+
+	/**
+	 * Marks the region as having dynamic block updates queued
+	 */
+	public void markDynamicUpdates() {
+		dynamicUpdatesEntry.mark();
+	}
+
+	/**
+	 * Marks the region as needing a lighting update
+	 */
+	public void markLighting() {
+		lightingEntry.mark();
+	}
+
+	/**
+	 * Removes the region from the scheduler queues for physics, dynamic updates and lighting.  This is called when the region is unloaded.
+	 */
+	public void removeFromActiveQueues() {
+		physicsEntry.invalidate();
+		dynamicUpdatesEntry.invalidate();
+		lightingEntry.invalidate();
+		dirtyColumnQueue.removeRegion(this);
+	}
+
 	private void unlinkNeighbour(SpoutRegion r) {
 		for (int dx = 0; dx < 3; dx++) {
 			for (int dy = 0; dy < 3; dy++) {
@@ -1556,6 +1659,28 @@ public class SpoutRegion extends Region implements AsyncManager {
 		getWorld().getCuboid(getChunks(bx, by, bz, buffer), bx, by, bz, buffer);
 	}
 
+	private class PhysicsSetQueue extends SetQueue<SpoutChunk> {
+		public PhysicsSetQueue() {
+			super(CHUNKS.VOLUME);
+		}
+
+		@Override
+		protected void onAdd() {
+			markPhysics();
+		}
+	}
+
+	private class LightingSetQueue extends SetQueue<SpoutChunk> {
+		public LightingSetQueue() {
+			super(CHUNKS.VOLUME);
+		}
+
+		@Override
+		protected void onAdd() {
+			markLighting();
+		}
+	}
+
 	private class RegionSetQueueElement extends SetQueueElement<Cube> {
 		public RegionSetQueueElement(SetQueue<Cube> queue, SpoutRegion value) {
 			super(queue, value);
@@ -32,10 +32,10 @@ import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 import java.util.UUID;
 
 import org.spout.api.Server;
+import org.spout.api.Spout;
 import org.spout.api.component.Component;
 import org.spout.api.entity.Player;
 import org.spout.api.event.world.EntityEnterWorldEvent;
@@ -48,11 +48,12 @@ import org.spout.api.geo.cuboid.Region;
 import org.spout.api.geo.discrete.Point;
 import org.spout.api.geo.discrete.Transform;
 import org.spout.api.io.bytearrayarray.BAAWrapper;
+import org.spout.api.io.compression.CompressionCodec;
+import org.spout.api.io.compression.CompressionCodecs;
 import org.spout.api.util.StringToUniqueIntegerMap;
 import org.spout.api.util.list.concurrent.ConcurrentList;
-import org.spout.api.util.list.concurrent.setqueue.SetQueue;
-import org.spout.api.util.map.WeakValueHashMap;
 
+import org.spout.engine.SpoutConfiguration;
 import org.spout.engine.SpoutEngine;
 import org.spout.engine.filesystem.versioned.WorldFiles;
 import org.spout.math.imaginary.Quaternionf;
@@ -87,7 +88,6 @@ public class SpoutServerWorld extends SpoutWorld {
 	 * A WeakReference to this world
 	 */
 	private final WeakReference<SpoutServerWorld> selfReference;
-	private final WeakValueHashMap<Long, SetQueue<SpoutColumn>> regionColumnDirtyQueueMap = new WeakValueHashMap<>();
 
 	// TODO set up number of stages ?
 	public SpoutServerWorld(String name, SpoutEngine engine, long seed, long age, WorldGenerator generator, UUID uid, StringToUniqueIntegerMap itemMap, StringToUniqueIntegerMap lightingMap) {
@@ -100,6 +100,10 @@ public class SpoutServerWorld extends SpoutWorld {
 		worldDirectory.mkdirs();
 
 		regionFileManager = new RegionFileManager(worldDirectory);
+		regionFileManager.setCompressionCodec(getConfiguredCompressionCodec());
+		if (SpoutConfiguration.CHUNK_JOURNAL.getBoolean()) {
+			regionFileManager.enableJournal();
+		}
 
 		spawnLocation.set(new Transform(new Point(this, 1, 20, 1), Quaternionf.IDENTITY, Vector3f.ONE));
 		selfReference = new WeakReference<>(this);
@@ -215,6 +219,34 @@ public class SpoutServerWorld extends SpoutWorld {
 		return selfReference;
 	}
 
+	/**
+	 * Gets the codec used to compress the chunks of this world
+	 *
+	 * @return the codec
+	 */
+	public CompressionCodec getCompressionCodec() {
+		return getRegionFileManager().getCompressionCodec();
+	}
+
+	/**
+	 * Sets the codec used to compress the chunks of this world.<br> <br> Chunks already stored with another codec stay readable, they are converted when they are next saved.
+	 *
+	 * @param codec the codec
+	 */
+	public void setCompressionCodec(CompressionCodec codec) {
+		getRegionFileManager().setCompressionCodec(codec);
+	}
+
+	private static CompressionCodec getConfiguredCompressionCodec() {
+		String name = SpoutConfiguration.CHUNK_COMPRESSION.getString();
+		try {
+			return CompressionCodecs.getCodec(name);
+		} catch (IllegalArgumentException e) {
+			Spout.getLogger().warning("Invalid chunk compression codec " + name + ", using " + CompressionCodecs.DEFLATE);
+			return CompressionCodecs.DEFLATE;
+		}
+	}
+
 	public RegionFileManager getRegionFileManager() {
 		if (regionFileManager == null) {
 			throw new IllegalStateException("Client does not have file manager");
@@ -246,20 +278,8 @@ public class SpoutServerWorld extends SpoutWorld {
 
 	@Override
 	public void copySnapshotRun() {
-		synchronized (regionColumnDirtyQueueMap) {
-			// This performs copy snapshot and also clears the column dirty queues
-			Set<Long> keys = regionColumnDirtyQueueMap.keySet();
-			for (Long key : keys) {
-				SetQueue<SpoutColumn> queue = regionColumnDirtyQueueMap.safeGet(key);
-				if (queue != null) {
-					SpoutColumn col;
-					while ((col = queue.poll()) != null) {
-						col.copySnapshot();
-					}
-				}
-			}
-			regionColumnDirtyQueueMap.flushKeys();
-		}
+		// This performs copy snapshot and also clears the column dirty queues
+		copyColumnSnapshots();
 		snapshotManager.copyAllSnapshots();
 	}
 
@@ -87,7 +87,9 @@ import org.spout.api.util.thread.annotation.LiveRead;
 import org.spout.api.util.thread.annotation.Threadsafe;
 
 import org.spout.engine.SpoutEngine;
+import org.spout.engine.entity.EntityGrid;
 import org.spout.engine.entity.SpoutEntity;
+import org.spout.engine.entity.SpoutPlayer;
 import org.spout.engine.protocol.builtin.message.CuboidBlockUpdateMessage;
 import org.spout.engine.scheduler.SpoutParallelTaskManager;
 import org.spout.engine.scheduler.SpoutScheduler;
@@ -159,9 +161,14 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 	 */
 	private final WeakReference<SpoutWorld> selfReference;
 	public static final WeakReference<SpoutWorld> NULL_WEAK_REFERENCE = new WeakReference<>(null);
-	private final WeakValueHashMap<Long, SetQueue<SpoutColumn>> regionColumnDirtyQueueMap = new WeakValueHashMap<>();
+	private final WeakValueHashMap<Long, RegionColumnDirtyQueue> regionColumnDirtyQueueMap = new WeakValueHashMap<>();
 	private final SpoutTaskManager taskManager;
 	private Thread executionThread;
+	/**
+	 * Spatial indexes of the entities and players in the world, updated when regions copy their snapshots
+	 */
+	private final EntityGrid<SpoutEntity> entityGrid = new EntityGrid<>(this, SpoutEntity.class);
+	private final EntityGrid<SpoutPlayer> playerGrid = new EntityGrid<>(this, SpoutPlayer.class);
 
 	// TODO set up number of stages ?
 	public SpoutWorld(String name, SpoutEngine engine, long seed, long age, WorldGenerator generator, UUID uid) {
@@ -260,6 +267,13 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 				}
 			}
 		}
+		final BiomeManager cached = ((BiomeGenerator) generator).getBiomeCache().getIfPresent(seed, cx, cz);
+		if (cached != null) {
+			final Biome biome = cached.getBiome(x & SpoutColumn.BLOCKS.MASK, y & SpoutColumn.BLOCKS.MASK, z & SpoutColumn.BLOCKS.MASK);
+			if (biome != null) {
+				return biome;
+			}
+		}
 		return ((BiomeGenerator) generator).getBiome(x, y, z, seed);
 	}
 
@@ -666,17 +680,7 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 	@Override
 	public List<Entity> getNearbyEntities(Point position, Entity ignore, int range) {
 		ArrayList<Entity> foundEntities = new ArrayList<>();
-		final int RANGE_SQUARED = range * range;
-
-		for (Entity entity : getEntitiesNearRegion(position, range)) {
-			if (entity != null && entity != ignore) {
-				double distance = position.distanceSquared(entity.getPhysics().getPosition());
-				if (distance < RANGE_SQUARED) {
-					foundEntities.add(entity);
-				}
-			}
-		}
-
+		entityGrid.getInRange(position, ignore, range, foundEntities);
 		return Collections.unmodifiableList(foundEntities);
 	}
 
@@ -692,19 +696,7 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 
 	@Override
 	public Entity getNearestEntity(Point position, Entity ignore, int range) {
-		Entity best = null;
-		double bestDistance = range * range;
-
-		for (Entity entity : getEntitiesNearRegion(position, range)) {
-			if (entity != null && entity != ignore) {
-				double distance = position.distanceSquared(entity.getPhysics().getPosition());
-				if (distance < bestDistance) {
-					bestDistance = distance;
-					best = entity;
-				}
-			}
-		}
-		return best;
+		return entityGrid.getNearest(position, ignore, range);
 	}
 
 	@Override
@@ -717,6 +709,13 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 		return getNearestEntity(entity.getPhysics().getPosition(), range);
 	}
 
+	@Override
+	public List<Entity> getNearestEntities(Point position, Entity ignore, int range, int count) {
+		SpoutEntity[] nearest = new SpoutEntity[count];
+		int found = entityGrid.getNearest(position, ignore, range, nearest);
+		return Collections.<Entity>unmodifiableList(Arrays.asList(nearest).subList(0, found));
+	}
+
 	/**
 	 * Gets a set of nearby players to the point, inside of the range. The search will ignore the specified entity.
 	 *
@@ -730,11 +729,7 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 	@Threadsafe
 	public List<Player> getNearbyPlayers(Point position, Player ignore, int range) {
 		ArrayList<Player> foundPlayers = new ArrayList<>();
-		for (Entity entity : getNearbyEntities(position, ignore, range)) {
-			if (entity instanceof Player) {
-				foundPlayers.add((Player) entity);
-			}
-		}
+		playerGrid.getInRange(position, ignore, range, foundPlayers);
 		return Collections.unmodifiableList(foundPlayers);
 	}
 
@@ -778,19 +773,7 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 	@LiveRead
 	@Threadsafe
 	public Player getNearestPlayer(Point position, Player ignore, int range) {
-		Entity best = null;
-		double bestDistance = range * range;
-
-		for (Entity entity : getEntitiesNearRegion(position, range)) {
-			if (entity != null && entity instanceof Player && entity != ignore) {
-				double distance = position.distanceSquared(entity.getPhysics().getPosition());
-				if (distance < bestDistance) {
-					bestDistance = distance;
-					best = entity;
-				}
-			}
-		}
-		return (Player) best;
+		return playerGrid.getNearest(position, ignore, range);
 	}
 
 	/**
@@ -821,30 +804,21 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 	}
 
 	/**
-	 * Finds all the players inside of the regions inside the range area
+	 * Gets the spatial index of all entities in the world
 	 *
-	 * @param position to search from
-	 * @param range to search for regions
-	 * @return nearby region's players
+	 * @return the entity index
 	 */
-	private List<Entity> getEntitiesNearRegion(Point position, int range) {
-		Region center = this.getRegionFromBlock(position, LoadOption.NO_LOAD);
+	public EntityGrid<SpoutEntity> getEntityGrid() {
+		return entityGrid;
+	}
 
-		ArrayList<Entity> entities = new ArrayList<>();
-		if (center != null) {
-			final int regions = (range + Region.BLOCKS.SIZE - 1) / Region.BLOCKS.SIZE; //round up 1 region size
-			for (int dx = -regions; dx < regions; dx++) {
-				for (int dy = -regions; dy < regions; dy++) {
-					for (int dz = -regions; dz < regions; dz++) {
-						Region region = this.getRegion(center.getX() + dx, center.getY() + dy, center.getZ() + dz, LoadOption.NO_LOAD);
-						if (region != null) {
-							entities.addAll(region.getAll());
-						}
-					}
-				}
-			}
-		}
-		return entities;
+	/**
+	 * Gets the spatial index of the players in the world
+	 *
+	 * @return the player index
+	 */
+	public EntityGrid<SpoutPlayer> getPlayerGrid() {
+		return playerGrid;
 	}
 
 	/**
@@ -952,6 +926,10 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 	public SpoutColumn setColumn(int x, int z, SpoutColumn col) {
 		long key = IntPairHashed.key(x, z);
 		SpoutColumn old = columns.putIfAbsent(key, col);
+		// The registered column holds its biomes, whether promoted from the biome cache or loaded with the column
+		if (generator instanceof BiomeGenerator) {
+			((BiomeGenerator) generator).invalidateBiomeManager(x, z, this);
+		}
 		if (old != null) {
 			return old;
 		}
@@ -1301,20 +1279,39 @@ public abstract class SpoutWorld extends BaseComponentOwner implements AsyncMana
 		return hasData(node);
 	}
 
-	public SetQueue<SpoutColumn> getColumnDirtyQueue(int x, int z) {
+	public RegionColumnDirtyQueue getColumnDirtyQueue(int x, int z) {
 		long key = IntPairHashed.key(x, z);
-		SetQueue<SpoutColumn> setQueue;
+		RegionColumnDirtyQueue setQueue;
 		synchronized (regionColumnDirtyQueueMap) {
 			setQueue = regionColumnDirtyQueueMap.get(key);
 
 			if (setQueue == null) {
-				setQueue = new SetQueue<>(Region.CHUNKS.SIZE * Region.CHUNKS.SIZE);
+				setQueue = new RegionColumnDirtyQueue(Region.CHUNKS.SIZE * Region.CHUNKS.SIZE);
 				regionColumnDirtyQueueMap.put(key, setQueue);
 			}
 		}
 		return setQueue;
 	}
 
+	/**
+	 * Copies the height map snapshot of all dirty columns and clears the column dirty queues
+	 */
+	protected void copyColumnSnapshots() {
+		synchronized (regionColumnDirtyQueueMap) {
+			Set<Long> keys = regionColumnDirtyQueueMap.keySet();
+			for (Long key : keys) {
+				SetQueue<SpoutColumn> queue = regionColumnDirtyQueueMap.safeGet(key);
+				if (queue != null) {
+					SpoutColumn col;
+					while ((col = queue.poll()) != null) {
+						col.copySnapshot();
+					}
+				}
+			}
+			regionColumnDirtyQueueMap.flushKeys();
+		}
+	}
+
 	@Override
 	public void queueChunksForGeneration(List<Vector3f> chunks) {
 		for (Vector3f v : chunks) {
@@ -0,0 +1,462 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.spout.api.Client;
+import org.spout.api.Spout;
+import org.spout.api.geo.World;
+import org.spout.api.geo.cuboid.ChunkSnapshot.EntityType;
+import org.spout.api.geo.cuboid.ChunkSnapshot.ExtraData;
+import org.spout.api.geo.cuboid.ChunkSnapshot.SnapshotType;
+import org.spout.api.geo.cuboid.Region;
+import org.spout.api.io.bytearrayarray.BAAWrapper;
+import org.spout.engine.filesystem.versioned.ChunkFiles;
+import org.spout.engine.util.thread.threadfactory.NamedThreadFactory;
+import org.spout.engine.world.dynamic.DynamicBlockUpdate;
+
+/**
+ * Saves world chunks on a bounded pool of threads.<br> <br> A save passes through three stages. The snapshot is captured by the thread submitting the chunk, the chunk is encoded
+ * on a pool thread and the encoded data is then compressed and written to the region file. Saves are partitioned by region file, each file is written by at most one pool
+ * thread at a time while different files are written in parallel.<br> <br> If a chunk is submitted again before its previous save has started, only the newest snapshot is
+ * written.
+ */
+public class WorldSavingPipeline {
+	private static final WorldSavingPipeline instance = new WorldSavingPipeline(Runtime.getRuntime().availableProcessors());
+	private static final int TASK_QUEUED = 0;
+	private static final int TASK_STARTED = 1;
+	private static final int TASK_SUPERSEDED = 2;
+	/**
+	 * The number of chunks a lane saves before forcing the world's journal, the journal is also forced when the lane runs out of chunks
+	 */
+	private static final int JOURNAL_SYNC_INTERVAL = 64;
+	private final ThreadPoolExecutor executor;
+	/**
+	 * The save lane for each region file with saves queued or running, lanes are removed once they run out of saves
+	 */
+	private final ConcurrentHashMap<BAAWrapper, SaveLane> lanes = new ConcurrentHashMap<>();
+	/**
+	 * The newest save submitted for each chunk
+	 */
+	private final ConcurrentHashMap<SpoutChunk, ChunkSaveTask> pending = new ConcurrentHashMap<>();
+	/**
+	 * Reusable encoding buffer for each pool thread
+	 */
+	private final ThreadLocal<ByteArrayOutputStream> encodeBuffer = new ThreadLocal<ByteArrayOutputStream>() {
+		@Override
+		protected ByteArrayOutputStream initialValue() {
+			return new ByteArrayOutputStream(8192);
+		}
+	};
+	private final AtomicInteger outstanding = new AtomicInteger(0);
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	private final AtomicLong submitted = new AtomicLong(0);
+	private final AtomicLong coalesced = new AtomicLong(0);
+	private final AtomicLong saved = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+	private final AtomicLong bytesEncoded = new AtomicLong(0);
+	private final AtomicLong totalLatency = new AtomicLong(0);
+	private final AtomicLong maxLatency = new AtomicLong(0);
+
+	private WorldSavingPipeline(int threads) {
+		executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("World Saving Thread"));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public static WorldSavingPipeline getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Captures a snapshot of the chunk and queues it for saving
+	 *
+	 * @param chunk the chunk to save
+	 */
+	public static void saveChunk(SpoutChunk chunk) {
+		if (Spout.getEngine() instanceof Client) {
+			throw new IllegalStateException("Client mode is not allowed to save chunks");
+		}
+		instance.addChunk(chunk);
+	}
+
+	/**
+	 * Waits for all queued chunks to be saved, saves the columns of all worlds and closes the region files
+	 */
+	public static void finish() {
+		instance.shutdown();
+	}
+
+	public void addChunk(SpoutChunk chunk) {
+		if (Spout.getEngine() instanceof Client) {
+			throw new IllegalStateException("Client mode is not allowed to add chunks for saving");
+		}
+		if (finished.get()) {
+			Spout.getLogger().info("Chunk " + chunk + " submitted for saving after the world saving pipeline finished");
+		}
+		ChunkSaveTask task = new ChunkSaveTask(chunk);
+		submitted.incrementAndGet();
+		ChunkSaveTask previous = pending.put(chunk, task);
+		if (previous != null && previous.supersede()) {
+			task.submissions += previous.submissions;
+			coalesced.incrementAndGet();
+		}
+		outstanding.incrementAndGet();
+		addToLane(task);
+	}
+
+	private void addToLane(ChunkSaveTask task) {
+		SpoutChunkSnapshot snapshot = task.snapshot;
+		BAAWrapper file = task.world.getRegionFileManager().getBAAWrapper(snapshot.getX() >> Region.CHUNKS.BITS, snapshot.getY() >> Region.CHUNKS.BITS, snapshot.getZ() >> Region.CHUNKS.BITS);
+		while (true) {
+			SaveLane lane = lanes.get(file);
+			if (lane == null) {
+				lane = new SaveLane(file);
+				SaveLane oldLane = lanes.putIfAbsent(file, lane);
+				if (oldLane != null) {
+					lane = oldLane;
+				}
+			}
+			if (lane.add(task)) {
+				return;
+			}
+			// The lane ran out of saves and was retired, a new lane takes over the file
+			lanes.remove(file, lane);
+		}
+	}
+
+	/**
+	 * Gets the number of chunk saves submitted
+	 */
+	public long getSubmittedChunks() {
+		return submitted.get();
+	}
+
+	/**
+	 * Gets the number of chunk saves dropped because a newer snapshot of the chunk was submitted before they started
+	 */
+	public long getCoalescedChunks() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Gets the number of chunks written to their region file
+	 */
+	public long getSavedChunks() {
+		return saved.get();
+	}
+
+	/**
+	 * Gets the number of chunk saves that could not be written
+	 */
+	public long getFailedChunks() {
+		return failed.get();
+	}
+
+	/**
+	 * Gets the number of chunk saves waiting to be processed
+	 */
+	public int getPendingChunks() {
+		return outstanding.get();
+	}
+
+	/**
+	 * Gets the total size of the encoded chunks, before compression
+	 */
+	public long getBytesEncoded() {
+		return bytesEncoded.get();
+	}
+
+	/**
+	 * Gets the average time between a snapshot being captured and the chunk being written, in nanoseconds
+	 */
+	public long getAverageLatency() {
+		long count = saved.get();
+		return count == 0 ? 0 : totalLatency.get() / count;
+	}
+
+	/**
+	 * Gets the longest time between a snapshot being captured and the chunk being written, in nanoseconds
+	 */
+	public long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	private void shutdown() {
+		finished.set(true);
+		awaitPending(true);
+		Collection<? extends World> worlds = Spout.getEngine().getWorlds();
+		List<Callable<Void>> columnSaves = new ArrayList<>();
+		for (World w : worlds) {
+			for (final SpoutColumn c : ((SpoutWorld) w).getColumns()) {
+				columnSaves.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						c.syncSave();
+						return null;
+					}
+				});
+			}
+		}
+		try {
+			for (Future<Void> f : executor.invokeAll(columnSaves)) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					Spout.getLogger().log(Level.SEVERE, "Unable to save column", e.getCause());
+				}
+			}
+		} catch (InterruptedException ie) {
+			Spout.getLogger().info("Interrupted while waiting for columns to save");
+		}
+		// Columns don't submit chunks, but late chunk submissions may have arrived in the meantime
+		awaitPending(false);
+		closeRegionFiles();
+		Spout.getLogger().info("Saved " + saved.get() + " chunks (" + coalesced.get() + " coalesced, " + failed.get() + " failed), average latency " + TimeUnit.NANOSECONDS.toMillis(getAverageLatency()) + "ms");
+	}
+
+	private void awaitPending(boolean logProgress) {
+		int toSave = outstanding.get();
+		int lastTenth = 0;
+		synchronized (outstanding) {
+			int remaining;
+			while ((remaining = outstanding.get()) > 0) {
+				if (logProgress && toSave > 0) {
+					int tenth = (Math.max(0, toSave - remaining) * 10) / toSave;
+					if (tenth != lastTenth) {
+						lastTenth = tenth;
+						Spout.getLogger().info("Saved " + tenth + "0% of queued chunks");
+					}
+				}
+				try {
+					outstanding.wait(1000);
+				} catch (InterruptedException ie) {
+					Spout.getLogger().info("Interrupted while waiting for chunks to save");
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void closeRegionFiles() {
+		Collection<? extends World> worlds = Spout.getEngine().getWorlds();
+		for (World w : worlds) {
+			((SpoutServerWorld) w).getRegionFileManager().closeAll();
+		}
+	}
+
+	private void tasksDone(int count) {
+		if (outstanding.addAndGet(-count) == 0) {
+			synchronized (outstanding) {
+				outstanding.notifyAll();
+			}
+			if (finished.get()) {
+				// Only reached by saves submitted after shutdown, which reopen their region files
+				closeRegionFiles();
+			}
+		}
+	}
+
+	/**
+	 * Queue of saves for a single region file, drained by at most one pool thread at a time.  A lane which runs out of saves is retired and removed from the lanes.
+	 */
+	private class SaveLane implements Runnable {
+		private final BAAWrapper file;
+		private final ArrayDeque<ChunkSaveTask> queue = new ArrayDeque<>();
+		private boolean scheduled = false;
+		private boolean retired = false;
+
+		SaveLane(BAAWrapper file) {
+			this.file = file;
+		}
+
+		/**
+		 * Queues a save
+		 *
+		 * @param task the save
+		 * @return false if the lane is retired, in which case the save was not queued
+		 */
+		public boolean add(ChunkSaveTask task) {
+			synchronized (this) {
+				if (retired) {
+					return false;
+				}
+				queue.add(task);
+				if (scheduled) {
+					return true;
+				}
+				scheduled = true;
+			}
+			executor.execute(this);
+			return true;
+		}
+
+		@Override
+		public void run() {
+			SpoutServerWorld world = null;
+			// Saves run since the journal was last forced, they stay outstanding until it has been
+			int unsynced = 0;
+			try {
+				while (true) {
+					ChunkSaveTask task;
+					synchronized (this) {
+						task = queue.poll();
+						if (task == null && unsynced == 0) {
+							return;
+						}
+					}
+					// The journal is forced once per batch of saves rather than once per chunk
+					if (unsynced > 0 && (task == null || unsynced >= JOURNAL_SYNC_INTERVAL)) {
+						try {
+							world.getRegionFileManager().syncJournal();
+						} finally {
+							tasksDone(unsynced);
+							unsynced = 0;
+						}
+					}
+					if (task == null) {
+						continue;
+					}
+					world = task.world;
+					try {
+						pending.remove(task.chunk, task);
+						if (task.start()) {
+							task.save();
+						}
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						Spout.getLogger().log(Level.SEVERE, "Unable to save chunk " + task.chunk, e);
+					} finally {
+						unsynced++;
+					}
+				}
+			} finally {
+				// Only non zero if an unexpected exception stopped the lane
+				if (unsynced > 0) {
+					tasksDone(unsynced);
+				}
+				finish();
+			}
+		}
+
+		/**
+		 * Called when the lane stops running, reschedules it if saves were queued in the meantime and otherwise retires it
+		 */
+		private void finish() {
+			boolean reschedule;
+			synchronized (this) {
+				reschedule = !queue.isEmpty();
+				scheduled = reschedule;
+				retired = !reschedule;
+			}
+			if (reschedule) {
+				executor.execute(this);
+			} else {
+				lanes.remove(file, this);
+			}
+		}
+	}
+
+	private class ChunkSaveTask {
+		final SpoutChunkSnapshot snapshot;
+		final List<DynamicBlockUpdate> blockUpdates;
+		final SpoutChunk chunk;
+		final SpoutServerWorld world;
+		final long captured;
+		final AtomicInteger state = new AtomicInteger(TASK_QUEUED);
+		/**
+		 * The number of submissions this save completes, only modified by the submitting thread before the task is queued
+		 */
+		int submissions = 1;
+
+		ChunkSaveTask(SpoutChunk chunk) {
+			this.snapshot = chunk.getSnapshot(SnapshotType.LIGHT_ONLY, EntityType.BOTH, ExtraData.DATATABLE, true);
+			this.blockUpdates = chunk.getRegion().getDynamicBlockUpdates(chunk);
+			this.chunk = chunk;
+			this.world = (SpoutServerWorld) chunk.getWorld();
+			this.captured = System.nanoTime();
+		}
+
+		boolean start() {
+			return state.compareAndSet(TASK_QUEUED, TASK_STARTED);
+		}
+
+		boolean supersede() {
+			return state.compareAndSet(TASK_QUEUED, TASK_SUPERSEDED);
+		}
+
+		void save() throws IOException {
+			ByteArrayOutputStream encoded = encodeBuffer.get();
+			encoded.reset();
+			ChunkFiles.saveChunk(world, snapshot, blockUpdates, encoded);
+			bytesEncoded.addAndGet(encoded.size());
+
+			OutputStream out = world.getChunkOutputStream(snapshot);
+			if (out == null) {
+				failed.incrementAndGet();
+				Spout.getLogger().severe("World saving pipeline unable to open file for chunk " + chunk);
+				return;
+			}
+			try {
+				encoded.writeTo(out);
+			} finally {
+				try {
+					out.close();
+				} catch (IOException ioe) {
+					Spout.getLogger().log(Level.INFO, "Failed to commit chunk " + chunk, ioe);
+				}
+			}
+			for (int i = 0; i < submissions; i++) {
+				chunk.saveComplete();
+			}
+			long latency = System.nanoTime() - captured;
+			totalLatency.addAndGet(latency);
+			long max;
+			while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+			}
+			saved.incrementAndGet();
+		}
+	}
+}
@@ -116,6 +116,7 @@ public class DynamicBlockUpdateTree {
 			}
 		}
 		resetPending.add(p);
+		region.markDynamicUpdates();
 	}
 
 	public void resetBlockUpdates(int x, int y, int z) {
@@ -125,6 +126,7 @@ public class DynamicBlockUpdateTree {
 		Point p = new Point(this.world, x, y, z);
 		if (resetPendingMap.putIfAbsent(p, Boolean.TRUE) == null) {
 			resetPending.add(p);
+			region.markDynamicUpdates();
 		}
 	}
 
@@ -221,6 +223,7 @@ public class DynamicBlockUpdateTree {
 	public void addDynamicBlockUpdates(List<DynamicBlockUpdate> list) {
 		if (list.size() > 0) {
 			pendingLists.add(list);
+			region.markDynamicUpdates();
 		}
 	}
 
@@ -449,6 +452,8 @@ public class DynamicBlockUpdateTree {
 		}
 		chunkSet.add(update);
 
+		region.markDynamicUpdates();
+
 		return previous;
 	}
 
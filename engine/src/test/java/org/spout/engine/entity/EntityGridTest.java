@@ -0,0 +1,167 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.spout.api.component.entity.PhysicsComponent;
+import org.spout.api.geo.World;
+import org.spout.api.geo.discrete.Point;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EntityGridTest {
+	private final World world = Mockito.mock(World.class);
+	private final Random r = new Random();
+
+	@Test
+	public void testQueries() {
+		EntityGrid<SpoutEntity> grid = new EntityGrid<>(world, SpoutEntity.class);
+		List<SpoutEntity> entities = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			entities.add(mockEntity(r.nextFloat() * 200 - 100, r.nextFloat() * 64, r.nextFloat() * 200 - 100));
+		}
+		grid.update(entities);
+		assertEquals(entities.size(), grid.size());
+
+		for (int test = 0; test < 50; test++) {
+			final Point center = new Point(world, r.nextFloat() * 200 - 100, r.nextFloat() * 64, r.nextFloat() * 200 - 100);
+			int range = 1 + r.nextInt(60);
+
+			List<SpoutEntity> expected = new ArrayList<>();
+			for (SpoutEntity e : entities) {
+				if (center.distanceSquared(e.getPhysics().getPosition()) < range * range) {
+					expected.add(e);
+				}
+			}
+			List<SpoutEntity> found = new ArrayList<>();
+			grid.getInRange(center, null, range, found);
+			assertEquals(expected.size(), found.size());
+			assertTrue(found.containsAll(expected));
+
+			Collections.sort(expected, new Comparator<SpoutEntity>() {
+				@Override
+				public int compare(SpoutEntity a, SpoutEntity b) {
+					return Float.compare(center.distanceSquared(a.getPhysics().getPosition()), center.distanceSquared(b.getPhysics().getPosition()));
+				}
+			});
+			SpoutEntity[] nearest = new SpoutEntity[5];
+			int count = grid.getNearest(center, null, range, nearest);
+			assertEquals(Math.min(5, expected.size()), count);
+			assertEquals(expected.subList(0, count), Arrays.asList(nearest).subList(0, count));
+			if (expected.isEmpty()) {
+				assertNull(grid.getNearest(center, null, range));
+			} else {
+				assertSame(expected.get(0), grid.getNearest(center, null, range));
+			}
+		}
+	}
+
+	@Test
+	public void testMoveAndRemove() {
+		EntityGrid<SpoutEntity> grid = new EntityGrid<>(world, SpoutEntity.class);
+		SpoutEntity e = mockEntity(0.5f, 0.5f, 0.5f);
+		SpoutEntity ignored = mockEntity(1, 1, 1);
+		grid.update(Arrays.asList(e, ignored));
+		Point origin = new Point(world, 0, 0, 0);
+		assertSame(e, grid.getNearest(origin, ignored, 5));
+
+		Point moved = new Point(world, 100, 0, 0);
+		Mockito.when(e.getPhysics().getPosition()).thenReturn(moved);
+		grid.update(Collections.singletonList(e));
+		assertNull(grid.getNearest(origin, ignored, 5));
+		assertSame(e, grid.getNearest(moved, null, 1));
+
+		Mockito.when(e.isRemoved()).thenReturn(true);
+		grid.update(Collections.singletonList(e));
+		assertNull(grid.getNearest(moved, null, 1));
+		assertEquals(1, grid.size());
+
+		grid.remove(Collections.singletonList(ignored));
+		assertEquals(0, grid.size());
+	}
+
+	@Test
+	public void testParallelUpdates() throws InterruptedException {
+		final EntityGrid<SpoutEntity> grid = new EntityGrid<>(world, SpoutEntity.class);
+		final int threads = 4;
+		final List<List<SpoutEntity>> owned = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			List<SpoutEntity> entities = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				entities.add(mockEntity(r.nextFloat() * 64, r.nextFloat() * 64, r.nextFloat() * 64));
+			}
+			owned.add(entities);
+		}
+		List<Thread> workers = new ArrayList<>();
+		for (final List<SpoutEntity> entities : owned) {
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random();
+					for (int tick = 0; tick < 50; tick++) {
+						for (SpoutEntity e : entities) {
+							Point moved = new Point(world, random.nextFloat() * 64, random.nextFloat() * 64, random.nextFloat() * 64);
+							Mockito.when(e.getPhysics().getPosition()).thenReturn(moved);
+						}
+						grid.update(entities);
+					}
+				}
+			});
+		}
+		for (Thread t : workers) {
+			t.start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		assertEquals(threads * 100, grid.size());
+		List<SpoutEntity> found = new ArrayList<>();
+		grid.getInRange(new Point(world, 32, 32, 32), null, 100, found);
+		assertEquals("Entities were lost or duplicated by parallel updates", threads * 100, found.size());
+	}
+
+	private SpoutEntity mockEntity(float x, float y, float z) {
+		SpoutEntity e = Mockito.mock(SpoutEntity.class);
+		PhysicsComponent physics = Mockito.mock(PhysicsComponent.class);
+		Point position = new Point(world, x, y, z);
+		Mockito.when(e.getPhysics()).thenReturn(physics);
+		Mockito.when(physics.getPosition()).thenReturn(position);
+		return e;
+	}
+}
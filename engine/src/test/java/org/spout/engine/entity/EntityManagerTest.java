@@ -0,0 +1,59 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.entity;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EntityManagerTest {
+	@Test
+	public void testSyncRange() {
+		// Neighbouring cells touch, so they are always in range
+		assertTrue(EntityManager.isInSyncRange(0, 0, 0, 0));
+		assertTrue(EntityManager.isInSyncRange(1, -1, 1, 0));
+		assertFalse(EntityManager.isInSyncRange(2, 0, 0, 10));
+		assertTrue(EntityManager.isInSyncRange(2, 0, 0, 16));
+		assertTrue(EntityManager.isInSyncRange(-3, 2, 0, 36));
+		assertFalse(EntityManager.isInSyncRange(-3, 2, 0, 35));
+
+		// Every entity within the sync distance of a player is in range of its cell
+		Random r = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			int syncDistance = r.nextInt(64);
+			int ex = r.nextInt(256) - 128, ey = r.nextInt(256) - 128, ez = r.nextInt(256) - 128;
+			int px = r.nextInt(256) - 128, py = r.nextInt(256) - 128, pz = r.nextInt(256) - 128;
+			long dx = ex - px, dy = ey - py, dz = ez - pz;
+			if (dx * dx + dy * dy + dz * dz <= syncDistance * syncDistance) {
+				assertTrue(EntityManager.isInSyncRange((ex >> 4) - (px >> 4), (ey >> 4) - (py >> 4), (ez >> 4) - (pz >> 4), syncDistance));
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.filesystem.versioned;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.spout.api.lighting.ByteArrayCuboidLightBuffer;
+import org.spout.engine.filesystem.versioned.ChunkFiles.ChunkData;
+import org.spout.engine.world.SpoutChunk.PopulationState;
+import org.spout.engine.world.dynamic.DynamicBlockUpdate;
+import org.spout.nbt.ByteArrayTag;
+import org.spout.nbt.ByteTag;
+import org.spout.nbt.CompoundMap;
+import org.spout.nbt.CompoundTag;
+import org.spout.nbt.IntArrayTag;
+import org.spout.nbt.IntTag;
+import org.spout.nbt.ListTag;
+import org.spout.nbt.LongTag;
+import org.spout.nbt.ShortTag;
+import org.spout.nbt.StringTag;
+import org.spout.nbt.stream.NBTOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkFilesTest {
+	private static final int[] PALETTE = {0, 1 << 16, 2 << 16 | 3};
+	private static final int[] BLOCKS = {0x01234567, 0x76543210, 0x0F0F0F0F, 0x12121212};
+	private static final byte[] EXTRA_DATA = {4, 8, 15, 16, 23, 42};
+	private static final byte[] SKY_LIGHT = createLight(1);
+	private static final byte[] BLOCK_LIGHT = createLight(7);
+	private static final byte[] COMPONENT_DATA = {9, 8, 7};
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		ChunkData data = new ChunkData();
+		data.populationState = PopulationState.POPULATED.getId();
+		data.lightStable = true;
+		data.palette = PALETTE.clone();
+		data.blockArrayWidth = 2;
+		data.blocks = BLOCKS.clone();
+		data.extraData = EXTRA_DATA;
+		data.lightIds.add(3);
+		data.lightBuffers.add(new ByteArrayCuboidLightBuffer((short) 0, 0, 0, 0, 16, 16, 16, SKY_LIGHT));
+		data.lightIds.add(5);
+		data.lightBuffers.add(new ByteArrayCuboidLightBuffer((short) 1, 0, 0, 0, 16, 16, 16, BLOCK_LIGHT));
+		data.updates.add(new DynamicBlockUpdate(1, 2, 3, 100L, 7));
+		data.updates.add(new DynamicBlockUpdate(15, 0, 4, 200L, -1));
+		data.components.put((short) 0x123, COMPONENT_DATA);
+		data.entities = createEntities();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ChunkFiles.writeChunk(new DataOutputStream(bytes), 10, -2, 33, data);
+
+		ChunkData read = ChunkFiles.readChunk(new ByteArrayInputStream(bytes.toByteArray()));
+		assertNotNull("Binary chunk could not be read", read);
+		assertEquals(PopulationState.POPULATED.getId(), read.populationState);
+		assertTrue(read.lightStable);
+		assertArrayEquals(PALETTE, read.palette);
+		assertEquals(2, read.blockArrayWidth);
+		assertArrayEquals(BLOCKS, read.blocks);
+		assertArrayEquals(EXTRA_DATA, read.extraData);
+
+		assertEquals(2, read.lightIds.size());
+		assertEquals(3, (int) read.lightIds.get(0));
+		assertEquals(5, (int) read.lightIds.get(1));
+		assertArrayEquals(SKY_LIGHT, read.lightData.get(0));
+		assertArrayEquals(BLOCK_LIGHT, read.lightData.get(1));
+
+		assertUpdates(data.updates, read.updates);
+
+		assertEquals(1, read.components.size());
+		assertArrayEquals(COMPONENT_DATA, read.components.get((short) 0x123));
+
+		assertEntities(read.entities);
+	}
+
+	@Test
+	public void testNBTVersion5() throws IOException {
+		CompoundMap map = new CompoundMap();
+		map.put(new ByteTag("version", ChunkFiles.NBT_CHUNK_VERSION));
+		map.put(new ByteTag("populationState", PopulationState.UNTOUCHED.getId()));
+		map.put(new ByteTag("lightStable", (byte) 0));
+		map.put(new IntArrayTag("palette", PALETTE.clone()));
+		map.put(new IntTag("packedWidth", 2));
+		map.put(new IntArrayTag("packedBlockArray", BLOCKS.clone()));
+		map.put(new ByteArrayTag("extraData", EXTRA_DATA));
+		map.put(new CompoundTag("entities", createEntities()));
+
+		List<CompoundTag> updates = new ArrayList<>();
+		DynamicBlockUpdate update = new DynamicBlockUpdate(1, 2, 3, 100L, 7);
+		CompoundMap updateMap = new CompoundMap();
+		updateMap.put(new IntTag("packedPosition", update.getPacked()));
+		updateMap.put(new LongTag("nextUpdate", update.getNextUpdate()));
+		updateMap.put(new IntTag("data", update.getData()));
+		updates.add(new CompoundTag("update", updateMap));
+		map.put(new ListTag<>("dynamic_updates", CompoundTag.class, updates));
+
+		List<CompoundTag> components = new ArrayList<>();
+		CompoundMap componentMap = new CompoundMap();
+		componentMap.put(new ShortTag("packed", (short) 0x123));
+		componentMap.put(new ByteArrayTag("data", COMPONENT_DATA));
+		components.add(new CompoundTag("component", componentMap));
+		map.put(new ListTag<>("block_components", CompoundTag.class, components));
+
+		CompoundMap lightMap = new CompoundMap();
+		CompoundMap skyLight = new CompoundMap();
+		skyLight.put(new IntTag("manager_id", 3));
+		skyLight.put(new ByteArrayTag("light_data", SKY_LIGHT));
+		lightMap.put(new CompoundTag("sky", skyLight));
+		map.put(new CompoundTag("light_buffers", lightMap));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		NBTOutputStream os = new NBTOutputStream(bytes, false);
+		os.writeTag(new CompoundTag("chunk", map));
+		os.close();
+
+		ChunkData read = ChunkFiles.readChunk(new ByteArrayInputStream(bytes.toByteArray()));
+		assertNotNull("NBT chunk could not be read", read);
+		assertEquals(PopulationState.UNTOUCHED.getId(), read.populationState);
+		assertFalse(read.lightStable);
+		assertArrayEquals(PALETTE, read.palette);
+		assertEquals(2, read.blockArrayWidth);
+		assertArrayEquals(BLOCKS, read.blocks);
+		assertArrayEquals(EXTRA_DATA, read.extraData);
+
+		assertEquals(1, read.lightIds.size());
+		assertEquals(3, (int) read.lightIds.get(0));
+		assertArrayEquals(SKY_LIGHT, read.lightData.get(0));
+
+		List<DynamicBlockUpdate> expected = new ArrayList<>();
+		expected.add(update);
+		assertUpdates(expected, read.updates);
+
+		assertEquals(1, read.components.size());
+		assertArrayEquals(COMPONENT_DATA, read.components.get((short) 0x123));
+
+		assertEntities(read.entities);
+	}
+
+	private static byte[] createLight(int seed) {
+		byte[] light = new byte[2048];
+		for (int i = 0; i < light.length; i++) {
+			light[i] = (byte) (i * seed);
+		}
+		return light;
+	}
+
+	private static CompoundMap createEntities() {
+		CompoundMap entities = new CompoundMap();
+		entities.put(new StringTag("name", "test"));
+		entities.put(new IntTag("count", 3));
+		return entities;
+	}
+
+	private static void assertEntities(CompoundMap entities) {
+		assertNotNull("Entities were not read", entities);
+		assertEquals("test", entities.get("name").getValue());
+		assertEquals(3, entities.get("count").getValue());
+	}
+
+	private static void assertUpdates(List<DynamicBlockUpdate> expected, List<DynamicBlockUpdate> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getPacked(), actual.get(i).getPacked());
+			assertEquals(expected.get(i).getNextUpdate(), actual.get(i).getNextUpdate());
+			assertEquals(expected.get(i).getData(), actual.get(i).getData());
+		}
+	}
+}
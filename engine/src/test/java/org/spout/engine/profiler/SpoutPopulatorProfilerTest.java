@@ -0,0 +1,146 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.spout.api.generator.Populator;
+import org.spout.api.geo.cuboid.Chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpoutPopulatorProfilerTest {
+	@Test
+	public void testRecording() {
+		SpoutPopulatorProfiler profiler = new SpoutPopulatorProfiler();
+		assertNull(profiler.getPopulatorTiming(AllocatingPopulator.class));
+		Populator populator = new AllocatingPopulator();
+		for (int i = 0; i < 10; i++) {
+			profiler.populate(populator, null, new Random());
+		}
+		PopulatorTiming timing = profiler.getPopulatorTiming(AllocatingPopulator.class);
+		assertNotNull(timing);
+		assertEquals(10, timing.getCount());
+		assertEquals("Spout", timing.getOwner());
+		if (profiler.isAllocationSupported()) {
+			assertTrue("Allocation not recorded", timing.getMeanAllocatedBytes() >= AllocatingPopulator.SIZE);
+		}
+		assertEquals(timing, profiler.findPopulatorTiming("AllocatingPopulator"));
+		assertEquals(1, profiler.getPopulatorSummary().length);
+		profiler.reset();
+		assertEquals(0, timing.getCount());
+		assertEquals(0, timing.getAllocatedBytes());
+	}
+
+	@Test
+	public void testFailingPopulator() {
+		SpoutPopulatorProfiler profiler = new SpoutPopulatorProfiler();
+		try {
+			profiler.populate(new FailingPopulator(), null, new Random());
+			fail("The populator exception should be rethrown");
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(1, profiler.getPopulatorTiming(FailingPopulator.class).getCount());
+	}
+
+	@Test
+	public void testBudget() {
+		SpoutPopulatorProfiler profiler = new SpoutPopulatorProfiler();
+		Populator populator = new SpinningPopulator();
+		for (int i = 0; i < SpoutPopulatorProfiler.MIN_SAMPLES - 1; i++) {
+			profiler.populate(populator, null, new Random());
+		}
+		assertFalse("No budget is set", profiler.shouldDefer(populator));
+		profiler.setDefaultBudgetNanos(1);
+		assertFalse("Too few samples to defer", profiler.shouldDefer(populator));
+		profiler.populate(populator, null, new Random());
+		assertTrue("Over the default budget", profiler.shouldDefer(populator));
+		PopulatorTiming timing = profiler.getPopulatorTiming(SpinningPopulator.class);
+		timing.setBudgetNanos(Long.MAX_VALUE);
+		assertFalse("The populator budget overrides the default", profiler.shouldDefer(populator));
+		timing.setBudgetNanos(0);
+		profiler.setDefaultBudgetNanos(0);
+		assertFalse("Budgets were cleared", profiler.shouldDefer(populator));
+		assertEquals(1, timing.getDeferred());
+	}
+
+	@Test
+	public void testRecentRuns() {
+		SpoutPopulatorProfiler profiler = new SpoutPopulatorProfiler();
+		Populator populator = new SpinningPopulator();
+		profiler.populate(populator, null, new Random());
+		PopulatorTiming timing = profiler.getPopulatorTiming(SpinningPopulator.class);
+		for (int i = 0; i < 100; i++) {
+			timing.record(10000000, -1);
+		}
+		timing.setBudgetNanos(5000000);
+		assertTrue("Slow recent runs are over the budget", profiler.shouldDefer(populator));
+
+		// Once the populator speeds up it is no longer deferred, although its lifetime mean is still over the budget
+		for (int i = 0; i < 100; i++) {
+			timing.record(1000000, -1);
+		}
+		assertTrue(timing.getMeanNanos() > 5000000);
+		assertTrue(timing.getRecentMeanNanos() < 2000000);
+		assertFalse("Fast recent runs are within the budget", profiler.shouldDefer(populator));
+		profiler.reset();
+		assertEquals(0, timing.getRecentMeanNanos(), 0);
+	}
+
+	private static class AllocatingPopulator extends Populator {
+		private static final int SIZE = 1 << 20;
+		private byte[] last;
+
+		@Override
+		public void populate(Chunk chunk, Random random) {
+			last = new byte[SIZE];
+		}
+	}
+
+	private static class SpinningPopulator extends Populator {
+		@Override
+		public void populate(Chunk chunk, Random random) {
+			long end = System.nanoTime() + 100000;
+			while (System.nanoTime() < end) {
+			}
+		}
+	}
+
+	private static class FailingPopulator extends Populator {
+		@Override
+		public void populate(Chunk chunk, Random random) {
+			throw new IllegalStateException();
+		}
+	}
+}
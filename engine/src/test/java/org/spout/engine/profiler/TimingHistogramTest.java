@@ -0,0 +1,75 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.profiler;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingHistogramTest {
+	@Test
+	public void testIndex() {
+		for (int i = 0; i < TimingHistogram.SUB_BUCKETS; i++) {
+			assertEquals("Small values should have exact buckets", i, TimingHistogram.getIndex(i));
+		}
+		Random r = new Random();
+		for (int i = 0; i < 10000; i++) {
+			long value = (r.nextLong() & Long.MAX_VALUE) % TimingHistogram.MAX_VALUE;
+			int index = TimingHistogram.getIndex(value);
+			long highest = TimingHistogram.getHighestValue(index);
+			assertTrue("Value " + value + " above bucket limit " + highest, value <= highest);
+			if (index > 0) {
+				assertTrue("Value " + value + " belongs in a lower bucket", value > TimingHistogram.getHighestValue(index - 1));
+			}
+			assertTrue("Bucket error too large for " + value, highest - value <= (value >> 4) + 1);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		TimingHistogram h = new TimingHistogram("test");
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i * 1000L);
+		}
+		assertEquals(1000, h.getCount());
+		assertEquals(1000000L, h.getMaxNanos());
+		assertEquals(500500.0, h.getMeanNanos(), 0.001);
+		assertWithin(500000L, h.getP50Nanos());
+		assertWithin(900000L, h.getP90Nanos());
+		assertWithin(990000L, h.getP99Nanos());
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getP99Nanos());
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("Expected " + expected + " but got " + actual, Math.abs(expected - actual) <= expected / 16);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.protocol.builtin.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.material.block.BlockFullState;
+import org.spout.api.util.cuboid.CuboidLightBuffer;
+import org.spout.api.util.map.concurrent.palette.AtomicPaletteBlockStore;
+import org.spout.engine.protocol.builtin.message.ChunkDataMessage;
+import org.spout.engine.world.SpoutChunkSnapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ChunkDataCodecTest {
+	private final ChunkDataCodec codec = new ChunkDataCodec(0);
+	private final Random r = new Random();
+
+	@Test
+	public void testArrays() throws IOException {
+		short[] ids = new short[Chunk.BLOCKS.VOLUME];
+		short[] data = new short[Chunk.BLOCKS.VOLUME];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = (short) r.nextInt();
+			data[i] = (short) r.nextInt();
+		}
+		byte[] biomes = new byte[Chunk.BLOCKS.AREA];
+		r.nextBytes(biomes);
+		Map<Short, byte[]> light = randomLight();
+
+		ChunkDataMessage decoded = roundTrip(new ChunkDataMessage(1, -2, 3, ids, data, biomes, "test.Biomes", light));
+		assertEquals(-2, decoded.getY());
+		assertArrayEquals(ids, decoded.getBlockIds());
+		assertArrayEquals(data, decoded.getBlockData());
+		assertArrayEquals(biomes, decoded.getBiomeData());
+		assertEquals("test.Biomes", decoded.getBiomeManagerClass());
+		assertLightEquals(light, decoded.getLight());
+	}
+
+	@Test
+	public void testPalette() throws IOException {
+		short[] ids = new short[Chunk.BLOCKS.VOLUME];
+		short[] data = new short[Chunk.BLOCKS.VOLUME];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = (short) r.nextInt(5);
+			data[i] = (short) r.nextInt(2);
+		}
+		AtomicPaletteBlockStore store = new AtomicPaletteBlockStore(Chunk.BLOCKS.BITS, false, true, 10, ids, data);
+		Map<Short, byte[]> light = randomLight();
+
+		ChunkDataMessage decoded = roundTrip(new ChunkDataMessage(0, 0, 0, store.getPalette(), store.getPackedWidth(), store.getPackedArray(), null, null, light));
+		assertArrayEquals(ids, decoded.getBlockIds());
+		assertArrayEquals(data, decoded.getBlockData());
+		assertNull(decoded.getBiomeData());
+		assertLightEquals(light, decoded.getLight());
+	}
+
+	@Test
+	public void testUniform() throws IOException {
+		short[] ids = new short[Chunk.BLOCKS.VOLUME];
+		short[] data = new short[Chunk.BLOCKS.VOLUME];
+		Arrays.fill(ids, (short) 0x8001);
+		Arrays.fill(data, (short) 7);
+		Map<Short, byte[]> light = new HashMap<>();
+		byte[] sky = new byte[Chunk.BLOCKS.HALF_VOLUME];
+		Arrays.fill(sky, (byte) 0xFF);
+		light.put((short) 2, sky);
+
+		ChunkDataMessage message = new ChunkDataMessage(0, 0, 0, ids, data, null, null, light);
+		ByteBuf encoded = codec.encode(message);
+		// Uniform chunks are sent uncompressed: header, one block state and a byte per light manager
+		assertEquals(1 + 3 * 4 + 2 + 4 + 3, encoded.readableBytes());
+		ChunkDataMessage decoded = codec.decode(encoded);
+		encoded.release();
+		assertEquals(message, decoded);
+		assertLightEquals(light, decoded.getLight());
+	}
+
+	@Test
+	public void testSharedPayload() throws IOException {
+		int[] packed = new int[Chunk.BLOCKS.VOLUME];
+		for (int i = 0; i < packed.length; i++) {
+			packed[i] = r.nextInt();
+		}
+		SpoutChunkSnapshot snapshot = Mockito.mock(SpoutChunkSnapshot.class);
+		Mockito.when(snapshot.getPalette()).thenReturn(new int[0]);
+		Mockito.when(snapshot.getPackedBlockArray()).thenReturn(packed);
+		Mockito.when(snapshot.getLightBuffers()).thenReturn(new CuboidLightBuffer[0]);
+		ChunkDataMessage message = new ChunkDataMessage(snapshot, true);
+
+		ByteBuf first = codec.encode(message);
+		ByteBuf payload = message.getSharedPayload();
+		assertNotNull(payload);
+		// Cached payloads must not go back to the pool, where a racing retain could pick up another allocation
+		assertFalse(payload.alloc() instanceof PooledByteBufAllocator);
+		assertEquals(payload.readableBytes(), payload.capacity());
+		ByteBuf second = codec.encode(message);
+		assertSame("Shared messages should only be encoded once", payload, message.getSharedPayload());
+		assertEquals(3, payload.refCnt());
+		assertEquals(first, second);
+
+		ChunkDataMessage decoded = codec.decode(first);
+		assertEquals(BlockFullState.getId(packed[5]), decoded.getBlockIds()[5]);
+		first.release();
+		second.release();
+		message.releaseSharedPayload();
+		assertEquals(0, payload.refCnt());
+		assertNull(message.getSharedPayload());
+
+		ByteBuf stale = codec.encode(message);
+		assertNull("Released messages should not keep a new payload", message.getSharedPayload());
+		assertEquals(1, stale.refCnt());
+		stale.release();
+		assertEquals(0, stale.refCnt());
+	}
+
+	private ChunkDataMessage roundTrip(ChunkDataMessage message) throws IOException {
+		ByteBuf encoded = codec.encode(message);
+		try {
+			return codec.decode(encoded);
+		} finally {
+			encoded.release();
+		}
+	}
+
+	private Map<Short, byte[]> randomLight() {
+		Map<Short, byte[]> light = new HashMap<>();
+		for (short id = 0; id < 2; id++) {
+			byte[] data = new byte[Chunk.BLOCKS.HALF_VOLUME];
+			r.nextBytes(data);
+			light.put(id, data);
+		}
+		return light;
+	}
+
+	private static void assertLightEquals(Map<Short, byte[]> expected, Map<Short, byte[]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<Short, byte[]> e : expected.entrySet()) {
+			assertArrayEquals(e.getValue(), actual.get(e.getKey()));
+		}
+	}
+}
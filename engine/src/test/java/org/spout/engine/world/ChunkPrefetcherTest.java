@@ -0,0 +1,120 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.spout.api.geo.cuboid.ChunkSnapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChunkPrefetcherTest {
+	private static final File directory = new File("target/prefetch");
+
+	@Test
+	public void testPrefetch() throws IOException, InterruptedException {
+		clean(new File(directory, "region"));
+		RegionFileManager manager = new RegionFileManager(directory);
+		try {
+			ChunkPrefetcher prefetcher = manager.getPrefetcher();
+			byte[] data = new byte[10000];
+			new Random(1).nextBytes(data);
+			write(manager, 1, 2, 3, data);
+
+			assertTrue("Read was not queued", prefetcher.prefetch(1, 2, 3));
+			assertTrue("Read was not queued", prefetcher.prefetch(4, 5, 6));
+			await(prefetcher);
+
+			assertEquals("Chunk that was never written was cached", 1, prefetcher.getCachedChunks());
+			assertFalse("Cached chunk was read again", prefetcher.prefetch(1, 2, 3));
+			assertArrayEquals("Prefetched data does not match the written data", data, prefetcher.take(1, 2, 3));
+			assertNull("Chunk was taken twice", prefetcher.take(1, 2, 3));
+			assertNull("Chunk that was never written was taken", prefetcher.take(4, 5, 6));
+			assertEquals(1, prefetcher.getHits());
+
+			// Data read before a write must not be used after it
+			assertTrue("Read was not queued", prefetcher.prefetch(1, 2, 3));
+			await(prefetcher);
+			assertEquals(1, prefetcher.getCachedChunks());
+			write(manager, 1, 2, 3, Arrays.copyOf(data, 5000));
+			assertNull("Chunk cached before the write was taken", prefetcher.take(1, 2, 3));
+			assertEquals(1, prefetcher.getInvalidated());
+
+			// A read started while the chunk is written must be discarded when the write completes
+			try (OutputStream out = manager.getChunkOutputStream(snapshot(1, 2, 3))) {
+				assertTrue("Read was not queued", prefetcher.prefetch(1, 2, 3));
+				out.write(Arrays.copyOf(data, 2000));
+			}
+			await(prefetcher);
+			assertNull("Chunk read during the write was taken", prefetcher.take(1, 2, 3));
+			assertEquals(2, prefetcher.getInvalidated());
+		} finally {
+			manager.closeAll();
+		}
+	}
+
+	private static void write(RegionFileManager manager, int x, int y, int z, byte[] data) throws IOException {
+		try (OutputStream out = manager.getChunkOutputStream(snapshot(x, y, z))) {
+			out.write(data);
+		}
+	}
+
+	private static ChunkSnapshot snapshot(int x, int y, int z) {
+		ChunkSnapshot snapshot = mock(ChunkSnapshot.class);
+		when(snapshot.getX()).thenReturn(x);
+		when(snapshot.getY()).thenReturn(y);
+		when(snapshot.getZ()).thenReturn(z);
+		return snapshot;
+	}
+
+	private static void await(ChunkPrefetcher prefetcher) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (prefetcher.getPendingReads() > 0) {
+			assertTrue("Prefetch did not complete", System.currentTimeMillis() < timeout);
+			Thread.sleep(5);
+		}
+	}
+
+	private static void clean(File dir) {
+		dir.mkdirs();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+	}
+}
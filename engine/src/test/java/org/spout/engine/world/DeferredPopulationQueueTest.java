@@ -0,0 +1,141 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.spout.api.generator.Populator;
+import org.spout.api.generator.WorldGenerator;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.scheduler.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DeferredPopulationQueueTest {
+	@Test
+	public void testDeferredPopulation() {
+		Scheduler scheduler = mock(Scheduler.class);
+		when(scheduler.getRemainingTickTime()).thenReturn(50L);
+		final DeferredPopulationQueue queue = new DeferredPopulationQueue(scheduler);
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		List<SpoutChunk> chunks = new ArrayList<>();
+		for (int x = 0; x < 4; x++) {
+			final SpoutChunk chunk = chunk(x * 10, 0, 0);
+			// A populator over its budget defers the chunk instead of populating it
+			when(chunk.populate()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) {
+					queue.defer(chunk);
+					return false;
+				}
+			});
+			when(chunk.populateDeferred()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) {
+					threads.add(Thread.currentThread());
+					return true;
+				}
+			});
+			chunks.add(chunk);
+		}
+		world(chunks);
+
+		PopulationScheduler population = new PopulationScheduler(scheduler);
+		assertEquals(0, population.populate(chunks));
+		for (SpoutChunk chunk : chunks) {
+			assertTrue("Chunk was not deferred", queue.contains(chunk));
+			assertFalse("Chunk was deferred twice", queue.defer(chunk));
+		}
+
+		// Deferred chunks wait for spare tick time
+		when(scheduler.getRemainingTickTime()).thenReturn(DeferredPopulationQueue.SPARE_TICK_TIME);
+		assertTrue(queue.poll(chunks.size()).isEmpty());
+
+		// They are then populated in the order they were deferred on the population threads
+		when(scheduler.getRemainingTickTime()).thenReturn(50L);
+		List<SpoutChunk> deferred = queue.poll(chunks.size());
+		assertEquals(chunks, deferred);
+		assertEquals(4, population.populateDeferred(deferred));
+		assertEquals(4, threads.size());
+		assertFalse(threads.contains(Thread.currentThread()));
+		for (SpoutChunk chunk : chunks) {
+			assertFalse(queue.contains(chunk));
+		}
+	}
+
+	@Test
+	public void testMaxDeferral() throws InterruptedException {
+		Scheduler scheduler = mock(Scheduler.class);
+		when(scheduler.getRemainingTickTime()).thenReturn(0L);
+		when(scheduler.isServerOverloaded()).thenReturn(true);
+		DeferredPopulationQueue queue = new DeferredPopulationQueue(scheduler, 50);
+		SpoutChunk first = chunk(0, 0, 0);
+		SpoutChunk second = chunk(10, 0, 0);
+		queue.defer(first);
+		assertTrue("Chunk was taken without spare tick time", queue.poll(1).isEmpty());
+
+		// A chunk which has waited for the maximum deferral is taken even on an overloaded server
+		Thread.sleep(100);
+		queue.defer(second);
+		assertEquals(Collections.singletonList(first), queue.poll(2));
+		assertTrue(queue.contains(second));
+	}
+
+	private static void world(List<SpoutChunk> chunks) {
+		Populator populator = new Populator(false, true) {
+			@Override
+			public void populate(Chunk chunk, Random random) {
+			}
+		};
+		WorldGenerator generator = mock(WorldGenerator.class);
+		when(generator.getPopulators()).thenReturn(new Populator[] {populator});
+		SpoutWorld world = mock(SpoutWorld.class);
+		when(world.getGenerator()).thenReturn(generator);
+		for (SpoutChunk chunk : chunks) {
+			when(chunk.getWorld()).thenReturn(world);
+		}
+	}
+
+	private static SpoutChunk chunk(int x, int y, int z) {
+		SpoutChunk chunk = mock(SpoutChunk.class);
+		when(chunk.getX()).thenReturn(x);
+		when(chunk.getY()).thenReturn(y);
+		when(chunk.getZ()).thenReturn(z);
+		return chunk;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.spout.api.geo.LoadOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GenerationSchedulerTest {
+	@Test
+	public void testPriorityOrder() throws InterruptedException {
+		GenerationScheduler scheduler = new GenerationScheduler(1);
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			// Occupy the only thread so that the following tasks are queued
+			scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, 0);
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			final CountDownLatch done = new CountDownLatch(5);
+			double[] priorities = {5.0, 1.0, 1.0E9, 3.0, 1.0};
+			for (int i = 0; i < priorities.length; i++) {
+				final int id = i;
+				scheduler.execute(new Runnable() {
+					@Override
+					public void run() {
+						order.add(id);
+						done.countDown();
+					}
+				}, priorities[i]);
+			}
+			assertEquals(5, scheduler.getQueueSize());
+			release.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			// Equal priorities run in the order they were queued
+			assertEquals(Arrays.asList(1, 4, 3, 0, 2), order);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testPregeneration() throws InterruptedException {
+		final GenerationScheduler scheduler = new GenerationScheduler(4);
+		try {
+			final Set<Long> columns = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+			final AtomicInteger duplicates = new AtomicInteger(0);
+			final AtomicInteger maxQueued = new AtomicInteger(0);
+			final SpoutColumn column = mock(SpoutColumn.class);
+			SpoutWorld world = mock(SpoutWorld.class);
+			// Every column is already generated, so the tasks only record which columns were visited
+			when(world.getColumn(anyInt(), anyInt(), eq(LoadOption.LOAD_ONLY))).thenAnswer(new Answer<SpoutColumn>() {
+				@Override
+				public SpoutColumn answer(InvocationOnMock invocation) {
+					Object[] args = invocation.getArguments();
+					long key = ((long) (Integer) args[0] << 32) | ((Integer) args[1] & 0xFFFFFFFFL);
+					if (!columns.add(key)) {
+						duplicates.incrementAndGet();
+					}
+					int queued = scheduler.getQueueSize();
+					int max;
+					while (queued > (max = maxQueued.get()) && !maxQueued.compareAndSet(max, queued)) {
+					}
+					return column;
+				}
+			});
+
+			final int radius = 50;
+			GenerationScheduler.Pregeneration pregeneration = scheduler.pregenerate(world, 100, -100, radius);
+			int expected = 0;
+			for (int x = -radius; x <= radius; x++) {
+				for (int z = -radius; z <= radius; z++) {
+					if (x * x + z * z <= radius * radius) {
+						expected++;
+					}
+				}
+			}
+			assertEquals(expected, pregeneration.getTotal());
+			assertTrue(scheduler.getQueueSize() <= 256);
+			for (int i = 0; i < 1000 && !pregeneration.isDone(); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(pregeneration.isDone());
+			assertEquals(expected, columns.size());
+			assertEquals(0, duplicates.get());
+			assertTrue(columns.contains(100L << 32 | (-100 & 0xFFFFFFFFL)));
+			assertTrue(maxQueued.get() <= 256);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testPregenerationCancel() throws InterruptedException {
+		GenerationScheduler scheduler = new GenerationScheduler(1);
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final SpoutColumn column = mock(SpoutColumn.class);
+			SpoutWorld world = mock(SpoutWorld.class);
+			when(world.getColumn(anyInt(), anyInt(), eq(LoadOption.LOAD_ONLY))).thenAnswer(new Answer<SpoutColumn>() {
+				@Override
+				public SpoutColumn answer(InvocationOnMock invocation) throws InterruptedException {
+					started.countDown();
+					release.await();
+					return column;
+				}
+			});
+
+			GenerationScheduler.Pregeneration pregeneration = scheduler.pregenerate(world, 0, 0, GenerationScheduler.MAX_PREGENERATION_RADIUS);
+			// Only a window of the millions of columns is queued
+			assertTrue(scheduler.getQueueSize() <= 256);
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			pregeneration.cancel();
+			scheduler.shutdown();
+			release.countDown();
+			assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+			assertTrue(pregeneration.isCancelled());
+			assertFalse(pregeneration.isDone());
+			assertTrue(pregeneration.getCompleted() <= 257);
+			assertEquals(pregeneration.getCompleted() - 1, scheduler.getCancelled());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPregenerationRadius() {
+		GenerationScheduler scheduler = new GenerationScheduler(1);
+		try {
+			scheduler.pregenerate(mock(SpoutWorld.class), 0, 0, GenerationScheduler.MAX_PREGENERATION_RADIUS + 1);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testThreads() {
+		GenerationScheduler scheduler = new GenerationScheduler(4);
+		try {
+			scheduler.setThreads(2);
+			assertEquals(2, scheduler.getThreads());
+			scheduler.setThreads(8);
+			assertEquals(8, scheduler.getThreads());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of Spout.
+ *
+ * Copyright (c) 2011 Spout LLC <http://www.spout.org/>
+ * Spout is licensed under the Spout License Version 1.
+ *
+ * Spout is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * Spout is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+package org.spout.engine.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.spout.api.generator.Populator;
+import org.spout.api.generator.WorldGenerator;
+import org.spout.api.geo.cuboid.Chunk;
+import org.spout.api.scheduler.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PopulationSchedulerTest {
+	@Test
+	public void testWaves() {
+		SpoutChunk a = chunk(0, 0, 0);
+		SpoutChunk b = chunk(1, 0, 0);
+		SpoutChunk c = chunk(3, 0, 0);
+		SpoutChunk d = chunk(0, 0, 3);
+		SpoutChunk e = chunk(2, 0, 2);
+		SpoutChunk f = chunk(0, 3, 0);
+		List<List<SpoutChunk>> waves = PopulationScheduler.getWaves(Arrays.asList(a, b, c, d, e, f), PopulationScheduler.CONFLICT_DISTANCE);
+		assertEquals(3, waves.size());
+		assertEquals(Arrays.asList(a, c, d, f), waves.get(0));
+		assertEquals(Arrays.asList(b), waves.get(1));
+		assertEquals(Arrays.asList(e), waves.get(2));
+
+		// No two chunks of a wave may share a neighbour
+		for (List<SpoutChunk> wave : waves) {
+			for (int i = 0; i < wave.size(); i++) {
+				SpoutChunk chunk = wave.get(i);
+				assertFalse(PopulationScheduler.conflicts(wave.subList(i + 1, wave.size()), chunk.getX(), chunk.getY(), chunk.getZ(), PopulationScheduler.CONFLICT_DISTANCE));
+			}
+		}
+	}
+
+	@Test
+	public void testConflicts() {
+		List<SpoutChunk> wave = Arrays.asList(chunk(10, 4, -10));
+		int distance = PopulationScheduler.CONFLICT_DISTANCE;
+		assertTrue(PopulationScheduler.conflicts(wave, 12, 6, -8, distance));
+		assertTrue(PopulationScheduler.conflicts(wave, 8, 2, -12, distance));
+		assertFalse(PopulationScheduler.conflicts(wave, 13, 4, -10, distance));
+		assertFalse(PopulationScheduler.conflicts(wave, 10, 1, -10, distance));
+		assertFalse(PopulationScheduler.conflicts(wave, 10, 4, -13, distance));
+
+		// Clearance populates the chunks next to both chunks
+		distance = PopulationScheduler.CLEARANCE_CONFLICT_DISTANCE;
+		assertTrue(PopulationScheduler.conflicts(wave, 13, 4, -10, distance));
+		assertTrue(PopulationScheduler.conflicts(wave, 14, 0, -6, distance));
+		assertFalse(PopulationScheduler.conflicts(wave, 15, 4, -10, distance));
+	}
+
+	@Test
+	public void testPopulators() {
+		Populator safe = populator(false, true);
+		Populator clearance = populator(true, true);
+		Populator unsafe = populator(false, false);
+		assertTrue(PopulationScheduler.isThreadSafe(new Populator[] {safe, clearance}));
+		assertFalse(PopulationScheduler.isThreadSafe(new Populator[] {safe, unsafe}));
+		assertEquals(PopulationScheduler.CONFLICT_DISTANCE, PopulationScheduler.getConflictDistance(new Populator[] {safe, unsafe}));
+		assertEquals(PopulationScheduler.CLEARANCE_CONFLICT_DISTANCE, PopulationScheduler.getConflictDistance(new Populator[] {safe, clearance}));
+	}
+
+	@Test
+	public void testRegionThread() {
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		List<SpoutChunk> chunks = new ArrayList<>();
+		for (int x = 0; x < 4; x++) {
+			SpoutChunk chunk = chunk(x * 10, 0, 0);
+			when(chunk.populate()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) {
+					threads.add(Thread.currentThread());
+					return true;
+				}
+			});
+			chunks.add(chunk);
+		}
+		Scheduler scheduler = mock(Scheduler.class);
+		when(scheduler.getRemainingTickTime()).thenReturn(50L);
+
+		// Chunks far apart are populated concurrently only when every populator is thread safe
+		world(chunks, populator(false, true), populator(false, false));
+		assertEquals(4, new PopulationScheduler(scheduler).populate(chunks));
+		assertEquals(Collections.nCopies(4, Thread.currentThread()), threads);
+
+		threads.clear();
+		world(chunks, populator(false, true));
+		assertEquals(4, new PopulationScheduler(scheduler).populate(chunks));
+		assertEquals(4, threads.size());
+		assertFalse(threads.contains(Thread.currentThread()));
+	}
+
+	private static Populator populator(boolean needsClearance, boolean threadSafe) {
+		return new Populator(needsClearance, threadSafe) {
+			@Override
+			public void populate(Chunk chunk, Random random) {
+			}
+		};
+	}
+
+	private static void world(List<SpoutChunk> chunks, Populator... populators) {
+		WorldGenerator generator = mock(WorldGenerator.class);
+		when(generator.getPopulators()).thenReturn(populators);
+		SpoutWorld world = mock(SpoutWorld.class);
+		when(world.getGenerator()).thenReturn(generator);
+		for (SpoutChunk chunk : chunks) {
+			when(chunk.getWorld()).thenReturn(world);
+		}
+	}
+
+	private static SpoutChunk chunk(int x, int y, int z) {
+		SpoutChunk chunk = mock(SpoutChunk.class);
+		when(chunk.getX()).thenReturn(x);
+		when(chunk.getY()).thenReturn(y);
+		when(chunk.getZ()).thenReturn(z);
+		return chunk;
+	}
+}